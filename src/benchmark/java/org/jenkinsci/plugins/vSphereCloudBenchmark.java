@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins;
+
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.vsphere.benchmark.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of {@link vSphereCloud#getTemplates(Label)}, which the
+ * NodeProvisioner calls (via canProvision and provision) for every label with
+ * queued work, on every provisioning cycle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class vSphereCloudBenchmark {
+    @Param({ "1", "10", "100", "500" })
+    public int templates;
+
+    private vSphereCloud cloud;
+    private Label label;
+
+    @Setup
+    public void setup() {
+        final List<vSphereCloudSlaveTemplate> ts = BenchmarkFixtures.createTemplates(templates, 1);
+        cloud = BenchmarkFixtures.createCloud(ts);
+        label = new LabelAtom("someLabel");
+    }
+
+    @Benchmark
+    public List<vSphereCloudSlaveTemplate> getTemplatesForNullLabel() {
+        return cloud.getTemplates(null);
+    }
+
+    @Benchmark
+    public List<vSphereCloudSlaveTemplate> getTemplatesForLabel() {
+        return cloud.getTemplates(label);
+    }
+}
@@ -0,0 +1,70 @@
+package org.jenkinsci.plugins.vsphere.benchmark;
+
+import hudson.model.Node.Mode;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jenkinsci.plugins.vSphereCloud;
+import org.jenkinsci.plugins.vSphereCloudSlaveTemplate;
+import org.jenkinsci.plugins.vsphere.VSphereConnectionConfig;
+import org.jenkinsci.plugins.vsphere.VSphereGuestInfoProperty;
+
+/**
+ * Builds the objects that the benchmarks work on.
+ * <p>
+ * Note: There's no Jenkins instance when benchmarking, so the templates can't
+ * be given labels (parsing a label string requires Jenkins). They alternate
+ * between {@link Mode#NORMAL} and {@link Mode#EXCLUSIVE} instead, so that both
+ * code paths get exercised.
+ * </p>
+ */
+public final class BenchmarkFixtures {
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @param numberOfTemplates
+     *            How many templates to create.
+     * @param instanceCap
+     *            The instance cap to give each template.
+     * @return A list of templates with distinct clone name prefixes.
+     */
+    public static List<vSphereCloudSlaveTemplate> createTemplates(int numberOfTemplates, int instanceCap) {
+        final List<vSphereCloudSlaveTemplate> templates = new ArrayList<vSphereCloudSlaveTemplate>(numberOfTemplates);
+        for (int i = 0; i < numberOfTemplates; i++) {
+            final Mode mode = i % 2 == 0 ? Mode.NORMAL : Mode.EXCLUSIVE;
+            templates.add(new vSphereCloudSlaveTemplate("prefix" + i, "masterImageName", null, "snapshotName", false,
+                    "cluster", "resourcePool", "datastore", "folder", "customizationSpec", "templateDescription",
+                    instanceCap, 1, "remoteFS", "", mode, false, false, 0, 0, false, "targetResourcePool",
+                    "targetHost", null, new JNLPLauncher(), RetentionStrategy.NOOP,
+                    Collections.<NodeProperty<?>> emptyList(), Collections.<VSphereGuestInfoProperty> emptyList()));
+        }
+        return templates;
+    }
+
+    /**
+     * @param templates
+     *            The templates the cloud should have.
+     * @return A cloud that isn't connected to anything.
+     */
+    public static vSphereCloud createCloud(List<vSphereCloudSlaveTemplate> templates) {
+        final VSphereConnectionConfig vsConnectionConfig = new VSphereConnectionConfig("vsHost", "credentialsId");
+        return new vSphereCloud(vsConnectionConfig, "vsDescription", 0, 0, templates);
+    }
+
+    /**
+     * @param template
+     *            The template.
+     * @param index
+     *            Which node this is.
+     * @return A node name unique to the template and index.
+     */
+    public static String nodeName(vSphereCloudSlaveTemplate template, int index) {
+        return template.getCloneNamePrefix() + "_" + index;
+    }
+}
@@ -0,0 +1,28 @@
+package org.jenkinsci.plugins.vsphere.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with allocation profiling turned on. Any arguments
+ * are passed to JMH, so the usual JMH command-line options (e.g. a benchmark
+ * name regex, or <code>-p templates=500</code>) can be used.
+ */
+public final class BenchmarkRunner {
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        final OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLineOptions);
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            builder.include("org\\.jenkinsci\\.plugins\\..*Benchmark");
+        }
+        final Options options = builder.addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,72 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.vSphereCloudSlaveTemplate;
+import org.jenkinsci.plugins.vsphere.benchmark.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of the decisions {@link CloudProvisioningAlgorithm} makes
+ * each time Jenkins asks a cloud to provision something.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloudProvisioningAlgorithmBenchmark {
+    @Param({ "1", "10", "100", "500" })
+    public int templates;
+
+    @Param({ "10", "1000", "10000" })
+    public int nodes;
+
+    private List<CloudProvisioningRecord> records;
+    private CloudProvisioningRecord busiestRecord;
+
+    @Setup
+    public void setup() {
+        final int nodesPerTemplate = (nodes + templates - 1) / templates;
+        final List<vSphereCloudSlaveTemplate> ts = BenchmarkFixtures.createTemplates(templates, nodesPerTemplate * 2);
+        records = new ArrayList<CloudProvisioningRecord>(templates);
+        int nodesLeft = nodes;
+        for (final vSphereCloudSlaveTemplate t : ts) {
+            final CloudProvisioningRecord record = new CloudProvisioningRecord(t);
+            for (int i = 0; i < nodesPerTemplate && nodesLeft > 0; i++, nodesLeft--) {
+                final String nodeName = BenchmarkFixtures.nodeName(t, i);
+                // half active, half still being planned
+                if (i % 2 == 0) {
+                    record.addCurrentlyActive(nodeName);
+                } else {
+                    record.addCurrentlyPlanned(nodeName);
+                }
+            }
+            records.add(record);
+        }
+        busiestRecord = records.get(0);
+    }
+
+    @Benchmark
+    public CloudProvisioningRecord findTemplateWithMostFreeCapacity() {
+        return CloudProvisioningAlgorithm.findTemplateWithMostFreeCapacity(records);
+    }
+
+    @Benchmark
+    public String findUnusedName() {
+        return CloudProvisioningAlgorithm.findUnusedName(busiestRecord);
+    }
+}
@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.vSphereCloud;
+import org.jenkinsci.plugins.vSphereCloudSlaveTemplate;
+import org.jenkinsci.plugins.vsphere.benchmark.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of keeping {@link CloudProvisioningState} up to date as
+ * slaves come and go, with the state already holding a given number of
+ * slaves spread across a given number of templates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloudProvisioningStateBenchmark {
+    @Param({ "1", "10", "100", "500" })
+    public int templates;
+
+    @Param({ "10", "1000", "10000" })
+    public int nodes;
+
+    private CloudProvisioningState state;
+    private List<CloudProvisioningRecord> records;
+    private int nextNodeNumber;
+
+    @Setup
+    public void setup() {
+        final int nodesPerTemplate = (nodes + templates - 1) / templates;
+        final List<vSphereCloudSlaveTemplate> ts = BenchmarkFixtures.createTemplates(templates, nodesPerTemplate * 2);
+        final vSphereCloud cloud = BenchmarkFixtures.createCloud(ts);
+        state = new CloudProvisioningState(cloud);
+        records = new ArrayList<CloudProvisioningRecord>(templates);
+        int nodesLeft = nodes;
+        for (final vSphereCloudSlaveTemplate t : ts) {
+            final CloudProvisioningRecord record = state.getOrCreateRecord(t);
+            for (int i = 0; i < nodesPerTemplate && nodesLeft > 0; i++, nodesLeft--) {
+                final String nodeName = BenchmarkFixtures.nodeName(t, i);
+                state.provisioningStarted(record, nodeName);
+                state.provisionedSlaveNowActive(record, nodeName);
+            }
+            records.add(record);
+        }
+        nextNodeNumber = nodesPerTemplate;
+    }
+
+    /**
+     * A complete lifecycle of one extra slave, with the template chosen
+     * round-robin. Termination has to find the slave by name, so this is the
+     * operation whose cost grows with the number of templates.
+     */
+    @Benchmark
+    public void provisioningLifecycle() {
+        final int n = nextNodeNumber++;
+        final CloudProvisioningRecord record = records.get(n % records.size());
+        final String nodeName = BenchmarkFixtures.nodeName(record.getTemplate(), n);
+        state.provisioningStarted(record, nodeName);
+        state.provisionedSlaveNowActive(record, nodeName);
+        state.provisionedSlaveNowTerminated(nodeName);
+    }
+
+    @Benchmark
+    public void provisioningStartedThenEndedInError() {
+        final int n = nextNodeNumber++;
+        final CloudProvisioningRecord record = records.get(n % records.size());
+        final String nodeName = BenchmarkFixtures.nodeName(record.getTemplate(), n);
+        state.provisioningStarted(record, nodeName);
+        state.provisioningEndedInError(record, nodeName);
+    }
+
+    @Benchmark
+    public int countNodes() {
+        return state.countNodes();
+    }
+}
@@ -9,6 +9,7 @@ import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.vSphereCloud;
 import org.jenkinsci.plugins.vsphere.VSphereConnectionConfig;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
+import org.jenkinsci.plugins.vsphere.tools.VSphereRequestScheduler;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
@@ -90,7 +91,7 @@ public class FolderVSphereCloudProperty extends AbstractFolderProperty<AbstractF
                     return FormValidation.error("Password is not specified");
                 }
 
-                VSphere.connect(vsHost + "/sdk", effectiveUsername, effectivePassword).disconnect();
+                VSphere.connect(vsHost + "/sdk", effectiveUsername, effectivePassword, VSphereRequestScheduler.Priority.UI_VALIDATION).disconnect();
 
                 return FormValidation.ok("Connected successfully");
             } catch (RuntimeException e) {
@@ -4,16 +4,13 @@
  */
 package org.jenkinsci.plugins;
 
-import com.cloudbees.hudson.plugins.folder.AbstractFolderProperty;
-import com.cloudbees.hudson.plugins.folder.AbstractFolderPropertyDescriptor;
-import com.cloudbees.hudson.plugins.folder.Folder;
 import hudson.Extension;
 import hudson.model.*;
 import hudson.model.Descriptor.FormException;
 import hudson.slaves.Cloud;
+import hudson.slaves.ComputerLauncher;
 import hudson.slaves.NodeProvisioner.PlannedNode;
 import hudson.slaves.SlaveComputer;
-import hudson.util.DescribableList;
 import hudson.util.FormValidation;
 import hudson.util.StreamTaskListener;
 import jenkins.model.Jenkins;
@@ -21,12 +18,17 @@ import jenkins.slaves.iterators.api.NodeIterator;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.HashCodeBuilder;
-import org.jenkinsci.plugins.folder.FolderVSphereCloudProperty;
+import org.jenkinsci.plugins.vsphere.BufferedCloudRetentionStrategy;
 import org.jenkinsci.plugins.vsphere.VSphereConnectionConfig;
+import org.jenkinsci.plugins.vsphere.SuspendingCloudRetentionStrategy;
+import org.jenkinsci.plugins.vsphere.VSphereCloudRegistry;
+import org.jenkinsci.plugins.vsphere.VSphereDemandForecastWork;
 import org.jenkinsci.plugins.vsphere.tools.*;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
-import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
 
 import javax.annotation.CheckForNull;
@@ -34,11 +36,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
@@ -61,9 +69,26 @@ public class vSphereCloud extends Cloud {
     private final int instanceCap;
     private final List<? extends vSphereCloudSlaveTemplate> templates;
 
-    private transient int currentOnlineSlaveCount = 0;
-    private transient ConcurrentHashMap<String, String> currentOnline;
+    private transient volatile OnlineSlaveRegistry onlineSlaves;
     private transient CloudProvisioningState templateState;
+    private transient CloudPlacementState placementState;
+    /**
+     * Slaves that {@link #forecastDemand()} started before Jenkins asked for
+     * them. The NodeProvisioner doesn't know about these until we hand them
+     * over from {@link #provision(Label, int)}. Guarded by
+     * {@link #templateState}.
+     */
+    private transient List<VSpherePlannedNode> plannedInAdvance;
+    private boolean predictiveProvisioning;
+    private transient ConcurrentMap<String, DemandForecaster> demandForecasters;
+    private transient ConcurrentMap<String, IdleCapacityBuffer> idleCapacityBuffers;
+
+    /**
+     * How far ahead we look when provisioning slaves in anticipation of
+     * demand, i.e. roughly how long it takes to get a new slave online.
+     */
+    private static final long PREDICTIVE_LEAD_MILLIS = TimeUnit.MINUTES.toMillis(
+            Long.getLong(vSphereCloud.class.getName() + ".predictiveLeadMinutes", 15L));
 
     private static java.util.logging.Logger VSLOG = java.util.logging.Logger.getLogger("vsphere-cloud");
 
@@ -175,8 +200,6 @@ public class vSphereCloud extends Cloud {
     }
 
     private void ensureLists() {
-        if (currentOnline == null)
-            currentOnline = new ConcurrentHashMap<String, String>();
         if (templateState == null) {
             /*
              * If Jenkins has just restarted, we may have existing slaves that
@@ -184,18 +207,53 @@ public class vSphereCloud extends Cloud {
              * so we need to discover them.
              */
             templateState = new CloudProvisioningState(this);
+            plannedInAdvance = new ArrayList<VSpherePlannedNode>();
             for (final vSphereCloudProvisionedSlave n : NodeIterator.nodes(vSphereCloudProvisionedSlave.class)) {
                 final String nodeName = n.getNodeName();
                 final vSphereCloudSlaveTemplate template = getTemplateForVM(nodeName);
                 if (template != null) {
                     final CloudProvisioningRecord provisionable = templateState.getOrCreateRecord(template);
-                    templateState.provisioningStarted(provisionable, nodeName);
-                    templateState.provisionedSlaveNowActive(provisionable, nodeName);
+                    templateState.provisionedSlaveAlreadyActive(provisionable, nodeName);
                 }
             }
         }
     }
 
+    /**
+     * Takes a snapshot of our provisioning state for each of our templates.
+     * This only looks at what we have in memory; it does not talk to vSphere.
+     *
+     * @return A {@link CloudProvisioningStatistics} for each template.
+     */
+    public List<CloudProvisioningStatistics> getProvisioningStatistics() {
+        synchronized (this) {
+            ensureLists();
+        }
+        synchronized (templateState) {
+            return templateState.calculateStatistics(getTemplates());
+        }
+    }
+
+    /** @return The number of slaves that are currently online. */
+    public int getCurrentOnlineSlaveCount() {
+        final OnlineSlaveRegistry online = onlineSlaves;
+        return online == null ? 0 : online.size();
+    }
+
+    private OnlineSlaveRegistry getOnlineSlaves() {
+        OnlineSlaveRegistry result = onlineSlaves;
+        if (result == null) {
+            synchronized (this) {
+                result = onlineSlaves;
+                if (result == null) {
+                    result = new OnlineSlaveRegistry(maxOnlineSlaves);
+                    onlineSlaves = result;
+                }
+            }
+        }
+        return result;
+    }
+
     public int getMaxOnlineSlaves() {
         return maxOnlineSlaves;
     }
@@ -220,7 +278,14 @@ public class vSphereCloud extends Cloud {
         return null;
     }
 
-    private List<vSphereCloudSlaveTemplate> getTemplates(final Label label) {
+    /**
+     * Finds the templates that can provide slaves with the given label.
+     * <p>
+     * <b>Note:</b> This is only package-level access for benchmarking.
+     * </p>
+     */
+    @Restricted(NoExternalUse.class)
+    List<vSphereCloudSlaveTemplate> getTemplates(final Label label) {
         if (this.templates == null)
             return Collections.emptyList();
         List<vSphereCloudSlaveTemplate> matchingTemplates = new ArrayList<vSphereCloudSlaveTemplate>();
@@ -274,6 +339,20 @@ public class vSphereCloud extends Cloud {
     }
 
     public VSphere vSphereInstance() throws VSphereException {
+        return vSphereInstance(VSphereRequestScheduler.Priority.BUILD_STEP);
+    }
+
+    /**
+     * Connects to vSphere.
+     *
+     * @param priority
+     *            How important the requests we're going to make are, relative
+     *            to everything else that's talking to the same vSphere.
+     * @return A connected instance.
+     * @throws VSphereException
+     *             if we cannot connect.
+     */
+    public VSphere vSphereInstance(final VSphereRequestScheduler.Priority priority) throws VSphereException {
         // TODO: validate configs
         final String effectiveVsHost = getVsHost();
         if (effectiveVsHost == null) {
@@ -284,7 +363,21 @@ public class vSphereCloud extends Cloud {
             throw new VSphereException("vSphere username is not specified");
         }
 
-        return VSphere.connect(effectiveVsHost + "/sdk", effectiveUserName, getPassword());
+        return VSphere.connect(effectiveVsHost + "/sdk", effectiveUserName, getPassword(), priority);
+    }
+
+    /**
+     * @return The scheduler that our requests to vSphere go through, or null
+     *         if we're not configured well enough to connect.
+     */
+    @CheckForNull
+    public VSphereRequestScheduler getRequestScheduler() {
+        final String effectiveVsHost = getVsHost();
+        final String effectiveUserName = getUsername();
+        if (effectiveVsHost == null || effectiveUserName == null) {
+            return null;
+        }
+        return VSphereRequestScheduler.forConnection(effectiveVsHost + "/sdk", effectiveUserName);
     }
 
     @Override
@@ -334,16 +427,22 @@ public class vSphereCloud extends Cloud {
                 ensureLists();
             }
             final List<PlannedNode> plannedNodes = new ArrayList<PlannedNode>();
+            final List<String> slavesToResume = new ArrayList<String>();
             synchronized (templateState) {
                 templateState.pruneUnwantedRecords();
+                final List<vSphereCloudSlaveTemplate> templates = getTemplates(label);
+                final List<CloudProvisioningRecord> whatWeCouldUse = templateState.calculateProvisionableTemplates(templates);
+                // slaves we started in advance are already on their way
+                excessWorkloadSoFar -= takePlannedInAdvance(templates, excessWorkloadSoFar, plannedNodes);
+                // resuming a suspended slave is much quicker than cloning a new one
+                excessWorkloadSoFar -= takeSuspendedSlaves(whatWeCouldUse, excessWorkloadSoFar, slavesToResume);
                 Integer maxSlavesToProvisionBeforeCloudCapHit = calculateMaxAdditionalSlavesPermitted();
                 if (maxSlavesToProvisionBeforeCloudCapHit != null && maxSlavesToProvisionBeforeCloudCapHit <= 0) {
-                    return Collections.emptySet(); // no capacity due to cloud instance cap
+                    excessWorkloadSoFar = 0; // no capacity due to cloud instance cap
                 }
-                final List<vSphereCloudSlaveTemplate> templates = getTemplates(label);
-                final List<CloudProvisioningRecord> whatWeCouldUse = templateState.calculateProvisionableTemplates(templates);
                 VSLOG.log(Level.INFO, methodCallDescription + ": " + numberOfvSphereCloudSlaves + " existing slaves (="
-                        + numberOfvSphereCloudSlaveExecutors + " executors), templates available are " + whatWeCouldUse);
+                        + numberOfvSphereCloudSlaveExecutors + " executors), resuming " + slavesToResume
+                        + ", templates available are " + whatWeCouldUse);
                 while (excessWorkloadSoFar > 0) {
                     if (maxSlavesToProvisionBeforeCloudCapHit != null) {
                         final int intValue = maxSlavesToProvisionBeforeCloudCapHit.intValue();
@@ -362,6 +461,7 @@ public class vSphereCloud extends Cloud {
                     excessWorkloadSoFar -= plannedNode.numExecutors;
                 }
             }
+            resumeSuspendedSlaves(slavesToResume);
             VSLOG.log(Level.INFO, methodCallDescription + ": Provisioning " + plannedNodes.size()
                     + " new =" + plannedNodes);
             return plannedNodes;
@@ -371,6 +471,376 @@ public class vSphereCloud extends Cloud {
         }
     }
 
+    private synchronized CloudPlacementState getPlacementState() {
+        if (placementState == null) {
+            placementState = new CloudPlacementState();
+        }
+        return placementState;
+    }
+
+    /**
+     * Decides which of the template's candidate clusters and datastores the
+     * next clone should be placed on. Callers MUST pass the result to
+     * {@link #releasePlacement(CloudPlacementAlgorithm.Placement)} once the
+     * clone has been created (or has failed).
+     *
+     * @param template The template that's about to be cloned.
+     * @return Where to put the clone, or null if the template has no candidates
+     *         (or none of them are usable) and its own settings should be used.
+     */
+    CloudPlacementAlgorithm.Placement reservePlacement(final vSphereCloudSlaveTemplate template) {
+        final List<String> clusters = template.getCandidateClusterList();
+        final List<String> datastores = template.getCandidateDatastoreList();
+        if (clusters.isEmpty() && datastores.isEmpty()) {
+            return null;
+        }
+        final CloudPlacementAlgorithm.Placement placement = getPlacementState().reserve(clusters, datastores);
+        if (placement == null) {
+            VSLOG.log(Level.WARNING, "reservePlacement: None of the clusters " + clusters + " or datastores "
+                    + datastores + " of template " + template.getCloneNamePrefix()
+                    + " are usable; falling back to the template's own cluster and datastore.");
+        }
+        return placement;
+    }
+
+    void releasePlacement(final CloudPlacementAlgorithm.Placement placement) {
+        if (placement != null) {
+            getPlacementState().release(placement);
+        }
+    }
+
+    /**
+     * Asks vSphere how busy the clusters and datastores that our templates can
+     * use are. This is called periodically in the background so that
+     * {@link #reservePlacement(vSphereCloudSlaveTemplate)} doesn't have to.
+     */
+    public void refreshPlacementStatistics() {
+        final Set<String> clusters = new LinkedHashSet<String>();
+        final Set<String> datastores = new LinkedHashSet<String>();
+        for (final vSphereCloudSlaveTemplate template : getTemplates()) {
+            clusters.addAll(template.getCandidateClusterList());
+            datastores.addAll(template.getCandidateDatastoreList());
+        }
+        if (clusters.isEmpty() && datastores.isEmpty()) {
+            return;
+        }
+        VSphere vSphere = null;
+        try {
+            vSphere = vSphereInstance(VSphereRequestScheduler.Priority.BACKGROUND);
+            getPlacementState().refresh(vSphere, clusters, datastores);
+        } catch (VSphereException ex) {
+            VSLOG.log(Level.WARNING, "refreshPlacementStatistics: Unable to connect to " + getVsDescription(), ex);
+        } finally {
+            if (vSphere != null) {
+                vSphere.disconnect();
+            }
+        }
+    }
+
+    public boolean getPredictiveProvisioning() {
+        return predictiveProvisioning;
+    }
+
+    @DataBoundSetter
+    public void setPredictiveProvisioning(final boolean predictiveProvisioning) {
+        this.predictiveProvisioning = predictiveProvisioning;
+    }
+
+    /**
+     * @param template One of our templates.
+     * @return The forecaster for the template's demand, or null if we haven't
+     *         started measuring it yet.
+     */
+    @CheckForNull
+    public DemandForecaster getDemandForecaster(final vSphereCloudSlaveTemplate template) {
+        final ConcurrentMap<String, DemandForecaster> forecasters = demandForecasters;
+        return forecasters == null ? null : forecasters.get(template.getCloneNamePrefix());
+    }
+
+    /**
+     * Finds the slaves that were provisioned from the same template as the
+     * given slave, for {@link BufferedCloudRetentionStrategy}.
+     *
+     * @param nodeName The name of one of our slaves.
+     * @return The slaves (including the given one), or an empty list if the
+     *         slave didn't come from one of our templates.
+     */
+    public List<vSphereCloudProvisionedSlave> getSlavesFromSameTemplate(final String nodeName) {
+        final vSphereCloudSlaveTemplate template = getTemplateForVM(nodeName);
+        if (template == null) {
+            return Collections.emptyList();
+        }
+        final List<vSphereCloudProvisionedSlave> result = new ArrayList<vSphereCloudProvisionedSlave>();
+        for (final vSphereCloudProvisionedSlave n : NodeIterator.nodes(vSphereCloudProvisionedSlave.class)) {
+            if (getTemplateForVM(n.getNodeName()) == template && isOurs(n)) {
+                result.add(n);
+            }
+        }
+        return result;
+    }
+
+    private boolean isOurs(final vSphereCloudProvisionedSlave slave) {
+        final ComputerLauncher launcher = slave.getLauncher();
+        return launcher instanceof vSphereCloudLauncher
+                && StringUtils.equals(vsDescription, ((vSphereCloudLauncher) launcher).getVsDescription());
+    }
+
+    /**
+     * Gets the record of recent demand for the template that the given slave
+     * was provisioned from, for {@link BufferedCloudRetentionStrategy}. This is
+     * kept per template (rather than by the retention strategy) so that it
+     * survives the strategy being reconfigured.
+     *
+     * @param nodeName The name of one of our slaves.
+     * @param windowMillis How long demand should be remembered for. If
+     *            different slaves ask for different windows, the longest
+     *            is used, so that none of them lose any history.
+     * @return The template's demand, or null if the slave didn't come from one
+     *         of our templates.
+     */
+    @CheckForNull
+    public IdleCapacityBuffer getIdleCapacityBuffer(final String nodeName, final long windowMillis) {
+        final vSphereCloudSlaveTemplate template = getTemplateForVM(nodeName);
+        if (template == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (idleCapacityBuffers == null) {
+                idleCapacityBuffers = new ConcurrentHashMap<String, IdleCapacityBuffer>();
+            }
+        }
+        final String key = template.getCloneNamePrefix();
+        IdleCapacityBuffer buffer = idleCapacityBuffers.get(key);
+        if (buffer == null) {
+            final IdleCapacityBuffer created = new IdleCapacityBuffer(windowMillis);
+            final IdleCapacityBuffer raced = idleCapacityBuffers.putIfAbsent(key, created);
+            buffer = raced == null ? created : raced;
+        }
+        // slaves with an older (or newer) window share the same history
+        buffer.widenWindow(windowMillis);
+        return buffer;
+    }
+
+    private DemandForecaster getOrCreateDemandForecaster(final vSphereCloudSlaveTemplate template) {
+        synchronized (this) {
+            if (demandForecasters == null) {
+                demandForecasters = new ConcurrentHashMap<String, DemandForecaster>();
+            }
+        }
+        final String key = template.getCloneNamePrefix();
+        final DemandForecaster existing = demandForecasters.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        final DemandForecaster created = new DemandForecaster();
+        final DemandForecaster raced = demandForecasters.putIfAbsent(key, created);
+        return raced == null ? created : raced;
+    }
+
+    /**
+     * Measures how many executors each of our templates is being asked for
+     * (those busy on its slaves plus queued items that only it can serve) and
+     * feeds that to its {@link DemandForecaster}. If
+     * {@link #getPredictiveProvisioning()} is enabled, we then start enough
+     * slaves to meet the demand forecast for {@link #PREDICTIVE_LEAD_MILLIS}
+     * from now, within the template and cloud instance caps.
+     * <p>
+     * This is called periodically by {@link VSphereDemandForecastWork}.
+     * </p>
+     */
+    public void forecastDemand() {
+        final List<? extends vSphereCloudSlaveTemplate> ourTemplates = getTemplates();
+        if (ourTemplates == null || ourTemplates.isEmpty()) {
+            return;
+        }
+        final Map<vSphereCloudSlaveTemplate, Integer> demand = new IdentityHashMap<vSphereCloudSlaveTemplate, Integer>();
+        for (final vSphereCloudSlaveTemplate template : ourTemplates) {
+            demand.put(template, Integer.valueOf(0));
+        }
+        for (final Queue.BuildableItem item : Jenkins.getInstance().getQueue().getBuildableItems()) {
+            final List<vSphereCloudSlaveTemplate> candidates = getTemplates(item.getAssignedLabel());
+            if (!candidates.isEmpty()) {
+                final vSphereCloudSlaveTemplate template = candidates.get(0);
+                demand.put(template, Integer.valueOf(demand.get(template).intValue() + 1));
+            }
+        }
+        for (final vSphereCloudProvisionedSlave n : NodeIterator.nodes(vSphereCloudProvisionedSlave.class)) {
+            final vSphereCloudSlaveTemplate template = getTemplateForVM(n.getNodeName());
+            final Computer computer = n.toComputer();
+            if (template != null && computer != null && demand.containsKey(template)) {
+                demand.put(template, Integer.valueOf(demand.get(template).intValue() + computer.countBusy()));
+            }
+        }
+        final long now = System.currentTimeMillis();
+        final List<CloudProvisioningStatistics> statistics = getProvisioningStatistics();
+        for (int i = 0; i < ourTemplates.size(); i++) {
+            final vSphereCloudSlaveTemplate template = ourTemplates.get(i);
+            final DemandForecaster forecaster = getOrCreateDemandForecaster(template);
+            forecaster.observe(now, demand.get(template).doubleValue());
+            if (!predictiveProvisioning || !forecaster.isWarmedUp()) {
+                continue;
+            }
+            final double forecast = forecaster.forecast(now + PREDICTIVE_LEAD_MILLIS);
+            final CloudProvisioningStatistics stats = statistics.get(i);
+            final int executorsPerSlave = Math.max(1, template.getNumberOfExecutors());
+            final int executorsAvailableSoon = (stats.getPlanned() + stats.getActive()) * executorsPerSlave;
+            final int executorsShort = (int) Math.ceil(forecast) - executorsAvailableSoon;
+            if (executorsShort > 0) {
+                final int slavesWanted = (executorsShort + executorsPerSlave - 1) / executorsPerSlave;
+                VSLOG.log(Level.INFO, "forecastDemand: template {0} is forecast to need {1} executors, but will only have {2}, so starting {3} slaves early",
+                        new Object[] { template.getCloneNamePrefix(), forecast, executorsAvailableSoon, slavesWanted });
+                provisionInAdvance(template, slavesWanted);
+            }
+        }
+    }
+
+    private void provisionInAdvance(final vSphereCloudSlaveTemplate template, final int numberOfSlaves) {
+        synchronized (this) {
+            ensureLists();
+        }
+        final List<String> slavesToResume = new ArrayList<String>();
+        synchronized (templateState) {
+            templateState.pruneUnwantedRecords();
+            Integer maxSlavesToProvisionBeforeCloudCapHit = calculateMaxAdditionalSlavesPermitted();
+            final List<CloudProvisioningRecord> whatWeCouldUse = templateState.calculateProvisionableTemplates(Collections.singletonList(template));
+            final int executorsPerSlave = Math.max(1, template.getNumberOfExecutors());
+            takeSuspendedSlaves(whatWeCouldUse, numberOfSlaves * executorsPerSlave, slavesToResume);
+            for (int i = slavesToResume.size(); i < numberOfSlaves; i++) {
+                if (maxSlavesToProvisionBeforeCloudCapHit != null) {
+                    final int intValue = maxSlavesToProvisionBeforeCloudCapHit.intValue();
+                    if (intValue <= 0) {
+                        break; // out of capacity due to cloud instance cap
+                    }
+                    maxSlavesToProvisionBeforeCloudCapHit = Integer.valueOf(intValue - 1);
+                }
+                final CloudProvisioningRecord whatWeShouldSpinUp = CloudProvisioningAlgorithm.findTemplateWithMostFreeCapacity(whatWeCouldUse);
+                if (whatWeShouldSpinUp == null) {
+                    break; // out of capacity due to template instance cap
+                }
+                final String nodeName = CloudProvisioningAlgorithm.findUnusedName(whatWeShouldSpinUp);
+                plannedInAdvance.add(VSpherePlannedNode.createInstance(templateState, nodeName, whatWeShouldSpinUp));
+            }
+        }
+        resumeSuspendedSlaves(slavesToResume);
+    }
+
+    /**
+     * Picks suspended slaves to resume, in preference to cloning new ones.
+     * Callers MUST hold the lock on {@link #templateState} and MUST pass the
+     * names to {@link #resumeSuspendedSlaves(List)} once they've released it.
+     *
+     * @param whatWeCouldUse The templates that can meet the demand.
+     * @param executorsWanted How many executors we need.
+     * @param result Where to put the names of the slaves to resume.
+     * @return How many executors the chosen slaves will provide.
+     */
+    private int takeSuspendedSlaves(final List<CloudProvisioningRecord> whatWeCouldUse, final int executorsWanted,
+            final List<String> result) {
+        int executorsFound = 0;
+        for (final CloudProvisioningRecord record : whatWeCouldUse) {
+            while (executorsFound < executorsWanted) {
+                final String nodeName = templateState.takeSuspendedSlave(record);
+                if (nodeName == null) {
+                    break;
+                }
+                result.add(nodeName);
+                executorsFound += record.getTemplate().getNumberOfExecutors();
+            }
+        }
+        return executorsFound;
+    }
+
+    /**
+     * Hands slaves that {@link #forecastDemand()} started in advance over to
+     * the NodeProvisioner, so that it counts them instead of asking us for
+     * more. Slaves that have finished starting have already added themselves
+     * to Jenkins, so they're simply forgotten.
+     * Callers MUST hold the lock on {@link #templateState}.
+     *
+     * @param templates The templates that can meet the demand.
+     * @param executorsWanted How many executors we need.
+     * @param result Where to put the planned nodes.
+     * @return How many executors the planned nodes will provide.
+     */
+    private int takePlannedInAdvance(final List<vSphereCloudSlaveTemplate> templates, final int executorsWanted,
+            final List<PlannedNode> result) {
+        int executorsFound = 0;
+        for (final Iterator<VSpherePlannedNode> it = plannedInAdvance.iterator(); it.hasNext();) {
+            final VSpherePlannedNode plannedNode = it.next();
+            if (plannedNode.future.isDone()) {
+                it.remove();
+            } else if (executorsFound < executorsWanted && templates.contains(plannedNode.template)) {
+                it.remove();
+                result.add(plannedNode);
+                executorsFound += plannedNode.numExecutors;
+            }
+        }
+        return executorsFound;
+    }
+
+    private void resumeSuspendedSlaves(final List<String> nodeNames) {
+        for (final String nodeName : nodeNames) {
+            final Node node = Jenkins.getInstance().getNode(nodeName);
+            final Computer computer = node == null ? null : node.toComputer();
+            if (computer == null) {
+                VSLOG.log(Level.WARNING, "Unable to resume {0} as it no longer exists", nodeName);
+                continue;
+            }
+            VSLOG.log(Level.INFO, "Resuming suspended slave {0}", nodeName);
+            computer.connect(false);
+        }
+    }
+
+    /**
+     * This is called by a slave's {@link vSphereCloudLauncher} once its
+     * suspend idle action has suspended the VM (or it finds the VM already
+     * suspended), so that we'll resume it rather than clone a new one next
+     * time there's demand.
+     *
+     * @param cloneName The name of the slave.
+     * @return When the slave was suspended, or -1 if it isn't one of ours.
+     */
+    public long provisionedSlaveHasSuspended(final String cloneName) {
+        synchronized (this) {
+            ensureLists();
+        }
+        synchronized (templateState) {
+            return templateState.provisionedSlaveNowSuspended(cloneName, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Used by {@link SuspendingCloudRetentionStrategy} to find out how long an
+     * offline slave has been suspended for.
+     *
+     * @param cloneName The name of the slave.
+     * @return When the slave was suspended, or -1 if we don't know of it
+     *         being suspended.
+     */
+    public long getSuspendedSince(final String cloneName) {
+        synchronized (this) {
+            ensureLists();
+        }
+        synchronized (templateState) {
+            return templateState.getSuspendedSince(cloneName);
+        }
+    }
+
+    /**
+     * This is called by {@link SuspendingCloudRetentionStrategy} when it finds
+     * a slave online, in case something other than us resumed it.
+     *
+     * @param cloneName The name of the slave.
+     */
+    public void provisionedSlaveHasResumed(final String cloneName) {
+        synchronized (this) {
+            ensureLists();
+        }
+        synchronized (templateState) {
+            templateState.provisionedSlaveNowResumed(cloneName);
+        }
+    }
+
     /**
      * This is called by {@link vSphereCloudProvisionedSlave} instances once
      * they terminate, so we can take note of their passing and then destroy the
@@ -383,6 +853,7 @@ public class vSphereCloud extends Cloud {
             ensureLists();
         }
         VSLOG.log(Level.FINER, "provisionedSlaveHasTerminated({0}): recording in our runtime state...", cloneName);
+        ProvisioningTimelines.get().failed(cloneName, "Terminated before coming online");
         // once we're done, remove our cached record.
         synchronized (templateState) {
             templateState.provisionedSlaveNowTerminated(cloneName);
@@ -390,7 +861,7 @@ public class vSphereCloud extends Cloud {
         VSLOG.log(Level.FINER, "provisionedSlaveHasTerminated({0}): destroying VM...", cloneName);
         VSphere vSphere = null;
         try {
-            vSphere = vSphereInstance();
+            vSphere = vSphereInstance(VSphereRequestScheduler.Priority.TEARDOWN);
             vSphere.destroyVm(cloneName, false);
             VSLOG.log(Level.FINER, "provisionedSlaveHasTerminated({0}): VM destroyed.", cloneName);
         } catch (VSphereException ex) {
@@ -403,8 +874,12 @@ public class vSphereCloud extends Cloud {
     }
 
     static class VSpherePlannedNode extends PlannedNode {
-        private VSpherePlannedNode(String displayName, Future<Node> future, int numExecutors) {
+        private final vSphereCloudSlaveTemplate template;
+
+        private VSpherePlannedNode(String displayName, Future<Node> future, int numExecutors,
+                                   vSphereCloudSlaveTemplate template) {
             super(displayName, future, numExecutors);
+            this.template = template;
         }
 
         public static VSpherePlannedNode createInstance(final CloudProvisioningState templateState,
@@ -412,8 +887,11 @@ public class vSphereCloud extends Cloud {
                                                         final CloudProvisioningRecord whatWeShouldSpinUp) {
             final vSphereCloudSlaveTemplate template = whatWeShouldSpinUp.getTemplate();
             final int numberOfExecutors = template.getNumberOfExecutors();
+            final ProvisioningTimeline timeline = ProvisioningTimelines.get().start(template.getParent().getVsDescription(), template.getCloneNamePrefix(), nodeName);
+            final ProvisioningTimeline.Span queueSpan = timeline.startSpan(ProvisioningTimeline.QUEUE);
             final Callable<Node> provisionNodeCallable = new Callable<Node>() {
                 public Node call() throws Exception {
+                    queueSpan.close();
                     try {
                         final Node newNode = provisionNewNode(templateState, whatWeShouldSpinUp, nodeName);
                         VSLOG.log(Level.INFO, "Provisioned new slave " + nodeName);
@@ -423,6 +901,11 @@ public class vSphereCloud extends Cloud {
                         return newNode;
                     } catch (Exception ex) {
                         VSLOG.log(Level.WARNING, "Failed to provision new slave " + nodeName, ex);
+                        timeline.failed(ex.toString());
+                        final VSphereRequestScheduler scheduler = template.getParent().getRequestScheduler();
+                        if (scheduler != null) {
+                            scheduler.reportFault(ex);
+                        }
                         synchronized (templateState) {
                             templateState.provisioningEndedInError(whatWeShouldSpinUp, nodeName);
                         }
@@ -432,7 +915,7 @@ public class vSphereCloud extends Cloud {
             };
             templateState.provisioningStarted(whatWeShouldSpinUp, nodeName);
             final Future<Node> provisionNodeTask = Computer.threadPoolForRemoting.submit(provisionNodeCallable);
-            final VSpherePlannedNode result = new VSpherePlannedNode(nodeName, provisionNodeTask, numberOfExecutors);
+            final VSpherePlannedNode result = new VSpherePlannedNode(nodeName, provisionNodeTask, numberOfExecutors, template);
             return result;
         }
 
@@ -442,7 +925,9 @@ public class vSphereCloud extends Cloud {
             final vSphereCloudProvisionedSlave slave = template.provision(algorithm, cloneName, StreamTaskListener.fromStdout());
             // ensure Jenkins knows about us before we forget what we're doing,
             // otherwise it'll just ask for more.
+            final ProvisioningTimeline.Span addNodeSpan = ProvisioningTimelines.get().startSpan(cloneName, ProvisioningTimeline.ADD_NODE);
             Jenkins.getInstance().addNode(slave);
+            addNodeSpan.close();
             return slave;
         }
 
@@ -462,97 +947,22 @@ public class vSphereCloud extends Cloud {
         return sb.toString();
     }
 
-    public synchronized Boolean canMarkVMOnline(String slaveName, String vmName) {
-        ensureLists();
-
-        // Don't allow more than max.
-        if ((maxOnlineSlaves > 0) && (currentOnline.size() == maxOnlineSlaves))
-            return Boolean.FALSE;
-
-        // Don't allow two slaves to the same VM to fire up.
-        // With templates the vmName will be the same.  So first verify if the slave is from a template
-        if (currentOnline.containsValue(vmName))
-            return Boolean.FALSE;
+    public Boolean canMarkVMOnline(String slaveName, String vmName) {
+        // With templates the vmName will be the same as the slaveName.
         // TODO: what we want here is to validate the instance cap of both the cloud and the template (if the slave is created from a template);
-
-        // Don't allow two instances of the same slave, although Jenkins will
-        // probably not encounter this.
-        if (currentOnline.containsKey(slaveName))
-            return Boolean.FALSE;
-
-        return Boolean.TRUE;
+        return getOnlineSlaves().canMarkOnline(slaveName, vmName);
     }
 
-    public synchronized Boolean markVMOnline(String slaveName, String vmName) {
-        ensureLists();
-
-        // If the combination is already in the list, it's good.
-        if (currentOnline.containsKey(slaveName) && currentOnline.get(slaveName).equals(vmName))
-            return Boolean.TRUE;
-
-        if (!canMarkVMOnline(slaveName, vmName))
-            return Boolean.FALSE;
-
-        currentOnline.put(slaveName, vmName);
-        currentOnlineSlaveCount++;
-
-        return Boolean.TRUE;
+    public Boolean markVMOnline(String slaveName, String vmName) {
+        return getOnlineSlaves().markOnline(slaveName, vmName);
     }
 
-    public synchronized void markVMOffline(String slaveName, String vmName) {
-        ensureLists();
-        if (currentOnline.remove(slaveName) != null)
-            currentOnlineSlaveCount--;
+    public void markVMOffline(String slaveName, String vmName) {
+        getOnlineSlaves().markOffline(slaveName);
     }
 
     public static List<vSphereCloud> findAllVsphereClouds(String jobName) {
-        List<vSphereCloud> vSphereClouds = new ArrayList<vSphereCloud>();
-
-        String[] path = new String[0];
-        Folder prevFolder = null;
-
-        if (Stapler.getCurrentRequest() != null){
-            path = Stapler.getCurrentRequest().getRequestURI().split("/");
-        } else if (jobName != null) {
-            path = jobName.split("/");
-        }
-
-        for (String item : path) {
-
-            if (item.equals("job") || item.equals("jenkins"))
-                continue;
-
-            TopLevelItem topLevelItem = null;
-            if (prevFolder == null) {
-                topLevelItem = Jenkins.getActiveInstance().getItem(item);
-            } else {
-                Collection<TopLevelItem> items = prevFolder.getItems();
-                for (TopLevelItem levelItem : items) {
-                    if (levelItem.getName().endsWith(item)){
-                        topLevelItem = levelItem;
-                    }
-                }
-            }
-            if (topLevelItem != null && topLevelItem instanceof Folder) {
-                extractClouds(vSphereClouds, (Folder) topLevelItem);
-            }
-        }
-
-        for (Cloud cloud : Jenkins.getInstance().clouds) {
-            if (cloud instanceof vSphereCloud) {
-                vSphereClouds.add((vSphereCloud) cloud);
-            }
-        }
-        return vSphereClouds;
-    }
-
-    private static void extractClouds(List<vSphereCloud> vSphereClouds, Folder folder) {
-        DescribableList<AbstractFolderProperty<?>, AbstractFolderPropertyDescriptor> properties = folder.getProperties();
-        for (AbstractFolderProperty<?> property : properties) {
-            if (property instanceof FolderVSphereCloudProperty) {
-                vSphereClouds.addAll(((FolderVSphereCloudProperty) property).getVsphereClouds());
-            }
-        }
+        return VSphereCloudRegistry.findAll(jobName);
     }
 
     public static List<String> findAllVsphereCloudNames() {
@@ -639,7 +1049,7 @@ public class vSphereCloud extends Cloud {
                     return FormValidation.error("Password is not specified");
                 }
 
-                VSphere.connect(vsHost + "/sdk", effectiveUsername, effectivePassword).disconnect();
+                VSphere.connect(vsHost + "/sdk", effectiveUsername, effectivePassword, VSphereRequestScheduler.Priority.UI_VALIDATION).disconnect();
 
                 return FormValidation.ok("Connected successfully");
             } catch (RuntimeException e) {
@@ -5,6 +5,7 @@
 package org.jenkinsci.plugins;
 
 import hudson.Util;
+import hudson.model.Computer;
 import hudson.model.TaskListener;
 import hudson.model.Descriptor;
 import hudson.slaves.ComputerLauncher;
@@ -14,17 +15,22 @@ import hudson.slaves.SlaveComputer;
 import java.io.IOException;
 import java.io.ObjectStreamException;
 import java.util.Calendar;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.jenkinsci.plugins.vsphere.VSphereCloudRegistry;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import com.vmware.vim25.VirtualMachinePowerState;
 import com.vmware.vim25.VirtualMachineToolsStatus;
-import com.vmware.vim25.mo.Task;
 import com.vmware.vim25.mo.VirtualMachine;
 import com.vmware.vim25.mo.VirtualMachineSnapshot;
-import java.rmi.RemoteException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
+import org.jenkinsci.plugins.vsphere.tools.VSphereRequestScheduler;
+import org.jenkinsci.plugins.vsphere.tools.VirtualMachineStateWaiter;
 
 /**
  *
@@ -42,6 +48,16 @@ public class vSphereCloudLauncher extends DelegatingComputerLauncher {
     private final int launchDelay;
     private final MACHINE_ACTION idleAction;
     private final int LimitedTestRunCount;
+    /** The idle action running in the background after a disconnect, if any. */
+    private transient volatile Future<?> idleActionInProgress;
+    /** Whether we've told our cloud if our VM is suspended since Jenkins started. */
+    private transient volatile boolean suspendedStateKnown;
+
+    private static final long GUEST_SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(3);
+    private static final int POWER_ON_TIMEOUT_SECONDS = 60;
+    private static final long TOOLS_REACTIVATION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    /** Comfortably longer than the slowest idle action (two shutdowns, a revert and a wait for VMTools) should take. */
+    private static final long IDLE_ACTION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(15);
 
     public enum MACHINE_ACTION {
         SHUTDOWN,
@@ -113,10 +129,9 @@ public class vSphereCloudLauncher extends DelegatingComputerLauncher {
 
     public vSphereCloud findOurVsInstance() throws RuntimeException {
         if (vsDescription != null && vmName != null) {
-            for (vSphereCloud cloud : vSphereCloud.findAllVsphereClouds(null)) {
-                if (cloud.getVsDescription().equals(vsDescription)) {
-                    return cloud;
-                }
+            final vSphereCloud cloud = VSphereCloudRegistry.getByDescription(vsDescription, null);
+            if (cloud != null) {
+                return cloud;
             }
         }
         vSphereCloud.Log("Could not find our vSphere Cloud instance!");
@@ -145,6 +160,21 @@ public class vSphereCloudLauncher extends DelegatingComputerLauncher {
                     return;
                 }
 
+                // If the VM is still being dealt with after the last
+                // disconnect, wait for that to finish rather than giving up.
+                final Future<?> pendingIdleAction = idleActionInProgress;
+                if (pendingIdleAction != null && !pendingIdleAction.isDone()) {
+                    vSphereCloud.Log(slaveComputer, taskListener, "Waiting for the VM's idle action to finish");
+                    try {
+                        pendingIdleAction.get(IDLE_ACTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (ExecutionException e) {
+                        // already logged by the idle action itself
+                    } catch (TimeoutException e) {
+                        vSphereCloud.Log(slaveComputer, taskListener, "The VM's idle action did not finish in allowed time");
+                        throw new IOException("The VM's idle action did not finish in allowed time", e);
+                    }
+                }
+
                 // If a slave is disconnecting, don't try to start it up
                 if (vsSlave.slaveIsDisconnecting == Boolean.TRUE) {
                     vSphereCloud.Log(slaveComputer, taskListener, "Ignoring connect attempt to start the slave; it's being shutdown");
@@ -170,7 +200,7 @@ public class vSphereCloudLauncher extends DelegatingComputerLauncher {
                     cal.add(Calendar.MINUTE, 5);
                     vSphereCloudSlave.AddProbableLaunch(vsSlave, cal.getTime());
 
-                    v = vsC.vSphereInstance();
+                    v = vsC.vSphereInstance(VSphereRequestScheduler.Priority.PROVISIONING);
                     VirtualMachine vm = v.getVmByName(vmName);
                     if (vm == null) {
                         throw new IOException("Virtual Machine '" + vmName + "' could not be found");
@@ -184,10 +214,7 @@ public class vSphereCloudLauncher extends DelegatingComputerLauncher {
                         }
 
                         vSphereCloud.Log(slaveComputer, taskListener, "Reverting to snapshot:" + snapName);
-                        Task task = snap.revertToSnapshot_Task(null);
-                        if (!task.waitForTask().equals(Task.SUCCESS)) {
-                            throw new IOException("Error while reverting to virtual machine snapshot");
-                        }
+                        v.revertToSnapshot(vm, snapName);
                     }
 
                     switch (vm.getRuntime().powerState) {
@@ -266,30 +293,34 @@ public class vSphereCloudLauncher extends DelegatingComputerLauncher {
     }
 
     @Override
-    public synchronized void afterDisconnect(SlaveComputer slaveComputer, TaskListener taskListener) {
+    public void afterDisconnect(SlaveComputer slaveComputer, TaskListener taskListener) {
         final vSphereCloudSlave vsSlave = (vSphereCloudSlave) slaveComputer.getNode();
 
         if(vsSlave == null) {
             vSphereCloud.Log(slaveComputer, taskListener, "Slave is null.");
             return;
         }
-        if (vsSlave.slaveIsStarting == Boolean.TRUE) {
-            vSphereCloud.Log(slaveComputer, taskListener, "Ignoring disconnect attempt because a connect attempt is in progress.");
-            return;
-        }
-        if (vsSlave.slaveIsDisconnecting == Boolean.TRUE) {
-            vSphereCloud.Log(slaveComputer, taskListener, "Already disconnecting on a separate thread");
-            return;
-        }
-        if (slaveComputer.isTemporarilyOffline()) {
-            if (!slaveComputer.getOfflineCauseReason().contains("vSphere Plugin")) {
-                vSphereCloud.Log(slaveComputer, taskListener, "Not disconnecting VM because it's not accepting tasks");
+        // Only this slave's own disconnects need to be kept apart; other
+        // slaves can be recycled at the same time.
+        synchronized (vsSlave) {
+            if (vsSlave.slaveIsStarting == Boolean.TRUE) {
+                vSphereCloud.Log(slaveComputer, taskListener, "Ignoring disconnect attempt because a connect attempt is in progress.");
                 return;
             }
+            if (vsSlave.slaveIsDisconnecting == Boolean.TRUE) {
+                vSphereCloud.Log(slaveComputer, taskListener, "Already disconnecting on a separate thread");
+                return;
+            }
+            if (slaveComputer.isTemporarilyOffline()) {
+                if (!slaveComputer.getOfflineCauseReason().contains("vSphere Plugin")) {
+                    vSphereCloud.Log(slaveComputer, taskListener, "Not disconnecting VM because it's not accepting tasks");
+                    return;
+                }
+            }
+            vsSlave.slaveIsDisconnecting = Boolean.TRUE;
         }
 
-        vsSlave.slaveIsDisconnecting = Boolean.TRUE;
-        VSphere v = null;
+        boolean handedOver = false;
         try {
             vSphereCloud.Log(slaveComputer, taskListener, "Running disconnect procedure...");
             super.afterDisconnect(slaveComputer, taskListener);
@@ -300,56 +331,221 @@ public class vSphereCloudLauncher extends DelegatingComputerLauncher {
             }
             vSphereCloud vsC = findOurVsInstance();
             vsC.markVMOffline(slaveComputer.getDisplayName(), vmName);
-            v = vsC.vSphereInstance();
-            VirtualMachine vm = v.getVmByName(vmName);
-            if (vm != null && !MACHINE_ACTION.NOTHING.equals(localIdle)) {
-                //VirtualMachinePowerState power = vm.getRuntime().getPowerState();
-                VirtualMachinePowerState power = vm.getSummary().getRuntime().powerState;
-                if (power == VirtualMachinePowerState.poweredOn) {
-                    switch (localIdle) {
-                        case SHUTDOWN:
-                        case REVERT:
-                        case REVERT_AND_RESET:
-                        case REVERT_AND_RESTART:
-                            shutdownVM(vm, slaveComputer, taskListener);
-                            break;
-                        case SUSPEND:
-                            suspendVM(vm, slaveComputer, taskListener);
-                            break;
-                        case RESET:
-                            resetVM(vm, slaveComputer, taskListener);
-                            break;
-                        case NOTHING:
-                            break;
+            if (!MACHINE_ACTION.NOTHING.equals(localIdle)) {
+                // The idle action can take minutes, so we do it in the
+                // background rather than holding up the disconnect.
+                final IdleActionPipeline pipeline = new IdleActionPipeline(vsC, vsSlave, localIdle, slaveComputer, taskListener);
+                idleActionInProgress = Computer.threadPoolForRemoting.submit(pipeline);
+                handedOver = true;
+            }
+        } catch (Throwable t) {
+            vSphereCloud.Log(slaveComputer, taskListener, t, "Got an exception");
+            taskListener.fatalError(t.getMessage(), t);
+        } finally {
+            if (!handedOver) {
+                vsSlave.slaveIsDisconnecting = Boolean.FALSE;
+                vsSlave.slaveIsStarting = Boolean.FALSE;
+            }
+        }
+    }
+
+    /** The steps that an idle action is made of. */
+    enum IdleStep {
+        SHUTDOWN,
+        REVERT,
+        WAIT_FOR_TOOLS,
+        SHUTDOWN_AFTER_REVERT,
+        POWER_ON,
+        RESET,
+        SUSPEND;
+
+        /**
+         * @param action The idle action.
+         * @return The step that the idle action starts with, or null if it
+         *         has nothing to do.
+         */
+        static IdleStep first(MACHINE_ACTION action) {
+            switch (action) {
+                case SHUTDOWN:
+                case REVERT:
+                case REVERT_AND_RESET:
+                case REVERT_AND_RESTART:
+                    return SHUTDOWN;
+                case SUSPEND:
+                    return SUSPEND;
+                case RESET:
+                    return RESET;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * @param action The idle action.
+         * @param runningAfterRevert Whether the VM is powered on once this
+         *            step has been performed. Only needed after
+         *            {@link #REVERT}, as a snapshot that includes memory
+         *            leaves the VM running.
+         * @return The step that follows this one, or null if we're done.
+         */
+        IdleStep next(MACHINE_ACTION action, boolean runningAfterRevert) {
+            switch (this) {
+                case SHUTDOWN:
+                    return action == MACHINE_ACTION.SHUTDOWN ? null : REVERT;
+                case REVERT:
+                    if (action == MACHINE_ACTION.REVERT_AND_RESET) {
+                        return RESET;
                     }
-                    if (localIdle == MACHINE_ACTION.REVERT) {
-                        revertVM(vm, vsC, slaveComputer, taskListener);
-                    } else if (localIdle == MACHINE_ACTION.REVERT_AND_RESTART) {
-                        revertVM(vm, vsC, slaveComputer, taskListener);
-                        if (power == VirtualMachinePowerState.poweredOn) {
-                             // Some time is needed for the VMWare Tools to reactivate
-                            Thread.sleep(60000);
-                            shutdownVM(vm, slaveComputer, taskListener);
-                        }
-                        powerOnVM(vm, slaveComputer, taskListener);
-                    } else if (localIdle == MACHINE_ACTION.REVERT_AND_RESET) {
-                        revertVM(vm, vsC, slaveComputer, taskListener);
-                        resetVM(vm, slaveComputer, taskListener);
+                    if (action == MACHINE_ACTION.REVERT_AND_RESTART) {
+                        // a running VM needs shutting down cleanly once its
+                        // VMware Tools have reactivated
+                        return runningAfterRevert ? WAIT_FOR_TOOLS : POWER_ON;
                     }
-                } else {
-                        // VM is already powered down.
+                    return null;
+                case WAIT_FOR_TOOLS:
+                    return SHUTDOWN_AFTER_REVERT;
+                case SHUTDOWN_AFTER_REVERT:
+                    return POWER_ON;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Carries out the idle action as a state machine: each step waits for
+     * vSphere to tell us its task has finished (or the VM's state has
+     * changed) and then the next step is chosen from the idle action and what
+     * state the VM is now in.
+     */
+    private final class IdleActionPipeline implements Runnable {
+        private final vSphereCloud vsC;
+        private final vSphereCloudSlave vsSlave;
+        private final MACHINE_ACTION action;
+        private final SlaveComputer slaveComputer;
+        private final TaskListener taskListener;
+
+        IdleActionPipeline(vSphereCloud vsC, vSphereCloudSlave vsSlave, MACHINE_ACTION action,
+                SlaveComputer slaveComputer, TaskListener taskListener) {
+            this.vsC = vsC;
+            this.vsSlave = vsSlave;
+            this.action = action;
+            this.slaveComputer = slaveComputer;
+            this.taskListener = taskListener;
+        }
+
+        @Override
+        public void run() {
+            VSphere v = null;
+            try {
+                v = vsC.vSphereInstance(VSphereRequestScheduler.Priority.TEARDOWN);
+                final VirtualMachine vm = v.getVmByName(vmName);
+                if (vm == null) {
+                    return;
                 }
+                final VirtualMachinePowerState powerState = vm.getSummary().getRuntime().powerState;
+                if (powerState != VirtualMachinePowerState.poweredOn) {
+                    // VM is already powered down.
+                    if (action == MACHINE_ACTION.SUSPEND && powerState == VirtualMachinePowerState.suspended) {
+                        noteSuspended(vsC, vsSlave, slaveComputer);
+                    }
+                    return;
+                }
+                IdleStep step = IdleStep.first(action);
+                while (step != null) {
+                    perform(step, vm, v);
+                    final boolean runningAfterRevert = step == IdleStep.REVERT
+                            && action == MACHINE_ACTION.REVERT_AND_RESTART
+                            && vm.getRuntime().powerState == VirtualMachinePowerState.poweredOn;
+                    step = step.next(action, runningAfterRevert);
+                }
+            } catch (Throwable t) {
+                vSphereCloud.Log(slaveComputer, taskListener, t, "Got an exception");
+                taskListener.fatalError(t.getMessage(), t);
+            } finally {
+                if (v != null) {
+                    v.disconnect();
+                }
+                vsSlave.slaveIsDisconnecting = Boolean.FALSE;
+                vsSlave.slaveIsStarting = Boolean.FALSE;
             }
+        }
+
+        /** Performs one step; {@link IdleStep#next} decides what comes after it. */
+        private void perform(IdleStep step, VirtualMachine vm, VSphere v) throws Exception {
+            switch (step) {
+                case SHUTDOWN:
+                case SHUTDOWN_AFTER_REVERT:
+                    shutdownVM(vm, v, slaveComputer, taskListener);
+                    break;
+                case REVERT:
+                    revertVM(vm, v, slaveComputer, taskListener);
+                    break;
+                case WAIT_FOR_TOOLS:
+                    vSphereCloud.Log(slaveComputer, taskListener, "Waiting for VMTools to reactivate");
+                    if (!VirtualMachineStateWaiter.waitFor(vm, VirtualMachineStateWaiter.toolsRunning(), TOOLS_REACTIVATION_TIMEOUT_MILLIS)) {
+                        vSphereCloud.Log(slaveComputer, taskListener, "VMTools did not reactivate in allowed time");
+                    }
+                    break;
+                case POWER_ON:
+                    powerOnVM(vm, v, slaveComputer, taskListener);
+                    break;
+                case RESET:
+                    resetVM(vm, v, slaveComputer, taskListener);
+                    break;
+                case SUSPEND:
+                    if (suspendVM(vm, v, slaveComputer, taskListener)) {
+                        noteSuspended(vsC, vsSlave, slaveComputer);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Tells the cloud that our slave's VM has been suspended, so it can be
+     * resumed (or, after a while, destroyed) by the cloud.
+     */
+    private void noteSuspended(vSphereCloud vsC, vSphereCloudSlave vsSlave, SlaveComputer slaveComputer) {
+        suspendedStateKnown = true;
+        if (vsSlave instanceof vSphereCloudProvisionedSlave) {
+            vsC.provisionedSlaveHasSuspended(slaveComputer.getName());
+        }
+    }
+
+    /**
+     * Finds out whether our VM was left suspended by our idle action before
+     * Jenkins restarted, as our cloud won't know about it. We only ask vSphere
+     * once; after that, our idle action keeps the cloud up to date.
+     *
+     * @param slaveComputer Our (offline) slave.
+     * @return When the cloud thinks the VM was suspended, or -1 if it isn't.
+     */
+    public long rediscoverSuspendedVm(SlaveComputer slaveComputer) {
+        final Future<?> pendingIdleAction = idleActionInProgress;
+        if (suspendedStateKnown || idleAction != MACHINE_ACTION.SUSPEND
+                || (pendingIdleAction != null && !pendingIdleAction.isDone())) {
+            return -1L;
+        }
+        final vSphereCloud vsC = findOurVsInstance();
+        VSphere v = null;
+        try {
+            v = vsC.vSphereInstance(VSphereRequestScheduler.Priority.BACKGROUND);
+            final VirtualMachine vm = v.getVmByName(vmName);
+            suspendedStateKnown = true;
+            if (vm != null && vm.getRuntime().powerState == VirtualMachinePowerState.suspended) {
+                return vsC.provisionedSlaveHasSuspended(slaveComputer.getName());
+            }
+        } catch (VSphereException e) {
+            vSphereCloud.Log(slaveComputer, null, e, "Unable to find out if the VM is suspended");
+        } finally {
             if (v != null) {
                 v.disconnect();
             }
-        } catch (Throwable t) {
-            vSphereCloud.Log(slaveComputer, taskListener, t, "Got an exception");
-            taskListener.fatalError(t.getMessage(), t);
-        } finally {
-            vsSlave.slaveIsDisconnecting = Boolean.FALSE;
-            vsSlave.slaveIsStarting = Boolean.FALSE;
         }
+        return -1L;
     }
 
     /**
@@ -400,17 +596,16 @@ public class vSphereCloudLauncher extends DelegatingComputerLauncher {
         throw new UnsupportedOperationException();
     }
 
-    private void powerOnVM(VirtualMachine vm, SlaveComputer slaveComputer, TaskListener taskListener)
-            throws RemoteException, InterruptedException {
+    private void powerOnVM(VirtualMachine vm, VSphere v, SlaveComputer slaveComputer, TaskListener taskListener) {
         vSphereCloud.Log(slaveComputer, taskListener, "Powering on the VM");
-        Task taskPowerOn = vm.powerOnVM_Task(null);
-        if (!taskPowerOn.waitForTask().equals(Task.SUCCESS)) {
-            vSphereCloud.Log(slaveComputer, taskListener, "Unable to power on the VM");
+        try {
+            v.startVm(vm, POWER_ON_TIMEOUT_SECONDS);
+        } catch (VSphereException e) {
+            vSphereCloud.Log(slaveComputer, taskListener, e, "Unable to power on the VM");
         }
     }
 
-    private void shutdownVM(VirtualMachine vm, SlaveComputer slaveComputer, TaskListener taskListener)
-            throws RemoteException, InterruptedException {
+    private void shutdownVM(VirtualMachine vm, VSphere v, SlaveComputer slaveComputer, TaskListener taskListener) {
 
         // If reverting to shutting down, attempt to shutdown
         // gracefully first, then hard.
@@ -419,14 +614,10 @@ public class vSphereCloudLauncher extends DelegatingComputerLauncher {
             try {
                 vSphereCloud.Log(slaveComputer, taskListener, "Attempting a graceful shutdown");
                 vm.shutdownGuest();
-                Calendar target = Calendar.getInstance();
-                target.add(Calendar.MINUTE, 3);
-                while (Calendar.getInstance().before(target)) {
-                    if (vm.getRuntime().powerState == VirtualMachinePowerState.poweredOff) {
-                        vSphereCloud.Log(slaveComputer, taskListener, "Guest shutdown succeeded");
-                        break;
-                    }
-                    Thread.sleep(5000);
+                if (VirtualMachineStateWaiter.waitFor(vm,
+                        VirtualMachineStateWaiter.powerState(VirtualMachinePowerState.poweredOff),
+                        GUEST_SHUTDOWN_TIMEOUT_MILLIS)) {
+                    vSphereCloud.Log(slaveComputer, taskListener, "Guest shutdown succeeded");
                 }
             } catch (Throwable t) {
                 vSphereCloud.Log(slaveComputer, taskListener, t,
@@ -438,49 +629,53 @@ public class vSphereCloudLauncher extends DelegatingComputerLauncher {
         // Still powered on or no tools?  Hard power down time.
         if (vm.getRuntime().powerState == VirtualMachinePowerState.poweredOn) {
             vSphereCloud.Log(slaveComputer, taskListener, "Powering down hard");
-            Task task = vm.powerOffVM_Task();
-            if (!task.waitForTask().equals(Task.SUCCESS)) {
-                vSphereCloud.Log(slaveComputer, taskListener, "Unable to power down the VM");
+            try {
+                v.powerOffVm(vm, false, false);
+            } catch (VSphereException e) {
+                vSphereCloud.Log(slaveComputer, taskListener, e, "Unable to power down the VM");
             }
         }
     }
 
-    private void revertVM(VirtualMachine vm, vSphereCloud vsC, SlaveComputer slaveComputer,
+    private void revertVM(VirtualMachine vm, VSphere v, SlaveComputer slaveComputer,
                           TaskListener taskListener)
-            throws IOException, InterruptedException, VSphereException {
+            throws IOException, VSphereException {
         if (!snapName.isEmpty()) {
-            VirtualMachineSnapshot snap = vsC.vSphereInstance().getSnapshotInTree(vm, snapName);
+            VirtualMachineSnapshot snap = v.getSnapshotInTree(vm, snapName);
             if (snap == null) {
                 throw new IOException("Virtual Machine snapshot cannot be found");
             }
 
             vSphereCloud.Log(slaveComputer, taskListener, "Reverting to snapshot:" + snapName);
-            Task task = snap.revertToSnapshot_Task(null);
-            if (!task.waitForTask().equals(Task.SUCCESS)) {
-                throw new IOException("Error while reverting to virtual machine snapshot");
-            }
+            v.revertToSnapshot(vm, snapName);
         } else {
             vSphereCloud.Log(slaveComputer, taskListener, "Reverting to current snapshot");
-            Task task = vm.revertToCurrentSnapshot_Task(null);
-            if (!task.waitForTask().equals(Task.SUCCESS)) {
-                throw new IOException("Error while reverting to virtual machine snapshot");
+            try {
+                v.revertToCurrentSnapshot(vm);
+            } catch (VSphereException e) {
+                throw new IOException("Error while reverting to virtual machine snapshot", e);
             }
         }
     }
 
-    private void resetVM(VirtualMachine vm, SlaveComputer slaveComputer, TaskListener taskListener) throws RemoteException, InterruptedException {
+    private void resetVM(VirtualMachine vm, VSphere v, SlaveComputer slaveComputer, TaskListener taskListener) {
         vSphereCloud.Log(slaveComputer, taskListener, "Resetting the VM");
-        Task taskReset = vm.resetVM_Task();
-        if (!taskReset.waitForTask().equals(Task.SUCCESS)) {
-            vSphereCloud.Log(slaveComputer, taskListener, "Unable to reset the VM");
+        try {
+            v.resetVm(vm);
+        } catch (VSphereException e) {
+            vSphereCloud.Log(slaveComputer, taskListener, e, "Unable to reset the VM");
         }
     }
 
-    private void suspendVM(VirtualMachine vm, SlaveComputer slaveComputer, TaskListener taskListener) throws RemoteException, InterruptedException {
+    /** @return true if the VM is now suspended. */
+    private boolean suspendVM(VirtualMachine vm, VSphere v, SlaveComputer slaveComputer, TaskListener taskListener) {
         vSphereCloud.Log(slaveComputer, taskListener, "Suspending the VM");
-        Task task = vm.suspendVM_Task();
-        if (!task.waitForTask().equals(Task.SUCCESS)) {
-            vSphereCloud.Log(slaveComputer, taskListener, "Unable to suspend the VM");
+        try {
+            v.suspendVm(vm);
+        } catch (VSphereException e) {
+            vSphereCloud.Log(slaveComputer, taskListener, e, "Unable to suspend the VM");
+            return false;
         }
+        return true;
     }
 }
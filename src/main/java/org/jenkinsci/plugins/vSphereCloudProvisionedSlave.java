@@ -16,6 +16,10 @@ import hudson.util.FormValidation;
 
 import java.io.IOException;
 
+import org.jenkinsci.plugins.vsphere.tools.ProvisioningTimeline;
+import org.jenkinsci.plugins.vsphere.tools.ProvisioningTimelines;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
+import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
@@ -83,6 +87,22 @@ public class vSphereCloudProvisionedSlave extends vSphereCloudSlave {
             if (!vsC.markVMOnline(c.getDisplayName(), vsL.getVmName())) {
                 throw new AbortException("The vSphere cloud will not allow this slave to start at this time.");
             }
+            // this span ends when the provisioning timeline does, in onOnline or onLaunchFailure
+            ProvisioningTimelines.get().startSpan(c.getName(), ProvisioningTimeline.CONNECT);
+        }
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) throws IOException, InterruptedException {
+            if (c.getNode() instanceof vSphereCloudProvisionedSlave) {
+                ProvisioningTimelines.get().succeeded(c.getName());
+            }
+        }
+
+        @Override
+        public void onLaunchFailure(Computer c, TaskListener taskListener) throws IOException, InterruptedException {
+            if (c.getNode() instanceof vSphereCloudProvisionedSlave) {
+                ProvisioningTimelines.get().failed(c.getName(), "Launch failed");
+            }
         }
     }
 
@@ -150,23 +170,28 @@ public class vSphereCloudProvisionedSlave extends vSphereCloudSlave {
         }
 
         public FormValidation doTestConnection(@QueryParameter String vsDescription,
-                @QueryParameter String vmName,
-                @QueryParameter String snapName) {
+                @QueryParameter final String vmName,
+                @QueryParameter final String snapName) {
             try {
                 vSphereCloud vsC = getSpecificvSphereCloud(vsDescription);
-                VirtualMachine vm = vsC.vSphereInstance().getVmByName(vmName);
-                if (vm == null) {
-                    return FormValidation.error("Virtual Machine was not found");
-                }
-
-                if (!snapName.isEmpty()) {
-                    VirtualMachineSnapshot snap = vsC.vSphereInstance().getSnapshotInTree(vm, snapName);
-                    if (snap == null) {
-                        return FormValidation.error("Virtual Machine snapshot was not found");
+                return VSphereValidation.validate(vsC, new VSphereValidation.Check() {
+                    @Override
+                    public FormValidation check(VSphere vsphere) throws Exception {
+                        VirtualMachine vm = vsphere.getVmByName(vmName);
+                        if (vm == null) {
+                            return FormValidation.error("Virtual Machine was not found");
+                        }
+
+                        if (!snapName.isEmpty()) {
+                            VirtualMachineSnapshot snap = vsphere.getSnapshotInTree(vm, snapName);
+                            if (snap == null) {
+                                return FormValidation.error("Virtual Machine snapshot was not found");
+                            }
+                        }
+
+                        return FormValidation.ok("Virtual Machine found successfully");
                     }
-                }
-
-                return FormValidation.ok("Virtual Machine found successfully");
+                }, vmName, snapName);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
@@ -10,13 +10,18 @@ import hudson.model.TaskListener;
 import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Descriptor.FormException;
+import hudson.model.Label;
 import hudson.model.Run;
+import hudson.model.labels.LabelAtom;
 import hudson.model.queue.CauseOfBlockage;
 import hudson.slaves.*;
 import hudson.util.FormValidation;
 
 import java.io.IOException;
 
+import org.jenkinsci.plugins.vsphere.tools.ProbableLaunches;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
+import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
@@ -28,9 +33,8 @@ import hudson.model.Queue;
 
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import jenkins.model.Jenkins;
@@ -53,9 +57,8 @@ public class vSphereCloudSlave extends AbstractCloudSlave {
     private transient Integer NumberOfLimitedTestRuns = 0;
     public transient Boolean doingLastInLimitedTestRun = Boolean.FALSE;
 
-    // The list of slaves that MIGHT be launched.
-    private static ConcurrentHashMap<vSphereCloudSlave, ProbableLaunchData> ProbableLaunch;
-    private static final Boolean ProbableLaunchLock = true;
+    // The slaves that MIGHT be launched.
+    private static final ProbableLaunches<vSphereCloudSlave> ProbableLaunch = new ProbableLaunches<vSphereCloudSlave>();
 
     public transient Boolean slaveIsStarting = Boolean.FALSE;
     public transient Boolean slaveIsDisconnecting = Boolean.FALSE;
@@ -149,73 +152,40 @@ public class vSphereCloudSlave extends AbstractCloudSlave {
         }
     }
 
-    private static class ProbableLaunchData {
-
-        public vSphereCloudSlave slave;
-        public Date expiration;
-
-        public ProbableLaunchData(vSphereCloudSlave slave, Date expiration) {
-            this.slave = slave;
-            this.expiration = expiration;
-        }
-    }
-
-    private static void InitProbableLaunch() {
-        synchronized(ProbableLaunchLock) {
-            if (ProbableLaunch == null) {
-                ProbableLaunch = new ConcurrentHashMap<vSphereCloudSlave, ProbableLaunchData>();
-            }
-        }
-    }
-
     public static void AddProbableLaunch(vSphereCloudSlave slave, Date target) {
-        synchronized (ProbableLaunchLock) {
-            InitProbableLaunch();
-            ProbableLaunch.put(slave, new ProbableLaunchData(slave, target));
+        final Set<LabelAtom> labels = slave.getAssignedLabels();
+        final List<String> labelNames = new ArrayList<String>(labels.size());
+        for (final LabelAtom label : labels) {
+            labelNames.add(label.getName());
         }
+        ProbableLaunch.add(slave, labelNames, target.getTime());
     }
 
     public static void RemoveProbableLaunch(vSphereCloudSlave slave) {
-        synchronized (ProbableLaunchLock) {
-            if (ProbableLaunch != null) {
-                ProbableLaunch.remove(slave);
-            }
-        }
+        ProbableLaunch.remove(slave);
     }
 
     public static void ProbableLaunchCleanup() {
-        synchronized (ProbableLaunchLock) {
-            InitProbableLaunch();
-            // Clean out any probable launches that have elapsed.
-            Date now = new Date();
-            Iterator<Entry<vSphereCloudSlave, ProbableLaunchData>> it = ProbableLaunch.entrySet().iterator();
-            while (it.hasNext()) {
-                Entry<vSphereCloudSlave, ProbableLaunchData> entry = it.next();
-                if (entry.getValue().expiration.before(now)) {
-                    it.remove();
-                }
-            }
-        }
+        // Clean out any probable launches that have elapsed.
+        ProbableLaunch.removeExpired();
     }
 
     public static int ProbableLaunchCount() {
-        synchronized (ProbableLaunchLock) {
-            if (ProbableLaunch != null) {
-                return ProbableLaunch.size();
-            }
-            return 0;
-        }
+        return ProbableLaunch.size();
     }
 
     public static vSphereCloudSlave ProbablyLaunchCanHandle(BuildableItem item) {
-        synchronized (ProbableLaunchLock) {
-            InitProbableLaunch();
-            Iterator<Entry<vSphereCloudSlave, ProbableLaunchData>> it = ProbableLaunch.entrySet().iterator();
-            while (it.hasNext()) {
-                ProbableLaunchData data = it.next().getValue();
-                if (data.slave.canTake(item) == null) {
-                    return data.slave;
-                }
+        final Label label = item.getAssignedLabel();
+        final List<vSphereCloudSlave> candidates;
+        if (label instanceof LabelAtom) {
+            // only slaves with that label can take it
+            candidates = ProbableLaunch.getWithLabel(label.getName());
+        } else {
+            candidates = ProbableLaunch.getAll();
+        }
+        for (final vSphereCloudSlave slave : candidates) {
+            if (slave.canTake(item) == null) {
+                return slave;
             }
         }
         return null;
@@ -409,23 +379,28 @@ public class vSphereCloudSlave extends AbstractCloudSlave {
         }
 
         public FormValidation doTestConnection(@QueryParameter String vsDescription,
-                @QueryParameter String vmName,
-                @QueryParameter String snapName) {
+                @QueryParameter final String vmName,
+                @QueryParameter final String snapName) {
             try {
                 vSphereCloud vsC = getSpecificvSphereCloud(vsDescription);
-                VirtualMachine vm = vsC.vSphereInstance().getVmByName(vmName);
-                if (vm == null) {
-                    return FormValidation.error("Virtual Machine was not found");
-                }
-
-                if (!snapName.isEmpty()) {
-                    VirtualMachineSnapshot snap = vsC.vSphereInstance().getSnapshotInTree(vm, snapName);
-                    if (snap == null) {
-                        return FormValidation.error("Virtual Machine snapshot was not found");
+                return VSphereValidation.validate(vsC, new VSphereValidation.Check() {
+                    @Override
+                    public FormValidation check(VSphere vsphere) throws Exception {
+                        VirtualMachine vm = vsphere.getVmByName(vmName);
+                        if (vm == null) {
+                            return FormValidation.error("Virtual Machine was not found");
+                        }
+
+                        if (!snapName.isEmpty()) {
+                            VirtualMachineSnapshot snap = vsphere.getSnapshotInTree(vm, snapName);
+                            if (snap == null) {
+                                return FormValidation.error("Virtual Machine snapshot was not found");
+                            }
+                        }
+
+                        return FormValidation.ok("Virtual Machine found successfully");
                     }
-                }
-
-                return FormValidation.ok("Virtual Machine found successfully");
+                }, vmName, snapName);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
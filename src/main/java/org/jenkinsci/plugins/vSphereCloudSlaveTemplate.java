@@ -54,16 +54,25 @@ import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 import jenkins.slaves.JnlpSlaveAgentProtocol;
 
+import org.jenkinsci.plugins.vsphere.BufferedCloudRetentionStrategy;
+import org.jenkinsci.plugins.vsphere.ReuseCloudRetentionStrategy;
 import org.jenkinsci.plugins.vsphere.RunOnceCloudRetentionStrategy;
+import org.jenkinsci.plugins.vsphere.SuspendingCloudRetentionStrategy;
 import org.jenkinsci.plugins.vsphere.VSphereCloudRetentionStrategy;
 import org.jenkinsci.plugins.vsphere.VSphereConnectionConfig;
 import org.jenkinsci.plugins.vsphere.VSphereGuestInfoProperty;
 import org.jenkinsci.plugins.vsphere.builders.Messages;
+import org.jenkinsci.plugins.vsphere.tools.CloudPlacementAlgorithm.Placement;
 import org.jenkinsci.plugins.vsphere.tools.CloudProvisioningState;
+import org.jenkinsci.plugins.vsphere.tools.LinkedCloneReplicas;
+import org.jenkinsci.plugins.vsphere.tools.ProvisioningTimeline;
+import org.jenkinsci.plugins.vsphere.tools.ProvisioningTimelines;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
+import org.jenkinsci.plugins.vsphere.tools.VSphereRequestScheduler;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
@@ -114,6 +123,9 @@ public class vSphereCloudSlaveTemplate implements Describable<vSphereCloudSlaveT
     private final List<? extends VSphereGuestInfoProperty> guestInfoProperties;
     private ComputerLauncher launcher;
     private RetentionStrategy<?> retentionStrategy;
+    private String candidateClusters;
+    private String candidateDatastores;
+    private boolean useDatastoreReplicas;
 
     private transient Set<LabelAtom> labelSet;
     protected transient vSphereCloud parent;
@@ -209,6 +221,69 @@ public class vSphereCloudSlaveTemplate implements Describable<vSphereCloudSlaveT
     public String getDatastore() {
         return this.datastore;
     }
+
+    public String getCandidateClusters() {
+        return this.candidateClusters;
+    }
+
+    @DataBoundSetter
+    public void setCandidateClusters(final String candidateClusters) {
+        this.candidateClusters = Util.fixEmptyAndTrim(candidateClusters);
+    }
+
+    /**
+     * @return The clusters we may place clones on, in order of preference, or
+     *         an empty list if we're only to use {@link #getCluster()}.
+     */
+    public List<String> getCandidateClusterList() {
+        return splitNames(this.candidateClusters);
+    }
+
+    public String getCandidateDatastores() {
+        return this.candidateDatastores;
+    }
+
+    @DataBoundSetter
+    public void setCandidateDatastores(final String candidateDatastores) {
+        this.candidateDatastores = Util.fixEmptyAndTrim(candidateDatastores);
+    }
+
+    /**
+     * @return The datastores we may place clones on, in order of preference,
+     *         or an empty list if we're only to use {@link #getDatastore()}.
+     */
+    public List<String> getCandidateDatastoreList() {
+        return splitNames(this.candidateDatastores);
+    }
+
+    public boolean getUseDatastoreReplicas() {
+        return this.useDatastoreReplicas;
+    }
+
+    /**
+     * @param useDatastoreReplicas
+     *            If true, and we're making linked clones, then each clone is
+     *            made from a copy of the master image that lives on the
+     *            clone's own datastore (see {@link LinkedCloneReplicas}).
+     */
+    @DataBoundSetter
+    public void setUseDatastoreReplicas(final boolean useDatastoreReplicas) {
+        this.useDatastoreReplicas = useDatastoreReplicas;
+    }
+
+    private static List<String> splitNames(final String names) {
+        final List<String> result = new ArrayList<String>();
+        if (names == null) {
+            return result;
+        }
+        for (final String name : names.split("[,\\n\\r]+")) {
+            final String trimmed = Util.fixEmptyAndTrim(name);
+            if (trimmed != null && !result.contains(trimmed)) {
+                result.add(trimmed);
+            }
+        }
+        return result;
+    }
     
     public String getFolder() {
         return this.folder;
@@ -354,7 +429,7 @@ public class vSphereCloudSlaveTemplate implements Describable<vSphereCloudSlaveT
     public vSphereCloudProvisionedSlave provision(final CloudProvisioningState algorithm, final String cloneName, final TaskListener listener) throws VSphereException, FormException, IOException, InterruptedException {
         vSphereCloudProvisionedSlave slave = null;
         final PrintStream logger = listener.getLogger();
-        final VSphere vSphere = getParent().vSphereInstance();
+        final VSphere vSphere = getParent().vSphereInstance(VSphereRequestScheduler.Priority.PROVISIONING);
         final boolean POWER_ON = true;
         final boolean useCurrentSnapshot;
         final String snapshotToUse;
@@ -371,19 +446,53 @@ public class vSphereCloudSlaveTemplate implements Describable<vSphereCloudSlaveT
             useCurrentSnapshot = false;
             snapshotToUse = null;
         }
-        vSphere.cloneOrDeployVm(cloneName, this.masterImageName, this.linkedClone, this.resourcePool, this.cluster, this.datastore, this.folder, useCurrentSnapshot, snapshotToUse, POWER_ON, this.customizationSpec, logger);
+        final Placement placement = getParent().reservePlacement(this);
+        final String clusterToUse = placement == null || placement.getCluster() == null ? this.cluster : placement.getCluster();
+        final String datastoreToUse = placement == null || placement.getDatastore() == null ? this.datastore : placement.getDatastore();
+        final ProvisioningTimelines timelines = ProvisioningTimelines.get();
+        final ProvisioningTimeline.Span cloneSpan = timelines.startSpan(cloneName, ProvisioningTimeline.CLONE);
+        try {
+            if (this.linkedClone && this.useDatastoreReplicas && datastoreToUse != null && !datastoreToUse.isEmpty()) {
+                final String replicaName = LinkedCloneReplicas.ensureReplica(vSphere, this.masterImageName, useCurrentSnapshot, snapshotToUse, this.resourcePool, clusterToUse, datastoreToUse, this.folder, logger);
+                final boolean useReplicaSnapshot = true;
+                final String noNamedSnapshot = null;
+                vSphere.cloneOrDeployVm(cloneName, replicaName, this.linkedClone, this.resourcePool, clusterToUse, datastoreToUse, this.folder, useReplicaSnapshot, noNamedSnapshot, POWER_ON, this.customizationSpec, logger);
+            } else {
+                vSphere.cloneOrDeployVm(cloneName, this.masterImageName, this.linkedClone, this.resourcePool, clusterToUse, datastoreToUse, this.folder, useCurrentSnapshot, snapshotToUse, POWER_ON, this.customizationSpec, logger);
+            }
+        } finally {
+            getParent().releasePlacement(placement);
+        }
+        cloneSpan.close();
         try {
             if( this.guestInfoProperties!=null && !this.guestInfoProperties.isEmpty()) {
-                final Map<String, String> resolvedGuestInfoProperties = calculateGuestInfoProperties(cloneName, listener);
+                final ProvisioningTimeline.Span guestInfoSpan = timelines.startSpan(cloneName, ProvisioningTimeline.GUEST_INFO);
+                final Map<String, String> resolvedGuestInfoProperties = calculateGuestInfoProperties(cloneName, clusterToUse, datastoreToUse, listener);
                 if( !resolvedGuestInfoProperties.isEmpty() ) {
                     LOGGER.log(Level.FINE, "Provisioning slave {0} with guestinfo properties {1}", new Object[]{ cloneName, resolvedGuestInfoProperties });
                     vSphere.addGuestInfoVariable(cloneName, resolvedGuestInfoProperties);
                 }
+                guestInfoSpan.close();
             }
+            final ProvisioningTimeline.Span ipSpan = timelines.startSpan(cloneName, ProvisioningTimeline.IP);
             final ComputerLauncher configuredLauncher = determineLauncher(vSphere, cloneName);
+            ipSpan.close();
             final RetentionStrategy<?> configuredStrategy = determineRetention();
-            final String snapshotNameForLauncher = ""; /* we don't make the launcher do anything with snapshots because our clone won't be created with any */
-            slave = new vSphereCloudProvisionedSlave(cloneName, this.templateDescription, this.remoteFS, String.valueOf(this.numberOfExecutors), this.mode, this.labelString, configuredLauncher, configuredStrategy, this.nodeProperties, this.parent.getVsDescription(), cloneName, this.forceVMLaunch, this.waitForVMTools, snapshotNameForLauncher, String.valueOf(this.launchDelay), null, String.valueOf(this.limitedRunCount));
+            final String snapshotNameForLauncher;
+            final String idleOptionForLauncher;
+            if (configuredStrategy instanceof ReuseCloudRetentionStrategy) {
+                /* the launcher reverts to our snapshot each time it connects, and leaves the VM alone when it disconnects */
+                takeReuseSnapshot(vSphere, cloneName);
+                snapshotNameForLauncher = ReuseCloudRetentionStrategy.SNAPSHOT_NAME;
+                idleOptionForLauncher = "Nothing";
+            } else if (configuredStrategy instanceof SuspendingCloudRetentionStrategy) {
+                snapshotNameForLauncher = "";
+                idleOptionForLauncher = "Suspend"; /* so the VM is suspended, rather than shut down, when the strategy disconnects the slave */
+            } else {
+                snapshotNameForLauncher = ""; /* we don't make the launcher do anything with snapshots because our clone won't be created with any */
+                idleOptionForLauncher = null;
+            }
+            slave = new vSphereCloudProvisionedSlave(cloneName, this.templateDescription, this.remoteFS, String.valueOf(this.numberOfExecutors), this.mode, this.labelString, configuredLauncher, configuredStrategy, this.nodeProperties, this.parent.getVsDescription(), cloneName, this.forceVMLaunch, this.waitForVMTools, snapshotNameForLauncher, String.valueOf(this.launchDelay), idleOptionForLauncher, String.valueOf(this.limitedRunCount));
         } finally {
             // if anything went wrong, try to tidy up
             if( slave==null ) {
@@ -417,6 +526,25 @@ public class vSphereCloudSlaveTemplate implements Describable<vSphereCloudSlaveT
         throw new IllegalStateException("Unsupported launcher in template configuration");
     }
 
+    /**
+     * Takes the memory snapshot that {@link ReuseCloudRetentionStrategy}
+     * reverts the VM to between builds. The VM has to have booted first, so
+     * if we've not already waited for it to get an IP address, we do so now.
+     */
+    private void takeReuseSnapshot(final VSphere vSphere, final String cloneName) throws VSphereException {
+        if (!(launcher instanceof SSHLauncher)) {
+            LOGGER.log(Level.FINER, "Waiting for slave {0} to boot before taking its reuse snapshot", cloneName);
+            final String ip = vSphere.getIp(vSphere.getVmByName(cloneName), 1000);
+            if (ip == null) {
+                // a snapshot of a VM that's still booting would be no use to reuse
+                throw new VSphereException("Slave " + cloneName + " did not boot in time to take its reuse snapshot");
+            }
+        }
+        LOGGER.log(Level.FINER, "Taking reuse snapshot of slave {0}", cloneName);
+        final boolean snapMemory = true;
+        vSphere.takeSnapshot(cloneName, ReuseCloudRetentionStrategy.SNAPSHOT_NAME, "Reverted to after each build", snapMemory);
+    }
+
     private RetentionStrategy<?> determineRetention() {
         return retentionStrategy;
     }
@@ -531,14 +659,17 @@ public class vSphereCloudSlaveTemplate implements Describable<vSphereCloudSlaveT
         public static List<Descriptor<RetentionStrategy<?>>> getRetentionStrategyDescriptors() {
             final List<Descriptor<RetentionStrategy<?>>> result = new ArrayList<>();
             result.add(RunOnceCloudRetentionStrategy.DESCRIPTOR);
+            result.add(ReuseCloudRetentionStrategy.DESCRIPTOR);
             result.add(VSphereCloudRetentionStrategy.DESCRIPTOR);
+            result.add(BufferedCloudRetentionStrategy.DESCRIPTOR);
+            result.add(SuspendingCloudRetentionStrategy.DESCRIPTOR);
             return result;
         }
     }
 
-    private Map<String, String> calculateGuestInfoProperties(final String cloneName, final TaskListener listener)
-            throws IOException, InterruptedException {
-        final EnvVars knownVariables = calculateVariablesForGuestInfo(cloneName, listener);
+    private Map<String, String> calculateGuestInfoProperties(final String cloneName, final String clusterUsed,
+            final String datastoreUsed, final TaskListener listener) throws IOException, InterruptedException {
+        final EnvVars knownVariables = calculateVariablesForGuestInfo(cloneName, clusterUsed, datastoreUsed, listener);
         final Map<String, String> resolvedGuestInfoProperties = new LinkedHashMap<String, String>();
         for( final VSphereGuestInfoProperty property : this.guestInfoProperties ) {
             final String name = property.getName();
@@ -549,8 +680,8 @@ public class vSphereCloudSlaveTemplate implements Describable<vSphereCloudSlaveT
         return resolvedGuestInfoProperties;
     }
 
-    private EnvVars calculateVariablesForGuestInfo(final String cloneName, final TaskListener listener)
-            throws IOException, InterruptedException {
+    private EnvVars calculateVariablesForGuestInfo(final String cloneName, final String clusterUsed,
+            final String datastoreUsed, final TaskListener listener) throws IOException, InterruptedException {
         final EnvVars knownVariables = new EnvVars();
         // Maintenance note: If you update this method, you must also update the
         // UI help page to match.
@@ -567,8 +698,8 @@ public class vSphereCloudSlaveTemplate implements Describable<vSphereCloudSlaveT
         addEnvVars(knownVariables, listener, this.nodeProperties);
         addEnvVar(knownVariables, "NODE_NAME", cloneName);
         addEnvVar(knownVariables, "NODE_LABELS", getLabelSet() == null ? null : Util.join(getLabelSet(), " "));
-        addEnvVar(knownVariables, "cluster", this.cluster);
-        addEnvVar(knownVariables, "datastore", this.datastore);
+        addEnvVar(knownVariables, "cluster", clusterUsed);
+        addEnvVar(knownVariables, "datastore", datastoreUsed);
         addEnvVar(knownVariables, "folder", this.folder);
         addEnvVar(knownVariables, "customizationSpec", this.customizationSpec);
         addEnvVar(knownVariables, "labelString", this.labelString);
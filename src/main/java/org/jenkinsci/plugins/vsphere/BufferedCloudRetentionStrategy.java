@@ -0,0 +1,170 @@
+package org.jenkinsci.plugins.vsphere;
+
+import hudson.model.Computer;
+import hudson.model.Descriptor;
+import hudson.slaves.AbstractCloudComputer;
+import hudson.slaves.AbstractCloudSlave;
+import hudson.slaves.CloudRetentionStrategy;
+import hudson.slaves.RetentionStrategy;
+import hudson.util.TimeUnit2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.vSphereCloud;
+import org.jenkinsci.plugins.vSphereCloudProvisionedSlave;
+import org.jenkinsci.plugins.vsphere.tools.IdleCapacityBuffer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Like {@link VSphereCloudRetentionStrategy}, but rather than terminating
+ * every slave that has been idle for too long, we look at all the slaves that
+ * were provisioned from the same template and only terminate those that are
+ * surplus to requirements.
+ * <p>
+ * We keep enough slaves to cope with the peak demand seen over the last
+ * <code>hysteresisMinutes</code>, plus <code>bufferSize</code> spare slaves.
+ * Any others that have been idle for <code>idleMinutes</code> are terminated,
+ * newest first, as older slaves are likely to have the warmer caches.
+ * </p>
+ * <p>
+ * The demand is remembered by the {@link vSphereCloud} (see
+ * {@link vSphereCloud#getIdleCapacityBuffer(String, long)}), not by us, as
+ * each slave has its own copy of this strategy once Jenkins restarts or the
+ * template is reconfigured. Slaves that didn't come from a template are
+ * treated as {@link CloudRetentionStrategy} would.
+ * </p>
+ */
+public class BufferedCloudRetentionStrategy extends CloudRetentionStrategy {
+
+    private static final Logger LOGGER = Logger.getLogger(BufferedCloudRetentionStrategy.class.getName());
+
+    private final int idleMinutes;
+    private final int bufferSize;
+    private final int hysteresisMinutes;
+
+    @DataBoundConstructor
+    public BufferedCloudRetentionStrategy(int idleMinutes, int bufferSize, int hysteresisMinutes) {
+        super(idleMinutes);
+        this.idleMinutes = idleMinutes;
+        this.bufferSize = bufferSize;
+        this.hysteresisMinutes = hysteresisMinutes;
+    }
+
+    public int getIdleMinutes() {
+        return idleMinutes;
+    }
+
+    /** @return How many idle slaves we keep over and above the recent peak demand. */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /** @return How long we remember peak demand for. */
+    public int getHysteresisMinutes() {
+        return hysteresisMinutes;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public long check(final AbstractCloudComputer c) {
+        if (disabled) {
+            return 1;
+        }
+        final vSphereCloud cloud = VSphereCloudRegistry.getForComputer(c);
+        final long hysteresisMillis = TimeUnit2.MINUTES.toMillis(hysteresisMinutes);
+        final IdleCapacityBuffer buffer = cloud == null ? null
+                : cloud.getIdleCapacityBuffer(c.getName(), hysteresisMillis);
+        if (buffer == null) {
+            return super.check(c);
+        }
+        final long now = System.currentTimeMillis();
+        final List<AbstractCloudComputer<?>> peers = findPeers(cloud, c.getName());
+        int busyExecutors = 0;
+        int executors = 0;
+        int onlineSlaves = 0;
+        final List<AbstractCloudComputer<?>> candidates = new ArrayList<AbstractCloudComputer<?>>();
+        for (final AbstractCloudComputer<?> peer : peers) {
+            busyExecutors += peer.countBusy();
+            if (!peer.isOnline() || !peer.isAcceptingTasks()) {
+                continue; // already on its way out, or not yet in
+            }
+            onlineSlaves++;
+            executors += peer.getNumExecutors();
+            if (peer.isIdle() && now - peer.getIdleStartMilliseconds() > TimeUnit2.MINUTES.toMillis(idleMinutes)) {
+                candidates.add(peer);
+            }
+        }
+        buffer.recordDemand(now, busyExecutors);
+        if (!candidates.contains(c)) {
+            return 1;
+        }
+        final int peakDemand = buffer.getPeakDemand(now, hysteresisMillis);
+        final int executorsPerSlave = onlineSlaves == 0 ? 1 : executors / onlineSlaves;
+        final int surplus = IdleCapacityBuffer.surplusSlaves(onlineSlaves, peakDemand, executorsPerSlave, bufferSize);
+        // every peer works out the same ranking, so they agree on who goes
+        Collections.sort(candidates, NEWEST_FIRST);
+        final int rank = candidates.indexOf(c);
+        if (rank >= surplus) {
+            LOGGER.log(Level.FINEST, "Keeping idle {0}: {1} online, peak demand {2}, {3} surplus",
+                    new Object[] { c.getName(), onlineSlaves, peakDemand, surplus });
+            return 1;
+        }
+        LOGGER.log(Level.FINE, "Terminating {0}: idle for more than {1} minutes and {2} online with peak demand of {3}",
+                new Object[] { c.getName(), idleMinutes, onlineSlaves, peakDemand });
+        c.setAcceptingTasks(false);
+        try {
+            final AbstractCloudSlave node = c.getNode();
+            if (node != null) {
+                node.terminate();
+            }
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Failed to terminate " + c.getName(), e);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to terminate " + c.getName(), e);
+        }
+        return 1;
+    }
+
+    /** @return The computers of all the slaves from the same template as the named one. */
+    private static List<AbstractCloudComputer<?>> findPeers(final vSphereCloud cloud, final String nodeName) {
+        final List<AbstractCloudComputer<?>> result = new ArrayList<AbstractCloudComputer<?>>();
+        for (final vSphereCloudProvisionedSlave slave : cloud.getSlavesFromSameTemplate(nodeName)) {
+            final Computer computer = slave.toComputer();
+            if (computer instanceof AbstractCloudComputer) {
+                result.add((AbstractCloudComputer<?>) computer);
+            }
+        }
+        return result;
+    }
+
+    private static final Comparator<AbstractCloudComputer<?>> NEWEST_FIRST = new Comparator<AbstractCloudComputer<?>>() {
+        @Override
+        public int compare(AbstractCloudComputer<?> o1, AbstractCloudComputer<?> o2) {
+            final int c = Long.compare(o2.getConnectTime(), o1.getConnectTime());
+            return c != 0 ? c : o1.getName().compareTo(o2.getName());
+        }
+    };
+
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return DESCRIPTOR;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+
+    public static final class DescriptorImpl extends Descriptor<RetentionStrategy<?>> {
+        @Override
+        public String getDisplayName() {
+            return "vSphere Buffered Idle Retention Strategy";
+        }
+    }
+}
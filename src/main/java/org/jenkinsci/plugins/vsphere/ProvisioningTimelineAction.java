@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.vsphere;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Computer;
+import hudson.model.TransientComputerActionFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.plugins.vSphereCloudProvisionedSlave;
+import org.jenkinsci.plugins.vsphere.tools.ProvisioningTimeline;
+import org.jenkinsci.plugins.vsphere.tools.ProvisioningTimelines;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Shows, on the page of an agent that a vSphere cloud provisioned, how long
+ * each phase of its provisioning took.
+ */
+public class ProvisioningTimelineAction implements Action {
+    private final Computer computer;
+
+    public ProvisioningTimelineAction(Computer computer) {
+        this.computer = computer;
+    }
+
+    public Computer getComputer() {
+        return computer;
+    }
+
+    /** @return The agent's timeline, or null if we no longer have it. */
+    public ProvisioningTimeline getTimeline() {
+        return ProvisioningTimelines.get().find(computer.getName());
+    }
+
+    public String getIconFileName() {
+        return getTimeline() == null ? null : "clock.png";
+    }
+
+    public String getDisplayName() {
+        return "Provisioning Timeline";
+    }
+
+    public String getUrlName() {
+        return "provisioning-timeline";
+    }
+
+    /** Serves the timeline in our own JSON format. */
+    public void doJson(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        computer.checkPermission(Computer.EXTENDED_READ);
+        final ProvisioningTimeline timeline = getTimeline();
+        writeJson(rsp, timeline == null ? new JSONObject(true) : timeline.toJSON());
+    }
+
+    /** Serves the timeline as OpenTelemetry (OTLP/JSON) spans. */
+    public void doOtel(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        computer.checkPermission(Computer.EXTENDED_READ);
+        final ProvisioningTimeline timeline = getTimeline();
+        writeJson(rsp, VSphereMetricsAction.toOtlp(timeline == null ? Collections.<ProvisioningTimeline> emptyList()
+                : Collections.singletonList(timeline)));
+    }
+
+    static void writeJson(StaplerResponse rsp, JSONObject json) throws IOException {
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(json.toString(2));
+    }
+
+    @Extension
+    public static class Factory extends TransientComputerActionFactory {
+        @Override
+        public Collection<? extends Action> createFor(Computer target) {
+            if (target.getNode() instanceof vSphereCloudProvisionedSlave) {
+                return Collections.singletonList(new ProvisioningTimelineAction(target));
+            }
+            return Collections.emptyList();
+        }
+    }
+}
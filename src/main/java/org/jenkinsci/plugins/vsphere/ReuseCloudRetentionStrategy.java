@@ -0,0 +1,176 @@
+package org.jenkinsci.plugins.vsphere;
+
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Queue;
+import hudson.slaves.AbstractCloudComputer;
+import hudson.slaves.OfflineCause;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.vSphereCloudSlave;
+import org.jenkinsci.plugins.vsphere.tools.ReuseTracker;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Like {@link RunOnceCloudRetentionStrategy}, but instead of destroying the VM
+ * after each build, the slave is disconnected, its VM is reverted to the
+ * memory snapshot {@link #SNAPSHOT_NAME} (which is taken when the VM is
+ * provisioned, once it has booted) and it is then reconnected, ready for the
+ * next build. Reverting to a memory snapshot is much quicker than cloning and
+ * booting a new VM.
+ * <p>
+ * The VM is destroyed once it has been reused <code>maxReuses</code> times,
+ * if it has been idle for <code>idleMinutes</code>, or if a build fails in a
+ * way that may have left the slave in a bad state.
+ * </p>
+ */
+public class ReuseCloudRetentionStrategy extends RunOnceCloudRetentionStrategy {
+
+    private static final Logger LOGGER = Logger.getLogger(ReuseCloudRetentionStrategy.class.getName());
+
+    /** The name of the snapshot that the VM is reverted to between builds. */
+    public static final String SNAPSHOT_NAME = "jenkins-reuse";
+
+    private final int maxReuses;
+
+    @DataBoundConstructor
+    public ReuseCloudRetentionStrategy(int idleMinutes, int maxReuses) {
+        super(idleMinutes);
+        this.maxReuses = maxReuses;
+    }
+
+    /** @return How many times a VM may be reused before it is destroyed, or 0 for no limit. */
+    public int getMaxReuses() {
+        return maxReuses;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public long check(final AbstractCloudComputer c) {
+        final ReuseTracker<AbstractCloudComputer<?>> tracker = getTracker();
+        if (tracker.isReverting(c)) {
+            // it's offline on purpose, not idle
+            return 1;
+        }
+        if (tracker.isPending(c)) {
+            // in case its last builds finished together and each left it to the other
+            if (c.countBusy() == 0 && tracker.revertIfPending(c)) {
+                revert(c);
+            }
+            return 1;
+        }
+        return super.check(c);
+    }
+
+    @Override
+    public void taskCompleted(final Executor executor, final Queue.Task task, final long durationMS) {
+        final AbstractCloudComputer<?> c = (AbstractCloudComputer<?>) executor.getOwner();
+        if (!(c.getNode() instanceof vSphereCloudSlave)) {
+            super.taskCompleted(executor, task, durationMS);
+            return;
+        }
+        final String cname = c.getName();
+        final ReuseTracker<AbstractCloudComputer<?>> tracker = getTracker();
+        switch (tracker.taskCompleted(c, isAnyOtherExecutorBusy(c, executor), maxReuses)) {
+        case NOTHING:
+            LOGGER.log(Level.FINER, "Revert of {0} is already in progress.", cname);
+            return;
+        case TERMINATE:
+            LOGGER.log(Level.FINE, "Terminating {0} as it has been reused {1} times",
+                    new Object[] { cname, tracker.getReuseCount(c) });
+            super.taskCompleted(executor, task, durationMS);
+            return;
+        case WAIT:
+            LOGGER.log(Level.FINE, "Reverting {0} for reuse once its other builds have finished", cname);
+            c.setAcceptingTasks(false);
+            return;
+        case REVERT:
+            LOGGER.log(Level.FINE, "Reverting {0} for reuse since {1} seems to be finished",
+                    new Object[] { cname, executor.getCurrentExecutable() });
+            revert(c);
+            return;
+        }
+    }
+
+    @Override
+    public void taskCompletedWithProblems(final Executor executor, final Queue.Task task, final long durationMS,
+            final Throwable problems) {
+        // the slave is to be terminated, so its other builds mustn't revert it
+        getTracker().cancelPending((AbstractCloudComputer<?>) executor.getOwner());
+        super.taskCompletedWithProblems(executor, task, durationMS, problems);
+    }
+
+    private void revert(final AbstractCloudComputer<?> c) {
+        final String cname = c.getName();
+        c.setAcceptingTasks(false);
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            @Override
+            public void run() {
+                boolean reverted = false;
+                try {
+                    // disconnecting leaves the VM running, and reconnecting
+                    // reverts it to our snapshot before the slave is launched.
+                    c.disconnect(new OfflineCause.ByCLI("vSphere Plugin reverting the slave for reuse")).get();
+                    c.connect(false).get();
+                    reverted = c.isOnline();
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to revert " + cname + " for reuse", e);
+                } finally {
+                    getTracker().revertFinished(c);
+                }
+                if (reverted) {
+                    LOGGER.log(Level.FINER, "Reverted {0} for reuse.", cname);
+                    c.setAcceptingTasks(true);
+                } else {
+                    done(c);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if any of the slave's executors, other than the one whose
+     *         build has just finished, are busy.
+     */
+    private static boolean isAnyOtherExecutorBusy(AbstractCloudComputer<?> c, Executor finished) {
+        for (final Executor e : c.getExecutors()) {
+            if (e != finished && e.isBusy()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One {@link ReuseCloudRetentionStrategy} can be shared across multiple
+     * slaves, so we need to track their reuse individually. The counts are
+     * lost on restart, which merely means that a VM gets reused a little more.
+     */
+    private transient ReuseTracker<AbstractCloudComputer<?>> tracker;
+
+    private synchronized ReuseTracker<AbstractCloudComputer<?>> getTracker() {
+        if (tracker == null) {
+            tracker = new ReuseTracker<AbstractCloudComputer<?>>();
+        }
+        return tracker;
+    }
+
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return DESCRIPTOR;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+
+    public static final class DescriptorImpl extends RunOnceCloudRetentionStrategy.DescriptorImpl {
+        @Override
+        public String getDisplayName() {
+            return "vSphere Reuse Retention Strategy";
+        }
+    }
+}
@@ -106,7 +106,7 @@ public class RunOnceCloudRetentionStrategy extends CloudRetentionStrategy implem
         done(c);
     }
 
-    private void done(final AbstractCloudComputer<?> c) {
+    void done(final AbstractCloudComputer<?> c) {
         c.setAcceptingTasks(false);
         final String cname = c.getName();
         synchronized (this) {
@@ -186,7 +186,7 @@ public class RunOnceCloudRetentionStrategy extends CloudRetentionStrategy implem
     @Restricted(NoExternalUse.class)
     public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
 
-    public static final class DescriptorImpl extends Descriptor<RetentionStrategy<?>> {
+    public static class DescriptorImpl extends Descriptor<RetentionStrategy<?>> {
         @Override
         public String getDisplayName() {
             return "vSphere Run-Once Retention Strategy";
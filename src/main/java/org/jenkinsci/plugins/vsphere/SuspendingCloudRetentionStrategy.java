@@ -0,0 +1,133 @@
+package org.jenkinsci.plugins.vsphere;
+
+import hudson.model.Descriptor;
+import hudson.slaves.AbstractCloudComputer;
+import hudson.slaves.AbstractCloudSlave;
+import hudson.slaves.CloudRetentionStrategy;
+import hudson.slaves.OfflineCause;
+import hudson.slaves.RetentionStrategy;
+import hudson.util.TimeUnit2;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.vSphereCloud;
+import org.jenkinsci.plugins.vSphereCloudLauncher;
+import org.jenkinsci.plugins.vSphereCloudProvisionedSlave;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Instead of destroying slaves that have been idle for <code>idleMinutes</code>,
+ * we disconnect them, which suspends their VMs (keeping their memory on the
+ * datastore), and leave them in Jenkins. The {@link vSphereCloud} resumes
+ * suspended slaves in preference to cloning new ones, as that only takes
+ * seconds.
+ * <p>
+ * Slaves that have been suspended for <code>suspendedMinutes</code> without
+ * being needed are destroyed, as are slaves that weren't provisioned from a
+ * template.
+ * </p>
+ * <p>
+ * A slave only counts as suspended once its launcher's "Suspend" idle action
+ * has actually suspended the VM, so templates using this strategy should use
+ * that idle action.
+ * </p>
+ */
+public class SuspendingCloudRetentionStrategy extends CloudRetentionStrategy {
+
+    private static final Logger LOGGER = Logger.getLogger(SuspendingCloudRetentionStrategy.class.getName());
+
+    private final int idleMinutes;
+    private final int suspendedMinutes;
+
+    @DataBoundConstructor
+    public SuspendingCloudRetentionStrategy(int idleMinutes, int suspendedMinutes) {
+        super(idleMinutes);
+        this.idleMinutes = idleMinutes;
+        this.suspendedMinutes = suspendedMinutes;
+    }
+
+    public int getIdleMinutes() {
+        return idleMinutes;
+    }
+
+    /** @return How long a slave can stay suspended before it's destroyed, or 0 for no limit. */
+    public int getSuspendedMinutes() {
+        return suspendedMinutes;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public long check(final AbstractCloudComputer c) {
+        if (disabled) {
+            return 1;
+        }
+        final vSphereCloud cloud = VSphereCloudRegistry.getForComputer(c);
+        if (!(c.getNode() instanceof vSphereCloudProvisionedSlave) || cloud == null) {
+            return super.check(c);
+        }
+        final long now = System.currentTimeMillis();
+        if (c.isOffline()) {
+            if (c.isConnecting()) {
+                return 1;
+            }
+            long suspendedSince = cloud.getSuspendedSince(c.getName());
+            if (suspendedSince < 0L) {
+                // it may have been suspended before Jenkins restarted
+                suspendedSince = ((vSphereCloudLauncher) c.getLauncher()).rediscoverSuspendedVm(c);
+            }
+            if (suspendedMinutes > 0 && suspendedSince >= 0L
+                    && now - suspendedSince > TimeUnit2.MINUTES.toMillis(suspendedMinutes)) {
+                LOGGER.log(Level.FINE, "Terminating {0} because it has been suspended for more than {1} minutes",
+                        new Object[] { c.getName(), suspendedMinutes });
+                terminate(c);
+            }
+            return 1;
+        }
+        // in case it was reconnected by something other than the cloud
+        cloud.provisionedSlaveHasResumed(c.getName());
+        if (c.isIdle()) {
+            final long idleMilliseconds = now - c.getIdleStartMilliseconds();
+            if (idleMilliseconds > TimeUnit2.MINUTES.toMillis(idleMinutes)) {
+                LOGGER.log(Level.FINE, "Suspending {0} because it has been idle for more than {1} minutes",
+                        new Object[] { c.getName(), idleMinutes });
+                // our launcher suspends the VM once it's disconnected, and
+                // then tells the cloud it can be resumed
+                c.disconnect(new OfflineCause.ByCLI("vSphere Plugin suspending the idle slave"));
+            }
+        }
+        return 1;
+    }
+
+    private static void terminate(final AbstractCloudComputer<?> c) {
+        c.setAcceptingTasks(false);
+        try {
+            final AbstractCloudSlave node = c.getNode();
+            if (node != null) {
+                node.terminate();
+            }
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Failed to terminate " + c.getName(), e);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to terminate " + c.getName(), e);
+        }
+    }
+
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return DESCRIPTOR;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+
+    public static final class DescriptorImpl extends Descriptor<RetentionStrategy<?>> {
+        @Override
+        public String getDisplayName() {
+            return "vSphere Suspend-When-Idle Retention Strategy";
+        }
+    }
+}
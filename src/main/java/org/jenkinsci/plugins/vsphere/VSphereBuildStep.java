@@ -40,11 +40,22 @@ public abstract class VSphereBuildStep implements Describable<VSphereBuildStep>,
 
 	protected VSphere vsphere;
         protected int retries = 3;
+        private static final double MAX_BACKOFF_MULTIPLIER = 12.0;
         
+        /**
+         * Waits before a failed step is retried. Normally this is 10 seconds,
+         * but if vSphere is showing signs of overload we wait for
+         * proportionally longer (up to a limit), with some random jitter so
+         * that steps that failed together don't all retry together.
+         */
         public void waitForAttemp(){
-            int time=10;
+            double multiplier = 1.0;
+            if (vsphere != null) {
+                multiplier = Math.min(MAX_BACKOFF_MULTIPLIER, vsphere.getScheduler().getBackoffMultiplier());
+            }
+            final long time = (long) (TimeUnit.SECONDS.toMillis(10) * multiplier * (1.0 + 0.25 * Math.random()));
             try {
-                TimeUnit.SECONDS.sleep(time);
+                TimeUnit.MILLISECONDS.sleep(time);
             } catch (InterruptedException ex) {
                 Logger.getLogger(VSphereBuildStep.class.getName()).log(Level.SEVERE, null, ex);
             }
@@ -62,6 +73,14 @@ public abstract class VSphereBuildStep implements Describable<VSphereBuildStep>,
 		return "";
 	}
 
+	/**
+	 * @return What the vSphere pipeline step should return, or null if it
+	 *         should return the IP as usual.
+	 */
+	public Object getResult() {
+		return null;
+	}
+
 	public static DescriptorExtensionList<VSphereBuildStep, VSphereBuildStepDescriptor> all() {
 		return Jenkins.getInstance().getDescriptorList(VSphereBuildStep.class);
 	}
@@ -91,21 +110,17 @@ public abstract class VSphereBuildStep implements Describable<VSphereBuildStep>,
 		}
 
 		public static vSphereCloud getVSphereCloudByName(String serverName, String jobName) throws RuntimeException, VSphereException {
-			if (serverName != null){
-				for (vSphereCloud cloud : vSphereCloud.findAllVsphereClouds(jobName)) {
-					if (cloud.getVsDescription().equals(serverName)) {
-						return cloud;
-					}
-				}
+			final vSphereCloud cloud = VSphereCloudRegistry.getByDescription(serverName, jobName);
+			if (cloud != null) {
+				return cloud;
 			}
 			throw new RuntimeException(Messages.validation_instanceNotFound(serverName));
 		}
 
 		public static vSphereCloud getVSphereCloudByHash(int hash, String jobName) throws RuntimeException, VSphereException {
-			for (vSphereCloud cloud : vSphereCloud.findAllVsphereClouds(jobName)) {
-				if (cloud.getHash()==hash){
-					return cloud;
-				}
+			final vSphereCloud cloud = VSphereCloudRegistry.getByHash(hash, jobName);
+			if (cloud != null) {
+				return cloud;
 			}
 			throw new RuntimeException(Messages.validation_serverExistence());
 		}
@@ -73,8 +73,7 @@ public class VSphereBuildStepContainer extends Builder implements SimpleBuildSte
     }
 
     @Override
-    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath filePath, @Nonnull Launcher launcher, @Nonnull TaskListener listener) throws InterruptedException, IOException {
-        VSphere vsphere = null;
+    public void perform(@Nonnull final Run<?, ?> run, @Nonnull FilePath filePath, @Nonnull Launcher launcher, @Nonnull final TaskListener listener) throws InterruptedException, IOException {
         try {
             String expandedServerName = serverName;
             if (run instanceof AbstractBuild) {
@@ -86,12 +85,20 @@ public class VSphereBuildStepContainer extends Builder implements SimpleBuildSte
             //Need to ensure this server is same as one that was previously saved.
             //TODO - also need to improve logging here.
 
-            // select by hash if we have one
-            if (serverHash != null) {
-                vsphere = VSphereBuildStep.VSphereBuildStepDescriptor.getVSphereCloudByHash(serverHash, run.getEnvironment(listener).get("JOB_NAME")).vSphereInstance();
-            } else {
-                vsphere = VSphereBuildStep.VSphereBuildStepDescriptor.getVSphereCloudByName(expandedServerName, run.getEnvironment(listener).get("JOB_NAME")).vSphereInstance();
-            }
+            // The build's other vSphere steps share this session, so we don't disconnect it.
+            final String finalServerName = expandedServerName;
+            final String serverKey = serverHash != null ? "#" + serverHash : finalServerName;
+            final VSphere vsphere = VSphereRunSessions.get(run, serverKey, new VSphereRunSessions.CloudResolver() {
+                @Override
+                public vSphereCloud resolve() throws IOException, InterruptedException, VSphereException {
+                    final String jobName = run.getEnvironment(listener).get("JOB_NAME");
+                    // select by hash if we have one
+                    if (serverHash != null) {
+                        return VSphereBuildStep.VSphereBuildStepDescriptor.getVSphereCloudByHash(serverHash, jobName);
+                    }
+                    return VSphereBuildStep.VSphereBuildStepDescriptor.getVSphereCloudByName(finalServerName, jobName);
+                }
+            });
 
             buildStep.setVsphere(vsphere);
             if (run instanceof AbstractBuild) {
@@ -102,10 +109,6 @@ public class VSphereBuildStepContainer extends Builder implements SimpleBuildSte
 
         } catch (Exception e) {
             throw new AbortException(e.getMessage());
-        } finally {
-            if (vsphere != null) {
-                vsphere.disconnect();
-            }
         }
     }
 
@@ -0,0 +1,247 @@
+package org.jenkinsci.plugins.vsphere;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import hudson.slaves.Cloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.vSphereCloud;
+import org.jenkinsci.plugins.vSphereCloudSlaveTemplate;
+import org.jenkinsci.plugins.vsphere.tools.CloudProvisioningStatistics;
+import org.jenkinsci.plugins.vsphere.tools.DemandForecaster;
+import org.jenkinsci.plugins.vsphere.tools.ProvisioningTimeline;
+import org.jenkinsci.plugins.vsphere.tools.ProvisioningTimelines;
+import org.jenkinsci.plugins.vsphere.tools.VSphereMetrics;
+import org.jenkinsci.plugins.vsphere.tools.VSphereMetrics.OperationStats;
+
+/**
+ * A page, under "Manage Jenkins", showing how full each {@link vSphereCloud}
+ * and each of its templates is, how quickly we're provisioning slaves, how
+ * often that fails, how long clones are taking, and what demand we forecast.
+ * <p>
+ * Everything shown comes from the state we keep in memory, so these pages
+ * never talk to vSphere and are cheap to refresh.
+ * </p>
+ */
+@Extension
+public class VSphereCloudDashboard extends ManagementLink {
+    @Override
+    public String getIconFileName() {
+        return "computer.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "vSphere Clouds";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Capacity and utilization of the vSphere clouds and their templates.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "vsphere-clouds";
+    }
+
+    public List<CloudView> getClouds() {
+        final Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return Collections.emptyList();
+        }
+        jenkins.checkPermission(Jenkins.ADMINISTER);
+        final List<CloudView> result = new ArrayList<CloudView>();
+        for (final Cloud cloud : jenkins.clouds) {
+            if (cloud instanceof vSphereCloud) {
+                result.add(new CloudView((vSphereCloud) cloud, result.size()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stapler calls this for URLs like <code>/manage/vsphere-clouds/0/</code>.
+     * We use the index of the cloud as a vSphere cloud's description can
+     * contain anything.
+     */
+    public CloudView getDynamic(String token) {
+        final List<CloudView> clouds = getClouds();
+        try {
+            final int index = Integer.parseInt(token);
+            return index >= 0 && index < clouds.size() ? clouds.get(index) : null;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /** The dashboard for one {@link vSphereCloud}. */
+    public static class CloudView {
+        private final vSphereCloud cloud;
+        private final int index;
+
+        CloudView(vSphereCloud cloud, int index) {
+            this.cloud = cloud;
+            this.index = index;
+        }
+
+        public vSphereCloud getCloud() {
+            return cloud;
+        }
+
+        public String getUrlName() {
+            return String.valueOf(index);
+        }
+
+        public String getDisplayName() {
+            return cloud.getVsDescription();
+        }
+
+        /** @return The cloud's instance cap, or 0 if it has none. */
+        public int getInstanceCap() {
+            final int cap = cloud.getInstanceCap();
+            return cap == Integer.MAX_VALUE ? 0 : cap;
+        }
+
+        public List<TemplateView> getTemplates() {
+            final List<TemplateView> result = new ArrayList<TemplateView>();
+            for (final CloudProvisioningStatistics stats : cloud.getProvisioningStatistics()) {
+                final List<Long> cloneMillis = ProvisioningTimelines.get().getSpanDurations(cloud.getVsDescription(),
+                        stats.getTemplateName(), ProvisioningTimeline.CLONE);
+                result.add(new TemplateView(stats, cloneMillis, forecasterFor(stats.getTemplateName())));
+            }
+            return result;
+        }
+
+        private DemandForecaster forecasterFor(String templateName) {
+            for (final vSphereCloudSlaveTemplate template : cloud.getTemplates()) {
+                if (templateName != null && templateName.equals(template.getCloneNamePrefix())) {
+                    return cloud.getDemandForecaster(template);
+                }
+            }
+            return null;
+        }
+
+        /** @return The total number of slaves that are being, or have been, provisioned. */
+        public int getNodeCount() {
+            int total = 0;
+            for (final CloudProvisioningStatistics stats : cloud.getProvisioningStatistics()) {
+                total += stats.getPlanned() + stats.getActive();
+            }
+            return total;
+        }
+
+        /** @return Timings for the calls we've made to this cloud's vCenter. */
+        public List<OperationStats> getOperations() {
+            final String vsHost = cloud.getVsHost();
+            final String server = vsHost == null ? null : VSphereMetrics.serverOf(vsHost + "/sdk");
+            final List<OperationStats> result = new ArrayList<OperationStats>();
+            for (final OperationStats stats : VSphereMetrics.get().getStats()) {
+                if (stats.getServer() != null && stats.getServer().equals(server)) {
+                    result.add(stats);
+                }
+            }
+            return result;
+        }
+    }
+
+    /** One template's row in a {@link CloudView}. */
+    public static class TemplateView {
+        private final CloudProvisioningStatistics statistics;
+        private final List<Long> sortedCloneMillis;
+        private final DemandForecaster forecaster;
+
+        TemplateView(CloudProvisioningStatistics statistics, List<Long> cloneMillis, DemandForecaster forecaster) {
+            this.statistics = statistics;
+            this.forecaster = forecaster;
+            this.sortedCloneMillis = new ArrayList<Long>(cloneMillis);
+            Collections.sort(this.sortedCloneMillis);
+        }
+
+        public CloudProvisioningStatistics getStatistics() {
+            return statistics;
+        }
+
+        /** @return The fullness, as a percentage, or null if the template has no cap. */
+        public String getFullnessPercent() {
+            if (statistics.getInstanceCap() == 0) {
+                return null;
+            }
+            return String.format("%.0f%%", statistics.getFullness() * 100.0);
+        }
+
+        public String getFailureRatePercent() {
+            return String.format("%.1f%%", statistics.getFailureRate() * 100.0);
+        }
+
+        /** @return The number of recent clones we have durations for. */
+        public int getCloneCount() {
+            return sortedCloneMillis.size();
+        }
+
+        /**
+         * @param fraction
+         *            e.g. 0.9 for the 90th percentile.
+         * @return The given percentile of recent clone durations, in
+         *         milliseconds, or 0 if there are none.
+         */
+        public long getClonePercentileMillis(double fraction) {
+            if (sortedCloneMillis.isEmpty()) {
+                return 0L;
+            }
+            final int index = (int) Math.ceil(fraction * sortedCloneMillis.size()) - 1;
+            return sortedCloneMillis.get(Math.max(0, Math.min(sortedCloneMillis.size() - 1, index))).longValue();
+        }
+
+        public long getCloneMinMillis() {
+            return getClonePercentileMillis(0.0);
+        }
+
+        public long getCloneMedianMillis() {
+            return getClonePercentileMillis(0.5);
+        }
+
+        public long getCloneP90Millis() {
+            return getClonePercentileMillis(0.9);
+        }
+
+        public long getCloneMaxMillis() {
+            return getClonePercentileMillis(1.0);
+        }
+
+        /** @return The demand forecast for the next hour, or null if we aren't forecasting yet. */
+        public String getForecastNextHour() {
+            if (forecaster == null || !forecaster.isWarmedUp()) {
+                return null;
+            }
+            final long now = System.currentTimeMillis();
+            double peak = 0.0;
+            for (long t = now; t <= now + TimeUnit.HOURS.toMillis(1); t += forecaster.getSlotMillis()) {
+                peak = Math.max(peak, forecaster.forecast(t));
+            }
+            return String.format("%.1f", peak);
+        }
+
+        /** @return The mean absolute error of our forecasts, or null if we have none. */
+        public String getForecastMeanAbsoluteError() {
+            if (forecaster == null || forecaster.getErrorCount() == 0L) {
+                return null;
+            }
+            return String.format("%.2f", forecaster.getMeanAbsoluteError());
+        }
+
+        /** @return The root-mean-square error of our forecasts, or null if we have none. */
+        public String getForecastRootMeanSquaredError() {
+            if (forecaster == null || forecaster.getErrorCount() == 0L) {
+                return null;
+            }
+            return String.format("%.2f", forecaster.getRootMeanSquaredError());
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package org.jenkinsci.plugins.vsphere;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import com.cloudbees.hudson.plugins.folder.AbstractFolderProperty;
+import hudson.Extension;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.Computer;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.slaves.Cloud;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.SlaveComputer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.vSphereCloud;
+import org.jenkinsci.plugins.vSphereCloudLauncher;
+import org.jenkinsci.plugins.folder.FolderVSphereCloudProperty;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Knows which {@link vSphereCloud}s are configured, both globally and on
+ * folders, so that finding a cloud by name or hash doesn't have to walk the
+ * folders each time.
+ * <p>
+ * The index is rebuilt (lazily) after Jenkins' or a folder's configuration is
+ * saved, or a folder is moved or deleted. Anything that changes the clouds
+ * without saving should call {@link #invalidate()}.
+ * </p>
+ * <p>
+ * As before, a job can see the clouds of the folders it's in (outermost
+ * folder first) followed by the global clouds, and the first cloud that
+ * matches wins.
+ * </p>
+ */
+public final class VSphereCloudRegistry {
+    private static final AtomicLong GENERATION = new AtomicLong();
+    private static volatile Index index;
+
+    private VSphereCloudRegistry() {
+    }
+
+    /**
+     * @param jobName
+     *            The full name of the job we're looking for clouds for, or
+     *            null for the current web request's job (if any).
+     * @return The clouds the job can use.
+     */
+    public static List<vSphereCloud> findAll(@CheckForNull String jobName) {
+        final Index idx = getIndex();
+        final List<Scope> scopes = idx.scopesFor(jobName);
+        if (scopes.isEmpty()) {
+            return idx.global.clouds;
+        }
+        final List<vSphereCloud> result = new ArrayList<vSphereCloud>();
+        for (final Scope scope : scopes) {
+            result.addAll(scope.clouds);
+        }
+        result.addAll(idx.global.clouds);
+        return result;
+    }
+
+    /**
+     * @param description
+     *            The cloud's {@link vSphereCloud#getVsDescription()}.
+     * @param jobName
+     *            As for {@link #findAll(String)}.
+     * @return The cloud, or null if there isn't one.
+     */
+    @CheckForNull
+    public static vSphereCloud getByDescription(@CheckForNull String description, @CheckForNull String jobName) {
+        if (description == null) {
+            return null;
+        }
+        final Index idx = getIndex();
+        for (final Scope scope : idx.scopesFor(jobName)) {
+            final vSphereCloud cloud = scope.byDescription.get(description);
+            if (cloud != null) {
+                return cloud;
+            }
+        }
+        return idx.global.byDescription.get(description);
+    }
+
+    /**
+     * @param hash
+     *            The cloud's {@link vSphereCloud#getHash()}.
+     * @param jobName
+     *            As for {@link #findAll(String)}.
+     * @return The cloud, or null if there isn't one.
+     */
+    @CheckForNull
+    public static vSphereCloud getByHash(int hash, @CheckForNull String jobName) {
+        final Index idx = getIndex();
+        final Integer key = Integer.valueOf(hash);
+        for (final Scope scope : idx.scopesFor(jobName)) {
+            final vSphereCloud cloud = scope.byHash.get(key);
+            if (cloud != null) {
+                return cloud;
+            }
+        }
+        return idx.global.byHash.get(key);
+    }
+
+    /**
+     * @param computer
+     *            Any computer.
+     * @return The cloud that the computer's slave belongs to, or null if it
+     *         isn't a vSphere slave or its cloud no longer exists.
+     */
+    @CheckForNull
+    public static vSphereCloud getForComputer(@CheckForNull Computer computer) {
+        if (!(computer instanceof SlaveComputer)) {
+            return null;
+        }
+        final ComputerLauncher launcher = ((SlaveComputer) computer).getLauncher();
+        if (!(launcher instanceof vSphereCloudLauncher)) {
+            return null;
+        }
+        return getByDescription(((vSphereCloudLauncher) launcher).getVsDescription(), null);
+    }
+
+    /** Makes the next lookup re-read the configuration. */
+    public static void invalidate() {
+        GENERATION.incrementAndGet();
+        index = null;
+    }
+
+    /** @return true if the index has been built and not invalidated since. */
+    static boolean isIndexed() {
+        return index != null;
+    }
+
+    private static Index getIndex() {
+        final Index existing = index;
+        if (existing != null) {
+            return existing;
+        }
+        final long generation = GENERATION.get();
+        final Index built = Index.build();
+        // Don't keep it if the configuration changed while we were reading it.
+        if (GENERATION.get() == generation) {
+            index = built;
+        }
+        return built;
+    }
+
+    /**
+     * Works out which folders a job is in, outermost first.
+     *
+     * @param requestUri
+     *            The current web request's URI, or null.
+     * @param jobName
+     *            The job's full name, used if there's no web request.
+     * @return The full names of the folders that might contain the job.
+     */
+    static List<String> folderNames(@CheckForNull String requestUri, @CheckForNull String jobName) {
+        final List<String> itemNames = new ArrayList<String>();
+        if (requestUri != null) {
+            final String[] path = requestUri.split("/");
+            for (int i = 0; i < path.length - 1; i++) {
+                if (path[i].equals("job")) {
+                    itemNames.add(Util.rawDecode(path[++i]));
+                }
+            }
+        } else if (jobName != null) {
+            for (final String item : jobName.split("/")) {
+                if (!item.isEmpty()) {
+                    itemNames.add(item);
+                }
+            }
+        }
+        final List<String> folderNames = new ArrayList<String>(itemNames.size());
+        final StringBuilder fullName = new StringBuilder();
+        for (final String item : itemNames) {
+            if (fullName.length() > 0) {
+                fullName.append('/');
+            }
+            fullName.append(item);
+            folderNames.add(fullName.toString());
+        }
+        return folderNames;
+    }
+
+    private static final class Scope {
+        private final List<vSphereCloud> clouds;
+        private final Map<String, vSphereCloud> byDescription = new HashMap<String, vSphereCloud>();
+        private final Map<Integer, vSphereCloud> byHash = new HashMap<Integer, vSphereCloud>();
+
+        Scope(List<vSphereCloud> clouds) {
+            this.clouds = Collections.unmodifiableList(clouds);
+            for (final vSphereCloud cloud : clouds) {
+                final String description = cloud.getVsDescription();
+                if (description != null && !byDescription.containsKey(description)) {
+                    byDescription.put(description, cloud);
+                }
+                final Integer hash = Integer.valueOf(cloud.getHash());
+                if (!byHash.containsKey(hash)) {
+                    byHash.put(hash, cloud);
+                }
+            }
+        }
+    }
+
+    private static final class Index {
+        private final Scope global;
+        private final Map<String, Scope> folders;
+
+        private Index(Scope global, Map<String, Scope> folders) {
+            this.global = global;
+            this.folders = folders;
+        }
+
+        static Index build() {
+            final Jenkins jenkins = Jenkins.getActiveInstance();
+            final List<vSphereCloud> globalClouds = new ArrayList<vSphereCloud>();
+            for (final Cloud cloud : jenkins.clouds) {
+                if (cloud instanceof vSphereCloud) {
+                    globalClouds.add((vSphereCloud) cloud);
+                }
+            }
+            final Map<String, Scope> folders = new HashMap<String, Scope>();
+            for (final AbstractFolder<?> folder : jenkins.getAllItems(AbstractFolder.class)) {
+                final List<vSphereCloud> folderClouds = new ArrayList<vSphereCloud>();
+                for (final AbstractFolderProperty<?> property : folder.getProperties()) {
+                    if (property instanceof FolderVSphereCloudProperty) {
+                        final List<vSphereCloud> clouds = ((FolderVSphereCloudProperty) property).getVsphereClouds();
+                        if (clouds != null) {
+                            folderClouds.addAll(clouds);
+                        }
+                    }
+                }
+                if (!folderClouds.isEmpty()) {
+                    folders.put(folder.getFullName(), new Scope(folderClouds));
+                }
+            }
+            return new Index(new Scope(globalClouds), folders);
+        }
+
+        List<Scope> scopesFor(@CheckForNull String jobName) {
+            if (folders.isEmpty()) {
+                return Collections.emptyList();
+            }
+            final StaplerRequest request = Stapler.getCurrentRequest();
+            final String requestUri = request == null ? null : request.getRequestURI();
+            final List<Scope> scopes = new ArrayList<Scope>();
+            for (final String folderName : folderNames(requestUri, jobName)) {
+                final Scope scope = folders.get(folderName);
+                if (scope != null) {
+                    scopes.add(scope);
+                }
+            }
+            return scopes;
+        }
+    }
+
+    /** Notices when Jenkins' or a folder's configuration is saved. */
+    @Extension
+    public static final class ConfigurationListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Jenkins || o instanceof AbstractFolder) {
+                invalidate();
+            }
+        }
+    }
+
+    /** Notices when a folder is moved, renamed or deleted. */
+    @Extension
+    public static final class FolderListener extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof AbstractFolder) {
+                invalidate();
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (item instanceof AbstractFolder) {
+                invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.jenkinsci.plugins.vsphere;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.vSphereCloud;
+
+/**
+ * Periodically measures the demand for each {@link vSphereCloud}'s templates,
+ * so that it can forecast future demand and (if enabled) provision slaves
+ * before they're asked for.
+ */
+@Extension
+public class VSphereDemandForecastWork extends AsyncPeriodicWork {
+    private static final long RECURRENCE_PERIOD = TimeUnit.SECONDS.toMillis(Long.getLong(
+            VSphereDemandForecastWork.class.getName() + ".recurrenceSeconds", 60L));
+
+    public VSphereDemandForecastWork() {
+        super("vSphere demand forecast");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        final Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+        for (final Cloud cloud : jenkins.clouds) {
+            if (cloud instanceof vSphereCloud) {
+                ((vSphereCloud) cloud).forecastDemand();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.vsphere;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+
+import java.io.IOException;
+import java.util.List;
+
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.plugins.vsphere.tools.ProvisioningTimeline;
+import org.jenkinsci.plugins.vsphere.tools.ProvisioningTimelines;
+import org.jenkinsci.plugins.vsphere.tools.VSphereMetrics;
+import org.jenkinsci.plugins.vsphere.tools.VSphereMetrics.OperationStats;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Exposes the {@link VSphereMetrics} as JSON at <code>/vsphere-metrics</code>,
+ * and the {@link ProvisioningTimelines} at
+ * <code>/vsphere-metrics/timelines</code> (as JSON) and
+ * <code>/vsphere-metrics/otel</code> (as OpenTelemetry spans), for
+ * administrators who want to see where the time goes when provisioning is
+ * slow.
+ */
+@Extension
+public class VSphereMetricsAction implements RootAction {
+    public String getIconFileName() {
+        return null; // not shown in the UI
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return "vsphere-metrics";
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        checkAdminister();
+        if ("true".equals(req.getParameter("reset")) && "POST".equals(req.getMethod())) {
+            VSphereMetrics.get().reset();
+        }
+        ProvisioningTimelineAction.writeJson(rsp, toJSON(VSphereMetrics.get().getStats()));
+    }
+
+    /** Serves the timelines of recently provisioned agents, most recent first. */
+    public void doTimelines(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        checkAdminister();
+        final JSONArray timelines = new JSONArray();
+        for (ProvisioningTimeline timeline : ProvisioningTimelines.get().getAll()) {
+            timelines.add(timeline.toJSON());
+        }
+        final JSONObject result = new JSONObject();
+        result.put("timelines", timelines);
+        ProvisioningTimelineAction.writeJson(rsp, result);
+    }
+
+    /**
+     * Serves the timelines of recently provisioned agents as OpenTelemetry
+     * (OTLP/JSON) spans, ready to be posted to a collector.
+     */
+    public void doOtel(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        checkAdminister();
+        ProvisioningTimelineAction.writeJson(rsp, toOtlp(ProvisioningTimelines.get().getAll()));
+    }
+
+    private static void checkAdminister() {
+        final Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins != null) {
+            jenkins.checkPermission(Jenkins.ADMINISTER);
+        }
+    }
+
+    static JSONObject toOtlp(List<ProvisioningTimeline> timelines) {
+        final JSONArray spans = new JSONArray();
+        for (ProvisioningTimeline timeline : timelines) {
+            spans.addAll(timeline.toOtelSpans());
+        }
+        final JSONObject scope = new JSONObject();
+        scope.put("name", "vsphere-cloud");
+        final JSONObject scopeSpans = new JSONObject();
+        scopeSpans.put("scope", scope);
+        scopeSpans.put("spans", spans);
+        final JSONObject serviceName = new JSONObject();
+        serviceName.put("key", "service.name");
+        serviceName.put("value", new JSONObject().element("stringValue", "jenkins"));
+        final JSONObject resource = new JSONObject();
+        resource.put("attributes", new JSONArray().element(serviceName));
+        final JSONObject resourceSpans = new JSONObject();
+        resourceSpans.put("resource", resource);
+        resourceSpans.put("scopeSpans", new JSONArray().element(scopeSpans));
+        final JSONObject result = new JSONObject();
+        result.put("resourceSpans", new JSONArray().element(resourceSpans));
+        return result;
+    }
+
+    static JSONObject toJSON(List<OperationStats> stats) {
+        final JSONArray operations = new JSONArray();
+        for (OperationStats s : stats) {
+            final JSONObject o = new JSONObject();
+            o.put("server", s.getServer());
+            o.put("operation", s.getOperation());
+            o.put("outcome", s.getOutcome());
+            o.put("count", s.getCount());
+            o.put("totalMillis", s.getTotalMillis());
+            o.put("meanMillis", s.getMeanMillis());
+            o.put("p50Millis", s.getPercentileMillis(0.50));
+            o.put("p95Millis", s.getPercentileMillis(0.95));
+            o.put("p99Millis", s.getPercentileMillis(0.99));
+            o.put("maxMillis", s.getMaxMillis());
+            o.put("durationHistogram", JSONArray.fromObject(s.getDurationHistogram()));
+            o.put("meanServiceLookups", s.getMeanServiceLookups());
+            o.put("serviceLookupHistogram", JSONArray.fromObject(s.getServiceLookupHistogram()));
+            operations.add(o);
+        }
+        final JSONObject result = new JSONObject();
+        result.put("durationBucketMillis", JSONArray.fromObject(OperationStats.getDurationBucketMillis()));
+        result.put("serviceLookupBuckets", JSONArray.fromObject(OperationStats.getServiceLookupBuckets()));
+        result.put("operations", operations);
+        return result;
+    }
+}
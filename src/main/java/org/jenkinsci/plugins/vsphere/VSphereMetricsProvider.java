@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.vsphere;
+
+import hudson.Extension;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.metrics.api.MetricProvider;
+import jenkins.metrics.api.Metrics;
+
+import org.jenkinsci.plugins.vsphere.tools.VSphereMetrics;
+import org.jenkinsci.plugins.vsphere.tools.VSphereMetrics.OperationStats;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+
+/**
+ * Publishes the {@link VSphereMetrics} through the Jenkins Metrics plugin, if
+ * it is installed.
+ * <p>
+ * Each operation gets a timer named
+ * <code>vsphere.&lt;server&gt;.&lt;operation&gt;.&lt;outcome&gt;</code> and a
+ * histogram of service lookups (see {@link VSphereMetrics}) named
+ * <code>vsphere.&lt;server&gt;.&lt;operation&gt;.serviceLookups</code>.
+ * </p>
+ */
+@Extension(optional = true)
+public class VSphereMetricsProvider extends MetricProvider {
+    /**
+     * Feeds the timers and histograms. There's only one of these, however many
+     * times Jenkins creates this extension, as each listener would count every
+     * operation again.
+     */
+    private static final VSphereMetrics.Listener LISTENER = new VSphereMetrics.Listener() {
+        public void operationCompleted(String server, String operation, boolean succeeded, long durationNanos,
+                int serviceLookups) {
+            final MetricRegistry registry = Metrics.metricRegistry();
+            final String outcome = succeeded ? VSphereMetrics.SUCCESS : VSphereMetrics.FAILURE;
+            registry.timer(MetricRegistry.name("vsphere", server, operation, outcome)).update(durationNanos,
+                    TimeUnit.NANOSECONDS);
+            registry.histogram(MetricRegistry.name("vsphere", server, operation, "serviceLookups")).update(serviceLookups);
+        }
+    };
+
+    static {
+        VSphereMetrics.get().addListener(LISTENER);
+    }
+
+    private final MetricSet metricSet;
+
+    public VSphereMetricsProvider() {
+        final Map<String, Metric> metrics = new HashMap<String, Metric>();
+        metrics.put("vsphere.operations", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return countOperations(null);
+            }
+        });
+        metrics.put("vsphere.failures", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return countOperations(VSphereMetrics.FAILURE);
+            }
+        });
+        final Map<String, Metric> unmodifiableMetrics = Collections.unmodifiableMap(metrics);
+        metricSet = new MetricSet() {
+            @Override
+            public Map<String, Metric> getMetrics() {
+                return unmodifiableMetrics;
+            }
+        };
+    }
+
+    @Override
+    public MetricSet getMetricSet() {
+        return metricSet;
+    }
+
+    private static long countOperations(String outcome) {
+        long total = 0L;
+        for (OperationStats s : VSphereMetrics.get().getStats()) {
+            if (outcome == null || outcome.equals(s.getOutcome())) {
+                total += s.getCount();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,46 @@
+package org.jenkinsci.plugins.vsphere;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.vSphereCloud;
+
+/**
+ * Periodically refreshes the cluster and datastore statistics that each
+ * {@link vSphereCloud} uses to decide where to place new clones, so that the
+ * provisioning code never has to wait for vSphere to tell it.
+ */
+@Extension
+public class VSpherePlacementRefresher extends AsyncPeriodicWork {
+    private static final long RECURRENCE_PERIOD = TimeUnit.SECONDS.toMillis(Long.getLong(
+            VSpherePlacementRefresher.class.getName() + ".recurrenceSeconds", 60L));
+
+    public VSpherePlacementRefresher() {
+        super("vSphere placement statistics refresh");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        final Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+        for (final Cloud cloud : jenkins.clouds) {
+            if (cloud instanceof vSphereCloud) {
+                ((vSphereCloud) cloud).refreshPlacementStatistics();
+            }
+        }
+    }
+}
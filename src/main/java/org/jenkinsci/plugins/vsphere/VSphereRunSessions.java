@@ -0,0 +1,154 @@
+package org.jenkinsci.plugins.vsphere;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.jenkinsci.plugins.vSphereCloud;
+import org.jenkinsci.plugins.vsphere.tools.VSphere;
+import org.jenkinsci.plugins.vsphere.tools.VSphereException;
+
+/**
+ * Keeps one vSphere session, and the {@link vSphereCloud} it was made from,
+ * per build and server. A build (typically a pipeline) with lots of vSphere
+ * steps then logs in and looks up its cloud once, rather than once per step.
+ * <p>
+ * The sessions are logged out when the build completes. vSphere ends sessions
+ * that have been idle for a while, so a session that hasn't been used for a
+ * bit is checked before it's reused, and replaced if it has gone.
+ * </p>
+ */
+public final class VSphereRunSessions {
+    private static final long REVALIDATE_AFTER_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong(
+            VSphereRunSessions.class.getName() + ".revalidateSeconds", 60L));
+    private static final ConcurrentMap<String, Session> SESSIONS = new ConcurrentHashMap<String, Session>();
+
+    /** Finds the cloud that a build's session should be made from. */
+    interface CloudResolver {
+        @Nonnull
+        vSphereCloud resolve() throws IOException, InterruptedException, VSphereException;
+    }
+
+    private VSphereRunSessions() {
+    }
+
+    /**
+     * Gets the build's session for a server, connecting if there isn't one
+     * (or if it has expired). The caller must not disconnect it.
+     *
+     * @param run
+     *            The build.
+     * @param serverKey
+     *            Identifies the server within the build.
+     * @param resolver
+     *            Finds the cloud, the first time the build uses this server.
+     * @return A connected instance.
+     */
+    static VSphere get(@Nonnull Run<?, ?> run, @Nonnull String serverKey, @Nonnull CloudResolver resolver)
+            throws IOException, InterruptedException, VSphereException {
+        closeFinished();
+        final String key = keyPrefix(run) + serverKey;
+        Session session = SESSIONS.get(key);
+        if (session == null) {
+            final Session newSession = new Session(run);
+            session = SESSIONS.putIfAbsent(key, newSession);
+            if (session == null) {
+                session = newSession;
+            }
+        }
+        return session.get(resolver);
+    }
+
+    /**
+     * Logs out of all the build's sessions.
+     *
+     * @param run
+     *            The build.
+     */
+    static void close(@Nonnull Run<?, ?> run) {
+        final String prefix = keyPrefix(run);
+        for (final Iterator<Map.Entry<String, Session>> it = SESSIONS.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, Session> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                it.remove();
+                entry.getValue().close();
+            }
+        }
+    }
+
+    /**
+     * Tidies up after any builds that finished without us being told (e.g.
+     * because they were deleted while running).
+     */
+    private static void closeFinished() {
+        for (final Iterator<Session> it = SESSIONS.values().iterator(); it.hasNext();) {
+            final Session session = it.next();
+            if (!session.run.isBuilding()) {
+                it.remove();
+                session.close();
+            }
+        }
+    }
+
+    private static String keyPrefix(Run<?, ?> run) {
+        return run.getExternalizableId() + "|";
+    }
+
+    private static final class Session {
+        private final Run<?, ?> run;
+        private vSphereCloud cloud;
+        private VSphere vsphere;
+        private long lastUsed;
+        private boolean closed;
+
+        Session(Run<?, ?> run) {
+            this.run = run;
+        }
+
+        // Synchronized so that parallel branches that start together share one login.
+        synchronized VSphere get(CloudResolver resolver) throws IOException, InterruptedException, VSphereException {
+            if (closed) {
+                throw new VSphereException("Build " + run.getExternalizableId() + " has finished");
+            }
+            if (cloud == null) {
+                cloud = resolver.resolve();
+            }
+            final long now = System.currentTimeMillis();
+            if (vsphere != null && now - lastUsed > REVALIDATE_AFTER_MILLIS && !vsphere.isSessionActive()) {
+                vsphere = null;
+            }
+            if (vsphere == null) {
+                vsphere = cloud.vSphereInstance();
+            }
+            lastUsed = now;
+            return vsphere;
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (vsphere != null) {
+                vsphere.disconnect();
+                vsphere = null;
+            }
+        }
+    }
+
+    /** Logs out of a build's sessions once it has completed. */
+    @Extension
+    public static final class RunSessionsListener extends RunListener<Run> {
+        @Override
+        public void onCompleted(Run r, @Nonnull TaskListener listener) {
+            close(r);
+        }
+    }
+}
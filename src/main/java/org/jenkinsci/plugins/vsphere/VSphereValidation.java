@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.vsphere;
+
+import hudson.util.FormValidation;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.jenkinsci.plugins.vSphereCloud;
+import org.jenkinsci.plugins.vsphere.tools.VSphere;
+import org.jenkinsci.plugins.vsphere.tools.VSphereRequestScheduler;
+import org.jenkinsci.plugins.vsphere.tools.ValidationCache;
+
+/**
+ * Runs form validation checks that need to ask vSphere things.
+ * <p>
+ * Form validation happens as people type, so the same check tends to be asked
+ * for repeatedly, and by lots of people at once. The results are remembered
+ * for a short while (see {@link ValidationCache}), and each check that does
+ * reach vSphere logs out again afterwards.
+ * </p>
+ */
+public final class VSphereValidation {
+    private static final ValidationCache<FormValidation> CACHE = new ValidationCache<FormValidation>(
+            TimeUnit.SECONDS.toMillis(Long.getLong(VSphereValidation.class.getName() + ".cacheSeconds", 30L)),
+            Integer.getInteger(VSphereValidation.class.getName() + ".maxEntries", 500));
+
+    /** A check that needs to ask vSphere things. */
+    public interface Check {
+        /**
+         * @param vsphere
+         *            A connected instance, which must not be disconnected.
+         * @return The result.
+         * @throws Exception
+         *             if the check could not be done.
+         */
+        FormValidation check(VSphere vsphere) throws Exception;
+    }
+
+    private VSphereValidation() {
+    }
+
+    /**
+     * Runs a check against a cloud, or returns the result of running it
+     * recently.
+     *
+     * @param serverName
+     *            The cloud's {@link vSphereCloud#getVsDescription()}.
+     * @param check
+     *            The check. Each check is identified by its class, so each
+     *            caller should use its own (anonymous) class.
+     * @param inputs
+     *            Everything the check's result depends on.
+     * @return The result.
+     * @throws Exception
+     *             if the check could not be done.
+     */
+    public static FormValidation validate(String serverName, Check check, String... inputs) throws Exception {
+        return validate(VSphereBuildStep.VSphereBuildStepDescriptor.getVSphereCloudByName(serverName, null), check, inputs);
+    }
+
+    /**
+     * As {@link #validate(String, Check, String...)} but with the cloud
+     * already found.
+     */
+    public static FormValidation validate(@Nonnull final vSphereCloud cloud, @Nonnull final Check check, String... inputs) throws Exception {
+        final StringBuilder key = new StringBuilder();
+        key.append(cloud.getHash()).append(':').append(check.getClass().getName());
+        for (final String input : inputs) {
+            // length-prefixed, so that no two lists of inputs give the same key
+            key.append(':');
+            if (input == null) {
+                key.append('-');
+            } else {
+                key.append(input.length()).append('=').append(input);
+            }
+        }
+        return CACHE.get(key.toString(), new Callable<FormValidation>() {
+            @Override
+            public FormValidation call() throws Exception {
+                final VSphere vsphere = cloud.vSphereInstance(VSphereRequestScheduler.Priority.UI_VALIDATION);
+                try {
+                    return check.check(vsphere);
+                } finally {
+                    vsphere.disconnect();
+                }
+            }
+        });
+    }
+}
@@ -32,6 +32,7 @@ import java.util.List;
 import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
 import static org.jenkinsci.plugins.vsphere.VSphereBuildStep.VSphereBuildStepDescriptor.getVSphereCloudByName;
 import org.jenkinsci.plugins.vsphere.VSphereGuestInfoProperty;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
@@ -136,7 +137,7 @@ public class AddAnnotation extends VSphereBuildStep{
 		}
 
 		public FormValidation doTestData(@QueryParameter String serverName,
-				@QueryParameter String vm, @QueryParameter String annotation) {
+				@QueryParameter final String vm, @QueryParameter String annotation) {
 			try {
 
                             if (serverName.length() == 0 || vm.length()==0 )
@@ -145,14 +146,18 @@ public class AddAnnotation extends VSphereBuildStep{
 				if (vm.indexOf('$') >= 0)
 					return FormValidation.warning(Messages.validation_buildParameter("VM"));
 
-				VSphere vsphere = getVSphereCloudByName(serverName, null).vSphereInstance();
-				if (vsphere.getVmByName(vm) == null)
-					return FormValidation.error(Messages.validation_notFound("VM"));
-                           
-				if (vsphere.getVmByName(vm).getConfig().template)
-					return FormValidation.error(Messages.validation_notActually("VM"));
-                            
-				return FormValidation.ok(Messages.validation_success());
+				return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+					@Override
+					public FormValidation check(VSphere vsphere) throws Exception {
+						if (vsphere.getVmByName(vm) == null)
+							return FormValidation.error(Messages.validation_notFound("VM"));
+
+						if (vsphere.getVmByName(vm).getConfig().template)
+							return FormValidation.error(Messages.validation_notActually("VM"));
+
+						return FormValidation.ok(Messages.validation_success());
+					}
+				}, vm);
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
@@ -0,0 +1,274 @@
+package org.jenkinsci.plugins.vsphere.builders;
+
+import hudson.*;
+import hudson.model.*;
+import hudson.tasks.BuildStepMonitor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.servlet.ServletException;
+
+import jenkins.tasks.SimpleBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.tools.VSphereException;
+import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
+import org.jenkinsci.plugins.vsphere.tools.VmBatch;
+import org.jenkinsci.plugins.vsphere.tools.VmSelection;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import com.vmware.vim25.mo.VirtualMachine;
+
+/**
+ * Powers on, powers off, suspends or deletes many VMs at once, using the
+ * build step's one vSphere session for all of them. The VMs are looked up
+ * together, and the operations are run in parallel.
+ * <p>
+ * When used from a pipeline, the vSphere step returns a map from each VM's
+ * name to how it went (see {@link VmBatch#toMap(List)}), including VMs that
+ * weren't found. Unless <code>failOnError</code> is turned off, the step
+ * fails instead if any VM failed or wasn't found.
+ * </p>
+ */
+public class BatchLifecycle extends VSphereBuildStep implements SimpleBuildStep {
+
+	public static final String POWER_ON = "Power On";
+	public static final String POWER_OFF = "Power Off";
+	public static final String SHUT_DOWN = "Shut Down";
+	public static final String SUSPEND = "Suspend";
+	public static final String DELETE = "Delete";
+
+	private final String vms;
+	private final String vmPattern;
+	private final String folder;
+	private final String operation;
+	private final int timeoutInSeconds;
+	private final String maxParallel;
+	private Boolean failOnError;
+	/**
+	 * Only set when run from a pipeline, where each use of the step has its own
+	 * instance. A build step in a freestyle project is shared by all its
+	 * builds, so it mustn't remember anything about any one of them.
+	 */
+	private transient Map<String, Map<String, Object>> results;
+
+	@DataBoundConstructor
+	public BatchLifecycle(final String vms, final String vmPattern, final String folder, final String operation,
+			final int timeoutInSeconds, final String maxParallel) throws VSphereException {
+		this.vms = vms;
+		this.vmPattern = vmPattern;
+		this.folder = folder;
+		this.operation = operation;
+		this.timeoutInSeconds = timeoutInSeconds;
+		this.maxParallel = maxParallel;
+	}
+
+	public String getVms() {
+		return vms;
+	}
+
+	public String getVmPattern() {
+		return vmPattern;
+	}
+
+	public String getFolder() {
+		return folder;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public int getTimeoutInSeconds() {
+		return timeoutInSeconds;
+	}
+
+	public String getMaxParallel() {
+		return maxParallel;
+	}
+
+	/** @return true if the step should fail when any VM fails or isn't found. */
+	public boolean isFailOnError() {
+		return failOnError == null || failOnError.booleanValue();
+	}
+
+	@DataBoundSetter
+	public void setFailOnError(final boolean failOnError) {
+		this.failOnError = Boolean.valueOf(failOnError);
+	}
+
+	@Override
+	public Object getResult() {
+		return results;
+	}
+
+	@Override
+	public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath filePath, @Nonnull Launcher launcher, @Nonnull TaskListener listener) throws InterruptedException, IOException {
+		final Map<String, Map<String, Object>> resultMap = new LinkedHashMap<String, Map<String, Object>>();
+		results = resultMap;
+		try {
+			batchLifecycle(run, launcher, listener, resultMap);
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new AbortException(e.getMessage());
+		}
+	}
+
+	@Override
+	public boolean prebuild(AbstractBuild<?, ?> abstractBuild, BuildListener buildListener) {
+		return false;
+	}
+
+	@Override
+	public boolean perform(final AbstractBuild<?, ?> build, final Launcher launcher, final BuildListener listener) {
+		boolean retVal = false;
+		try {
+			retVal = batchLifecycle(build, launcher, listener, new LinkedHashMap<String, Map<String, Object>>());
+		} catch (Exception e) {
+			e.printStackTrace(listener.getLogger());
+		}
+		return retVal;
+	}
+
+	@Override
+	public Action getProjectAction(AbstractProject<?, ?> abstractProject) {
+		return null;
+	}
+
+	@Override
+	public Collection<? extends Action> getProjectActions(AbstractProject<?, ?> abstractProject) {
+		return null;
+	}
+
+	@Override
+	public BuildStepMonitor getRequiredMonitorService() {
+		return null;
+	}
+
+	private boolean batchLifecycle(final Run<?, ?> run, final Launcher launcher, final TaskListener listener,
+			final Map<String, Map<String, Object>> resultMap) throws VSphereException, InterruptedException {
+		final PrintStream jLogger = listener.getLogger();
+		String expandedVms = vms;
+		String expandedVmPattern = vmPattern;
+		String expandedFolder = folder;
+		EnvVars env;
+		try {
+			env = run.getEnvironment(listener);
+		} catch (Exception e) {
+			throw new VSphereException(e);
+		}
+
+		if (run instanceof AbstractBuild) {
+			env.overrideAll(((AbstractBuild) run).getBuildVariables()); // Add in matrix axes..
+			expandedVms = env.expand(vms);
+			expandedVmPattern = env.expand(vmPattern);
+			expandedFolder = env.expand(folder);
+		}
+
+		if (DELETE.equals(operation) && !allowDelete()) {
+			throw new VSphereException("Deleting VMs is not allowed");
+		}
+		final VmSelection selection = new VmSelection(expandedVms, expandedVmPattern);
+		if (selection.isEmpty()) {
+			throw new VSphereException("No VMs were specified");
+		}
+		final Map<String, VirtualMachine> existing = vsphere.getVmsByName(expandedFolder);
+		final List<String> missing = selection.missing(existing.keySet());
+		final Map<String, VirtualMachine> selected = new LinkedHashMap<String, VirtualMachine>();
+		for (final String name : selection.select(existing.keySet())) {
+			selected.put(name, existing.get(name));
+		}
+		VSphereLogger.vsLogger(jLogger, operation + " " + selected.size() + " VMs...");
+
+		final List<VmBatch.Result> batchResults = VmBatch.run(selected, BatchSteps.parseMaxParallel(maxParallel), new VmBatch.Operation<VirtualMachine>() {
+			@Override
+			public void perform(String name, VirtualMachine vm) throws Exception {
+				if (POWER_ON.equals(operation)) {
+					vsphere.startVm(vm, timeoutInSeconds);
+				} else if (POWER_OFF.equals(operation)) {
+					vsphere.powerOffVm(vm, true, false);
+				} else if (SHUT_DOWN.equals(operation)) {
+					vsphere.powerOffVm(vm, true, true);
+				} else if (SUSPEND.equals(operation)) {
+					vsphere.suspendVm(vm);
+				} else if (DELETE.equals(operation)) {
+					vsphere.destroyVm(vm, name);
+				} else {
+					throw new VSphereException("Unknown operation \"" + operation + "\"");
+				}
+			}
+		});
+		for (final VmBatch.Result result : batchResults) {
+			VSphereLogger.vsLogger(jLogger, result.toString());
+		}
+		resultMap.putAll(VmBatch.toMap(batchResults));
+		resultMap.putAll(VmBatch.toMap(VmBatch.notFound(missing)));
+
+		final List<String> failed = VmBatch.failed(batchResults);
+		if (!missing.isEmpty() || !failed.isEmpty()) {
+			final String message = operation + " failed on " + failed + (missing.isEmpty() ? "" : "; VMs not found: " + missing);
+			if (isFailOnError()) {
+				throw new VSphereException(message);
+			}
+			VSphereLogger.vsLogger(jLogger, message);
+		}
+		VSphereLogger.vsLogger(jLogger, "Complete.");
+		return true;
+	}
+
+	@Extension
+	public static class BatchLifecycleDescriptor extends VSphereBuildStepDescriptor {
+
+		@Override
+		public String getDisplayName() {
+			return Messages.vm_title_BatchLifecycle();
+		}
+
+		public ListBoxModel doFillOperationItems() {
+			final ListBoxModel items = new ListBoxModel();
+			items.add(POWER_ON);
+			items.add(POWER_OFF);
+			items.add(SHUT_DOWN);
+			items.add(SUSPEND);
+			if (allowDelete()) {
+				items.add(DELETE);
+			}
+			return items;
+		}
+
+		public FormValidation doCheckVmPattern(@QueryParameter String value)
+				throws IOException, ServletException {
+			return BatchSteps.checkVmPattern(value);
+		}
+
+		public FormValidation doCheckTimeoutInSeconds(@QueryParameter String value)
+				throws IOException, ServletException {
+
+			if (value.length() == 0)
+				return FormValidation.error(Messages.validation_required("the timeout"));
+			if (!value.matches("\\d+"))
+				return FormValidation.error(Messages.validation_positiveInteger("Timeout"));
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckMaxParallel(@QueryParameter String value)
+				throws IOException, ServletException {
+			return BatchSteps.checkMaxParallel(value);
+		}
+
+		public FormValidation doTestData(@QueryParameter String serverName, @QueryParameter String vms,
+				@QueryParameter String vmPattern, @QueryParameter String folder) {
+			return BatchSteps.testVmSelection(serverName, vms, vmPattern, folder);
+		}
+	}
+}
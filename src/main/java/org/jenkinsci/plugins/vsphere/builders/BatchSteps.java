@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.vsphere.builders;
+
+import hudson.Util;
+import hudson.util.FormValidation;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
+import org.jenkinsci.plugins.vsphere.tools.VSphere;
+import org.jenkinsci.plugins.vsphere.tools.VmSelection;
+
+/**
+ * The parsing and form validation shared by the build steps that work on many
+ * VMs at once ({@link BulkSnapshot}, {@link BatchLifecycle} and
+ * {@link CloneMultiple}).
+ */
+final class BatchSteps {
+	/**
+	 * Half of what build steps may send to vCenter at once (see
+	 * {@link org.jenkinsci.plugins.vsphere.tools.VSphereRequestScheduler.Priority#BUILD_STEP}),
+	 * so that one batch doesn't leave other builds' steps waiting.
+	 */
+	static final int DEFAULT_MAX_PARALLEL = 4;
+
+	private BatchSteps() {
+	}
+
+	static int parseMaxParallel(String maxParallel) {
+		final int parsed = Util.tryParseNumber(maxParallel, DEFAULT_MAX_PARALLEL).intValue();
+		return parsed > 0 ? parsed : DEFAULT_MAX_PARALLEL;
+	}
+
+	static FormValidation checkVmPattern(String value) {
+		if (value.length() == 0 || value.indexOf('$') >= 0)
+			return FormValidation.ok();
+		try {
+			Pattern.compile(value);
+			return FormValidation.ok();
+		} catch (PatternSyntaxException e) {
+			return FormValidation.error(e.getDescription());
+		}
+	}
+
+	static FormValidation checkMaxParallel(String value) {
+		if (value.length() == 0)
+			return FormValidation.ok();
+		if (Util.tryParseNumber(value, 0).intValue() <= 0)
+			return FormValidation.error(Messages.validation_positiveInteger("Max parallel"));
+		return FormValidation.ok();
+	}
+
+	static FormValidation testVmSelection(String serverName, final String vms, final String vmPattern, final String folder) {
+		try {
+
+			if (serverName.length() == 0 || (vms.length() == 0 && vmPattern.length() == 0))
+				return FormValidation.error(Messages.validation_requiredValues());
+
+			if (vms.indexOf('$') >= 0 || vmPattern.indexOf('$') >= 0 || folder.indexOf('$') >= 0)
+				return FormValidation.warning(Messages.validation_buildParameter("VM"));
+
+			return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+				@Override
+				public FormValidation check(VSphere vsphere) throws Exception {
+					final VmSelection selection = new VmSelection(vms, vmPattern);
+					final Collection<String> existing = vsphere.getVmsByName(folder).keySet();
+					final List<String> missing = selection.missing(existing);
+					if (!missing.isEmpty())
+						return FormValidation.error(Messages.validation_notFound("VM " + missing));
+					final List<String> selected = selection.select(existing);
+					if (selected.isEmpty())
+						return FormValidation.error(Messages.validation_notFound("VM"));
+					return FormValidation.ok(Messages.validation_success() + ": " + selected.size() + " VMs");
+				}
+			}, vms, vmPattern, folder);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
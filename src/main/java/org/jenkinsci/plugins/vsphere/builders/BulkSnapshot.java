@@ -0,0 +1,239 @@
+package org.jenkinsci.plugins.vsphere.builders;
+
+import hudson.*;
+import hudson.model.*;
+import hudson.tasks.BuildStepMonitor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.servlet.ServletException;
+
+import jenkins.tasks.SimpleBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.tools.VSphereException;
+import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
+import org.jenkinsci.plugins.vsphere.tools.VmBatch;
+import org.jenkinsci.plugins.vsphere.tools.VmSelection;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import com.vmware.vim25.mo.VirtualMachine;
+
+/**
+ * Takes, reverts to or deletes a snapshot on many VMs at once. The VMs are
+ * looked up together, and the snapshot operations are run in parallel.
+ */
+public class BulkSnapshot extends VSphereBuildStep implements SimpleBuildStep {
+
+	public static final String TAKE = "Take";
+	public static final String REVERT = "Revert";
+	public static final String DELETE = "Delete";
+
+	private final String vms;
+	private final String vmPattern;
+	private final String folder;
+	private final String action;
+	private final String snapshotName;
+	private final String description;
+	private final boolean includeMemory;
+	private final String maxParallel;
+
+	@DataBoundConstructor
+	public BulkSnapshot(final String vms, final String vmPattern, final String folder, final String action,
+			final String snapshotName, final String description, final boolean includeMemory,
+			final String maxParallel) throws VSphereException {
+		this.vms = vms;
+		this.vmPattern = vmPattern;
+		this.folder = folder;
+		this.action = action;
+		this.snapshotName = snapshotName;
+		this.description = description;
+		this.includeMemory = includeMemory;
+		this.maxParallel = maxParallel;
+	}
+
+	public String getVms() {
+		return vms;
+	}
+
+	public String getVmPattern() {
+		return vmPattern;
+	}
+
+	public String getFolder() {
+		return folder;
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	public String getSnapshotName() {
+		return snapshotName;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public boolean isIncludeMemory() {
+		return includeMemory;
+	}
+
+	public String getMaxParallel() {
+		return maxParallel;
+	}
+
+	@Override
+	public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath filePath, @Nonnull Launcher launcher, @Nonnull TaskListener listener) throws InterruptedException, IOException {
+		try {
+			bulkSnapshot(run, launcher, listener);
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new AbortException(e.getMessage());
+		}
+	}
+
+	@Override
+	public boolean prebuild(AbstractBuild<?, ?> abstractBuild, BuildListener buildListener) {
+		return false;
+	}
+
+	@Override
+	public boolean perform(final AbstractBuild<?, ?> build, final Launcher launcher, final BuildListener listener) {
+		boolean retVal = false;
+		try {
+			retVal = bulkSnapshot(build, launcher, listener);
+		} catch (Exception e) {
+			e.printStackTrace(listener.getLogger());
+		}
+		return retVal;
+	}
+
+	@Override
+	public Action getProjectAction(AbstractProject<?, ?> abstractProject) {
+		return null;
+	}
+
+	@Override
+	public Collection<? extends Action> getProjectActions(AbstractProject<?, ?> abstractProject) {
+		return null;
+	}
+
+	@Override
+	public BuildStepMonitor getRequiredMonitorService() {
+		return null;
+	}
+
+	private boolean bulkSnapshot(final Run<?, ?> run, final Launcher launcher, final TaskListener listener) throws VSphereException, InterruptedException {
+		final PrintStream jLogger = listener.getLogger();
+		String expandedVms = vms;
+		String expandedVmPattern = vmPattern;
+		String expandedFolder = folder;
+		String expandedSnapshotName = snapshotName;
+		String expandedDescription = description;
+		EnvVars env;
+		try {
+			env = run.getEnvironment(listener);
+		} catch (Exception e) {
+			throw new VSphereException(e);
+		}
+
+		if (run instanceof AbstractBuild) {
+			env.overrideAll(((AbstractBuild) run).getBuildVariables()); // Add in matrix axes..
+			expandedVms = env.expand(vms);
+			expandedVmPattern = env.expand(vmPattern);
+			expandedFolder = env.expand(folder);
+			expandedSnapshotName = env.expand(snapshotName);
+			expandedDescription = env.expand(description);
+		}
+
+		final VmSelection selection = new VmSelection(expandedVms, expandedVmPattern);
+		if (selection.isEmpty()) {
+			throw new VSphereException("No VMs were specified");
+		}
+		final Map<String, VirtualMachine> existing = vsphere.getVmsByName(expandedFolder);
+		final List<String> missing = selection.missing(existing.keySet());
+		final Map<String, VirtualMachine> selected = new LinkedHashMap<String, VirtualMachine>();
+		for (final String name : selection.select(existing.keySet())) {
+			selected.put(name, existing.get(name));
+		}
+		VSphereLogger.vsLogger(jLogger, action + " snapshot \"" + expandedSnapshotName + "\" on " + selected.size() + " VMs...");
+
+		final String finalSnapshotName = expandedSnapshotName;
+		final String finalDescription = expandedDescription;
+		final List<VmBatch.Result> results = VmBatch.run(selected, BatchSteps.parseMaxParallel(maxParallel), new VmBatch.Operation<VirtualMachine>() {
+			@Override
+			public void perform(String name, VirtualMachine vm) throws Exception {
+				if (TAKE.equals(action)) {
+					vsphere.takeSnapshot(vm, finalSnapshotName, finalDescription, includeMemory);
+				} else if (REVERT.equals(action)) {
+					vsphere.revertToSnapshot(vm, finalSnapshotName);
+				} else if (DELETE.equals(action)) {
+					vsphere.deleteSnapshot(vm, finalSnapshotName, false, true);
+				} else {
+					throw new VSphereException("Unknown action \"" + action + "\"");
+				}
+			}
+		});
+		for (final VmBatch.Result result : results) {
+			VSphereLogger.vsLogger(jLogger, result.toString());
+		}
+
+		final List<String> failed = VmBatch.failed(results);
+		if (!missing.isEmpty() || !failed.isEmpty()) {
+			throw new VSphereException(action + " snapshot failed on " + failed + (missing.isEmpty() ? "" : "; VMs not found: " + missing));
+		}
+		VSphereLogger.vsLogger(jLogger, "Complete.");
+		return true;
+	}
+
+	@Extension
+	public static class BulkSnapshotDescriptor extends VSphereBuildStepDescriptor {
+
+		@Override
+		public String getDisplayName() {
+			return Messages.vm_title_BulkSnapshot();
+		}
+
+		public ListBoxModel doFillActionItems() {
+			final ListBoxModel items = new ListBoxModel();
+			items.add(TAKE);
+			items.add(REVERT);
+			items.add(DELETE);
+			return items;
+		}
+
+		public FormValidation doCheckVmPattern(@QueryParameter String value)
+				throws IOException, ServletException {
+			return BatchSteps.checkVmPattern(value);
+		}
+
+		public FormValidation doCheckSnapshotName(@QueryParameter String value)
+				throws IOException, ServletException {
+
+			if (value.length() == 0)
+				return FormValidation.error(Messages.validation_required("the snapshot name"));
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckMaxParallel(@QueryParameter String value)
+				throws IOException, ServletException {
+			return BatchSteps.checkMaxParallel(value);
+		}
+
+		public FormValidation doTestData(@QueryParameter String serverName, @QueryParameter String vms,
+				@QueryParameter String vmPattern, @QueryParameter String folder) {
+			return BatchSteps.testVmSelection(serverName, vms, vmPattern, folder);
+		}
+	}
+}
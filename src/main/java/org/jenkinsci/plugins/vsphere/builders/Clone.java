@@ -28,6 +28,7 @@ import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
 
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
@@ -239,7 +240,7 @@ public class Clone extends VSphereBuildStep {
     }
         
         
-    private static void addEnvVars(final EnvVars vars, final TaskListener listener, final Iterable<? extends NodeProperty<?>> nodeProperties) throws IOException, InterruptedException {
+    static void addEnvVars(final EnvVars vars, final TaskListener listener, final Iterable<? extends NodeProperty<?>> nodeProperties) throws IOException, InterruptedException {
         if (nodeProperties != null) {
             for (final NodeProperty<?> nodeProperty : nodeProperties) {
                 nodeProperty.buildEnvVars(vars, listener);
@@ -247,7 +248,7 @@ public class Clone extends VSphereBuildStep {
         }
     }
 
-    private static void addEnvVar(final EnvVars vars, final String name, final Object valueOrNull) {
+    static void addEnvVar(final EnvVars vars, final String name, final Object valueOrNull) {
         vars.put(name, valueOrNull == null ? "" : valueOrNull.toString());
     }
             
@@ -278,27 +279,34 @@ public class Clone extends VSphereBuildStep {
             return FormValidation.ok();
         }
 
-        public FormValidation doCheckResourcePool(@QueryParameter String value,
+        public FormValidation doCheckResourcePool(@QueryParameter final String value,
                                                   @QueryParameter String serverName,
-                                                  @QueryParameter String sourceName)
+                                                  @QueryParameter final String sourceName)
                 throws IOException, ServletException {
             try {
                 if (serverName == null){
                     return FormValidation.error(Messages.validation_required("serverName"));
                 }
-                VSphere vsphere = getVSphereCloudByName(serverName, null).vSphereInstance();
-
-                VirtualMachine virtualMachine = vsphere.getVmByName(sourceName);
-                if (virtualMachine == null) {
-                    return FormValidation.error("The source VM \""+sourceName+"\"was not found cannot check the configuration.");
-                }
-                if ((virtualMachine.getConfig().template) && (value.length() == 0)) {
-                    return FormValidation.error(Messages.validation_required("the resource pool"));
-                }
+                return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+                    @Override
+                    public FormValidation check(VSphere vsphere) throws Exception {
+                        VirtualMachine virtualMachine = vsphere.getVmByName(sourceName);
+                        if (virtualMachine == null) {
+                            return FormValidation.error("The source VM \""+sourceName+"\"was not found cannot check the configuration.");
+                        }
+                        if ((virtualMachine.getConfig().template) && (value.length() == 0)) {
+                            return FormValidation.error(Messages.validation_required("the resource pool"));
+                        }
+                        return FormValidation.ok();
+                    }
+                }, value, sourceName);
             } catch (VSphereException ve) {
                 return FormValidation.error("Cannot connect to vsphere. "+ve.getMessage());
+            } catch (IOException | ServletException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
             }
-            return FormValidation.ok();
         }
 
         public FormValidation doCheckCluster(@QueryParameter String value)
@@ -314,38 +322,41 @@ public class Clone extends VSphereBuildStep {
         }
 
         public FormValidation doTestData(@QueryParameter String serverName,
-                                         @QueryParameter String sourceName, @QueryParameter String clone,
+                                         @QueryParameter final String sourceName, @QueryParameter final String clone,
                                          @QueryParameter String resourcePool, @QueryParameter String cluster,
-                                         @QueryParameter String customizationSpec) {
+                                         @QueryParameter final String customizationSpec) {
             try {
                 if (sourceName.length() == 0 || clone.length()==0 || serverName.length()==0
                         || cluster.length()==0 )
                     return FormValidation.error(Messages.validation_requiredValues());
 
-                VSphere vsphere = getVSphereCloudByName(serverName, null).vSphereInstance();
-
-                //TODO what if clone name is variable?
-                VirtualMachine cloneVM = vsphere.getVmByName(clone);
-                if (cloneVM != null)
-                    return FormValidation.error(Messages.validation_exists("clone"));
-
-                if (sourceName.indexOf('$') >= 0)
-                    return FormValidation.warning(Messages.validation_buildParameter("sourceName"));
-
-                VirtualMachine vm = vsphere.getVmByName(sourceName);
-                if (vm == null)
-                    return FormValidation.error(Messages.validation_notFound("sourceName"));
-
-                VirtualMachineSnapshot snap = vm.getCurrentSnapShot();
-                if (snap == null)
-                    return FormValidation.error(Messages.validation_noSnapshots());
-
-                if(customizationSpec.length() > 0 &&
-                        vsphere.getCustomizationSpecByName(customizationSpec) == null) {
-                    return FormValidation.error(Messages.validation_notFound("customizationSpec"));
-                }
-
-                return FormValidation.ok(Messages.validation_success());
+                return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+                    @Override
+                    public FormValidation check(VSphere vsphere) throws Exception {
+                        //TODO what if clone name is variable?
+                        VirtualMachine cloneVM = vsphere.getVmByName(clone);
+                        if (cloneVM != null)
+                            return FormValidation.error(Messages.validation_exists("clone"));
+
+                        if (sourceName.indexOf('$') >= 0)
+                            return FormValidation.warning(Messages.validation_buildParameter("sourceName"));
+
+                        VirtualMachine vm = vsphere.getVmByName(sourceName);
+                        if (vm == null)
+                            return FormValidation.error(Messages.validation_notFound("sourceName"));
+
+                        VirtualMachineSnapshot snap = vm.getCurrentSnapShot();
+                        if (snap == null)
+                            return FormValidation.error(Messages.validation_noSnapshots());
+
+                        if(customizationSpec.length() > 0 &&
+                                vsphere.getCustomizationSpecByName(customizationSpec) == null) {
+                            return FormValidation.error(Messages.validation_notFound("customizationSpec"));
+                        }
+
+                        return FormValidation.ok(Messages.validation_success());
+                    }
+                }, sourceName, clone, customizationSpec);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
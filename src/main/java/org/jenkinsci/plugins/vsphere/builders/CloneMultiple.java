@@ -0,0 +1,332 @@
+package org.jenkinsci.plugins.vsphere.builders;
+
+import hudson.*;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.FormValidation;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.servlet.ServletException;
+
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereGuestInfoProperty;
+import org.jenkinsci.plugins.vsphere.tools.VSphereException;
+import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
+import org.jenkinsci.plugins.vsphere.tools.VmBatch;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import com.vmware.vim25.mo.VirtualMachine;
+
+/**
+ * Creates several clones of a VM or template at once, e.g. for an integration
+ * test bed. The clones are made in parallel, each clone's guestinfo variables
+ * are set as part of its clone (rather than by reconfiguring it afterwards),
+ * and waiting for their IP addresses overlaps too.
+ * <p>
+ * When used from a pipeline, the vSphere step returns a map from each clone's
+ * name to how it went (see {@link VmBatch#toMap(List)}) plus its "ip".
+ * </p>
+ */
+public class CloneMultiple extends VSphereBuildStep {
+
+    /** The macro in the clone name pattern that is replaced by the clone's number. */
+    public static final String INDEX_MACRO = "INDEX";
+    private static final int TIMEOUT_DEFAULT = 60;
+
+    private final String sourceName;
+    private final String cloneNamePattern;
+    private final int count;
+    private final boolean linkedClone;
+    private final String resourcePool;
+    private final String cluster;
+    private final String datastore;
+    private final String folder;
+    private final String customizationSpec;
+    private final boolean powerOn;
+    private final List<? extends VSphereGuestInfoProperty> guestInfoProperties;
+    private Integer timeoutInSeconds = Integer.valueOf(TIMEOUT_DEFAULT);
+    private final String maxParallel;
+    /**
+     * Only set when run from a pipeline, where each use of the step has its own
+     * instance. A build step in a freestyle project is shared by all its
+     * builds, so it mustn't remember anything about any one of them.
+     */
+    private transient Map<String, Map<String, Object>> results;
+
+    @DataBoundConstructor
+    public CloneMultiple(String sourceName, String cloneNamePattern, int count, boolean linkedClone,
+                         String resourcePool, String cluster, String datastore, String folder,
+                         boolean powerOn, Integer timeoutInSeconds, String customizationSpec,
+                         final List<? extends VSphereGuestInfoProperty> guestInfoProperties,
+                         String maxParallel) throws VSphereException {
+        this.sourceName = sourceName;
+        this.cloneNamePattern = cloneNamePattern;
+        this.count = count;
+        this.linkedClone = linkedClone;
+        this.resourcePool = resourcePool;
+        this.cluster = cluster;
+        this.datastore = datastore;
+        this.folder = folder;
+        this.customizationSpec = customizationSpec;
+        this.powerOn = powerOn;
+        this.guestInfoProperties = guestInfoProperties;
+        if (timeoutInSeconds != null) {
+            this.timeoutInSeconds = timeoutInSeconds;
+        }
+        this.maxParallel = maxParallel;
+    }
+
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    public String getCloneNamePattern() {
+        return cloneNamePattern;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isLinkedClone() {
+        return linkedClone;
+    }
+
+    public String getResourcePool() {
+        return resourcePool;
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    public String getDatastore() {
+        return datastore;
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    public String getCustomizationSpec() {
+        return customizationSpec;
+    }
+
+    public boolean isPowerOn() {
+        return powerOn;
+    }
+
+    public List<? extends VSphereGuestInfoProperty> getGuestInfoProperties() {
+        return guestInfoProperties;
+    }
+
+    public Integer getTimeoutInSeconds() {
+        return timeoutInSeconds;
+    }
+
+    public String getMaxParallel() {
+        return maxParallel;
+    }
+
+    @Override
+    public Object getResult() {
+        return results;
+    }
+
+    @Override
+    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath filePath, @Nonnull Launcher launcher, @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        final Map<String, Map<String, Object>> resultMap = new LinkedHashMap<String, Map<String, Object>>();
+        results = resultMap;
+        try {
+            cloneMultiple(run, launcher, listener, resultMap);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AbortException(e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean perform(final AbstractBuild<?, ?> build, final Launcher launcher, final BuildListener listener) {
+        boolean retVal = false;
+        try {
+            retVal = cloneMultiple(build, launcher, listener, new LinkedHashMap<String, Map<String, Object>>());
+        } catch (Exception e) {
+            e.printStackTrace(listener.getLogger());
+        }
+        return retVal;
+    }
+
+    private boolean cloneMultiple(final Run<?, ?> run, final Launcher launcher, final TaskListener listener,
+            final Map<String, Map<String, Object>> resultMap) throws VSphereException, IOException, InterruptedException {
+        final PrintStream jLogger = listener.getLogger();
+        String expandedPattern = cloneNamePattern;
+        String expandedSource = sourceName;
+        String expandedCluster = cluster;
+        String expandedDatastore = datastore;
+        String expandedFolder = folder;
+        String expandedResourcePool = resourcePool;
+        String expandedCustomizationSpec = customizationSpec;
+        final EnvVars env;
+        try {
+            env = run.getEnvironment(listener);
+        } catch (Exception e) {
+            throw new VSphereException(e);
+        }
+
+        if (run instanceof AbstractBuild) {
+            env.overrideAll(((AbstractBuild) run).getBuildVariables()); // Add in matrix axes..
+            expandedPattern = env.expand(cloneNamePattern);
+            expandedSource = env.expand(sourceName);
+            expandedCluster = env.expand(cluster);
+            expandedDatastore = env.expand(datastore);
+            expandedFolder = env.expand(folder);
+            expandedResourcePool = env.expand(resourcePool);
+            expandedCustomizationSpec = env.expand(customizationSpec);
+        }
+        if (count <= 0) {
+            throw new VSphereException("The number of clones must be positive");
+        }
+
+        final Map<String, Integer> clones = new LinkedHashMap<String, Integer>();
+        for (int i = 1; i <= count; i++) {
+            clones.put(cloneName(expandedPattern, i), Integer.valueOf(i));
+        }
+        if (clones.size() != count) {
+            throw new VSphereException("Clone name pattern \"" + expandedPattern + "\" does not give each clone a different name");
+        }
+        final VirtualMachine sourceVm = vsphere.getVmByName(expandedSource);
+        if (sourceVm == null) {
+            throw new VSphereException("VM or template \"" + expandedSource + "\" not found");
+        }
+        // as Clone and Deploy do: a VM is cloned from its current snapshot, a template as it is
+        final boolean useCurrentSnapshot = !sourceVm.getConfig().template;
+        VSphereLogger.vsLogger(jLogger, "Creating " + count + " clones of \"" + expandedSource + "\"...");
+
+        final String finalSource = expandedSource;
+        final String finalCluster = expandedCluster;
+        final String finalDatastore = expandedDatastore;
+        final String finalFolder = expandedFolder;
+        final String finalResourcePool = expandedResourcePool;
+        final String finalCustomizationSpec = expandedCustomizationSpec;
+        final Map<String, String> ips = new ConcurrentHashMap<String, String>();
+        final List<VmBatch.Result> batchResults = VmBatch.run(clones, BatchSteps.parseMaxParallel(maxParallel), new VmBatch.Operation<Integer>() {
+            @Override
+            public void perform(String cloneName, Integer index) throws Exception {
+                final Map<String, String> guestInfo = calculateGuestInfoProperties(cloneName, index.intValue(),
+                        finalCluster, finalDatastore, listener, env);
+                vsphere.cloneOrDeployVm(cloneName, finalSource, linkedClone, finalResourcePool, finalCluster,
+                        finalDatastore, finalFolder, useCurrentSnapshot, null, powerOn, finalCustomizationSpec, guestInfo, jLogger);
+                if (powerOn) {
+                    final String ip = vsphere.getIp(vsphere.getVmByName(cloneName), timeoutInSeconds.intValue());
+                    if (ip != null) {
+                        ips.put(cloneName, ip);
+                    }
+                }
+            }
+        });
+        for (final VmBatch.Result result : batchResults) {
+            final String ip = ips.get(result.getName());
+            VSphereLogger.vsLogger(jLogger, result + (ip == null ? "" : ", IP " + ip));
+        }
+        resultMap.putAll(VmBatch.toMap(batchResults));
+        for (final Map.Entry<String, Map<String, Object>> entry : resultMap.entrySet()) {
+            entry.getValue().put("ip", ips.get(entry.getKey()));
+        }
+
+        final List<String> failed = VmBatch.failed(batchResults);
+        if (!failed.isEmpty()) {
+            throw new VSphereException("Failed to create clones " + failed);
+        }
+        VSphereLogger.vsLogger(jLogger, count + " clones of \"" + expandedSource + "\" successfully created!");
+        return true;
+    }
+
+    /**
+     * @param pattern
+     *            The clone name pattern, which should contain
+     *            <code>${INDEX}</code>. If it doesn't, the number is appended.
+     * @param index
+     *            The clone's number, starting from 1.
+     * @return The clone's name.
+     */
+    static String cloneName(String pattern, int index) {
+        final String macro = "${" + INDEX_MACRO + "}";
+        final String withIndex = pattern.contains(macro) ? pattern : pattern + "-" + macro;
+        return Util.replaceMacro(withIndex, Collections.singletonMap(INDEX_MACRO, Integer.toString(index)));
+    }
+
+    private Map<String, String> calculateGuestInfoProperties(final String cloneName, final int index,
+            final String expandedCluster, final String expandedDatastore, final TaskListener listener, final EnvVars env) throws IOException, InterruptedException {
+        final Map<String, String> resolvedGuestInfoProperties = new LinkedHashMap<String, String>();
+        if (guestInfoProperties == null || guestInfoProperties.isEmpty()) {
+            return resolvedGuestInfoProperties;
+        }
+        final EnvVars knownVariables = new EnvVars();
+        // Maintenance note: this should offer the same variables as Clone does.
+        final String jenkinsUrl = Jenkins.getActiveInstance().getRootUrl();
+        if (jenkinsUrl != null) {
+            Clone.addEnvVar(knownVariables, "JENKINS_URL", jenkinsUrl);
+            Clone.addEnvVar(knownVariables, "HUDSON_URL", jenkinsUrl);
+        }
+        Clone.addEnvVars(knownVariables, listener, Jenkins.getInstance().getGlobalNodeProperties());
+        Clone.addEnvVar(knownVariables, "NODE_NAME", cloneName);
+        Clone.addEnvVar(knownVariables, "cluster", expandedCluster);
+        Clone.addEnvVar(knownVariables, "datastore", expandedDatastore);
+        Clone.addEnvVar(knownVariables, INDEX_MACRO, Integer.valueOf(index));
+        for (final VSphereGuestInfoProperty property : guestInfoProperties) {
+            final String resolvedValue = env.expand(Util.replaceMacro(property.getValue(), knownVariables));
+            resolvedGuestInfoProperties.put(property.getName(), resolvedValue);
+        }
+        return resolvedGuestInfoProperties;
+    }
+
+    @Extension
+    public static final class CloneMultipleDescriptor extends VSphereBuildStepDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.vm_title_CloneMultiple();
+        }
+
+        public FormValidation doCheckSourceName(@QueryParameter String value)
+                throws IOException, ServletException {
+            if (value.length() == 0)
+                return FormValidation.error(Messages.validation_required("the source name"));
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckCloneNamePattern(@QueryParameter String value)
+                throws IOException, ServletException {
+            if (value.length() == 0)
+                return FormValidation.error(Messages.validation_required("the clone name pattern"));
+            if (!value.contains("${" + INDEX_MACRO + "}"))
+                return FormValidation.warning("The clone number will be appended, as ${" + INDEX_MACRO + "} is not used");
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckCount(@QueryParameter String value)
+                throws IOException, ServletException {
+            if (Util.tryParseNumber(value, 0).intValue() <= 0)
+                return FormValidation.error(Messages.validation_positiveInteger("The number of clones"));
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckMaxParallel(@QueryParameter String value)
+                throws IOException, ServletException {
+            return BatchSteps.checkMaxParallel(value);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
 
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
@@ -133,7 +134,7 @@ public class ConvertToTemplate extends VSphereBuildStep {
         }
 
         public FormValidation doTestData(@QueryParameter String serverName,
-                                         @QueryParameter String vm) {
+                                         @QueryParameter final String vm) {
             try {
                 if (serverName == null){
                     return FormValidation.error(Messages.validation_required("serverName"));
@@ -145,11 +146,15 @@ public class ConvertToTemplate extends VSphereBuildStep {
                 if (vm.indexOf('$') >= 0)
                     return FormValidation.warning(Messages.validation_buildParameter("VM"));
 
-                VSphere vsphere = getVSphereCloudByName(serverName, null).vSphereInstance();
-                if (vsphere.getVmByName(vm) == null)
-                    return FormValidation.error(Messages.validation_notFound("VM"));
+                return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+                    @Override
+                    public FormValidation check(VSphere vsphere) throws Exception {
+                        if (vsphere.getVmByName(vm) == null)
+                            return FormValidation.error(Messages.validation_notFound("VM"));
 
-                return FormValidation.ok(Messages.validation_success());
+                        return FormValidation.ok(Messages.validation_success());
+                    }
+                }, vm);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
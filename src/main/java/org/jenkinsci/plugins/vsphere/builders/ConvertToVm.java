@@ -28,6 +28,7 @@ import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
 
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
@@ -150,7 +151,7 @@ public class ConvertToVm extends VSphereBuildStep {
         }
 
         public FormValidation doTestData(@QueryParameter String serverName,
-                                         @QueryParameter String template, @QueryParameter String resourcePool,
+                                         @QueryParameter final String template, @QueryParameter String resourcePool,
                                          @QueryParameter String cluster) {
             try {
 
@@ -161,15 +162,19 @@ public class ConvertToVm extends VSphereBuildStep {
                 if (template.indexOf('$') >= 0)
                     return FormValidation.warning(Messages.validation_buildParameter("Template"));
 
-                VSphere vsphere = getVSphereCloudByName(serverName).vSphereInstance();
-                VirtualMachine vm = vsphere.getVmByName(template);
-                if (vm == null)
-                    return FormValidation.error(Messages.validation_notFound("template"));
+                return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+                    @Override
+                    public FormValidation check(VSphere vsphere) throws Exception {
+                        VirtualMachine vm = vsphere.getVmByName(template);
+                        if (vm == null)
+                            return FormValidation.error(Messages.validation_notFound("template"));
 
-                if(!vm.getConfig().template)
-                    return FormValidation.error(Messages.validation_alreadySet("template", "VM"));
+                        if(!vm.getConfig().template)
+                            return FormValidation.error(Messages.validation_alreadySet("template", "VM"));
 
-                return FormValidation.ok(Messages.validation_success());
+                        return FormValidation.ok(Messages.validation_success());
+                    }
+                }, template);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
@@ -28,6 +28,7 @@ import javax.servlet.ServletException;
 
 import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
@@ -140,25 +141,28 @@ public class Delete extends VSphereBuildStep {
 		}
 
 		public FormValidation doTestData(@QueryParameter String serverName,
-				@QueryParameter String vm) {
+				@QueryParameter final String vm) {
 			try {
 
 				if (serverName.length() == 0 || vm.length()==0 )
 					return FormValidation.error(Messages.validation_requiredValues());
 
-				VSphere vsphere = getVSphereCloudByName(serverName, null).vSphereInstance();
-
 				if (vm.indexOf('$') >= 0)
 					return FormValidation.warning(Messages.validation_buildParameter("VM"));
 
-				VirtualMachine vmObj = vsphere.getVmByName(vm);
-				if (vmObj == null)
-					return FormValidation.error(Messages.validation_notFound("VM"));
+				return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+					@Override
+					public FormValidation check(VSphere vsphere) throws Exception {
+						VirtualMachine vmObj = vsphere.getVmByName(vm);
+						if (vmObj == null)
+							return FormValidation.error(Messages.validation_notFound("VM"));
 
-				if (vmObj.getConfig().template)
-					return FormValidation.error(Messages.validation_notActually("VM"));
+						if (vmObj.getConfig().template)
+							return FormValidation.error(Messages.validation_notActually("VM"));
 
-				return FormValidation.ok(Messages.validation_success());
+						return FormValidation.ok(Messages.validation_success());
+					}
+				}, vm);
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
@@ -32,6 +32,7 @@ import javax.servlet.ServletException;
 
 import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
@@ -327,31 +328,34 @@ public class Deploy extends VSphereBuildStep implements SimpleBuildStep {
 		}
 
 		public FormValidation doTestData(@QueryParameter String serverName,
-				@QueryParameter String template, @QueryParameter String clone,
+				@QueryParameter final String template, @QueryParameter final String clone,
 				@QueryParameter String resourcePool, @QueryParameter String cluster) {
 			try {
 				if (template.length() == 0 || clone.length()==0 || serverName.length()==0
 						|| cluster.length()==0 )
 					return FormValidation.error(Messages.validation_requiredValues());
 
-				VSphere vsphere = getVSphereCloudByName(serverName, null).vSphereInstance();
+				return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+					@Override
+					public FormValidation check(VSphere vsphere) throws Exception {
+						//TODO what if clone name is variable?
+						VirtualMachine cloneVM = vsphere.getVmByName(clone);
+						if (cloneVM != null)
+							return FormValidation.error(Messages.validation_exists("clone"));
 
-				//TODO what if clone name is variable?
-				VirtualMachine cloneVM = vsphere.getVmByName(clone);
-				if (cloneVM != null)
-					return FormValidation.error(Messages.validation_exists("clone"));
+						if (template.indexOf('$') >= 0)
+							return FormValidation.warning(Messages.validation_buildParameter("template"));
 
-				if (template.indexOf('$') >= 0)
-					return FormValidation.warning(Messages.validation_buildParameter("template"));
+						VirtualMachine vm = vsphere.getVmByName(template);
+						if (vm == null)
+							return FormValidation.error(Messages.validation_notFound("template"));
 
-				VirtualMachine vm = vsphere.getVmByName(template);
-				if (vm == null)
-					return FormValidation.error(Messages.validation_notFound("template"));
+						if(!vm.getConfig().template)
+							return FormValidation.error(Messages.validation_notActually("template"));
 
-				if(!vm.getConfig().template)
-					return FormValidation.error(Messages.validation_notActually("template"));
-
-				return FormValidation.ok(Messages.validation_success());
+						return FormValidation.ok(Messages.validation_success());
+					}
+				}, template, clone);
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
@@ -9,6 +9,7 @@ import hudson.tasks.BuildStepMonitor;
 import hudson.util.FormValidation;
 import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
@@ -18,13 +19,12 @@ import org.kohsuke.stapler.QueryParameter;
 import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
 
+import java.beans.Introspector;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
 
 /**
  * Expose guest info for the named VM as environmental variables.
@@ -33,20 +33,36 @@ import java.util.regex.Pattern;
  */
 public class ExposeGuestInfo extends VSphereBuildStep implements SimpleBuildStep {
     private static final List USABLE_CLASS_TYPES = Arrays.asList(String.class, boolean.class, Boolean.class, int.class, Integer.class);
-    private static final Pattern ipv4Pattern = Pattern.compile("^(?:[0-9]{1,3}\\.){3}[0-9]{1,3}$");
+    /**
+     * The getter of each guest info field we can expose, keyed by variable
+     * name (e.g. "IpAddress" to getIpAddress). Worked out once, rather than by
+     * every build.
+     */
+    private static final Map<String, Method> GUEST_INFO_GETTERS = findGuestInfoGetters();
+    /**
+     * The vSphere property path of each guest info field we can expose, keyed
+     * by variable name (e.g. "IpAddress" to "guest.ipAddress"), so that a
+     * build that only wants some of them just asks vSphere for those.
+     */
+    static final Map<String, String> GUEST_INFO_PROPERTIES = findGuestInfoProperties();
 
     private final String vm;
     private final String envVariablePrefix;
     private final Boolean waitForIp4;
+    private final String guestInfoProperties;
+    private final Integer timeoutInSeconds;
     private String resolvedEnvVariablePrefix = null;
     private String IP;
     private Map <String, String> envVars = new HashMap<>();
 
     @DataBoundConstructor
-    public ExposeGuestInfo(final String vm, final String envVariablePrefix, Boolean waitForIp4) throws VSphereException {
+    public ExposeGuestInfo(final String vm, final String envVariablePrefix, Boolean waitForIp4,
+            final String guestInfoProperties, final Integer timeoutInSeconds) throws VSphereException {
         this.vm = vm;
         this.envVariablePrefix = envVariablePrefix;
         this.waitForIp4 = waitForIp4;
+        this.guestInfoProperties = guestInfoProperties;
+        this.timeoutInSeconds = timeoutInSeconds;
     }
 
     public String getVm() {
@@ -57,6 +73,18 @@ public class ExposeGuestInfo extends VSphereBuildStep implements SimpleBuildStep
         return envVariablePrefix;
     }
 
+    public Boolean getWaitForIp4() {
+        return waitForIp4;
+    }
+
+    public String getGuestInfoProperties() {
+        return guestInfoProperties;
+    }
+
+    public Integer getTimeoutInSeconds() {
+        return timeoutInSeconds;
+    }
+
     @Override
     public String getIP() {
         return IP;
@@ -70,6 +98,8 @@ public class ExposeGuestInfo extends VSphereBuildStep implements SimpleBuildStep
     public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath filePath, @Nonnull Launcher launcher, @Nonnull TaskListener listener) throws InterruptedException, IOException {
         try {
             exposeInfo(run, launcher, listener);
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             throw new AbortException(e.getMessage());
         }
@@ -136,71 +166,146 @@ public class ExposeGuestInfo extends VSphereBuildStep implements SimpleBuildStep
         if (vsphereVm == null) {
             throw new RuntimeException(Messages.validation_notFound("vm " + vmName));
         }
-        VSphereEnvAction envAction = createGuestInfoEnvAction(vsphereVm, jLogger);
-
-        if (waitForIp4){
-            String prefix = resolvedEnvVariablePrefix == null ? envVariablePrefix : resolvedEnvVariablePrefix;
-            String machineIP = envAction.data.get(prefix + "_IpAddress");
-            while (!ipv4Pattern.matcher(machineIP).find()) {
-                try {
-                    TimeUnit.SECONDS.sleep(30);
-                } catch (InterruptedException e) {
-
-                }
-                envAction = createGuestInfoEnvAction(vsphere.getVmByName(vmName), jLogger);
-                machineIP = envAction.data.get(prefix + "_IpAddress");
+        // check this before we wait for anything
+        final Map<String, String> properties = selectProperties(guestInfoProperties);
+
+        if (Boolean.TRUE.equals(waitForIp4)) {
+            final boolean forever = timeoutInSeconds == null || timeoutInSeconds <= 0;
+            VSphereLogger.vsLogger(jLogger, "Waiting for VM \"" + vmName + "\" to have an IPv4 address"
+                    + (forever ? "" : " (for up to " + timeoutInSeconds + " seconds)"));
+            final String ip = vsphere.waitForIpv4(vsphereVm,
+                    forever ? Long.MAX_VALUE : TimeUnit.SECONDS.toMillis(timeoutInSeconds));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (ip == null) {
+                throw new VSphereException("VM \"" + vmName + "\" did not get an IPv4 address within "
+                        + timeoutInSeconds + " seconds");
             }
         }
 
-        run.addAction(envAction);
+        run.addAction(createGuestInfoEnvAction(vsphereVm, properties, jLogger));
 
         VSphereLogger.vsLogger(jLogger, "Successfully exposed guest info for VM \"" + vmName + "\"");
         return true;
     }
 
-    private VSphereEnvAction createGuestInfoEnvAction(VirtualMachine vsphereVm, PrintStream jLogger) throws InvocationTargetException,
-            IllegalAccessException {
-        GuestInfo guestInfo = vsphereVm.getGuest();
+    private VSphereEnvAction createGuestInfoEnvAction(VirtualMachine vsphereVm, Map<String, String> properties,
+            PrintStream jLogger) throws VSphereException {
+        final Map<String, Object> values;
+        if (properties == GUEST_INFO_PROPERTIES) {
+            // Not every vCenter knows every property our GuestInfo class has,
+            // and asking for one it doesn't know would fail, so read them all
+            // as one.
+            final Object guest = vsphere.getVmProperties(vsphereVm, "guest").get("guest");
+            values = readGuestInfo((GuestInfo) guest);
+        } else {
+            values = vsphere.getVmProperties(vsphereVm, properties.values().toArray(new String[properties.size()]));
+        }
 
         VSphereEnvAction envAction = new VSphereEnvAction();
 
         String prefix = resolvedEnvVariablePrefix == null ? envVariablePrefix : resolvedEnvVariablePrefix;
 
-        for (Method method : GuestInfo.class.getDeclaredMethods()) {
-            if (!method.getName().startsWith("get") || method.getParameterTypes().length > 0) {
-                continue;
-            }
-
-            String variableName = method.getName().substring(3);
-            Class returnType = method.getReturnType();
-            if (!USABLE_CLASS_TYPES.contains(returnType) && !returnType.isEnum()) {
-                VSphereLogger.vsLogger(jLogger, "Skipped \"" + variableName
-                        + "\" as it is of type " + returnType.toString());
-                continue;
-            }
-
-            Object value = method.invoke(guestInfo);
+        final StringBuilder added = new StringBuilder();
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            Object value = values.get(property.getValue());
             // don't add variable for null value
             if (value == null) {
-                VSphereLogger.vsLogger(jLogger, "Skipped \"" + variableName + "\" as it is a null value");
                 continue;
             }
 
+            String variableName = property.getKey();
+            String environmentVariableValue = String.valueOf(value);
             if ("IpAddress".equals(variableName)) {
-                IP = String.valueOf(value);
+                IP = environmentVariableValue;
             }
-            envVars.put(prefix + "_" + variableName, String.valueOf(value));
             String environmentVariableName = prefix + "_" + variableName;
-            String environmentVariableValue = String.valueOf(value);
-
+            envVars.put(environmentVariableName, environmentVariableValue);
             envAction.add(environmentVariableName, environmentVariableValue);
-            VSphereLogger.vsLogger(jLogger, "Added environmental variable \"" + environmentVariableName
-                    + "\" with a value of \"" + environmentVariableValue + "\"");
+            added.append(added.length() == 0 ? "" : ", ").append(environmentVariableName);
         }
+        VSphereLogger.vsLogger(jLogger, "Added environmental variables " + added);
 
         return envAction;
     }
 
+    /**
+     * @param selection
+     *            Variable names (without the prefix), separated by commas or
+     *            whitespace, or empty for all of them.
+     * @return The property paths to ask vSphere for, keyed by variable name.
+     *         If all of them were asked for, this is
+     *         {@link #GUEST_INFO_PROPERTIES} itself.
+     * @throws VSphereException
+     *             if a name isn't one we can expose.
+     */
+    static Map<String, String> selectProperties(String selection) throws VSphereException {
+        if (selection == null || selection.trim().isEmpty()) {
+            return GUEST_INFO_PROPERTIES;
+        }
+        final Map<String, String> selected = new TreeMap<String, String>();
+        for (String name : selection.trim().split("[,\\s]+")) {
+            final String path = GUEST_INFO_PROPERTIES.get(name);
+            if (path == null) {
+                throw new VSphereException(Messages.validation_notFound("guest info property " + name));
+            }
+            selected.put(name, path);
+        }
+        return selected;
+    }
+
+    /**
+     * @param guest
+     *            The VM's guest info, as read from its "guest" property. May
+     *            be null.
+     * @return The value of each field we can expose, keyed by property path
+     *         (as in {@link #GUEST_INFO_PROPERTIES}). Fields without a value
+     *         are left out.
+     * @throws VSphereException
+     *             if a field couldn't be read.
+     */
+    static Map<String, Object> readGuestInfo(GuestInfo guest) throws VSphereException {
+        final Map<String, Object> values = new TreeMap<String, Object>();
+        if (guest == null) {
+            return values;
+        }
+        for (Map.Entry<String, Method> getter : GUEST_INFO_GETTERS.entrySet()) {
+            try {
+                final Object value = getter.getValue().invoke(guest);
+                if (value != null) {
+                    values.put(GUEST_INFO_PROPERTIES.get(getter.getKey()), value);
+                }
+            } catch (Exception e) {
+                throw new VSphereException("Unable to read guest info " + getter.getKey(), e);
+            }
+        }
+        return values;
+    }
+
+    private static Map<String, Method> findGuestInfoGetters() {
+        final Map<String, Method> getters = new TreeMap<String, Method>();
+        for (Method method : GuestInfo.class.getDeclaredMethods()) {
+            if (!method.getName().startsWith("get") || method.getParameterTypes().length > 0) {
+                continue;
+            }
+            Class returnType = method.getReturnType();
+            if (!USABLE_CLASS_TYPES.contains(returnType) && !returnType.isEnum()) {
+                continue;
+            }
+            getters.put(method.getName().substring(3), method);
+        }
+        return Collections.unmodifiableMap(getters);
+    }
+
+    private static Map<String, String> findGuestInfoProperties() {
+        final Map<String, String> properties = new TreeMap<String, String>();
+        for (String variableName : GUEST_INFO_GETTERS.keySet()) {
+            properties.put(variableName, "guest." + Introspector.decapitalize(variableName));
+        }
+        return Collections.unmodifiableMap(properties);
+    }
+
     @Extension
     public static class ExposeGuestInfoDescriptor extends VSphereBuildStepDescriptor {
 
@@ -225,26 +330,45 @@ public class ExposeGuestInfo extends VSphereBuildStep implements SimpleBuildStep
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckGuestInfoProperties(@QueryParameter String value) {
+            try {
+                selectProperties(value);
+                return FormValidation.ok();
+            } catch (VSphereException e) {
+                return FormValidation.error(e.getMessage() + " Available: " + Util.join(GUEST_INFO_PROPERTIES.keySet(), ", "));
+            }
+        }
+
+        public FormValidation doCheckTimeoutInSeconds(@QueryParameter String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.ok();
+            }
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
         public FormValidation doTestData(@QueryParameter String serverName,
-                                         @QueryParameter String vm) {
+                                         @QueryParameter final String vm) {
             try {
 
                 if (vm.length() == 0 || serverName.length()==0)
                     return FormValidation.error(Messages.validation_requiredValues());
 
-                VSphere vsphere = getVSphereCloudByName(serverName, null).vSphereInstance();
-
                 if (vm.indexOf('$') >= 0)
                     return FormValidation.warning(Messages.validation_buildParameter("VM"));
 
-                VirtualMachine vmObj = vsphere.getVmByName(vm);
-                if ( vmObj == null)
-                    return FormValidation.error(Messages.validation_notFound("VM"));
+                return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+                    @Override
+                    public FormValidation check(VSphere vsphere) throws Exception {
+                        VirtualMachine vmObj = vsphere.getVmByName(vm);
+                        if ( vmObj == null)
+                            return FormValidation.error(Messages.validation_notFound("VM"));
 
-                if (vmObj.getConfig().template)
-                    return FormValidation.error(Messages.validation_notActually("VM"));
+                        if (vmObj.getConfig().template)
+                            return FormValidation.error(Messages.validation_notActually("VM"));
 
-                return FormValidation.ok(Messages.validation_success());
+                        return FormValidation.ok(Messages.validation_success());
+                    }
+                }, vm);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
@@ -29,6 +29,7 @@ import javax.servlet.ServletException;
 
 import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
@@ -166,7 +167,7 @@ public class PowerOff extends VSphereBuildStep implements SimpleBuildStep {
 		}
 
 		public FormValidation doTestData(@QueryParameter String serverName,
-				@QueryParameter String vm) {
+				@QueryParameter final String vm) {
 			try {
 
 				if (serverName.length() == 0 || vm.length()==0 )
@@ -175,15 +176,19 @@ public class PowerOff extends VSphereBuildStep implements SimpleBuildStep {
 				if (vm.indexOf('$') >= 0)
 					return FormValidation.warning(Messages.validation_buildParameter("VM"));
 
-				VSphere vsphere = getVSphereCloudByName(serverName).vSphereInstance();
-				VirtualMachine vmObj = vsphere.getVmByName(vm);
-				if ( vmObj == null)
-					return FormValidation.error(Messages.validation_notFound("VM"));
+				return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+					@Override
+					public FormValidation check(VSphere vsphere) throws Exception {
+						VirtualMachine vmObj = vsphere.getVmByName(vm);
+						if ( vmObj == null)
+							return FormValidation.error(Messages.validation_notFound("VM"));
 
-				if (vmObj.getConfig().template)
-					return FormValidation.error(Messages.validation_notActually("VM"));
+						if (vmObj.getConfig().template)
+							return FormValidation.error(Messages.validation_notActually("VM"));
 
-				return FormValidation.ok(Messages.validation_success());
+						return FormValidation.ok(Messages.validation_success());
+					}
+				}, vm);
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
@@ -22,6 +22,8 @@ import hudson.tasks.BuildStepMonitor;
 import hudson.util.FormValidation;
 import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
+import org.jenkinsci.plugins.vsphere.tools.DatastoreSelector;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
@@ -32,6 +34,7 @@ import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -115,13 +118,25 @@ public class Reconfigure extends VSphereBuildStep implements SimpleBuildStep{
 
 		VSphereLogger.vsLogger(jLogger, "Reconfiguring VM \""+expandedVm+"\". Please wait ...");
         VirtualMachineConfigSpec spec = new VirtualMachineConfigSpec();
-        for(ReconfigureStep actionStep : reconfigureSteps) {
-            actionStep.setVsphere(getVsphere());
-            actionStep.setVM(realVM);
-            actionStep.setVirtualMachineConfigSpec(spec);
-            actionStep.perform(run, null, launcher, listener);
+        List<DatastoreSelector.Reservation> reservations = new ArrayList<DatastoreSelector.Reservation>();
+        try {
+            for(ReconfigureStep actionStep : reconfigureSteps) {
+                actionStep.setVsphere(getVsphere());
+                actionStep.setVM(realVM);
+                actionStep.setVirtualMachineConfigSpec(spec);
+                actionStep.setReservations(reservations);
+                actionStep.perform(run, null, launcher, listener);
+            }
+            vsphere.reconfigureVm(expandedVm, spec);
+        } finally {
+            if (!reservations.isEmpty()) {
+                // vCenter now counts the new disks, so the next choice should ask it again
+                vsphere.getDatastoreSelector().invalidate();
+                for (DatastoreSelector.Reservation reservation : reservations) {
+                    reservation.close();
+                }
+            }
         }
-		vsphere.reconfigureVm(expandedVm, spec);
 		VSphereLogger.vsLogger(jLogger, "Finished!");
 
 		return true;
@@ -156,22 +171,25 @@ public class Reconfigure extends VSphereBuildStep implements SimpleBuildStep{
 		}
 
 		public FormValidation doTestData(@QueryParameter String serverName,
-				@QueryParameter String vm) {
+				@QueryParameter final String vm) {
 			try {
 
 				if (serverName.length() == 0 || vm.length()==0 )
 					return FormValidation.error(Messages.validation_requiredValues());
 
-				VSphere vsphere = getVSphereCloudByName(serverName).vSphereInstance();
-
 				if (vm.indexOf('$') >= 0)
 					return FormValidation.warning(Messages.validation_buildParameter("VM"));
 
-				VirtualMachine vmObj = vsphere.getVmByName(vm);
-				if (vmObj == null)
-					return FormValidation.error(Messages.validation_notFound("VM"));
+				return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+					@Override
+					public FormValidation check(VSphere vsphere) throws Exception {
+						VirtualMachine vmObj = vsphere.getVmByName(vm);
+						if (vmObj == null)
+							return FormValidation.error(Messages.validation_notFound("VM"));
 
-				return FormValidation.ok(Messages.validation_success());
+						return FormValidation.ok(Messages.validation_success());
+					}
+				}, vm);
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
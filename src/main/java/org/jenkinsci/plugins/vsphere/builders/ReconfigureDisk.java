@@ -15,8 +15,6 @@
 package org.jenkinsci.plugins.vsphere.builders;
 
 import com.vmware.vim25.*;
-import com.vmware.vim25.mo.Datastore;
-import com.vmware.vim25.mo.ManagedEntity;
 import com.vmware.vim25.mo.Task;
 import com.vmware.vim25.mo.VirtualMachine;
 
@@ -27,7 +25,9 @@ import hudson.model.BuildListener;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 
+import org.jenkinsci.plugins.vsphere.tools.DatastoreSelector;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -48,12 +48,14 @@ public class ReconfigureDisk extends ReconfigureStep {
 
 	private final String diskSize;
 	private final String datastore;
+	private final String placementPolicy;
 	private final static Pattern filenamePattern = Pattern.compile("^\\[[^]]*\\] (.*)$");
 
 	@DataBoundConstructor
-	public ReconfigureDisk(String diskSize, String datastore) throws VSphereException {
+	public ReconfigureDisk(String diskSize, String datastore, String placementPolicy) throws VSphereException {
 		this.diskSize = diskSize;
 		this.datastore = datastore;
+		this.placementPolicy = placementPolicy;
 	}
 
 	public String getDiskSize() {
@@ -64,6 +66,10 @@ public class ReconfigureDisk extends ReconfigureStep {
 		return datastore;
 	}
 
+	public String getPlacementPolicy() {
+		return placementPolicy;
+	}
+
 	@Override
 	public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath filePath, @Nonnull Launcher launcher, @Nonnull TaskListener listener) throws InterruptedException, IOException {
 		try {
@@ -90,6 +96,7 @@ public class ReconfigureDisk extends ReconfigureStep {
 		PrintStream jLogger = listener.getLogger();
 		int diskSize = Integer.parseInt(this.diskSize);
 		EnvVars env;
+		DatastoreSelector.Reservation reservation = null;
 
 		try {
 			env = run.getEnvironment(listener);
@@ -97,26 +104,36 @@ public class ReconfigureDisk extends ReconfigureStep {
 				env.overrideAll(((AbstractBuild) run).getBuildVariables()); // Add in matrix axes..
 				diskSize = Integer.parseInt(env.expand(this.diskSize));
 			}
-			VirtualDeviceConfigSpec vdiskSpec = createAddDiskConfigSpec(vm, diskSize, jLogger);
+			reservation = selectDatastore(diskSize * 1024 * 1024, jLogger);
+			VirtualDeviceConfigSpec vdiskSpec = createAddDiskConfigSpec(vm, diskSize, reservation.getDatastore(), jLogger);
 			VirtualDeviceConfigSpec [] vdiskSpecArray = {vdiskSpec};
 
 			spec.setDeviceChange(vdiskSpecArray);
+			if (reservations != null) {
+				// The space stays reserved until Reconfigure has actually added the disk.
+				reservations.add(reservation);
+				reservation = null;
+			}
 			VSphereLogger.vsLogger(jLogger, "Configuration done");
 		} catch (Exception e) {
 			throw new VSphereException(e);
+		} finally {
+			if (reservation != null) {
+				reservation.close();
+			}
 		}
 
 		return true;
 	}
 
 	private VirtualDeviceConfigSpec createAddDiskConfigSpec(
-			VirtualMachine vm, int diskSize, PrintStream jLogger) throws Exception
+			VirtualMachine vm, int diskSize, String dsName, PrintStream jLogger) throws Exception
 	{
-		return createAddDiskConfigSpec(vm, diskSize, jLogger, 0);
+		return createAddDiskConfigSpec(vm, diskSize, dsName, jLogger, 0);
 	}
 
 	private VirtualDeviceConfigSpec createAddDiskConfigSpec(
-			VirtualMachine vm, int diskSize, PrintStream jLogger, Integer retry) throws Exception
+			VirtualMachine vm, int diskSize, String dsName, PrintStream jLogger, Integer retry) throws Exception
 	{
 		VirtualDeviceConfigSpec diskSpec = new VirtualDeviceConfigSpec();
 		VirtualDisk disk =  new VirtualDisk();
@@ -165,7 +182,7 @@ public class ReconfigureDisk extends ReconfigureStep {
 			}
 			VSphereLogger.vsLogger(jLogger, String.format("Adding a SCSI Controller"));
 			addSCSIController(vm);
-			return createAddDiskConfigSpec(vm, diskSize, jLogger, retry + 1);
+			return createAddDiskConfigSpec(vm, diskSize, dsName, jLogger, retry + 1);
 		}
 
 		unitNumber = selectUnitNumber(vm, scsiController);
@@ -173,11 +190,6 @@ public class ReconfigureDisk extends ReconfigureStep {
 
 		VSphereLogger.vsLogger(jLogger, String.format("Controller key: %d Unit Number %d", key, unitNumber));
 
-		String dsName = selectDatastore(diskSizeInKB, jLogger);
-		if (dsName == null)
-		{
-			return null;
-		}
 		String fileName = "["+ dsName +"] "+ vm.getName() + "/" + diskName + ".vmdk";
 
 		diskfileBacking.setFileName(fileName);
@@ -249,31 +261,20 @@ public class ReconfigureDisk extends ReconfigureStep {
 		return unitNumber;
 	}
 
-	private String selectDatastore(int sizeInKB, PrintStream jLogger) throws Exception
+	/**
+	 * Chooses the datastore for the new disk. The reservation must be closed
+	 * once the disk has been created (or won't be).
+	 */
+	private DatastoreSelector.Reservation selectDatastore(int sizeInKB, PrintStream jLogger) throws Exception
 	{
-		Datastore datastore = null;
-		long freeSpace = 0;
-
-		for (ManagedEntity entity : vsphere.getDatastores()) {
-			if (entity instanceof Datastore) {
-				Datastore ds = (Datastore)entity;
-				long fs = ds.getSummary().getFreeSpace();
-				if (this.datastore != null && this.datastore.length() > 0 && !ds.getName().equals(this.datastore)) {
-					continue;
-                                }
-				if (fs > sizeInKB && fs > freeSpace) {
-					datastore = ds;
-					freeSpace = fs;
-				}
-			}
-		}
-
-		if (datastore == null) {
-			throw new VSphereException("No datastore with enough space found");
-		}
-
-		VSphereLogger.vsLogger(jLogger, String.format("Selected datastore `%s` with free size: %dGB", datastore.getName(), freeSpace / 1024 / 1024 / 1024));
-		return datastore.getName();
+		final DatastoreSelector.Policy policy = placementPolicy == null || placementPolicy.isEmpty()
+				? DatastoreSelector.Policy.MOST_FREE : DatastoreSelector.Policy.valueOf(placementPolicy);
+		// The reservation stops other builds choosing the same space while we're choosing ours.
+		final DatastoreSelector.Reservation reservation = vsphere.getDatastoreSelector()
+				.reserve(vsphere, this.datastore, sizeInKB * 1024L, policy);
+
+		VSphereLogger.vsLogger(jLogger, String.format("Selected datastore `%s` with free size: %dGB", reservation.getDatastore(), reservation.getFreeSpace() / 1024 / 1024 / 1024));
+		return reservation;
 	}
 
 	@Extension
@@ -295,6 +296,14 @@ public class ReconfigureDisk extends ReconfigureStep {
 				throws IOException, ServletException {
 			return FormValidation.ok();
 		}
+
+		public ListBoxModel doFillPlacementPolicyItems() {
+			final ListBoxModel items = new ListBoxModel();
+			items.add(Messages.vm_reconfigure_disk_placement_MOST_FREE(), DatastoreSelector.Policy.MOST_FREE.name());
+			items.add(Messages.vm_reconfigure_disk_placement_ROUND_ROBIN(), DatastoreSelector.Policy.ROUND_ROBIN.name());
+			items.add(Messages.vm_reconfigure_disk_placement_WEIGHTED(), DatastoreSelector.Policy.WEIGHTED.name());
+			return items;
+		}
 		@Override
 		public String getDisplayName() {
 			return Messages.vm_title_ReconfigureDisk();
@@ -20,6 +20,7 @@ import com.vmware.vim25.mo.VirtualMachine;
 import hudson.*;
 import hudson.model.*;
 import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.vsphere.tools.DatastoreSelector;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 
@@ -36,6 +37,8 @@ public abstract class ReconfigureStep extends AbstractDescribableImpl<Reconfigur
     protected VirtualMachineConfigSpec spec;
     protected VirtualMachine vm;
 	protected VSphere vsphere;
+	/** Where to put datastore space this step sets aside, which must be kept until the VM has been reconfigured. */
+	protected transient List<DatastoreSelector.Reservation> reservations;
 
 	public VSphere getVsphere() {
 		return vsphere;
@@ -61,6 +64,14 @@ public abstract class ReconfigureStep extends AbstractDescribableImpl<Reconfigur
         this.spec = spec;
     }
 
+    public List<DatastoreSelector.Reservation> getReservations() {
+        return reservations;
+    }
+
+    public void setReservations(List<DatastoreSelector.Reservation> reservations) {
+        this.reservations = reservations;
+    }
+
 	public static List<ReconfigureStepDescriptor> all() {
         return Jenkins.getInstance().getDescriptorList(ReconfigureStep.class);
 	}
@@ -21,6 +21,7 @@ import hudson.tasks.BuildStepMonitor;
 import hudson.util.FormValidation;
 import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
@@ -138,20 +139,23 @@ public class Rename extends VSphereBuildStep implements SimpleBuildStep {
 		}
 
 		public FormValidation doTestData(@QueryParameter String serverName,
-				@QueryParameter String oldName,
+				@QueryParameter final String oldName,
                 @QueryParameter String newName) {
 			try {
 
 				if (serverName.length() == 0 || oldName.length()==0 || newName.length()==0 )
 					return FormValidation.error(Messages.validation_requiredValues());
 
-				VSphere vsphere = getVSphereCloudByName(serverName).vSphereInstance();
+				return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+					@Override
+					public FormValidation check(VSphere vsphere) throws Exception {
+						VirtualMachine vmObj = vsphere.getVmByName(oldName);
+						if (vmObj == null)
+							return FormValidation.error(Messages.validation_notFound("VM"));
 
-				VirtualMachine vmObj = vsphere.getVmByName(oldName);
-				if (vmObj == null)
-					return FormValidation.error(Messages.validation_notFound("VM"));
-
-				return FormValidation.ok(Messages.validation_success());
+						return FormValidation.ok(Messages.validation_success());
+					}
+				}, oldName);
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
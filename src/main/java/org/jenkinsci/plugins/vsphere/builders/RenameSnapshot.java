@@ -21,6 +21,7 @@ import hudson.tasks.BuildStepMonitor;
 import hudson.util.FormValidation;
 import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
@@ -165,7 +166,7 @@ public class RenameSnapshot extends VSphereBuildStep implements SimpleBuildStep
 		}
 
 		public FormValidation doTestData(@QueryParameter String serverName,
-                @QueryParameter String vm,
+                @QueryParameter final String vm,
 				@QueryParameter String oldName,
                 @QueryParameter String newName) {
 			try {
@@ -173,13 +174,16 @@ public class RenameSnapshot extends VSphereBuildStep implements SimpleBuildStep
 				if (serverName.length() == 0 || oldName.length()==0 || newName.length()==0 )
 					return FormValidation.error(Messages.validation_requiredValues());
 
-				VSphere vsphere = getVSphereCloudByName(serverName, null).vSphereInstance();
+				return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+					@Override
+					public FormValidation check(VSphere vsphere) throws Exception {
+						VirtualMachine vmObj = vsphere.getVmByName(vm);
+						if (vmObj == null)
+							return FormValidation.error(Messages.validation_notFound("VM"));
 
-				VirtualMachine vmObj = vsphere.getVmByName(vm);
-				if (vmObj == null)
-					return FormValidation.error(Messages.validation_notFound("VM"));
-
-				return FormValidation.ok(Messages.validation_success());
+						return FormValidation.ok(Messages.validation_success());
+					}
+				}, vm);
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
@@ -28,6 +28,7 @@ import javax.servlet.ServletException;
 
 import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.plugins.vsphere.VSphereBuildStep;
+import org.jenkinsci.plugins.vsphere.VSphereValidation;
 import org.jenkinsci.plugins.vsphere.tools.VSphere;
 import org.jenkinsci.plugins.vsphere.tools.VSphereException;
 import org.jenkinsci.plugins.vsphere.tools.VSphereLogger;
@@ -153,29 +154,32 @@ public class RevertToSnapshot extends VSphereBuildStep implements SimpleBuildSte
 		}
 
 		public FormValidation doTestData(@QueryParameter String serverName,
-				@QueryParameter String vm, @QueryParameter String snapshotName) {
+				@QueryParameter final String vm, @QueryParameter final String snapshotName) {
 			try {
 
 				if (vm.length() == 0 || serverName.length()==0 || snapshotName.length()==0)
 					return FormValidation.error(Messages.validation_requiredValues());
 
-				VSphere vsphere = getVSphereCloudByName(serverName, null).vSphereInstance();
-
 				if (vm.indexOf('$') >= 0)
 					return FormValidation.warning(Messages.validation_buildParameter("VM"));
 
-				if (vsphere.getVmByName(vm) == null)
-					return FormValidation.error(Messages.validation_notFound("VM"));
+				return VSphereValidation.validate(serverName, new VSphereValidation.Check() {
+					@Override
+					public FormValidation check(VSphere vsphere) throws Exception {
+						if (vsphere.getVmByName(vm) == null)
+							return FormValidation.error(Messages.validation_notFound("VM"));
 
-				if (snapshotName.indexOf('$') >= 0)
-					return FormValidation.warning(Messages.validation_buildParameter("Snapshot"));
+						if (snapshotName.indexOf('$') >= 0)
+							return FormValidation.warning(Messages.validation_buildParameter("Snapshot"));
 
-				VirtualMachineSnapshot snap = vsphere.getSnapshotInTree(vsphere.getVmByName(vm), snapshotName);
-				if (snap==null){
-					return FormValidation.error(Messages.validation_notFound("Snapshot"));
-				}
+						VirtualMachineSnapshot snap = vsphere.getSnapshotInTree(vsphere.getVmByName(vm), snapshotName);
+						if (snap==null){
+							return FormValidation.error(Messages.validation_notFound("Snapshot"));
+						}
 
-				return FormValidation.ok(Messages.validation_success());
+						return FormValidation.ok(Messages.validation_success());
+					}
+				}, vm, snapshotName);
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
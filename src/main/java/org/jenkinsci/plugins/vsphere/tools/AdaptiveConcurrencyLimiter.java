@@ -0,0 +1,199 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides how many requests we should have in progress at once with a vCenter
+ * server, based on how well it's coping. This uses an AIMD (additive
+ * increase, multiplicative decrease) approach:
+ * <ul>
+ * <li>Every request that completes quickly increases the limit by a fraction,
+ * so that the limit rises by about one per "limit's worth" of requests.</li>
+ * <li>Every sign of overload (a fault that vCenter only gives when it's
+ * struggling, a slow response, or a task stuck in vCenter's queue) halves the
+ * limit. Reductions are rate-limited so that a burst of failures caused by a
+ * single episode doesn't collapse the limit to the minimum.</li>
+ * </ul>
+ * This class is thread-safe.
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final Logger LOGGER = Logger.getLogger(AdaptiveConcurrencyLimiter.class.getName());
+
+    /**
+     * Simple class names of the vSphere faults (and other exceptions) that
+     * indicate that vCenter, or a host it manages, is overloaded.
+     */
+    private static final Set<String> OVERLOAD_FAULTS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "TooManyTasks", "TooManyConcurrentNativeClones", "HostCommunication", "HostNotConnected",
+            "HostNotReachable", "RequestCanceled", SocketTimeoutException.class.getSimpleName())));
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long slowResponseNanos;
+    private final long slowQueueNanos;
+    private final long decreaseIntervalNanos;
+    /** Guarded by this. */
+    private double limit;
+    /** Guarded by this. */
+    private long lastDecreaseNanos;
+    /** Guarded by this. */
+    private long overloadCount;
+
+    /**
+     * @param name
+     *            What we're limiting, for logging purposes.
+     * @param minLimit
+     *            The limit will never go below this.
+     * @param maxLimit
+     *            The limit will never go above this, and starts here.
+     * @param slowResponseMillis
+     *            A response that takes longer than this is treated as a sign
+     *            of overload.
+     * @param slowQueueMillis
+     *            A task that waits longer than this before vCenter starts it is
+     *            treated as a sign of overload.
+     */
+    public AdaptiveConcurrencyLimiter(String name, int minLimit, int maxLimit, long slowResponseMillis,
+            long slowQueueMillis) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.slowResponseNanos = TimeUnit.MILLISECONDS.toNanos(slowResponseMillis);
+        this.slowQueueNanos = TimeUnit.MILLISECONDS.toNanos(slowQueueMillis);
+        this.decreaseIntervalNanos = Math.max(this.slowResponseNanos, TimeUnit.SECONDS.toNanos(1));
+        this.limit = this.maxLimit;
+        this.lastDecreaseNanos = System.nanoTime() - this.decreaseIntervalNanos;
+    }
+
+    /** @return The number of requests that should be allowed in progress at once. */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /** @return How many times we've seen signs of overload. */
+    public synchronized long getOverloadCount() {
+        return overloadCount;
+    }
+
+    /**
+     * Records how long a round-trip to vCenter took.
+     *
+     * @param responseNanos
+     *            The time taken.
+     * @return true if the limit changed.
+     */
+    public boolean onResponse(long responseNanos) {
+        if (responseNanos > slowResponseNanos) {
+            return onOverload("slow response (" + TimeUnit.NANOSECONDS.toMillis(responseNanos) + "ms)");
+        }
+        return increase();
+    }
+
+    /**
+     * Records how long a task waited in vCenter's queue before it started.
+     *
+     * @param queuedNanos
+     *            The time spent queued.
+     * @return true if the limit changed.
+     */
+    public boolean onTaskQueued(long queuedNanos) {
+        if (queuedNanos > slowQueueNanos) {
+            return onOverload("task queued for " + TimeUnit.NANOSECONDS.toMillis(queuedNanos) + "ms");
+        }
+        return false;
+    }
+
+    /**
+     * Records that something went wrong. If it's a sign of overload then the
+     * limit is reduced, otherwise it is ignored.
+     *
+     * @param fault
+     *            What went wrong.
+     * @return true if the limit changed.
+     */
+    public boolean onFault(Throwable fault) {
+        final String overloadFault = findOverloadFault(fault);
+        if (overloadFault == null) {
+            return false;
+        }
+        return onOverload(overloadFault);
+    }
+
+    /**
+     * Looks through an exception (and its causes) for a sign that vCenter is
+     * overloaded.
+     *
+     * @param fault
+     *            The exception.
+     * @return The name of the overload fault, or null if it isn't one.
+     */
+    public static String findOverloadFault(Throwable fault) {
+        Throwable t = fault;
+        for (int depth = 0; t != null && depth < 10; depth++) {
+            final String simpleName = t.getClass().getSimpleName();
+            if (OVERLOAD_FAULTS.contains(simpleName)) {
+                return simpleName;
+            }
+            t = t.getCause();
+        }
+        return null;
+    }
+
+    /**
+     * @return How much longer than usual a caller should wait before retrying,
+     *         i.e. 1.0 when all is well, rising as the limit falls.
+     */
+    public synchronized double getBackoffMultiplier() {
+        return maxLimit / Math.max(1.0, limit);
+    }
+
+    private synchronized boolean increase() {
+        final int before = (int) limit;
+        limit = Math.min(maxLimit, limit + 1.0 / limit);
+        final int after = (int) limit;
+        if (after != before) {
+            LOGGER.log(Level.FINE, "{0}: concurrency limit raised to {1}", new Object[] { name, after });
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized boolean onOverload(String reason) {
+        overloadCount++;
+        final long now = System.nanoTime();
+        if (now - lastDecreaseNanos < decreaseIntervalNanos) {
+            LOGGER.log(Level.FINER, "{0}: overload ({1}) ignored, limit recently reduced", new Object[] { name,
+                    reason });
+            return false;
+        }
+        lastDecreaseNanos = now;
+        final int before = (int) limit;
+        limit = Math.max(minLimit, limit / 2.0);
+        final int after = (int) limit;
+        LOGGER.log(Level.INFO, "{0}: overload detected ({1}), concurrency limit reduced from {2} to {3}",
+                new Object[] { name, reason, before, after });
+        return after != before;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("AdaptiveConcurrencyLimiter[%s, limit=%.2f in %d..%d, overloads=%d]", name, limit,
+                minLimit, maxLimit, overloadCount);
+    }
+}
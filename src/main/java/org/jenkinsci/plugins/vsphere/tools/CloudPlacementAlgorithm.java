@@ -0,0 +1,123 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How we decide which cluster and datastore the next clone should go on.
+ */
+public final class CloudPlacementAlgorithm {
+    /**
+     * The score we give to a cluster or datastore we have no statistics for.
+     * This is deliberately middling, so that a target we know to be nearly
+     * full loses out to one we know nothing about, but a target we know to be
+     * nearly empty wins.
+     */
+    static final double UNKNOWN_SCORE = 0.5;
+
+    private CloudPlacementAlgorithm() {
+    }
+
+    /**
+     * Where a clone should be created.
+     */
+    public static final class Placement {
+        private final String cluster;
+        private final String datastore;
+
+        public Placement(String cluster, String datastore) {
+            this.cluster = cluster;
+            this.datastore = datastore;
+        }
+
+        /** @return The cluster name, or null if no cluster was specified. */
+        public String getCluster() {
+            return cluster;
+        }
+
+        /** @return The datastore name, or null if no datastore was specified. */
+        public String getDatastore() {
+            return datastore;
+        }
+
+        @Override
+        public String toString() {
+            return "Placement[cluster=" + cluster + ", datastore=" + datastore + "]";
+        }
+    }
+
+    /**
+     * Given the candidate clusters and datastores, works out which combination
+     * has the most headroom. Clusters are ranked by whichever of CPU or memory
+     * is most used, datastores are ranked by free space, and both are
+     * penalized by the number of clones already heading their way so that
+     * simultaneous clones get spread out.
+     *
+     * @param candidateClusters
+     *            The clusters we may use. If empty, the cluster is left
+     *            unspecified.
+     * @param candidateDatastores
+     *            The datastores we may use. If empty, the datastore is left
+     *            unspecified.
+     * @param clusterStats
+     *            What we last knew about the clusters.
+     * @param datastoreStats
+     *            What we last knew about the datastores.
+     * @param clustersInFlight
+     *            Number of clones currently in progress, by cluster.
+     * @param datastoresInFlight
+     *            Number of clones currently in progress, by datastore.
+     * @return The best placement, or null if none of the combinations are
+     *         usable.
+     */
+    public static Placement findBestPlacement(List<String> candidateClusters, List<String> candidateDatastores,
+            Map<String, ClusterCapacity> clusterStats, Map<String, DatastoreCapacity> datastoreStats,
+            Map<String, Integer> clustersInFlight, Map<String, Integer> datastoresInFlight) {
+        final List<String> clusters = candidateClusters.isEmpty() ? Collections.<String> singletonList(null)
+                : candidateClusters;
+        final List<String> datastores = candidateDatastores.isEmpty() ? Collections.<String> singletonList(null)
+                : candidateDatastores;
+        Placement best = null;
+        double bestScore = -1.0;
+        for (final String cluster : clusters) {
+            final ClusterCapacity clusterCapacity = cluster == null ? null : clusterStats.get(cluster);
+            final double clusterScore = scoreCluster(clusterCapacity, inFlight(clustersInFlight, cluster));
+            for (final String datastore : datastores) {
+                if (clusterCapacity != null && !clusterCapacity.canSee(datastore)) {
+                    continue;
+                }
+                final DatastoreCapacity datastoreCapacity = datastore == null ? null : datastoreStats.get(datastore);
+                if (datastoreCapacity != null && !datastoreCapacity.isAccessible()) {
+                    continue;
+                }
+                final double datastoreScore = scoreDatastore(datastoreCapacity, inFlight(datastoresInFlight, datastore));
+                final double score = clusterScore * datastoreScore;
+                // strictly greater, so ties go to whichever was listed first
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = new Placement(cluster, datastore);
+                }
+            }
+        }
+        return best;
+    }
+
+    static double scoreCluster(ClusterCapacity stats, int inFlight) {
+        final double headroom = stats == null ? UNKNOWN_SCORE : stats.calcHeadroom();
+        return headroom / (1 + inFlight);
+    }
+
+    static double scoreDatastore(DatastoreCapacity stats, int inFlight) {
+        final double free = stats == null ? UNKNOWN_SCORE : stats.calcFreeRatio();
+        return free / (1 + inFlight);
+    }
+
+    private static int inFlight(Map<String, Integer> inFlight, String name) {
+        if (name == null) {
+            return 0;
+        }
+        final Integer count = inFlight.get(name);
+        return count == null ? 0 : count.intValue();
+    }
+}
@@ -0,0 +1,154 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.vsphere.tools.CloudPlacementAlgorithm.Placement;
+
+/**
+ * Keeps a cache of how full our clusters and datastores are, and how many
+ * clones we've currently got heading towards each one, so that we can decide
+ * where to put new clones without asking vSphere every time.
+ * <p>
+ * The capacity statistics are refreshed in the background (see
+ * {@link #refresh(VSphere, Collection, Collection)}), whereas the in-flight
+ * counts are maintained by whoever calls {@link #reserve(List, List)} and
+ * {@link #release(Placement)}.
+ * </p>
+ * This class is thread-safe.
+ */
+public class CloudPlacementState {
+    private static final Logger LOGGER = Logger.getLogger(CloudPlacementState.class.getName());
+
+    private final ConcurrentMap<String, ClusterCapacity> clusterStats = new ConcurrentHashMap<String, ClusterCapacity>();
+    private final ConcurrentMap<String, DatastoreCapacity> datastoreStats = new ConcurrentHashMap<String, DatastoreCapacity>();
+    /** Clones in progress, by cluster. Guarded by this. */
+    private final Map<String, Integer> clustersInFlight = new HashMap<String, Integer>();
+    /** Clones in progress, by datastore. Guarded by this. */
+    private final Map<String, Integer> datastoresInFlight = new HashMap<String, Integer>();
+    private volatile long lastRefreshed;
+
+    /**
+     * Asks vSphere how busy the named clusters and datastores are, and caches
+     * the results. Anything we fail to find is forgotten, so that we don't keep
+     * basing decisions on stale data.
+     *
+     * @param vSphere
+     *            Our connection to vSphere.
+     * @param clusterNames
+     *            The clusters we are interested in.
+     * @param datastoreNames
+     *            The datastores we are interested in.
+     */
+    public void refresh(VSphere vSphere, Collection<String> clusterNames, Collection<String> datastoreNames) {
+        if (!clusterNames.isEmpty()) {
+            // one request for every cluster, host and datastore is cheaper than several per cluster
+            Map<String, ClusterCapacity> allStats;
+            try {
+                allStats = vSphere.getClusterCapacities();
+            } catch (VSphereException ex) {
+                LOGGER.log(Level.WARNING, "Unable to obtain statistics for clusters " + clusterNames, ex);
+                allStats = Collections.emptyMap();
+            }
+            for (final String clusterName : clusterNames) {
+                final ClusterCapacity stats = allStats.get(clusterName);
+                if (stats == null) {
+                    if (!allStats.isEmpty()) {
+                        LOGGER.log(Level.WARNING, "Cluster {0} not found", clusterName);
+                    }
+                    clusterStats.remove(clusterName);
+                } else {
+                    LOGGER.log(Level.FINER, "Refreshed {0}", stats);
+                    clusterStats.put(clusterName, stats);
+                }
+            }
+        }
+        if (!datastoreNames.isEmpty()) {
+            // one request for every datastore is cheaper than one request per datastore
+            Map<String, DatastoreCapacity> allStats;
+            try {
+                allStats = vSphere.getDatastoreCapacities();
+            } catch (VSphereException ex) {
+                LOGGER.log(Level.WARNING, "Unable to obtain statistics for datastores " + datastoreNames, ex);
+                allStats = Collections.emptyMap();
+            }
+            for (final String datastoreName : datastoreNames) {
+                final DatastoreCapacity stats = allStats.get(datastoreName);
+                if (stats == null) {
+                    if (!allStats.isEmpty()) {
+                        LOGGER.log(Level.WARNING, "Datastore {0} not found", datastoreName);
+                    }
+                    datastoreStats.remove(datastoreName);
+                } else {
+                    LOGGER.log(Level.FINER, "Refreshed {0}", stats);
+                    datastoreStats.put(datastoreName, stats);
+                }
+            }
+        }
+        lastRefreshed = System.currentTimeMillis();
+    }
+
+    /**
+     * @return When we last refreshed our statistics, or zero if never.
+     */
+    public long getLastRefreshed() {
+        return lastRefreshed;
+    }
+
+    /**
+     * Decides where the next clone should go and records that it's heading
+     * there. Callers MUST call {@link #release(Placement)} once the clone has
+     * finished (successfully or otherwise).
+     *
+     * @param candidateClusters
+     *            The clusters we may use.
+     * @param candidateDatastores
+     *            The datastores we may use.
+     * @return Where to put the clone, or null if nowhere is suitable.
+     */
+    public synchronized Placement reserve(List<String> candidateClusters, List<String> candidateDatastores) {
+        final Placement placement = CloudPlacementAlgorithm.findBestPlacement(candidateClusters, candidateDatastores,
+                clusterStats, datastoreStats, clustersInFlight, datastoresInFlight);
+        if (placement != null) {
+            adjust(clustersInFlight, placement.getCluster(), 1);
+            adjust(datastoresInFlight, placement.getDatastore(), 1);
+        }
+        LOGGER.log(Level.FINE, "Chose {0} from clusters {1} and datastores {2}", new Object[] { placement,
+                candidateClusters, candidateDatastores });
+        return placement;
+    }
+
+    /**
+     * To be called when a clone previously given a placement by
+     * {@link #reserve(List, List)} has finished.
+     *
+     * @param placement
+     *            The placement that was reserved. May be null.
+     */
+    public synchronized void release(Placement placement) {
+        if (placement != null) {
+            adjust(clustersInFlight, placement.getCluster(), -1);
+            adjust(datastoresInFlight, placement.getDatastore(), -1);
+        }
+    }
+
+    private static void adjust(Map<String, Integer> inFlight, String name, int delta) {
+        if (name == null) {
+            return;
+        }
+        final Integer existing = inFlight.get(name);
+        final int newValue = (existing == null ? 0 : existing.intValue()) + delta;
+        if (newValue > 0) {
+            inFlight.put(name, Integer.valueOf(newValue));
+        } else {
+            inFlight.remove(name);
+        }
+    }
+}
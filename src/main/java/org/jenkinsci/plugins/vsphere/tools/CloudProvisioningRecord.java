@@ -1,8 +1,15 @@
 package org.jenkinsci.plugins.vsphere.tools;
 
+import java.util.ArrayDeque;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 import org.jenkinsci.plugins.vSphereCloudSlaveTemplate;
 
@@ -13,9 +20,30 @@ import org.jenkinsci.plugins.vSphereCloudSlaveTemplate;
  * over-commit.
  */
 public final class CloudProvisioningRecord {
+    /** How far back we remember provisioning events, for calculating rates. */
+    static final long RECENT_WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /** The most provisioning events of each kind that we remember. */
+    private static final int MAX_RECENT_EVENTS = 10000;
     private final vSphereCloudSlaveTemplate template;
     private Set<String> currentlyProvisioned;
     private Set<String> currentlyPlanned;
+    /**
+     * Those of {@link #currentlyProvisioned} whose VMs are suspended, with the
+     * time they were suspended, oldest first.
+     */
+    private final Map<String, Long> currentlySuspended = new LinkedHashMap<String, Long>();
+    /**
+     * Those taken from {@link #currentlySuspended} to be resumed, with the
+     * time they were suspended, so that a failed resume doesn't restart the
+     * clock.
+     */
+    private final Map<String, Long> currentlyResuming = new HashMap<String, Long>();
+    private final Deque<Long> recentStarts = new ArrayDeque<Long>();
+    private final Deque<Long> recentSuccesses = new ArrayDeque<Long>();
+    private final Deque<Long> recentFailures = new ArrayDeque<Long>();
+    private long totalStarted;
+    private long totalSucceeded;
+    private long totalFailed;
 
     CloudProvisioningRecord(vSphereCloudSlaveTemplate template) {
         this.template = template;
@@ -58,6 +86,119 @@ public final class CloudProvisioningRecord {
         return currentlyPlanned.remove(nodeName);
     }
 
+    Map<String, Long> getCurrentlySuspended() {
+        return currentlySuspended;
+    }
+
+    /**
+     * @return When the node was suspended; if it already was, that's when it
+     *         was first suspended.
+     */
+    long addCurrentlySuspended(String nodeName, long nowMillis) {
+        final Long existing = currentlySuspended.get(nodeName);
+        if (existing != null) {
+            return existing.longValue();
+        }
+        final Long resuming = currentlyResuming.remove(nodeName);
+        final long suspendedSince = resuming == null ? nowMillis : resuming.longValue();
+        currentlySuspended.put(nodeName, Long.valueOf(suspendedSince));
+        return suspendedSince;
+    }
+
+    boolean removeCurrentlySuspended(String nodeName) {
+        currentlyResuming.remove(nodeName);
+        return currentlySuspended.remove(nodeName) != null;
+    }
+
+    /**
+     * @return When the node was suspended, or -1 if it isn't (as far as we
+     *         know). Nodes that are being resumed still count as suspended.
+     */
+    long getSuspendedSince(String nodeName) {
+        Long since = currentlySuspended.get(nodeName);
+        if (since == null) {
+            since = currentlyResuming.get(nodeName);
+        }
+        return since == null ? -1L : since.longValue();
+    }
+
+    /**
+     * Picks a suspended node to be resumed, and forgets that it's suspended.
+     * We pick the one that was suspended most recently, leaving the older ones
+     * to expire if they aren't needed.
+     * 
+     * @return The name of the node, or null if there are none.
+     */
+    String takeSuspended() {
+        String newest = null;
+        for (final String nodeName : currentlySuspended.keySet()) {
+            newest = nodeName;
+        }
+        if (newest != null) {
+            currentlyResuming.put(newest, currentlySuspended.remove(newest));
+        }
+        return newest;
+    }
+
+    void noteStarted(long nowMillis) {
+        totalStarted++;
+        noteEvent(recentStarts, nowMillis);
+    }
+
+    void noteSucceeded(long nowMillis) {
+        totalSucceeded++;
+        noteEvent(recentSuccesses, nowMillis);
+    }
+
+    void noteFailed(long nowMillis) {
+        totalFailed++;
+        noteEvent(recentFailures, nowMillis);
+    }
+
+    /**
+     * Takes a snapshot of this record, for display purposes.
+     * 
+     * @param nowMillis
+     *            The current time.
+     * @return A snapshot of this record.
+     */
+    CloudProvisioningStatistics calcStatistics(long nowMillis) {
+        return new CloudProvisioningStatistics(template.getCloneNamePrefix(), currentlyPlanned.size(),
+                currentlyProvisioned.size(), currentlySuspended.size(), template.getTemplateInstanceCap(), calcFullness(), totalStarted,
+                totalSucceeded, totalFailed, countRecent(recentStarts, nowMillis),
+                countRecent(recentSuccesses, nowMillis), countRecent(recentFailures, nowMillis));
+    }
+
+    /**
+     * Describes a template that has no record yet, for display purposes.
+     * 
+     * @param template
+     *            The template in question.
+     * @return Statistics showing no activity.
+     */
+    static CloudProvisioningStatistics calcEmptyStatistics(vSphereCloudSlaveTemplate template) {
+        return new CloudProvisioningStatistics(template.getCloneNamePrefix(), 0, 0, 0, template.getTemplateInstanceCap(),
+                0.0, 0L, 0L, 0L, 0, 0, 0);
+    }
+
+    private static void noteEvent(Deque<Long> events, long nowMillis) {
+        events.addLast(Long.valueOf(nowMillis));
+        while (events.size() > MAX_RECENT_EVENTS) {
+            events.removeFirst();
+        }
+    }
+
+    private static int countRecent(Deque<Long> events, long nowMillis) {
+        final long oldestWanted = nowMillis - RECENT_WINDOW_MILLIS;
+        for (final Iterator<Long> i = events.iterator(); i.hasNext();) {
+            if (i.next().longValue() >= oldestWanted) {
+                break;
+            }
+            i.remove();
+        }
+        return events.size();
+    }
+
     private int calcMaxToProvision() {
         final int templateInstanceCap = template.getTemplateInstanceCap();
         final int maxToProvision = templateInstanceCap == 0 ? Integer.MAX_VALUE : templateInstanceCap;
@@ -66,6 +66,7 @@ public class CloudProvisioningState {
     public void provisioningStarted(CloudProvisioningRecord provisionable, String nodeName) {
         final boolean wasPreviouslyUnknownToPlanning = provisionable.addCurrentlyPlanned(nodeName);
         final boolean wasAlreadyActive = provisionable.removeCurrentlyActive(nodeName);
+        provisionable.noteStarted(System.currentTimeMillis());
         logStateChange(Level.FINE, "Intending to create {0}", "wasPreviouslyUnknownToPlanning",
                 wasPreviouslyUnknownToPlanning, true, "wasAlreadyActive", wasAlreadyActive, false, nodeName);
     }
@@ -85,10 +86,32 @@ public class CloudProvisioningState {
     public void provisionedSlaveNowActive(CloudProvisioningRecord provisionable, String nodeName) {
         final boolean wasNotPreviouslyActive = provisionable.addCurrentlyActive(nodeName);
         final boolean wasPreviouslyPlanned = provisionable.removeCurrentlyPlanned(nodeName);
+        provisionable.noteSucceeded(System.currentTimeMillis());
         logStateChange(Level.FINE, "Marking {0} as active", "wasNotPreviouslyActive", wasNotPreviouslyActive, true,
                 "wasPreviouslyPlanned", wasPreviouslyPlanned, true, nodeName);
     }
 
+    /**
+     * To be called when we discover a node that we created before Jenkins
+     * restarted. Unlike
+     * {@link #provisioningStarted(CloudProvisioningRecord, String)} followed
+     * by {@link #provisionedSlaveNowActive(CloudProvisioningRecord, String)},
+     * this does not count towards our provisioning statistics. Callers MUST
+     * ensure that {@link #provisionedSlaveNowTerminated(String)} gets called
+     * later.
+     * 
+     * @param provisionable
+     *            Our record for the template for the named node.
+     * @param nodeName
+     *            The name of the VM.
+     */
+    public void provisionedSlaveAlreadyActive(CloudProvisioningRecord provisionable, String nodeName) {
+        final boolean wasNotPreviouslyActive = provisionable.addCurrentlyActive(nodeName);
+        final boolean wasPreviouslyPlanned = provisionable.removeCurrentlyPlanned(nodeName);
+        logStateChange(Level.FINE, "Found existing {0}", "wasNotPreviouslyActive", wasNotPreviouslyActive, true,
+                "wasPreviouslyPlanned", wasPreviouslyPlanned, false, nodeName);
+    }
+
     /**
      * To be called when a node we created (previously told to
      * {@link #provisionedSlaveNowActive(CloudProvisioningRecord, String)}) has
@@ -103,6 +126,7 @@ public class CloudProvisioningState {
             final CloudProvisioningRecord provisionable = entry.getValue();
             final boolean wasPreviouslyPlanned = provisionable.removeCurrentlyPlanned(nodeName);
             final boolean wasPreviouslyActive = provisionable.removeCurrentlyActive(nodeName);
+            provisionable.removeCurrentlySuspended(nodeName);
             if (recordIsPrunable(provisionable)) {
                 removeExistingRecord(provisionable);
             }
@@ -113,6 +137,82 @@ public class CloudProvisioningState {
         }
     }
 
+    /**
+     * To be called when an active node's VM has been suspended, rather than
+     * destroyed, so that it can be resumed later by
+     * {@link #takeSuspendedSlave(CloudProvisioningRecord)}. The node still
+     * counts as active.
+     * 
+     * @param nodeName
+     *            The name of the VM.
+     * @param nowMillis
+     *            The current time.
+     * @return When the node was suspended, which will be earlier than now if
+     *         we already knew it was suspended, or -1 if we have no record of
+     *         the node.
+     */
+    public long provisionedSlaveNowSuspended(String nodeName, long nowMillis) {
+        final Map.Entry<vSphereCloudSlaveTemplate, CloudProvisioningRecord> entry = findEntryForVM(nodeName);
+        if (entry == null || !entry.getValue().getCurrentlyProvisioned().contains(nodeName)) {
+            logger.log(Level.WARNING, "Asked to mark {0} as suspended, but we have no record of it being active.", nodeName);
+            return -1L;
+        }
+        final CloudProvisioningRecord provisionable = entry.getValue();
+        final long suspendedSince = provisionable.addCurrentlySuspended(nodeName, nowMillis);
+        if (suspendedSince == nowMillis) {
+            logger.log(Level.FINE, "Marking {0} as suspended", nodeName);
+        }
+        return suspendedSince;
+    }
+
+    /**
+     * Looks up when a node was suspended, without changing anything.
+     * 
+     * @param nodeName
+     *            The name of the VM.
+     * @return When the node was suspended, or -1 if we don't know of it being
+     *         suspended.
+     */
+    public long getSuspendedSince(String nodeName) {
+        final Map.Entry<vSphereCloudSlaveTemplate, CloudProvisioningRecord> entry = findEntryForVM(nodeName);
+        return entry == null ? -1L : entry.getValue().getSuspendedSince(nodeName);
+    }
+
+    /**
+     * To be called when a node that was suspended is found to be running
+     * again, without having been picked by
+     * {@link #takeSuspendedSlave(CloudProvisioningRecord)}.
+     * 
+     * @param nodeName
+     *            The name of the VM.
+     */
+    public void provisionedSlaveNowResumed(String nodeName) {
+        final Map.Entry<vSphereCloudSlaveTemplate, CloudProvisioningRecord> entry = findEntryForVM(nodeName);
+        if (entry != null && entry.getValue().removeCurrentlySuspended(nodeName)) {
+            logger.log(Level.FINE, "Marking {0} as resumed", nodeName);
+        }
+    }
+
+    /**
+     * Picks one of the template's suspended nodes to be resumed. Once picked,
+     * the node can't be picked again; if it fails to resume, it'll need to be
+     * marked as suspended again by
+     * {@link #provisionedSlaveNowSuspended(String, long)}, which keeps the
+     * time it was originally suspended.
+     * 
+     * @param provisionable
+     *            Our record for the template.
+     * @return The name of the node to resume, or null if the template has no
+     *         suspended nodes.
+     */
+    public String takeSuspendedSlave(CloudProvisioningRecord provisionable) {
+        final String nodeName = provisionable.takeSuspended();
+        if (nodeName != null) {
+            logger.log(Level.FINE, "Resuming {0}", nodeName);
+        }
+        return nodeName;
+    }
+
     /**
      * To be called when a node that we previously promised to create (by
      * calling {@link #provisioningStarted(CloudProvisioningRecord, String)})
@@ -126,6 +226,7 @@ public class CloudProvisioningState {
     public void provisioningEndedInError(CloudProvisioningRecord provisionable, String nodeName) {
         final boolean wasPreviouslyPlanned = provisionable.removeCurrentlyPlanned(nodeName);
         final boolean wasPreviouslyActive = provisionable.removeCurrentlyActive(nodeName);
+        provisionable.noteFailed(System.currentTimeMillis());
         if (recordIsPrunable(provisionable)) {
             removeExistingRecord(provisionable);
         }
@@ -181,6 +282,27 @@ public class CloudProvisioningState {
         return result;
     }
 
+    /**
+     * Takes a snapshot of our state for the given templates, for display
+     * purposes.
+     * 
+     * @param templates
+     *            The templates we are interested in.
+     * @return A {@link CloudProvisioningStatistics} for each template, in the
+     *         same order.
+     */
+    public List<CloudProvisioningStatistics> calculateStatistics(Iterable<? extends vSphereCloudSlaveTemplate> templates) {
+        final long now = System.currentTimeMillis();
+        final List<CloudProvisioningStatistics> result = new ArrayList<CloudProvisioningStatistics>();
+        for (final vSphereCloudSlaveTemplate template : templates) {
+            final CloudProvisioningRecord record = getExistingRecord(template);
+            // don't create records just because someone looked
+            result.add(record == null ? CloudProvisioningRecord.calcEmptyStatistics(template)
+                    : record.calcStatistics(now));
+        }
+        return result;
+    }
+
     /**
      * Gets the record for the given template. If we didn't have one before, we
      * create one.
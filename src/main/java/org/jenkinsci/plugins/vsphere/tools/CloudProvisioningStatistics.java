@@ -0,0 +1,109 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+/**
+ * An immutable snapshot of a {@link CloudProvisioningRecord}, for display
+ * purposes.
+ */
+public final class CloudProvisioningStatistics {
+    private final String templateName;
+    private final int planned;
+    private final int active;
+    private final int suspended;
+    private final int instanceCap;
+    private final double fullness;
+    private final long totalStarted;
+    private final long totalSucceeded;
+    private final long totalFailed;
+    private final int recentStarted;
+    private final int recentSucceeded;
+    private final int recentFailed;
+
+    CloudProvisioningStatistics(String templateName, int planned, int active, int suspended, int instanceCap, double fullness,
+            long totalStarted, long totalSucceeded, long totalFailed, int recentStarted, int recentSucceeded,
+            int recentFailed) {
+        this.templateName = templateName;
+        this.planned = planned;
+        this.active = active;
+        this.suspended = suspended;
+        this.instanceCap = instanceCap;
+        this.fullness = fullness;
+        this.totalStarted = totalStarted;
+        this.totalSucceeded = totalSucceeded;
+        this.totalFailed = totalFailed;
+        this.recentStarted = recentStarted;
+        this.recentSucceeded = recentSucceeded;
+        this.recentFailed = recentFailed;
+    }
+
+    /** @return The template's clone name prefix. */
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    /** @return The number of slaves being provisioned. */
+    public int getPlanned() {
+        return planned;
+    }
+
+    /** @return The number of slaves that have been provisioned. */
+    public int getActive() {
+        return active;
+    }
+
+    /** @return How many of the active slaves are suspended, waiting to be resumed. */
+    public int getSuspended() {
+        return suspended;
+    }
+
+    /** @return The template's instance cap, or 0 if it has none. */
+    public int getInstanceCap() {
+        return instanceCap;
+    }
+
+    /** @return (planned + active) / instanceCap, or 0 if the template has no cap. */
+    public double getFullness() {
+        return fullness;
+    }
+
+    public long getTotalStarted() {
+        return totalStarted;
+    }
+
+    public long getTotalSucceeded() {
+        return totalSucceeded;
+    }
+
+    public long getTotalFailed() {
+        return totalFailed;
+    }
+
+    /** @return The number of provisioning attempts started in the last hour. */
+    public int getStartedPerHour() {
+        return recentStarted;
+    }
+
+    /** @return The number of provisioning attempts that succeeded in the last hour. */
+    public int getSucceededPerHour() {
+        return recentSucceeded;
+    }
+
+    /** @return The number of provisioning attempts that failed in the last hour. */
+    public int getFailedPerHour() {
+        return recentFailed;
+    }
+
+    /**
+     * @return The fraction of provisioning attempts that completed in the last
+     *         hour that failed, or 0 if none did.
+     */
+    public double getFailureRate() {
+        final int completed = recentSucceeded + recentFailed;
+        return completed == 0 ? 0.0 : ((double) recentFailed) / completed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[planned=%d, active=%d, suspended=%d, cap=%d, fullness=%.3f%%, started/h=%d, failed/h=%d]",
+                templateName, planned, active, suspended, instanceCap, fullness * 100.0, recentStarted, recentFailed);
+    }
+}
@@ -0,0 +1,100 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A snapshot of how busy a vSphere cluster was when we last asked, used when
+ * deciding where to put a new clone.
+ */
+public final class ClusterCapacity {
+    private final String name;
+    private final long cpuCapacityMhz;
+    private final long cpuUsageMhz;
+    private final long memoryCapacityMB;
+    private final long memoryUsageMB;
+    private final Set<String> datastoreNames;
+    private final long timestamp;
+
+    public ClusterCapacity(String name, long cpuCapacityMhz, long cpuUsageMhz, long memoryCapacityMB,
+            long memoryUsageMB, Set<String> datastoreNames, long timestamp) {
+        this.name = name;
+        this.cpuCapacityMhz = cpuCapacityMhz;
+        this.cpuUsageMhz = cpuUsageMhz;
+        this.memoryCapacityMB = memoryCapacityMB;
+        this.memoryUsageMB = memoryUsageMB;
+        this.datastoreNames = datastoreNames == null ? Collections.<String> emptySet() : Collections
+                .unmodifiableSet(new TreeSet<String>(datastoreNames));
+        this.timestamp = timestamp;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCpuCapacityMhz() {
+        return cpuCapacityMhz;
+    }
+
+    public long getCpuUsageMhz() {
+        return cpuUsageMhz;
+    }
+
+    public long getMemoryCapacityMB() {
+        return memoryCapacityMB;
+    }
+
+    public long getMemoryUsageMB() {
+        return memoryUsageMB;
+    }
+
+    /**
+     * @return The names of the datastores that the cluster's hosts can see.
+     *         This may be empty if we don't know.
+     */
+    public Set<String> getDatastoreNames() {
+        return datastoreNames;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Says whether the given datastore can be used by VMs on this cluster.
+     *
+     * @param datastoreName
+     *            The datastore in question.
+     * @return false if we know it isn't connected, true otherwise.
+     */
+    public boolean canSee(String datastoreName) {
+        return datastoreNames.isEmpty() || datastoreName == null || datastoreNames.contains(datastoreName);
+    }
+
+    /**
+     * Calculates how much room there is on this cluster, based on whichever of
+     * CPU or memory is most heavily used.
+     *
+     * @return A number between 0.0 (full) and 1.0 (idle).
+     */
+    public double calcHeadroom() {
+        final double cpuUsed = ratio(cpuUsageMhz, cpuCapacityMhz);
+        final double memUsed = ratio(memoryUsageMB, memoryCapacityMB);
+        return 1.0 - Math.max(cpuUsed, memUsed);
+    }
+
+    private static double ratio(long used, long capacity) {
+        if (capacity <= 0) {
+            return 1.0;
+        }
+        final double r = ((double) used) / (double) capacity;
+        return Math.min(1.0, Math.max(0.0, r));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Cluster[name=%s, cpu=%d/%dMHz, mem=%d/%dMB, headroom=%.3f]", name, cpuUsageMhz,
+                cpuCapacityMhz, memoryUsageMB, memoryCapacityMB, calcHeadroom());
+    }
+}
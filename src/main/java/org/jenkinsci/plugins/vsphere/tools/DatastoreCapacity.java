@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+/**
+ * A snapshot of how full a vSphere datastore was when we last asked, used when
+ * deciding where to put a new clone.
+ */
+public final class DatastoreCapacity {
+    private final String name;
+    private final long capacity;
+    private final long freeSpace;
+    private final boolean accessible;
+    private final long timestamp;
+
+    public DatastoreCapacity(String name, long capacity, long freeSpace, boolean accessible, long timestamp) {
+        this.name = name;
+        this.capacity = capacity;
+        this.freeSpace = freeSpace;
+        this.accessible = accessible;
+        this.timestamp = timestamp;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return The size of the datastore, in bytes. */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /** @return The unused space on the datastore, in bytes. */
+    public long getFreeSpace() {
+        return freeSpace;
+    }
+
+    public boolean isAccessible() {
+        return accessible;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return A number between 0.0 (full) and 1.0 (empty).
+     */
+    public double calcFreeRatio() {
+        if (capacity <= 0) {
+            return 0.0;
+        }
+        final double r = ((double) freeSpace) / (double) capacity;
+        return Math.min(1.0, Math.max(0.0, r));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Datastore[name=%s, free=%d/%d, accessible=%s]", name, freeSpace, capacity,
+                accessible);
+    }
+}
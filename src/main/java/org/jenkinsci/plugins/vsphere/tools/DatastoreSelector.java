@@ -0,0 +1,275 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Chooses datastores for new disks, using a cache of how full every
+ * datastore on a vCenter is.
+ * <p>
+ * The statistics for all datastores are fetched in one request (see
+ * {@link VSphere#getDatastoreCapacities()}) and reused until they are older
+ * than <code>refreshSeconds</code>. Each choice reserves the space it chose
+ * until the reservation is closed or is older than
+ * <code>reservationSeconds</code> (by which time vCenter should be reporting
+ * the space as used), so that builds adding disks at the same time don't all
+ * pick the same datastore.
+ * </p>
+ * This class is thread-safe.
+ */
+public final class DatastoreSelector {
+    private static final Logger LOGGER = Logger.getLogger(DatastoreSelector.class.getName());
+    private static final String PROPERTY_PREFIX = DatastoreSelector.class.getName() + ".";
+    private static final ConcurrentMap<String, DatastoreSelector> SELECTORS = new ConcurrentHashMap<String, DatastoreSelector>();
+
+    /** How to choose between datastores that have enough space. */
+    public enum Policy {
+        /** The datastore with the most free space. */
+        MOST_FREE,
+        /** Each datastore in turn. */
+        ROUND_ROBIN,
+        /** A random datastore, more likely the more free space it has. */
+        WEIGHTED
+    }
+
+    /** Where the statistics come from. */
+    interface Source {
+        /**
+         * @return The statistics of every datastore, keyed by name.
+         * @throws VSphereException
+         *             if they could not be obtained.
+         */
+        Map<String, DatastoreCapacity> getDatastoreCapacities() throws VSphereException;
+    }
+
+    /** Space set aside on a datastore for a disk that's being added. */
+    public final class Reservation implements AutoCloseable {
+        private final String datastore;
+        private final long bytes;
+        private final long freeSpace;
+        private final long created;
+
+        private Reservation(String datastore, long bytes, long freeSpace, long created) {
+            this.datastore = datastore;
+            this.bytes = bytes;
+            this.freeSpace = freeSpace;
+            this.created = created;
+        }
+
+        /** @return The name of the chosen datastore. */
+        public String getDatastore() {
+            return datastore;
+        }
+
+        /** @return How much space (in bytes) the datastore had, less other reservations, before this one. */
+        public long getFreeSpace() {
+            return freeSpace;
+        }
+
+        /** Gives the space back, e.g. because the disk wasn't created after all. */
+        @Override
+        public void close() {
+            synchronized (DatastoreSelector.this) {
+                reservations.remove(this);
+            }
+        }
+    }
+
+    private final long refreshNanos;
+    private final long reservationNanos;
+    private final Random random;
+    private final Object refreshLock = new Object();
+    /** Guarded by this. */
+    private Map<String, DatastoreCapacity> datastoreStats;
+    /** When datastoreStats was fetched. Guarded by this. */
+    private long lastRefreshed;
+    /** Guarded by this. */
+    private final List<Reservation> reservations = new ArrayList<Reservation>();
+    /** The number of choices made, for round-robin. Guarded by this. */
+    private int turn;
+
+    DatastoreSelector(long refreshMillis, long reservationMillis, Random random) {
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+        this.reservationNanos = TimeUnit.MILLISECONDS.toNanos(reservationMillis);
+        this.random = random;
+    }
+
+    /**
+     * Obtains the selector for a given vCenter, creating it if necessary.
+     *
+     * @param url
+     *            The vCenter URL.
+     * @return The selector that everything adding disks on that vCenter
+     *         should use.
+     */
+    public static DatastoreSelector forServer(String url) {
+        final DatastoreSelector existing = SELECTORS.get(url);
+        if (existing != null) {
+            return existing;
+        }
+        final DatastoreSelector created = new DatastoreSelector(
+                TimeUnit.SECONDS.toMillis(Long.getLong(PROPERTY_PREFIX + "refreshSeconds", 60L)),
+                TimeUnit.SECONDS.toMillis(Long.getLong(PROPERTY_PREFIX + "reservationSeconds", 300L)),
+                new Random());
+        final DatastoreSelector raced = SELECTORS.putIfAbsent(url, created);
+        return raced == null ? created : raced;
+    }
+
+    /**
+     * Chooses a datastore with enough space, and reserves that space.
+     *
+     * @param vSphere
+     *            Used to refresh our statistics, if they're out of date.
+     * @param wanted
+     *            (Optional) The only datastore that may be chosen.
+     * @param bytes
+     *            How much space is needed.
+     * @param policy
+     *            How to choose.
+     * @return The reservation, which says which datastore was chosen.
+     * @throws VSphereException
+     *             if no datastore has enough space, or we couldn't find out.
+     */
+    public Reservation reserve(final VSphere vSphere, @CheckForNull String wanted, long bytes, Policy policy)
+            throws VSphereException {
+        return reserve(new Source() {
+            @Override
+            public Map<String, DatastoreCapacity> getDatastoreCapacities() throws VSphereException {
+                return vSphere.getDatastoreCapacities();
+            }
+        }, wanted, bytes, policy);
+    }
+
+    Reservation reserve(Source source, @CheckForNull String wanted, long bytes, Policy policy) throws VSphereException {
+        final Map<String, DatastoreCapacity> stats = getDatastoreStats(source);
+        synchronized (this) {
+            final long now = System.nanoTime();
+            final Map<String, Long> available = new TreeMap<String, Long>();
+            for (final DatastoreCapacity datastore : stats.values()) {
+                if (wanted != null && !wanted.isEmpty() && !datastore.getName().equals(wanted)) {
+                    continue;
+                }
+                if (datastore.isAccessible()) {
+                    available.put(datastore.getName(), Long.valueOf(datastore.getFreeSpace()));
+                }
+            }
+            for (final Iterator<Reservation> it = reservations.iterator(); it.hasNext();) {
+                final Reservation reservation = it.next();
+                if (now - reservation.created >= reservationNanos) {
+                    it.remove();
+                    continue;
+                }
+                final Long free = available.get(reservation.datastore);
+                if (free != null) {
+                    available.put(reservation.datastore, Long.valueOf(free.longValue() - reservation.bytes));
+                }
+            }
+            for (final Iterator<Long> it = available.values().iterator(); it.hasNext();) {
+                if (it.next().longValue() <= bytes) {
+                    it.remove();
+                }
+            }
+            final String chosen = choose(available, policy, turn++, random);
+            LOGGER.log(Level.FINE, "Chose {0} for {1} bytes from {2}", new Object[] { chosen, bytes, available });
+            if (chosen == null) {
+                throw new VSphereException("No datastore with enough space found");
+            }
+            final Reservation reservation = new Reservation(chosen, bytes, available.get(chosen).longValue(), now);
+            reservations.add(reservation);
+            return reservation;
+        }
+    }
+
+    /** Makes the next reservation fetch the statistics again. */
+    public synchronized void invalidate() {
+        datastoreStats = null;
+    }
+
+    private Map<String, DatastoreCapacity> getDatastoreStats(Source source) throws VSphereException {
+        synchronized (this) {
+            if (datastoreStats != null && System.nanoTime() - lastRefreshed < refreshNanos) {
+                return datastoreStats;
+            }
+        }
+        // Only one caller asks vSphere; the others wait for its answer.
+        synchronized (refreshLock) {
+            synchronized (this) {
+                if (datastoreStats != null && System.nanoTime() - lastRefreshed < refreshNanos) {
+                    return datastoreStats;
+                }
+            }
+            final long started = System.nanoTime();
+            final Map<String, DatastoreCapacity> fetched = Collections
+                    .unmodifiableMap(new TreeMap<String, DatastoreCapacity>(source.getDatastoreCapacities()));
+            synchronized (this) {
+                datastoreStats = fetched;
+                lastRefreshed = started;
+            }
+            return fetched;
+        }
+    }
+
+    /**
+     * @param available
+     *            The free space of each datastore that has enough, sorted by
+     *            name.
+     * @param policy
+     *            How to choose.
+     * @param turn
+     *            How many choices have been made before, for round-robin.
+     * @param random
+     *            Used for weighted choices.
+     * @return The chosen datastore, or null if there's nothing to choose from.
+     */
+    static String choose(Map<String, Long> available, Policy policy, int turn, Random random) {
+        if (available.isEmpty()) {
+            return null;
+        }
+        switch (policy) {
+        case ROUND_ROBIN: {
+            final List<String> names = new ArrayList<String>(available.keySet());
+            return names.get((turn & Integer.MAX_VALUE) % names.size());
+        }
+        case WEIGHTED: {
+            long total = 0L;
+            for (final Long free : available.values()) {
+                total += free.longValue();
+            }
+            long point = (long) (random.nextDouble() * total);
+            String last = null;
+            for (final Map.Entry<String, Long> entry : available.entrySet()) {
+                last = entry.getKey();
+                point -= entry.getValue().longValue();
+                if (point < 0L) {
+                    return last;
+                }
+            }
+            return last;
+        }
+        default: {
+            String best = null;
+            long bestFree = Long.MIN_VALUE;
+            // strictly greater, so ties go to whichever comes first
+            for (final Map.Entry<String, Long> entry : available.entrySet()) {
+                if (entry.getValue().longValue() > bestFree) {
+                    best = entry.getKey();
+                    bestFree = entry.getValue().longValue();
+                }
+            }
+            return best;
+        }
+        }
+    }
+}
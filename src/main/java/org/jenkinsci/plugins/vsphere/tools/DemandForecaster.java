@@ -0,0 +1,207 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forecasts demand for slaves using Holt-Winters exponential smoothing
+ * (additive, with a trend and a time-of-day seasonal component).
+ * <p>
+ * Time is divided into slots (e.g. 15 minutes) and a "season" is a whole
+ * number of slots (e.g. a day). Each slot's demand is taken to be the peak
+ * demand observed during that slot, as it's the peak that we need slaves for.
+ * When a slot ends, its demand is compared with what we had forecast for it
+ * (so that we can report how good our forecasts are) and the model is
+ * updated.
+ * </p>
+ * <p>
+ * Forecasts are only trustworthy once we've seen a whole season of data; see
+ * {@link #isWarmedUp()}.
+ * </p>
+ * This class is thread-safe.
+ */
+public final class DemandForecaster {
+    /** By default, we think in 15 minute slots... */
+    public static final long DEFAULT_SLOT_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    /** ...and expect demand to repeat daily. */
+    public static final int DEFAULT_SLOTS_PER_SEASON = (int) (TimeUnit.DAYS.toMillis(1) / DEFAULT_SLOT_MILLIS);
+    private static final double DEFAULT_ALPHA = 0.3;
+    private static final double DEFAULT_BETA = 0.01;
+    private static final double DEFAULT_GAMMA = 0.3;
+
+    private final long slotMillis;
+    private final int slotsPerSeason;
+    private final double alpha;
+    private final double beta;
+    private final double gamma;
+    private final double[] seasonal;
+    private double level;
+    private double trend;
+    /** The last slot that we've folded into our model, or -1 if none. */
+    private long lastCompletedSlot = -1L;
+    /** The slot we are currently observing, or -1 if none. */
+    private long currentSlot = -1L;
+    private double currentSlotPeak;
+    private long completedSlotCount;
+    private long errorCount;
+    private double sumAbsoluteError;
+    private double sumSquaredError;
+    private double lastForecast = Double.NaN;
+    private double lastActual = Double.NaN;
+
+    public DemandForecaster() {
+        this(DEFAULT_SLOT_MILLIS, DEFAULT_SLOTS_PER_SEASON, DEFAULT_ALPHA, DEFAULT_BETA, DEFAULT_GAMMA);
+    }
+
+    /**
+     * @param slotMillis
+     *            How long each slot is.
+     * @param slotsPerSeason
+     *            How many slots before demand repeats itself.
+     * @param alpha
+     *            Smoothing factor for the level, 0-1.
+     * @param beta
+     *            Smoothing factor for the trend, 0-1.
+     * @param gamma
+     *            Smoothing factor for the seasonal component, 0-1.
+     */
+    public DemandForecaster(long slotMillis, int slotsPerSeason, double alpha, double beta, double gamma) {
+        if (slotMillis <= 0L || slotsPerSeason <= 0) {
+            throw new IllegalArgumentException("slotMillis and slotsPerSeason must be positive");
+        }
+        this.slotMillis = slotMillis;
+        this.slotsPerSeason = slotsPerSeason;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.gamma = gamma;
+        this.seasonal = new double[slotsPerSeason];
+    }
+
+    /**
+     * Records an observation of the current demand.
+     *
+     * @param timeMillis
+     *            When the observation was made. Observations must not go
+     *            backwards in time; any that do are ignored.
+     * @param demand
+     *            How many executors were needed at that time.
+     */
+    public synchronized void observe(long timeMillis, double demand) {
+        final long slot = slotOf(timeMillis);
+        if (slot < currentSlot) {
+            return;
+        }
+        if (slot > currentSlot) {
+            if (currentSlot >= 0L) {
+                completeSlot(currentSlot, currentSlotPeak);
+            }
+            currentSlot = slot;
+            currentSlotPeak = demand;
+        } else {
+            currentSlotPeak = Math.max(currentSlotPeak, demand);
+        }
+    }
+
+    /**
+     * Forecasts the demand at a given time.
+     *
+     * @param timeMillis
+     *            The time, which should be now or in the future.
+     * @return The forecast demand, which is never negative. If we have no
+     *         data at all, this is zero.
+     */
+    public synchronized double forecast(long timeMillis) {
+        if (lastCompletedSlot < 0L) {
+            return 0.0;
+        }
+        final long slot = slotOf(timeMillis);
+        final long stepsAhead = Math.max(1L, slot - lastCompletedSlot);
+        return Math.max(0.0, forecastFor(lastCompletedSlot + stepsAhead, stepsAhead));
+    }
+
+    /**
+     * @return true once we have seen a whole season of data, so our seasonal
+     *         component means something.
+     */
+    public synchronized boolean isWarmedUp() {
+        return completedSlotCount >= slotsPerSeason;
+    }
+
+    /** @return How many slots' demand we have compared with our forecast for them. */
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    /** @return The mean absolute error of our one-slot-ahead forecasts, or 0 if we have none. */
+    public synchronized double getMeanAbsoluteError() {
+        return errorCount == 0L ? 0.0 : sumAbsoluteError / errorCount;
+    }
+
+    /** @return The root-mean-square error of our one-slot-ahead forecasts, or 0 if we have none. */
+    public synchronized double getRootMeanSquaredError() {
+        return errorCount == 0L ? 0.0 : Math.sqrt(sumSquaredError / errorCount);
+    }
+
+    /** @return What we forecast for the most recently completed slot, or NaN. */
+    public synchronized double getLastForecast() {
+        return lastForecast;
+    }
+
+    /** @return The actual demand in the most recently completed slot, or NaN. */
+    public synchronized double getLastActual() {
+        return lastActual;
+    }
+
+    public long getSlotMillis() {
+        return slotMillis;
+    }
+
+    private long slotOf(long timeMillis) {
+        return timeMillis / slotMillis;
+    }
+
+    private int seasonIndexOf(long slot) {
+        return (int) (slot % slotsPerSeason);
+    }
+
+    private double forecastFor(long slot, long stepsAhead) {
+        return level + stepsAhead * trend + seasonal[seasonIndexOf(slot)];
+    }
+
+    private void completeSlot(long slot, double actual) {
+        if (lastCompletedSlot < 0L) {
+            level = actual;
+            trend = 0.0;
+            lastCompletedSlot = slot;
+            completedSlotCount = 1L;
+            lastActual = actual;
+            return;
+        }
+        final long gap = slot - lastCompletedSlot;
+        if (gap > 1L) {
+            // we've no data for the slots in between, so assume they followed the trend
+            level += (gap - 1L) * trend;
+        }
+        final double forecast = Math.max(0.0, forecastFor(slot, 1L));
+        if (isWarmedUp()) {
+            final double error = actual - forecast;
+            errorCount++;
+            sumAbsoluteError += Math.abs(error);
+            sumSquaredError += error * error;
+        }
+        lastForecast = forecast;
+        lastActual = actual;
+        final int s = seasonIndexOf(slot);
+        final double previousLevel = level;
+        level = alpha * (actual - seasonal[s]) + (1.0 - alpha) * (level + trend);
+        trend = beta * (level - previousLevel) + (1.0 - beta) * trend;
+        seasonal[s] = gamma * (actual - level) + (1.0 - gamma) * seasonal[s];
+        lastCompletedSlot = slot;
+        completedSlotCount++;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("DemandForecaster[level=%.2f, trend=%.3f, slots=%d, MAE=%.2f, RMSE=%.2f]", level, trend,
+                completedSlotCount, getMeanAbsoluteError(), getRootMeanSquaredError());
+    }
+}
@@ -0,0 +1,134 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Remembers the recent demand for a group of slaves so that we can work out
+ * how many of them we can afford to get rid of.
+ * <p>
+ * We keep enough slaves to meet the peak demand seen during the hysteresis
+ * window, plus a buffer of spare slaves on top. This means that a brief lull
+ * in demand doesn't cause us to destroy slaves that we'll then have to
+ * re-create moments later.
+ * </p>
+ * <p>
+ * Slaves using different hysteresis windows (e.g. ones provisioned before and
+ * after a template was reconfigured) can share one instance: it remembers
+ * demand for the longest window it has been asked for, and each caller asks
+ * for the peak within its own window.
+ * </p>
+ * This class is thread-safe.
+ */
+public final class IdleCapacityBuffer {
+    /** Guarded by this. */
+    private long windowMillis;
+    /** Pairs of (time, demand), oldest first, where no demand is lower than one that follows it. */
+    private final Deque<long[]> peaks = new ArrayDeque<long[]>();
+
+    /**
+     * @param windowMillis
+     *            How long we remember demand for.
+     */
+    public IdleCapacityBuffer(long windowMillis) {
+        this.windowMillis = Math.max(0L, windowMillis);
+    }
+
+    public synchronized long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Makes sure that demand is remembered for at least the given time,
+     * without forgetting anything already recorded.
+     *
+     * @param windowMillis
+     *            How long demand should be remembered for.
+     */
+    public synchronized void widenWindow(long windowMillis) {
+        this.windowMillis = Math.max(this.windowMillis, windowMillis);
+    }
+
+    /**
+     * Records the demand at a given time.
+     *
+     * @param nowMillis
+     *            The current time.
+     * @param busyExecutors
+     *            How many executors are in use.
+     */
+    public synchronized void recordDemand(long nowMillis, int busyExecutors) {
+        // anything no higher than this will never be the peak again
+        while (!peaks.isEmpty() && peaks.peekLast()[1] <= busyExecutors) {
+            peaks.removeLast();
+        }
+        peaks.addLast(new long[] { nowMillis, busyExecutors });
+        expire(nowMillis);
+    }
+
+    /**
+     * @param nowMillis
+     *            The current time.
+     * @return The highest demand recorded within the window, or 0 if none.
+     */
+    public synchronized int getPeakDemand(long nowMillis) {
+        return getPeakDemand(nowMillis, windowMillis);
+    }
+
+    /**
+     * @param nowMillis
+     *            The current time.
+     * @param windowMillis
+     *            How far back to look, which is limited to the window we
+     *            remember demand for.
+     * @return The highest demand recorded within that time, or 0 if none.
+     */
+    public synchronized int getPeakDemand(long nowMillis, long windowMillis) {
+        expire(nowMillis);
+        final long cutoff = nowMillis - windowMillis;
+        // the first peak within the window is the highest, as peaks only go down
+        for (final long[] peak : peaks) {
+            if (peak[0] >= cutoff) {
+                return (int) peak[1];
+            }
+        }
+        return 0;
+    }
+
+    private void expire(long nowMillis) {
+        final long cutoff = nowMillis - windowMillis;
+        for (Iterator<long[]> i = peaks.iterator(); i.hasNext();) {
+            if (i.next()[0] >= cutoff) {
+                break;
+            }
+            i.remove();
+        }
+    }
+
+    /**
+     * Works out how many slaves are surplus to requirements.
+     *
+     * @param onlineSlaves
+     *            How many slaves we have.
+     * @param peakBusyExecutors
+     *            The peak demand, in executors.
+     * @param executorsPerSlave
+     *            How many executors each slave has.
+     * @param bufferSlaves
+     *            How many spare slaves we want to keep over and above the
+     *            peak demand.
+     * @return How many slaves we could get rid of; never negative.
+     */
+    public static int surplusSlaves(int onlineSlaves, int peakBusyExecutors, int executorsPerSlave, int bufferSlaves) {
+        final int perSlave = Math.max(1, executorsPerSlave);
+        final int slavesForPeak = (Math.max(0, peakBusyExecutors) + perSlave - 1) / perSlave;
+        final int wanted = slavesForPeak + Math.max(0, bufferSlaves);
+        return Math.max(0, onlineSlaves - wanted);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "IdleCapacityBuffer[window=" + windowMillis + "ms, peaks=" + peaks.size() + "]";
+    }
+}
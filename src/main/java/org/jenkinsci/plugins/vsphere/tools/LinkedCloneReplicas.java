@@ -0,0 +1,206 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.io.PrintStream;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.vmware.vim25.VirtualMachineConfigInfo;
+import com.vmware.vim25.mo.VirtualMachine;
+
+/**
+ * Maintains per-datastore copies ("replicas") of a master image so that linked
+ * clones can be created from a base disk that lives on the same datastore as
+ * the clone, rather than every linked clone reading from the one master disk.
+ * <p>
+ * A replica is a full clone of the master's snapshot, created (lazily) on the
+ * first request for that datastore, with a single snapshot of its own from
+ * which linked clones are made. The identity of the master snapshot it was
+ * copied from is recorded in the replica's annotation, so that when the master
+ * snapshot changes the replica gets replaced.
+ * </p>
+ */
+public final class LinkedCloneReplicas {
+    private static final Logger LOGGER = Logger.getLogger(LinkedCloneReplicas.class.getName());
+    /** Prefix of the annotation we give replicas. */
+    static final String ANNOTATION_PREFIX = "Jenkins linked-clone replica of ";
+    /** Name of the snapshot we take of each replica. */
+    static final String REPLICA_SNAPSHOT_NAME = "replica";
+    /** What's added to the name of a replica when it's replaced, before a timestamp. */
+    static final String RETIRED_INFIX = "-old-";
+    /**
+     * Locks shared out among the replicas by name, so that two clones heading
+     * for the same datastore don't both try to create its replica. Having a
+     * fixed number means we don't keep a lock for every replica there's been.
+     */
+    private static final Object[] LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private LinkedCloneReplicas() {
+    }
+
+    /**
+     * Calculates the name of the replica of a master image on a given
+     * datastore.
+     *
+     * @param masterName
+     *            The name of the master VM or template.
+     * @param datastoreName
+     *            The name of the datastore.
+     * @return The name the replica VM will have.
+     */
+    public static String getReplicaName(String masterName, String datastoreName) {
+        return masterName + "-replica-" + datastoreName.replaceAll("[^A-Za-z0-9_.-]", "_");
+    }
+
+    /**
+     * Ensures that there's an up-to-date replica of the master image on the
+     * given datastore, creating or replacing it if necessary.
+     *
+     * @param vSphere
+     *            Our connection to vSphere.
+     * @param masterName
+     *            The name of the master VM or template.
+     * @param useCurrentSnapshot
+     *            If true then the replica is a copy of the master's current
+     *            snapshot.
+     * @param namedSnapshot
+     *            If set then the replica is a copy of the master's snapshot of
+     *            this name.
+     * @param resourcePoolName
+     *            (Optional) The resource pool to put the replica in.
+     * @param cluster
+     *            (Optional) The cluster to put the replica on.
+     * @param datastoreName
+     *            The datastore the replica must live on.
+     * @param folderName
+     *            (Optional) The folder to put the replica in.
+     * @param jLogger
+     *            Where to log to.
+     * @return The name of the replica VM, whose current snapshot can be used as
+     *         the basis for linked clones.
+     * @throws VSphereException
+     *             if anything goes wrong.
+     */
+    public static String ensureReplica(VSphere vSphere, String masterName, boolean useCurrentSnapshot,
+            String namedSnapshot, String resourcePoolName, String cluster, String datastoreName, String folderName,
+            PrintStream jLogger) throws VSphereException {
+        final String replicaName = getReplicaName(masterName, datastoreName);
+        final String wantedAnnotation = ANNOTATION_PREFIX + vSphere.getSnapshotIdentity(masterName,
+                useCurrentSnapshot, namedSnapshot);
+        synchronized (getLock(replicaName)) {
+            final VirtualMachine existing = vSphere.getVmByName(replicaName);
+            if (existing != null) {
+                if (isUpToDate(existing, wantedAnnotation)) {
+                    LOGGER.log(Level.FINER, "Replica {0} is up to date", replicaName);
+                    return replicaName;
+                }
+                retire(vSphere, replicaName, jLogger);
+            }
+            log(jLogger, "Creating replica \"" + replicaName + "\" of \"" + masterName + "\" on datastore \""
+                    + datastoreName + "\".");
+            // a replica has to be a full copy: it's the base of linked clones
+            // on a datastore that the master's disks aren't on.
+            final boolean linkedClone = false;
+            final boolean powerOn = false;
+            final String noCustomization = null;
+            vSphere.cloneOrDeployVm(replicaName, masterName, linkedClone, resourcePoolName, cluster, datastoreName,
+                    folderName, useCurrentSnapshot, namedSnapshot, powerOn, noCustomization, jLogger);
+            try {
+                vSphere.takeSnapshot(replicaName, REPLICA_SNAPSHOT_NAME, "Base for linked clones", false);
+                // the annotation is only set once the replica is usable,
+                // so an incomplete replica will get replaced next time.
+                vSphere.addAnotation(replicaName, wantedAnnotation);
+            } catch (VSphereException | RuntimeException ex) {
+                try {
+                    vSphere.destroyVm(replicaName, false);
+                } catch (VSphereException | RuntimeException ex2) {
+                    LOGGER.log(Level.WARNING, "Unable to remove incomplete replica " + replicaName, ex2);
+                }
+                throw ex;
+            }
+            log(jLogger, "Replica \"" + replicaName + "\" created.");
+            return replicaName;
+        }
+    }
+
+    private static boolean isUpToDate(VirtualMachine replica, String wantedAnnotation) throws VSphereException {
+        final VirtualMachineConfigInfo config = replica.getConfig();
+        try {
+            return config != null && wantedAnnotation.equals(config.getAnnotation())
+                    && replica.getCurrentSnapShot() != null;
+        } catch (RemoteException ex) {
+            throw new VSphereException(ex);
+        }
+    }
+
+    /**
+     * Gets rid of an out-of-date replica. Existing linked clones may still be
+     * using its disks, so we rename it out of the way and only delete it once
+     * nothing is based on it any more. Any that were still in use when
+     * earlier replicas were replaced get another chance to be deleted now.
+     */
+    private static void retire(VSphere vSphere, String replicaName, PrintStream jLogger) throws VSphereException {
+        log(jLogger, "Replica \"" + replicaName + "\" is out of date and will be replaced.");
+        vSphere.renameVm(replicaName, replicaName + RETIRED_INFIX + System.currentTimeMillis());
+        final Collection<String> vmNames;
+        try {
+            vmNames = vSphere.getVmsByName(null).keySet();
+        } catch (VSphereException ex) {
+            LOGGER.log(Level.WARNING, "Unable to look for old replicas of " + replicaName, ex);
+            return;
+        }
+        for (final String retiredName : getRetiredReplicaNames(replicaName, vmNames)) {
+            try {
+                if (vSphere.hasLinkedClones(retiredName)) {
+                    log(jLogger, "Old replica \"" + retiredName + "\" is still in use by linked clones.");
+                } else {
+                    log(jLogger, "Deleting old replica \"" + retiredName + "\".");
+                    vSphere.destroyVm(retiredName, false);
+                }
+            } catch (VSphereException ex) {
+                LOGGER.log(Level.WARNING, "Unable to delete old replica " + retiredName, ex);
+            }
+        }
+    }
+
+    /**
+     * @param replicaName
+     *            The name of a replica.
+     * @param vmNames
+     *            The names of VMs.
+     * @return Those VMs that are retired copies of the replica.
+     */
+    static List<String> getRetiredReplicaNames(String replicaName, Collection<String> vmNames) {
+        final String prefix = replicaName + RETIRED_INFIX;
+        final List<String> result = new ArrayList<String>();
+        for (final String vmName : vmNames) {
+            if (vmName.startsWith(prefix) && vmName.length() > prefix.length()
+                    && StringUtils.isNumeric(vmName.substring(prefix.length()))) {
+                result.add(vmName);
+            }
+        }
+        return result;
+    }
+
+    static Object getLock(String replicaName) {
+        return LOCKS[(replicaName.hashCode() & Integer.MAX_VALUE) % LOCKS.length];
+    }
+
+    private static void log(PrintStream jLogger, String message) {
+        if (jLogger != null) {
+            VSphereLogger.vsLogger(jLogger, message);
+        }
+        LOGGER.log(Level.FINER, message);
+    }
+}
@@ -0,0 +1,129 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of which slaves are online, and which VM each is using, so that
+ * we don't exceed our limit on online slaves or start two slaves on the same
+ * VM.
+ * <p>
+ * This is lock-free: slots under the limit are claimed with an atomic counter
+ * and the slave and VM are claimed with atomic map operations, so a slave
+ * that loses a race for either simply gives its slot back.
+ * </p>
+ * This class is thread-safe.
+ */
+public final class OnlineSlaveRegistry {
+    private final int maxOnlineSlaves;
+    private final ConcurrentMap<String, String> vmBySlave = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, String> slaveByVm = new ConcurrentHashMap<String, String>();
+    private final AtomicInteger onlineCount = new AtomicInteger();
+
+    /**
+     * @param maxOnlineSlaves
+     *            The most slaves that may be online at once, or 0 for no
+     *            limit.
+     */
+    public OnlineSlaveRegistry(int maxOnlineSlaves) {
+        this.maxOnlineSlaves = maxOnlineSlaves;
+    }
+
+    /**
+     * Says whether {@link #markOnline(String, String)} would succeed, without
+     * doing it.
+     *
+     * @param slaveName
+     *            The slave.
+     * @param vmName
+     *            The VM it uses.
+     * @return true if the slave could come online.
+     */
+    public boolean canMarkOnline(String slaveName, String vmName) {
+        // Don't allow more than max.
+        if (maxOnlineSlaves > 0 && onlineCount.get() >= maxOnlineSlaves) {
+            return false;
+        }
+        // Don't allow two slaves to the same VM to fire up.
+        if (slaveByVm.containsKey(vmName)) {
+            return false;
+        }
+        // Don't allow two instances of the same slave.
+        return !vmBySlave.containsKey(slaveName);
+    }
+
+    /**
+     * Records that a slave is coming online, if that's allowed.
+     *
+     * @param slaveName
+     *            The slave.
+     * @param vmName
+     *            The VM it uses.
+     * @return true if the slave is now (or was already) recorded as online
+     *         using that VM, false if it may not come online.
+     */
+    public boolean markOnline(String slaveName, String vmName) {
+        // If the combination is already recorded, it's good.
+        if (vmName.equals(vmBySlave.get(slaveName))) {
+            return true;
+        }
+        if (!claimSlot()) {
+            return false;
+        }
+        if (slaveByVm.putIfAbsent(vmName, slaveName) != null) {
+            onlineCount.decrementAndGet();
+            return false;
+        }
+        if (vmBySlave.putIfAbsent(slaveName, vmName) != null) {
+            slaveByVm.remove(vmName, slaveName);
+            onlineCount.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that a slave has gone offline.
+     *
+     * @param slaveName
+     *            The slave.
+     */
+    public void markOffline(String slaveName) {
+        final String vmName = vmBySlave.remove(slaveName);
+        if (vmName != null) {
+            slaveByVm.remove(vmName, slaveName);
+            onlineCount.decrementAndGet();
+        }
+    }
+
+    /** @return How many slaves are online. */
+    public int size() {
+        return onlineCount.get();
+    }
+
+    /** @return A copy of the online slaves' names, mapped to their VMs' names. */
+    public Map<String, String> getOnline() {
+        return Collections.unmodifiableMap(new HashMap<String, String>(vmBySlave));
+    }
+
+    private boolean claimSlot() {
+        while (true) {
+            final int current = onlineCount.get();
+            if (maxOnlineSlaves > 0 && current >= maxOnlineSlaves) {
+                return false;
+            }
+            if (onlineCount.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OnlineSlaveRegistry[online=" + onlineCount.get() + ", max=" + maxOnlineSlaves + "]";
+    }
+}
@@ -0,0 +1,169 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the slaves that are probably being launched, each of which
+ * is forgotten once its launch has finished or it has expired.
+ * <p>
+ * This is designed for lots of slaves launching concurrently: nothing takes a
+ * global lock, expired launches are found without scanning all of them, and
+ * launches are indexed by label so that we can quickly find those that might
+ * be able to handle something that needs a particular label.
+ * </p>
+ * This class is thread-safe.
+ *
+ * @param <T>
+ *            The type of slave.
+ */
+public final class ProbableLaunches<T> {
+    private final ConcurrentMap<T, Launch<T>> launches = new ConcurrentHashMap<T, Launch<T>>();
+    private final DelayQueue<Launch<T>> expiries = new DelayQueue<Launch<T>>();
+    /**
+     * The launches with each label. Without a global lock, an add and a remove
+     * of the same slave can interleave so that a launch is indexed after it
+     * has been removed, so anything found here only counts if it's still the
+     * slave's current launch.
+     */
+    private final ConcurrentMap<String, Set<Launch<T>>> byLabel = new ConcurrentHashMap<String, Set<Launch<T>>>();
+
+    /**
+     * Records that a slave is probably being launched. If it was already being
+     * launched, the new expiry time replaces the old.
+     *
+     * @param slave
+     *            The slave.
+     * @param labels
+     *            The names of the slave's labels.
+     * @param expiryTimeMillis
+     *            When we should forget about it if we've not been told that
+     *            the launch has finished.
+     */
+    public void add(T slave, Collection<String> labels, long expiryTimeMillis) {
+        final Launch<T> launch = new Launch<T>(slave, labels, expiryTimeMillis);
+        final Launch<T> previous = launches.put(slave, launch);
+        if (previous != null) {
+            expiries.remove(previous);
+            unindex(previous);
+        }
+        index(launch);
+        expiries.add(launch);
+    }
+
+    /**
+     * Records that a slave is no longer being launched.
+     *
+     * @param slave
+     *            The slave.
+     */
+    public void remove(T slave) {
+        final Launch<T> launch = launches.remove(slave);
+        if (launch != null) {
+            expiries.remove(launch);
+            unindex(launch);
+        }
+    }
+
+    /**
+     * Forgets about any launches that have expired. This only looks at those
+     * that have expired, so it's cheap to call often.
+     */
+    public void removeExpired() {
+        Launch<T> expired;
+        while ((expired = expiries.poll()) != null) {
+            // it may have been replaced by a newer launch of the same slave
+            if (launches.remove(expired.slave, expired)) {
+                unindex(expired);
+            }
+        }
+    }
+
+    /** @return How many launches are in progress. */
+    public int size() {
+        return launches.size();
+    }
+
+    /** @return All the slaves that are being launched. */
+    public List<T> getAll() {
+        return new ArrayList<T>(launches.keySet());
+    }
+
+    /**
+     * @param label
+     *            The name of a label.
+     * @return The slaves being launched that have that label.
+     */
+    public List<T> getWithLabel(String label) {
+        final Set<Launch<T>> labelled = byLabel.get(label);
+        if (labelled == null) {
+            return Collections.<T> emptyList();
+        }
+        final List<T> result = new ArrayList<T>(labelled.size());
+        for (final Iterator<Launch<T>> i = labelled.iterator(); i.hasNext();) {
+            final Launch<T> launch = i.next();
+            if (launches.get(launch.slave) == launch) {
+                result.add(launch.slave);
+            } else {
+                // a launch that's been replaced or removed never comes back
+                i.remove();
+            }
+        }
+        return result;
+    }
+
+    private void index(Launch<T> launch) {
+        for (final String label : launch.labels) {
+            Set<Launch<T>> labelled = byLabel.get(label);
+            if (labelled == null) {
+                final Set<Launch<T>> newLabelled = Collections.newSetFromMap(new ConcurrentHashMap<Launch<T>, Boolean>());
+                labelled = byLabel.putIfAbsent(label, newLabelled);
+                if (labelled == null) {
+                    labelled = newLabelled;
+                }
+            }
+            labelled.add(launch);
+        }
+    }
+
+    private void unindex(Launch<T> launch) {
+        for (final String label : launch.labels) {
+            final Set<Launch<T>> labelled = byLabel.get(label);
+            if (labelled != null) {
+                labelled.remove(launch);
+                // empty sets are left in place; there's one per label at most
+            }
+        }
+    }
+
+    private static final class Launch<T> implements Delayed {
+        private final T slave;
+        private final List<String> labels;
+        private final long expiryTimeMillis;
+
+        Launch(T slave, Collection<String> labels, long expiryTimeMillis) {
+            this.slave = slave;
+            this.labels = new ArrayList<String>(labels);
+            this.expiryTimeMillis = expiryTimeMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(expiryTimeMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(expiryTimeMillis, ((Launch<?>) o).expiryTimeMillis);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Records how long each phase of provisioning one agent took, from the moment
+ * the cloud decided to create it until it came online (or failed to).
+ * <p>
+ * Each phase is a {@link Span}. A span that is still open when the timeline
+ * finishes is closed at that point; if the timeline failed, that span is
+ * marked as the one that failed. This means that callers only need to close
+ * spans on their success paths.
+ * </p>
+ * This class is thread-safe; spans may be opened and closed on different
+ * threads.
+ */
+public final class ProvisioningTimeline {
+    /** Waiting for a thread in {@link hudson.model.Computer#threadPoolForRemoting}. */
+    public static final String QUEUE = "queue";
+    /** Cloning (or deploying) the VM. */
+    public static final String CLONE = "clone";
+    /** Setting guestinfo properties on the new VM. */
+    public static final String GUEST_INFO = "guestinfo";
+    /** Waiting for the new VM to report its IP address. */
+    public static final String IP = "ip";
+    /** Adding the new agent to Jenkins. */
+    public static final String ADD_NODE = "addNode";
+    /** Connecting the agent's launcher. */
+    public static final String CONNECT = "connect";
+
+    private final ProvisioningTimelines owner;
+    private final String cloudName;
+    private final String templateName;
+    private final String nodeName;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    /** Our OpenTelemetry IDs, chosen up front so that every export of this timeline agrees. */
+    private final String traceId = hexId(32);
+    private final String rootSpanId = hexId(16);
+    private final List<Span> spans = new ArrayList<Span>();
+    private long endNanos;
+    private boolean finished;
+    private String failure;
+
+    ProvisioningTimeline(ProvisioningTimelines owner, String cloudName, String templateName, String nodeName) {
+        this.owner = owner;
+        this.cloudName = cloudName;
+        this.templateName = templateName;
+        this.nodeName = nodeName;
+    }
+
+    /**
+     * Creates a span that isn't part of any timeline, for use when we aren't
+     * tracing the node in question.
+     */
+    static Span detachedSpan(String name) {
+        return new Span(null, name, System.nanoTime());
+    }
+
+    /**
+     * Starts a new phase.
+     *
+     * @param name
+     *            The name of the phase, e.g. {@link #CLONE}.
+     * @return The new span. Once the timeline has finished, this will be a
+     *         span that isn't recorded.
+     */
+    public synchronized Span startSpan(String name) {
+        if (finished) {
+            return detachedSpan(name);
+        }
+        final Span span = new Span(this, name, System.nanoTime());
+        spans.add(span);
+        return span;
+    }
+
+    /** Records that the agent came online. */
+    public void succeeded() {
+        finish(null);
+    }
+
+    /**
+     * Records that provisioning failed.
+     *
+     * @param reason
+     *            What went wrong.
+     */
+    public void failed(String reason) {
+        finish(reason == null ? "Failed" : reason);
+    }
+
+    private void finish(String reason) {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            endNanos = System.nanoTime();
+            failure = reason;
+            for (Span span : spans) {
+                if (span.endNanos == 0L) {
+                    span.endNanos = endNanos;
+                    span.error = reason;
+                }
+            }
+        }
+        owner.finished(this);
+    }
+
+    public String getCloudName() {
+        return cloudName;
+    }
+
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    /** @return When provisioning started, in milliseconds since the epoch. */
+    public long getStartTimeMillis() {
+        return startMillis;
+    }
+
+    /** @return How long provisioning took, or has taken so far. */
+    public synchronized long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((finished ? endNanos : System.nanoTime()) - startNanos);
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /** @return Why provisioning failed, or null if it hasn't. */
+    public synchronized String getFailure() {
+        return failure;
+    }
+
+    /** @return The name of the slowest phase, or null if there were none. */
+    public synchronized String getSlowestSpanName() {
+        Span slowest = null;
+        long slowestNanos = -1L;
+        final long now = System.nanoTime();
+        for (Span span : spans) {
+            final long nanos = span.durationNanos(now);
+            if (nanos > slowestNanos) {
+                slowest = span;
+                slowestNanos = nanos;
+            }
+        }
+        return slowest == null ? null : slowest.name;
+    }
+
+    /** @return A copy of the phases recorded so far, in the order they started. */
+    public synchronized List<SpanData> getSpans() {
+        final long now = System.nanoTime();
+        final List<SpanData> result = new ArrayList<SpanData>(spans.size());
+        for (Span span : spans) {
+            result.add(new SpanData(span.name, TimeUnit.NANOSECONDS.toMillis(span.startNanos - startNanos),
+                    TimeUnit.NANOSECONDS.toMillis(span.durationNanos(now)), span.endNanos == 0L, span.error));
+        }
+        return result;
+    }
+
+    /** @return This timeline in our own JSON format. */
+    public synchronized JSONObject toJSON() {
+        final JSONObject o = new JSONObject();
+        o.put("node", nodeName);
+        o.put("cloud", cloudName);
+        o.put("template", templateName);
+        o.put("startTimeMillis", startMillis);
+        o.put("durationMillis", getDurationMillis());
+        o.put("finished", finished);
+        if (failure != null) {
+            o.put("failure", failure);
+        }
+        final JSONArray phases = new JSONArray();
+        for (SpanData span : getSpans()) {
+            final JSONObject p = new JSONObject();
+            p.put("name", span.getName());
+            p.put("offsetMillis", span.getOffsetMillis());
+            p.put("durationMillis", span.getDurationMillis());
+            p.put("open", span.isOpen());
+            if (span.getError() != null) {
+                p.put("error", span.getError());
+            }
+            phases.add(p);
+        }
+        o.put("phases", phases);
+        return o;
+    }
+
+    /**
+     * Exports this timeline as OpenTelemetry spans (in the OTLP/JSON
+     * encoding): one root span, named "provision", for the whole timeline,
+     * with a child span for each phase. Phases that are still in progress are
+     * not included. The trace and span IDs are the same every time this
+     * timeline is exported.
+     *
+     * @return An array of OTLP span objects.
+     */
+    public synchronized JSONArray toOtelSpans() {
+        final long startEpochNanos = TimeUnit.MILLISECONDS.toNanos(startMillis);
+        final JSONArray result = new JSONArray();
+        final long rootEndNanos = (finished ? endNanos : System.nanoTime()) - startNanos;
+        final JSONObject root = otelSpan(traceId, rootSpanId, null, "provision", startEpochNanos,
+                startEpochNanos + rootEndNanos, failure);
+        final JSONArray attributes = new JSONArray();
+        attributes.add(otelAttribute("jenkins.node", nodeName));
+        attributes.add(otelAttribute("vsphere.cloud", cloudName));
+        attributes.add(otelAttribute("vsphere.template", templateName));
+        root.put("attributes", attributes);
+        result.add(root);
+        for (Span span : spans) {
+            if (span.endNanos == 0L) {
+                continue;
+            }
+            result.add(otelSpan(traceId, span.spanId, rootSpanId, span.name,
+                    startEpochNanos + span.startNanos - startNanos, startEpochNanos + span.endNanos - startNanos,
+                    span.error));
+        }
+        return result;
+    }
+
+    private static JSONObject otelSpan(String traceId, String spanId, String parentSpanId, String name,
+            long startEpochNanos, long endEpochNanos, String error) {
+        final JSONObject o = new JSONObject();
+        o.put("traceId", traceId);
+        o.put("spanId", spanId);
+        if (parentSpanId != null) {
+            o.put("parentSpanId", parentSpanId);
+        }
+        o.put("name", name);
+        o.put("kind", 1); // SPAN_KIND_INTERNAL
+        // OTLP/JSON encodes 64-bit integers as strings
+        o.put("startTimeUnixNano", Long.toString(startEpochNanos));
+        o.put("endTimeUnixNano", Long.toString(endEpochNanos));
+        final JSONObject status = new JSONObject();
+        if (error == null) {
+            status.put("code", 1); // STATUS_CODE_OK
+        } else {
+            status.put("code", 2); // STATUS_CODE_ERROR
+            status.put("message", error);
+        }
+        o.put("status", status);
+        return o;
+    }
+
+    private static JSONObject otelAttribute(String key, String value) {
+        final JSONObject stringValue = new JSONObject();
+        stringValue.put("stringValue", value == null ? "" : value);
+        final JSONObject o = new JSONObject();
+        o.put("key", key);
+        o.put("value", stringValue);
+        return o;
+    }
+
+    private static String hexId(int digits) {
+        final StringBuilder sb = new StringBuilder(digits);
+        final Random random = ThreadLocalRandom.current();
+        while (sb.length() < digits) {
+            sb.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return nodeName + " (" + (finished ? (failure == null ? "online" : "failed") : "in progress") + " after "
+                + getDurationMillis() + "ms)";
+    }
+
+    /** One phase of a {@link ProvisioningTimeline}. */
+    public static final class Span implements AutoCloseable {
+        private final ProvisioningTimeline timeline;
+        private final String name;
+        private final long startNanos;
+        private final String spanId = hexId(16);
+        private long endNanos;
+        private String error;
+
+        private Span(ProvisioningTimeline timeline, String name, long startNanos) {
+            this.timeline = timeline;
+            this.name = name;
+            this.startNanos = startNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** Ends this phase, successfully. Has no effect if it has already ended. */
+        @Override
+        public void close() {
+            if (timeline == null) {
+                return;
+            }
+            synchronized (timeline) {
+                if (endNanos == 0L) {
+                    endNanos = System.nanoTime();
+                }
+            }
+        }
+
+        private long durationNanos(long now) {
+            return (endNanos == 0L ? now : endNanos) - startNanos;
+        }
+    }
+
+    /** An immutable copy of a {@link Span}. */
+    public static final class SpanData {
+        private final String name;
+        private final long offsetMillis;
+        private final long durationMillis;
+        private final boolean open;
+        private final String error;
+
+        SpanData(String name, long offsetMillis, long durationMillis, boolean open, String error) {
+            this.name = name;
+            this.offsetMillis = offsetMillis;
+            this.durationMillis = durationMillis;
+            this.open = open;
+            this.error = error;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** @return How long after the start of the timeline this phase started. */
+        public long getOffsetMillis() {
+            return offsetMillis;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /** @return true if this phase is still in progress. */
+        public boolean isOpen() {
+            return open;
+        }
+
+        /** @return Why this phase failed, or null if it didn't. */
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the {@link ProvisioningTimeline}s of agents that are being
+ * provisioned, plus those of the most recently provisioned agents.
+ * <p>
+ * Completed timelines are kept in a ring buffer whose size is set by the
+ * <code>org.jenkinsci.plugins.vsphere.tools.ProvisioningTimelines.capacity</code>
+ * system property; once it is full, the oldest are forgotten. The number of
+ * timelines in progress is bounded by the same limit, in case Jenkins never
+ * gets around to connecting an agent.
+ * </p>
+ * This class is thread-safe.
+ */
+public final class ProvisioningTimelines {
+    private static final int DEFAULT_CAPACITY = Integer.getInteger(ProvisioningTimelines.class.getName() + ".capacity", 1000);
+    private static final ProvisioningTimelines INSTANCE = new ProvisioningTimelines(DEFAULT_CAPACITY);
+
+    private final int capacity;
+    private final Map<String, ProvisioningTimeline> inProgress = new LinkedHashMap<String, ProvisioningTimeline>();
+    private final Deque<ProvisioningTimeline> completed = new ArrayDeque<ProvisioningTimeline>();
+
+    ProvisioningTimelines(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /** @return The singleton instance. */
+    public static ProvisioningTimelines get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts recording the provisioning of a new agent.
+     *
+     * @param cloudName
+     *            The cloud that is creating it.
+     * @param templateName
+     *            The template it is being created from.
+     * @param nodeName
+     *            The name of the new agent.
+     * @return Its timeline.
+     */
+    public ProvisioningTimeline start(String cloudName, String templateName, String nodeName) {
+        final ProvisioningTimeline timeline = new ProvisioningTimeline(this, cloudName, templateName, nodeName);
+        final List<ProvisioningTimeline> superseded = new ArrayList<ProvisioningTimeline>(2);
+        synchronized (this) {
+            final ProvisioningTimeline replaced = inProgress.remove(nodeName);
+            if (replaced != null) {
+                superseded.add(replaced);
+            }
+            inProgress.put(nodeName, timeline);
+            if (inProgress.size() > capacity) {
+                final Iterator<ProvisioningTimeline> oldest = inProgress.values().iterator();
+                superseded.add(oldest.next());
+                oldest.remove();
+            }
+            completed.addAll(superseded);
+            trim();
+        }
+        for (ProvisioningTimeline t : superseded) {
+            t.failed("Abandoned before the agent came online");
+        }
+        return timeline;
+    }
+
+    /**
+     * Starts a phase of the provisioning of the given agent. If we aren't
+     * recording that agent's provisioning, the span is simply discarded.
+     *
+     * @param nodeName
+     *            The name of the agent.
+     * @param spanName
+     *            The name of the phase.
+     * @return The new span, which should be closed when the phase completes.
+     */
+    public ProvisioningTimeline.Span startSpan(String nodeName, String spanName) {
+        final ProvisioningTimeline timeline = getInProgress(nodeName);
+        return timeline == null ? ProvisioningTimeline.detachedSpan(spanName) : timeline.startSpan(spanName);
+    }
+
+    /**
+     * Records that the agent came online, if we were recording its
+     * provisioning.
+     *
+     * @param nodeName
+     *            The name of the agent.
+     */
+    public void succeeded(String nodeName) {
+        final ProvisioningTimeline timeline = getInProgress(nodeName);
+        if (timeline != null) {
+            timeline.succeeded();
+        }
+    }
+
+    /**
+     * Records that the agent failed to come online, if we were recording its
+     * provisioning.
+     *
+     * @param nodeName
+     *            The name of the agent.
+     * @param reason
+     *            What went wrong.
+     */
+    public void failed(String nodeName, String reason) {
+        final ProvisioningTimeline timeline = getInProgress(nodeName);
+        if (timeline != null) {
+            timeline.failed(reason);
+        }
+    }
+
+    /**
+     * @param nodeName
+     *            The name of an agent.
+     * @return The timeline of the agent's provisioning if it's still in
+     *         progress, else null.
+     */
+    public synchronized ProvisioningTimeline getInProgress(String nodeName) {
+        return inProgress.get(nodeName);
+    }
+
+    /**
+     * @param nodeName
+     *            The name of an agent.
+     * @return The most recent timeline of the agent's provisioning, or null if
+     *         we have none.
+     */
+    public synchronized ProvisioningTimeline find(String nodeName) {
+        final ProvisioningTimeline current = inProgress.get(nodeName);
+        if (current != null) {
+            return current;
+        }
+        for (Iterator<ProvisioningTimeline> i = completed.descendingIterator(); i.hasNext();) {
+            final ProvisioningTimeline t = i.next();
+            if (t.getNodeName().equals(nodeName)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /** @return All the timelines we have, those in progress first, then the most recent first. */
+    public synchronized List<ProvisioningTimeline> getAll() {
+        final List<ProvisioningTimeline> result = new ArrayList<ProvisioningTimeline>(inProgress.size() + completed.size());
+        result.addAll(inProgress.values());
+        for (Iterator<ProvisioningTimeline> i = completed.descendingIterator(); i.hasNext();) {
+            result.add(i.next());
+        }
+        return result;
+    }
+
+    /**
+     * Finds how long a given phase took in the most recently completed
+     * timelines of a given template. Phases that failed are not included.
+     *
+     * @param cloudName
+     *            The cloud.
+     * @param templateName
+     *            The template.
+     * @param spanName
+     *            The phase, e.g. {@link ProvisioningTimeline#CLONE}.
+     * @return The durations, in milliseconds, most recent first.
+     */
+    public List<Long> getSpanDurations(String cloudName, String templateName, String spanName) {
+        final List<ProvisioningTimeline> candidates;
+        synchronized (this) {
+            candidates = new ArrayList<ProvisioningTimeline>(completed);
+        }
+        final List<Long> result = new ArrayList<Long>();
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            final ProvisioningTimeline timeline = candidates.get(i);
+            if (!eq(cloudName, timeline.getCloudName()) || !eq(templateName, timeline.getTemplateName())) {
+                continue;
+            }
+            for (ProvisioningTimeline.SpanData span : timeline.getSpans()) {
+                if (span.getName().equals(spanName) && !span.isOpen() && span.getError() == null) {
+                    result.add(Long.valueOf(span.getDurationMillis()));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean eq(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    synchronized void finished(ProvisioningTimeline timeline) {
+        if (inProgress.get(timeline.getNodeName()) == timeline) {
+            inProgress.remove(timeline.getNodeName());
+            completed.add(timeline);
+            trim();
+        }
+    }
+
+    private void trim() {
+        while (completed.size() > capacity) {
+            completed.removeFirst();
+        }
+    }
+}
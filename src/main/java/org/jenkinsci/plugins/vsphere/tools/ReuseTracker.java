@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps track of which slaves are waiting to be reverted for reuse, which are
+ * being reverted and how many times each has been reused.
+ * <p>
+ * A slave with several executors can only be reverted once all of them have
+ * finished, so the revert is started by whichever build finishes last (or,
+ * should two builds finish at the same moment, by the next periodic check).
+ * </p>
+ * Slaves are held weakly, so ones that have gone away are forgotten. This
+ * class is thread-safe.
+ *
+ * @param <K>
+ *            The type used to identify a slave.
+ */
+public final class ReuseTracker<K> {
+    /** What to do once a build has finished on a slave. */
+    public enum Action {
+        /** Nothing; the slave is already being reverted. */
+        NOTHING,
+        /** Nothing yet; the slave's other builds have still to finish. */
+        WAIT,
+        /** Revert the slave now. */
+        REVERT,
+        /** Get rid of the slave, as it has been reused as often as allowed. */
+        TERMINATE
+    }
+
+    private final Map<K, Integer> reuseCounts = new WeakHashMap<K, Integer>();
+    private final Set<K> pending = Collections.newSetFromMap(new WeakHashMap<K, Boolean>());
+    private final Set<K> reverting = Collections.newSetFromMap(new WeakHashMap<K, Boolean>());
+
+    /**
+     * To be called when a build has finished on a slave.
+     *
+     * @param slave
+     *            The slave.
+     * @param othersBusy
+     *            true if any of the slave's other executors are still busy.
+     * @param maxReuses
+     *            How many times a slave may be reused, or 0 for no limit.
+     * @return What to do. If this is {@link Action#REVERT} then
+     *         {@link #revertFinished(Object)} must be called afterwards.
+     */
+    public synchronized Action taskCompleted(K slave, boolean othersBusy, int maxReuses) {
+        if (reverting.contains(slave)) {
+            return Action.NOTHING;
+        }
+        if (maxReuses > 0 && getReuseCount(slave) >= maxReuses) {
+            pending.remove(slave);
+            return Action.TERMINATE;
+        }
+        pending.add(slave);
+        if (othersBusy) {
+            return Action.WAIT;
+        }
+        startRevert(slave);
+        return Action.REVERT;
+    }
+
+    /**
+     * To be called when a slave that may be waiting to be reverted has no busy
+     * executors.
+     *
+     * @param slave
+     *            The slave.
+     * @return true if the slave was waiting and should now be reverted, in
+     *         which case {@link #revertFinished(Object)} must be called
+     *         afterwards.
+     */
+    public synchronized boolean revertIfPending(K slave) {
+        if (!pending.contains(slave)) {
+            return false;
+        }
+        startRevert(slave);
+        return true;
+    }
+
+    /**
+     * To be called once a revert has finished, whether or not it succeeded.
+     *
+     * @param slave
+     *            The slave.
+     */
+    public synchronized void revertFinished(K slave) {
+        reverting.remove(slave);
+    }
+
+    /**
+     * To be called when a slave is to be got rid of instead of reverted.
+     *
+     * @param slave
+     *            The slave.
+     */
+    public synchronized void cancelPending(K slave) {
+        pending.remove(slave);
+    }
+
+    /**
+     * @param slave
+     *            The slave.
+     * @return true if the slave is waiting to be reverted.
+     */
+    public synchronized boolean isPending(K slave) {
+        return pending.contains(slave);
+    }
+
+    /**
+     * @param slave
+     *            The slave.
+     * @return true if the slave is being reverted right now.
+     */
+    public synchronized boolean isReverting(K slave) {
+        return reverting.contains(slave);
+    }
+
+    /**
+     * @param slave
+     *            The slave.
+     * @return How many times the slave has been reverted for reuse.
+     */
+    public synchronized int getReuseCount(K slave) {
+        final Integer count = reuseCounts.get(slave);
+        return count == null ? 0 : count.intValue();
+    }
+
+    private void startRevert(K slave) {
+        pending.remove(slave);
+        reverting.add(slave);
+        reuseCounts.put(slave, getReuseCount(slave) + 1);
+    }
+}
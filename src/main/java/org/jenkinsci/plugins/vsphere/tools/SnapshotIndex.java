@@ -0,0 +1,127 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers, for each VM, which snapshot has which name, so that finding a
+ * snapshot by name doesn't mean fetching and searching the VM's whole
+ * snapshot tree every time.
+ * <p>
+ * A VM's entry is forgotten whenever we change its snapshots, and is re-read
+ * from vSphere if a name can't be found in it (in case someone else has
+ * taken a snapshot) or once it's old (in case someone else has removed or
+ * renamed one). Callers that are told by vSphere that a snapshot we found no
+ * longer exists should {@link #invalidate(String)} the VM and look again.
+ * </p>
+ * This class is thread-safe.
+ */
+public final class SnapshotIndex {
+    private static final long DEFAULT_EXPIRY_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong(
+            SnapshotIndex.class.getName() + ".expirySeconds", 300L));
+    /** How many VMs we'll remember before we start tidying up expired ones. */
+    private static final int TIDY_THRESHOLD = 1000;
+    private static final SnapshotIndex INSTANCE = new SnapshotIndex(DEFAULT_EXPIRY_MILLIS);
+
+    /** Reads a VM's snapshots from vSphere. */
+    public interface Loader {
+        /**
+         * @return The managed object reference value of each of the VM's
+         *         snapshots, keyed by snapshot name. Where more than one
+         *         snapshot has the same name, the one a depth-first search
+         *         would find first.
+         */
+        Map<String, String> load();
+    }
+
+    private final long expiryMillis;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    SnapshotIndex(long expiryMillis) {
+        this.expiryMillis = expiryMillis;
+    }
+
+    /** @return The index shared by everything in this JVM. */
+    public static SnapshotIndex get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Finds a VM's snapshot by name.
+     *
+     * @param vmKey
+     *            Something that uniquely identifies the VM, e.g. the server
+     *            and the VM's managed object reference.
+     * @param snapshotName
+     *            The snapshot's name.
+     * @param loader
+     *            How to read the VM's snapshots if we need to.
+     * @return The managed object reference value of the snapshot, or null if
+     *         the VM has no such snapshot.
+     */
+    public String find(String vmKey, String snapshotName, Loader loader) {
+        final long now = System.currentTimeMillis();
+        final Entry existing = entries.get(vmKey);
+        if (existing != null && !existing.isExpired(now)) {
+            final String found = existing.snapshots.get(snapshotName);
+            if (found != null) {
+                return found;
+            }
+        }
+        return load(vmKey, loader, now).snapshots.get(snapshotName);
+    }
+
+    /**
+     * Forgets what we know about a VM's snapshots. This must be called
+     * whenever a snapshot is taken, removed or renamed.
+     *
+     * @param vmKey
+     *            As passed to {@link #find(String, String, Loader)}.
+     */
+    public void invalidate(String vmKey) {
+        entries.remove(vmKey);
+    }
+
+    /** @return How many VMs we currently know about. */
+    int size() {
+        return entries.size();
+    }
+
+    private Entry load(String vmKey, Loader loader, long now) {
+        final Map<String, String> snapshots = loader.load();
+        final Entry loaded = new Entry(snapshots == null ? Collections.<String, String> emptyMap()
+                : Collections.unmodifiableMap(new HashMap<String, String>(snapshots)), now + expiryMillis);
+        entries.put(vmKey, loaded);
+        if (entries.size() > TIDY_THRESHOLD) {
+            removeExpired(now);
+        }
+        return loaded;
+    }
+
+    private void removeExpired(long now) {
+        for (final Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+            if (i.next().isExpired(now)) {
+                i.remove();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Map<String, String> snapshots;
+        private final long expiryTimeMillis;
+
+        Entry(Map<String, String> snapshots, long expiryTimeMillis) {
+            this.snapshots = snapshots;
+            this.expiryTimeMillis = expiryTimeMillis;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiryTimeMillis;
+        }
+    }
+}
@@ -19,8 +19,16 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -29,18 +37,38 @@ import javax.annotation.Nonnull;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.vmware.vim25.ArrayOfManagedObjectReference;
+import com.vmware.vim25.ArrayOfVirtualDevice;
 import com.vmware.vim25.CustomizationSpec;
 import com.vmware.vim25.CustomizationSpecItem;
-import com.vmware.vim25.GuestInfo;
+import com.vmware.vim25.DatastoreSummary;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.HostHardwareSummary;
+import com.vmware.vim25.HostListSummary;
+import com.vmware.vim25.HostListSummaryQuickStats;
+import com.vmware.vim25.HostRuntimeInfo;
+import com.vmware.vim25.HostSystemConnectionState;
 import com.vmware.vim25.InvalidProperty;
+import com.vmware.vim25.ManagedObjectNotFound;
 import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
 import com.vmware.vim25.OptionValue;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
 import com.vmware.vim25.RuntimeFault;
+import com.vmware.vim25.SelectionSpec;
 import com.vmware.vim25.TaskInfo;
 import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.TraversalSpec;
 import com.vmware.vim25.VirtualMachineCloneSpec;
 import com.vmware.vim25.VirtualMachineConfigInfo;
+import com.vmware.vim25.VirtualDevice;
+import com.vmware.vim25.VirtualDisk;
+import com.vmware.vim25.VirtualDiskFlatVer2BackingInfo;
 import com.vmware.vim25.VirtualMachineConfigSpec;
+import com.vmware.vim25.VirtualMachineFileLayoutEx;
+import com.vmware.vim25.VirtualMachineFileLayoutExFileInfo;
 import com.vmware.vim25.VirtualMachinePowerState;
 import com.vmware.vim25.VirtualMachineQuestionInfo;
 import com.vmware.vim25.VirtualMachineRelocateSpec;
@@ -48,9 +76,11 @@ import com.vmware.vim25.VirtualMachineSnapshotInfo;
 import com.vmware.vim25.VirtualMachineSnapshotTree;
 import com.vmware.vim25.VirtualMachineToolsStatus;
 import com.vmware.vim25.mo.ClusterComputeResource;
+import com.vmware.vim25.mo.ContainerView;
 import com.vmware.vim25.mo.CustomizationSpecManager;
 import com.vmware.vim25.mo.Datastore;
 import com.vmware.vim25.mo.Folder;
+import com.vmware.vim25.mo.HostSystem;
 import com.vmware.vim25.mo.InventoryNavigator;
 import com.vmware.vim25.mo.ManagedEntity;
 import com.vmware.vim25.mo.ResourcePool;
@@ -67,20 +97,78 @@ import com.vmware.vim25.mo.DistributedVirtualSwitch;
 public class VSphere {
 	private final URL url;
 	private final String session;
+	private final VSphereRequestScheduler scheduler;
+	private final VSphereRequestScheduler.Priority priority;
+	private final String server;
 	private final static Logger LOGGER = Logger.getLogger(VSphere.class.getName());
+	private static final Pattern IPV4_ADDRESS = Pattern.compile("^(?:[0-9]{1,3}\\.){3}[0-9]{1,3}$");
 
-	private VSphere(@Nonnull String url, @Nonnull String user, @CheckForNull String pw) throws VSphereException{
+	/** How long we give a guest OS to shut itself down before we power it off. */
+	private static final long GUEST_SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(180);
+
+	private VSphere(@Nonnull String url, @Nonnull final String user, @CheckForNull final String pw, @Nonnull VSphereRequestScheduler.Priority priority) throws VSphereException{
+		this.scheduler = VSphereRequestScheduler.forConnection(url, user);
+		this.priority = priority;
+		this.server = VSphereMetrics.serverOf(url);
 		try {
-			//TODO - change ignoreCert to be configurable
 			this.url = new URL(url);
-			this.session = (new ServiceInstance(this.url, user, pw, true)).getServerConnection().getSessionStr();
-		} catch (Exception e) {
+		} catch (MalformedURLException e) {
 			throw new VSphereException(e);
 		}
+		this.session = timed("connect", new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				//TODO - change ignoreCert to be configurable
+				VSphereMetrics.get().recordServiceLookup();
+				return (new ServiceInstance(VSphere.this.url, user, pw, true)).getServerConnection().getSessionStr();
+			}
+		});
 	}
 
 	private ServiceInstance getServiceInstance() throws RemoteException, MalformedURLException{
-		return new ServiceInstance(url, session, true);
+		VSphereMetrics.get().recordServiceLookup();
+		try {
+			return new ServiceInstance(url, session, true);
+		} catch (RemoteException | RuntimeException e) {
+			scheduler.reportFault(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs one of our public operations. This waits until the
+	 * {@link VSphereRequestScheduler} says we can talk to vSphere, and records
+	 * how long the operation took (and whether it failed) in
+	 * {@link VSphereMetrics}. Waiting for vSphere to finish something must be
+	 * done without the permit; see {@link #waitForTask(Task)}.
+	 *
+	 * @param operationName The name of the method, for reporting purposes.
+	 * @param operation What to do.
+	 * @return Whatever the operation returned.
+	 * @throws VSphereException If the operation failed, or we were interrupted while waiting.
+	 */
+	private <T> T timed(String operationName, Callable<T> operation) throws VSphereException {
+		final VSphereMetrics.Operation timing = VSphereMetrics.get().start(server, operationName);
+		try (VSphereRequestScheduler.Permit permit = beginRequest()) {
+			return operation.call();
+		} catch (RuntimeException | Error | VSphereException e) {
+			timing.failed(e);
+			throw e;
+		} catch (Exception e) {
+			timing.failed(e);
+			throw new VSphereException(e);
+		} finally {
+			timing.close();
+		}
+	}
+
+	private VSphereRequestScheduler.Permit beginRequest() throws VSphereException {
+		try {
+			return scheduler.acquire(priority);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new VSphereException("Interrupted while waiting to contact vSphere", e);
+		}
 	}
 
 	/**
@@ -92,7 +180,27 @@ public class VSphere {
 	 * @return A connected instance.
 	 */
 	public static VSphere connect(@Nonnull String server, @Nonnull String user, @CheckForNull String pw) throws VSphereException {
-		return new VSphere(server, user, pw);
+		return connect(server, user, pw, VSphereRequestScheduler.Priority.BUILD_STEP);
+	}
+
+	/**
+	 * Initiates Connection to vSphere Server
+	 * @param server Server URL
+	 * @param user Username.
+	 * @param pw Password.
+	 * @param priority How important the requests made through this instance are.
+	 * @throws VSphereException If an error occurred.
+	 * @return A connected instance.
+	 */
+	public static VSphere connect(@Nonnull String server, @Nonnull String user, @CheckForNull String pw, @Nonnull VSphereRequestScheduler.Priority priority) throws VSphereException {
+		return new VSphere(server, user, pw, priority);
+	}
+
+	/**
+	 * @return The scheduler that requests made through this instance go through.
+	 */
+	public VSphereRequestScheduler getScheduler() {
+		return scheduler;
 	}
 
     /**
@@ -104,12 +212,40 @@ public class VSphere {
      */
     public void disconnect() {
         try {
-            this.getServiceInstance().getServerConnection().logout();
+            timed("disconnect", new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    getServiceInstance().getServerConnection().logout();
+                    return null;
+                }
+            });
         } catch (Exception e) {
             LOGGER.log(Level.WARNING, "Caught exception when trying to disconnect vSphere.", e);
         }
     }
 
+    /**
+     * Checks whether our session is still logged in. vSphere ends sessions
+     * that have been idle for a while, so anything that keeps an instance
+     * around between uses should check this before reusing it.
+     *
+     * @return true if the session can still be used, false if we need to
+     *         connect again.
+     */
+    public boolean isSessionActive() {
+        try {
+            return timed("isSessionActive", new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return getServiceInstance().getSessionManager().getCurrentSession() != null;
+                }
+            });
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Caught exception when checking vSphere session.", e);
+            return false;
+        }
+    }
+
     /**
      * Deploys a new VM from an existing (named) Template.
      *
@@ -192,6 +328,30 @@ public class VSphere {
      *             if anything goes wrong.
      */
     public void cloneOrDeployVm(String cloneName, String sourceName, boolean linkedClone, String resourcePoolName, String cluster, String datastoreName, String folderName, boolean useCurrentSnapshot, final String namedSnapshot, boolean powerOn, String customizationSpec, PrintStream jLogger) throws VSphereException {
+        cloneOrDeployVm(cloneName, sourceName, linkedClone, resourcePoolName, cluster, datastoreName, folderName, useCurrentSnapshot, namedSnapshot, powerOn, customizationSpec, null, jLogger);
+    }
+
+    /**
+     * As
+     * {@link #cloneOrDeployVm(String, String, boolean, String, String, String, String, boolean, String, boolean, String, PrintStream)}
+     * but also sets guestinfo variables on the new VM as part of the clone,
+     * rather than reconfiguring it afterwards.
+     *
+     * @param guestInfo
+     *            (Optional) The guestinfo variables (without the "guestinfo."
+     *            prefix) to set, or null.
+     */
+    public void cloneOrDeployVm(final String cloneName, final String sourceName, final boolean linkedClone, final String resourcePoolName, final String cluster, final String datastoreName, final String folderName, final boolean useCurrentSnapshot, final String namedSnapshot, final boolean powerOn, final String customizationSpec, final Map<String, String> guestInfo, final PrintStream jLogger) throws VSphereException {
+        timed("cloneOrDeployVm", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                cloneOrDeployVmImpl(cloneName, sourceName, linkedClone, resourcePoolName, cluster, datastoreName, folderName, useCurrentSnapshot, namedSnapshot, powerOn, customizationSpec, guestInfo, jLogger);
+                return null;
+            }
+        });
+    }
+
+    private void cloneOrDeployVmImpl(String cloneName, String sourceName, boolean linkedClone, String resourcePoolName, String cluster, String datastoreName, String folderName, boolean useCurrentSnapshot, final String namedSnapshot, boolean powerOn, String customizationSpec, Map<String, String> guestInfo, PrintStream jLogger) throws VSphereException {
         try{
             final VirtualMachine sourceVm = getVmByName(sourceName);
             if(sourceVm==null) {
@@ -208,12 +368,18 @@ public class VSphere {
             final VirtualMachineCloneSpec cloneSpec = createCloneSpec(rel);
             cloneSpec.setTemplate(false);
             cloneSpec.powerOn = powerOn;
+            if (guestInfo != null && !guestInfo.isEmpty()) {
+                final VirtualMachineConfigSpec config = new VirtualMachineConfigSpec();
+                config.setExtraConfig(toGuestInfoOptionValues(guestInfo));
+                cloneSpec.setConfig(config);
+            }
 
+            VirtualMachineSnapshot namedVMSnapshot = null;
             if (namedSnapshot != null && !namedSnapshot.isEmpty()) {
                 if (useCurrentSnapshot) {
                     throw new IllegalArgumentException("It is not valid to request a clone of " + sourceType + "  \"" + sourceName + "\" based on its snapshot \"" + namedSnapshot + "\" AND also specify that the latest snapshot should be used.  Either choose to use the latest snapshot, or name a snapshot, or neither, but not both.");
                 }
-                final VirtualMachineSnapshot namedVMSnapshot = getSnapshotInTree(sourceVm, namedSnapshot);
+                namedVMSnapshot = getSnapshotInTree(sourceVm, namedSnapshot);
                 if (namedVMSnapshot == null) {
                     throw new VSphereException("Source " + sourceType + "  \"" + sourceName + "\" has no snapshot called \"" + namedSnapshot + "\".");
                 }
@@ -246,11 +412,26 @@ public class VSphere {
                 folder = getFolder(folderName);
             }
 
-            final Task task = sourceVm.cloneVM_Task(folder,
-                    cloneName, cloneSpec);
+            final long requested = System.nanoTime();
+            Task task;
+            try {
+                task = sourceVm.cloneVM_Task(folder, cloneName, cloneSpec);
+            } catch (ManagedObjectNotFound e) {
+                if (namedVMSnapshot == null) {
+                    throw e;
+                }
+                namedVMSnapshot = reloadSnapshotInTree(sourceVm, namedSnapshot);
+                if (namedVMSnapshot == null) {
+                    throw new VSphereException("Source " + sourceType + "  \"" + sourceName + "\" has no snapshot called \"" + namedSnapshot + "\".", e);
+                }
+                cloneSpec.setSnapshot(namedVMSnapshot.getMOR());
+                task = sourceVm.cloneVM_Task(folder, cloneName, cloneSpec);
+            }
+            reportResponseTime(requested);
             logMessage(jLogger, "Started cloning of " + sourceType + " \"" + sourceName + "\". Please wait ...");
 
-            final String status = task.waitForTask();
+            final String status = waitForTask(task);
+            reportTaskQueueTime(task);
             if(!TaskInfoState.success.toString().equals(status)) {
                 throw newVSphereException(task.getTaskInfo(), "Couldn't clone \""+ sourceName +"\". " +
                         "Clone task ended with status " + status + ".");
@@ -263,6 +444,63 @@ public class VSphere {
         }
     }
 
+    /**
+     * Works out a string that identifies the disk state that
+     * {@link #cloneOrDeployVm(String, String, boolean, String, String, String, String, boolean, String, boolean, String, PrintStream)}
+     * would clone from, given the same parameters. If the source's snapshot
+     * is deleted and re-taken (or a template is modified) then the identity
+     * will change.
+     *
+     * @param sourceName
+     *            The name of the VM or Template that is to be cloned.
+     * @param useCurrentSnapshot
+     *            If true then the identity of the source VM's "current"
+     *            snapshot is returned.
+     * @param namedSnapshot
+     *            If set then the identity of the source VM's snapshot of this
+     *            name is returned.
+     * @return A non-null identity string.
+     * @throws VSphereException
+     *             if the source, or the requested snapshot, does not exist.
+     */
+    public String getSnapshotIdentity(final String sourceName, final boolean useCurrentSnapshot, final String namedSnapshot) throws VSphereException {
+        return timed("getSnapshotIdentity", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return getSnapshotIdentityImpl(sourceName, useCurrentSnapshot, namedSnapshot);
+            }
+        });
+    }
+
+    private String getSnapshotIdentityImpl(String sourceName, boolean useCurrentSnapshot, String namedSnapshot) throws VSphereException {
+        try {
+            final VirtualMachine sourceVm = getVmByName(sourceName);
+            if (sourceVm == null) {
+                throw new VSphereException("VM or template \"" + sourceName + "\" not found");
+            }
+            final String vmId = sourceVm.getMOR().getVal();
+            if (namedSnapshot != null && !namedSnapshot.isEmpty()) {
+                final VirtualMachineSnapshot namedVMSnapshot = getSnapshotInTree(sourceVm, namedSnapshot);
+                if (namedVMSnapshot == null) {
+                    throw new VSphereException("\"" + sourceName + "\" has no snapshot called \"" + namedSnapshot + "\".");
+                }
+                return vmId + "/" + namedVMSnapshot.getMOR().getVal();
+            }
+            if (useCurrentSnapshot) {
+                final VirtualMachineSnapshot currentSnapShot = sourceVm.getCurrentSnapShot();
+                if (currentSnapShot == null) {
+                    throw new VSphereException("\"" + sourceName + "\" requires at least one snapshot.");
+                }
+                return vmId + "/" + currentSnapShot.getMOR().getVal();
+            }
+            return vmId + "@" + sourceVm.getConfig().getChangeVersion();
+        } catch(RuntimeException | VSphereException e){
+            throw e;
+        } catch(Exception e){
+            throw new VSphereException(e);
+        }
+    }
+
     private VirtualMachineCloneSpec createCloneSpec(VirtualMachineRelocateSpec rel) {
         VirtualMachineCloneSpec cloneSpec = new VirtualMachineCloneSpec();
         cloneSpec.setLocation(rel);
@@ -310,15 +548,27 @@ public class VSphere {
        return rel;
     }
 
-    public void reconfigureVm(String name, VirtualMachineConfigSpec spec) throws VSphereException {
+    public void reconfigureVm(final String name, final VirtualMachineConfigSpec spec) throws VSphereException {
+        timed("reconfigureVm", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                reconfigureVmImpl(name, spec);
+                return null;
+            }
+        });
+    }
+
+    private void reconfigureVmImpl(String name, VirtualMachineConfigSpec spec) throws VSphereException {
         VirtualMachine vm = getVmByName(name);
         if(vm==null) {
             throw new VSphereException("No VM or template " + name + " found");
         }
         LOGGER.log(Level.FINER, "Reconfiguring VM. Please wait ...");
         try {
+            final long requested = System.nanoTime();
             Task task = vm.reconfigVM_Task(spec);
-            String status = task.waitForTask();
+            reportResponseTime(requested);
+            String status = waitForTask(task);
             if(status.equals(TaskInfoState.success.toString())) {
                 return;
             }
@@ -336,18 +586,41 @@ public class VSphere {
 	 * @throws VSphereException If an error occurred.
 	 */
 	public void startVm(String name, int timeoutInSeconds) throws VSphereException {
+		final VirtualMachine vm = getVmByName(name);
+		if (vm == null) {
+			throw new VSphereException("Vm " + name + " was not found");
+		}
+		startVm(vm, timeoutInSeconds);
+	}
+
+	/**
+	 * Starts a VM that we've already looked up.
+	 *
+	 * @param vm The VM.
+	 * @param timeoutInSeconds How long to wait for it to start.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public void startVm(final VirtualMachine vm, final int timeoutInSeconds) throws VSphereException {
+		timed("startVm", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				startVmImpl(vm, timeoutInSeconds);
+				return null;
+			}
+		});
+	}
+
+	private void startVmImpl(VirtualMachine vm, int timeoutInSeconds) throws VSphereException {
 		try{
-			VirtualMachine vm = getVmByName(name);
-            if (vm == null) {
-                throw new VSphereException("Vm " + name + " was not found");
-            }
 			if(isPoweredOn(vm))
 				return;
 
 			if(vm.getConfig().template)
 				throw new VSphereException("VM represents a template!");
 
+			final long requested = System.nanoTime();
 			Task task = vm.powerOnVM_Task(null);
+			reportResponseTime(requested);
 
             int timesToCheck = timeoutInSeconds / 5;
             // add one extra time for remainder
@@ -363,7 +636,7 @@ public class VSphere {
 
 				if (task.getTaskInfo().getState()==TaskInfoState.running ||
 						task.getTaskInfo().getState()==TaskInfoState.queued){
-					Thread.sleep(5000);
+					sleep(5000);
 				}
 
 				//Check for copied/moved question
@@ -383,55 +656,103 @@ public class VSphere {
 		throw new VSphereException("VM cannot be started");
 	}
 
-	private ManagedObjectReference findSnapshotInTree(
-			VirtualMachineSnapshotTree[] snapTree, String snapName) {
-		LOGGER.log(Level.FINER, "Looking for snapshot " + snapName);
+	private static void indexSnapshotTree(
+			VirtualMachineSnapshotTree[] snapTree, Map<String, String> index) {
 		for (VirtualMachineSnapshotTree node : snapTree) {
-			if (snapName.equals(node.getName())) {
-				return node.getSnapshot();
-			} else {
-				VirtualMachineSnapshotTree[] childTree =
-						node.getChildSnapshotList();
-				if (childTree != null) {
-					ManagedObjectReference mor = findSnapshotInTree(
-							childTree, snapName);
-					if (mor != null) {
-						return mor;
-					}
-				}
+			// The first one a depth-first search finds wins.
+			if (!index.containsKey(node.getName())) {
+				index.put(node.getName(), node.getSnapshot().getVal());
+			}
+			VirtualMachineSnapshotTree[] childTree =
+					node.getChildSnapshotList();
+			if (childTree != null) {
+				indexSnapshotTree(childTree, index);
 			}
 		}
-		return null;
 	}
 
+	/**
+	 * @return The key that identifies the VM in the {@link SnapshotIndex}.
+	 */
+	private String snapshotIndexKey(VirtualMachine vm) {
+		return server + "/" + vm.getMOR().getVal();
+	}
+
+	/**
+	 * Finds a VM's snapshot by name. The VM's snapshot tree is only fetched
+	 * and searched if the {@link SnapshotIndex} doesn't already know the
+	 * answer.
+	 *
+	 * @param vm The VM.
+	 * @param snapName The name of the snapshot.
+	 * @return The snapshot, or null if there's no such snapshot.
+	 */
 	public VirtualMachineSnapshot getSnapshotInTree(
-			VirtualMachine vm, String snapName) {
+			final VirtualMachine vm, String snapName) {
 		if (vm == null || snapName == null) {
 			return null;
 		}
 
 		LOGGER.log(Level.FINER, "Looking for snapshot " + snapName + " in " + vm.getName() );
-		VirtualMachineSnapshotInfo info = vm.getSnapshot();
-		if (info != null)
-		{
-			VirtualMachineSnapshotTree[] snapTree =
-					info.getRootSnapshotList();
-			if (snapTree != null) {
-				ManagedObjectReference mor = findSnapshotInTree(
-						snapTree, snapName);
-				if (mor != null) {
-					return new VirtualMachineSnapshot(
-							vm.getServerConnection(), mor);
+		final String morValue = SnapshotIndex.get().find(snapshotIndexKey(vm), snapName, new SnapshotIndex.Loader() {
+			@Override
+			public Map<String, String> load() {
+				final Map<String, String> index = new HashMap<String, String>();
+				VirtualMachineSnapshotInfo info = vm.getSnapshot();
+				if (info != null && info.getRootSnapshotList() != null) {
+					indexSnapshotTree(info.getRootSnapshotList(), index);
 				}
+				return index;
 			}
+		});
+		if (morValue == null) {
+			return null;
 		}
+		final ManagedObjectReference mor = new ManagedObjectReference();
+		mor.setType("VirtualMachineSnapshot");
+		mor.setVal(morValue);
+		return new VirtualMachineSnapshot(vm.getServerConnection(), mor);
+	}
 
-		return null;
+	/**
+	 * Finds a VM's snapshot again once vSphere has told us that the one
+	 * {@link #getSnapshotInTree(VirtualMachine, String)} found doesn't exist,
+	 * i.e. it was removed outside of Jenkins and the {@link SnapshotIndex}
+	 * hadn't noticed.
+	 *
+	 * @param vm The VM.
+	 * @param snapName The name of the snapshot.
+	 * @return The snapshot, or null if there's no such snapshot.
+	 */
+	private VirtualMachineSnapshot reloadSnapshotInTree(VirtualMachine vm, String snapName) {
+		LOGGER.log(Level.FINE, "Snapshot " + snapName + " of " + vm.getName() + " has gone; looking for it again");
+		SnapshotIndex.get().invalidate(snapshotIndexKey(vm));
+		return getSnapshotInTree(vm, snapName);
 	}
 
 	public void revertToSnapshot(String vmName, String snapName) throws VSphereException{
+		revertToSnapshot(getVmByName(vmName), snapName);
+	}
+
+	/**
+	 * Reverts a VM that we've already looked up to one of its snapshots.
+	 *
+	 * @param vm The VM.
+	 * @param snapName The name of the snapshot.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public void revertToSnapshot(final VirtualMachine vm, final String snapName) throws VSphereException {
+		timed("revertToSnapshot", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				revertToSnapshotImpl(vm, snapName);
+				return null;
+			}
+		});
+	}
+
+	private void revertToSnapshotImpl(VirtualMachine vm, String snapName) throws VSphereException{
 
-		VirtualMachine vm = getVmByName(vmName);
 		VirtualMachineSnapshot snap = getSnapshotInTree(vm, snapName);
 
 		if (snap == null) {
@@ -440,8 +761,19 @@ public class VSphere {
 		}
 
 		try{
-			Task task = snap.revertToSnapshot_Task(null);
-			if (!task.waitForTask().equals(Task.SUCCESS)) {
+			final long requested = System.nanoTime();
+			Task task;
+			try {
+				task = snap.revertToSnapshot_Task(null);
+			} catch (ManagedObjectNotFound e) {
+				snap = reloadSnapshotInTree(vm, snapName);
+				if (snap == null) {
+					throw new VSphereException("Virtual Machine snapshot cannot be found", e);
+				}
+				task = snap.revertToSnapshot_Task(null);
+			}
+			reportResponseTime(requested);
+			if (!waitForTask(task).equals(Task.SUCCESS)) {
 				final String msg = "Could not revert to snapshot '" + snap.toString() + "' for virtual machine:'" + vm.getName()+"'";
 				LOGGER.log(Level.SEVERE, msg);
 				throw newVSphereException(task.getTaskInfo(), msg);
@@ -453,9 +785,62 @@ public class VSphere {
 		}
 	}
 
+	/**
+	 * Reverts a VM that we've already looked up to its current snapshot.
+	 *
+	 * @param vm The VM.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public void revertToCurrentSnapshot(final VirtualMachine vm) throws VSphereException {
+		timed("revertToCurrentSnapshot", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				revertToCurrentSnapshotImpl(vm);
+				return null;
+			}
+		});
+	}
+
+	private void revertToCurrentSnapshotImpl(VirtualMachine vm) throws VSphereException{
+		try{
+			final long requested = System.nanoTime();
+			final Task task = vm.revertToCurrentSnapshot_Task(null);
+			reportResponseTime(requested);
+			if (!waitForTask(task).equals(Task.SUCCESS)) {
+				throw newVSphereException(task.getTaskInfo(), "Could not revert virtual machine '" + vm.getName() + "' to its current snapshot");
+			}
+		} catch(RuntimeException | VSphereException e){
+			throw e;
+		}catch(Exception e){
+			throw new VSphereException(e);
+		}
+	}
+
 	public void deleteSnapshot(String vmName, String snapName, boolean consolidate, boolean failOnNoExist) throws VSphereException{
+		deleteSnapshot(getVmByName(vmName), snapName, consolidate, failOnNoExist);
+	}
+
+	/**
+	 * Deletes one of the snapshots of a VM that we've already looked up.
+	 *
+	 * @param vm The VM.
+	 * @param snapName The name of the snapshot.
+	 * @param consolidate If true, the VM's disks are consolidated afterwards.
+	 * @param failOnNoExist If true, it's an error for the snapshot not to exist.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public void deleteSnapshot(final VirtualMachine vm, final String snapName, final boolean consolidate, final boolean failOnNoExist) throws VSphereException {
+		timed("deleteSnapshot", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				deleteSnapshotImpl(vm, snapName, consolidate, failOnNoExist);
+				return null;
+			}
+		});
+	}
+
+	private void deleteSnapshotImpl(VirtualMachine vm, String snapName, boolean consolidate, boolean failOnNoExist) throws VSphereException{
 
-		VirtualMachine vm = getVmByName(vmName);
 		VirtualMachineSnapshot snap = getSnapshotInTree(vm, snapName);
 
 		if (snap == null && failOnNoExist) {
@@ -465,11 +850,26 @@ public class VSphere {
 		try{
 
 			Task task;
+			long requested;
 			if (snap!=null){
 				//Does not delete subtree; Implicitly consolidates disk
-				task = snap.removeSnapshot_Task(false);
-				if (!task.waitForTask().equals(Task.SUCCESS)) {
-					throw newVSphereException(task.getTaskInfo(), "Could not delete snapshot");
+				requested = System.nanoTime();
+				try {
+					task = snap.removeSnapshot_Task(false);
+				} catch (ManagedObjectNotFound e) {
+					snap = reloadSnapshotInTree(vm, snapName);
+					if (snap == null && failOnNoExist) {
+						throw new VSphereException("Virtual Machine snapshot cannot be found", e);
+					}
+					task = snap == null ? null : snap.removeSnapshot_Task(false);
+				}
+				reportResponseTime(requested);
+				if (task != null) {
+					final String status = waitForTask(task);
+					SnapshotIndex.get().invalidate(snapshotIndexKey(vm));
+					if (!status.equals(Task.SUCCESS)) {
+						throw newVSphereException(task.getTaskInfo(), "Could not delete snapshot");
+					}
 				}
 			}
 
@@ -478,8 +878,10 @@ public class VSphere {
 
 			//This might be redundant, but I think it consolidates all disks,
 			//where as the removeSnapshot only consolidates the individual disk
+			requested = System.nanoTime();
 			task = vm.consolidateVMDisks_Task();
-			if (!task.waitForTask().equals(Task.SUCCESS)) {
+			reportResponseTime(requested);
+			if (!waitForTask(task).equals(Task.SUCCESS)) {
 				throw newVSphereException(task.getTaskInfo(), "Could not consolidate VM disks");
 			}
 		} catch(RuntimeException | VSphereException e){
@@ -490,15 +892,42 @@ public class VSphere {
 	}
 
 	public void takeSnapshot(String vmName, String snapshot, String description, boolean snapMemory) throws VSphereException{
+		final VirtualMachine vmToSnapshot = getVmByName(vmName);
+		if (vmToSnapshot == null) {
+			throw new VSphereException("Vm " + vmName + " was not found");
+		}
+		takeSnapshot(vmToSnapshot, snapshot, description, snapMemory);
+	}
+
+	/**
+	 * Takes a snapshot of a VM that we've already looked up.
+	 *
+	 * @param vmToSnapshot The VM.
+	 * @param snapshot The name of the new snapshot.
+	 * @param description The description of the new snapshot.
+	 * @param snapMemory If true, the VM's memory is included in the snapshot.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public void takeSnapshot(final VirtualMachine vmToSnapshot, final String snapshot, final String description, final boolean snapMemory) throws VSphereException {
+		timed("takeSnapshot", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				takeSnapshotImpl(vmToSnapshot, snapshot, description, snapMemory);
+				return null;
+			}
+		});
+	}
+
+	private void takeSnapshotImpl(VirtualMachine vmToSnapshot, String snapshot, String description, boolean snapMemory) throws VSphereException{
 
         final String message = "Could not take snapshot";
-            VirtualMachine vmToSnapshot = getVmByName(vmName);
-            if (vmToSnapshot == null) {
-                throw new VSphereException("Vm " + vmName + " was not found");
-            }
         try {
+			final long requested = System.nanoTime();
 			Task task = vmToSnapshot.createSnapshot_Task(snapshot, description, snapMemory, !snapMemory);
-			if (task.waitForTask().equals(Task.SUCCESS)) {
+			reportResponseTime(requested);
+			final String status = waitForTask(task);
+			SnapshotIndex.get().invalidate(snapshotIndexKey(vmToSnapshot));
+			if (status.equals(Task.SUCCESS)) {
 				return;
 			}
 			throw newVSphereException(task.getTaskInfo(), message);
@@ -509,7 +938,17 @@ public class VSphere {
         }
 	}
 
-	public void markAsTemplate(String vmName, String snapName, boolean force) throws VSphereException {
+	public void markAsTemplate(final String vmName, final String snapName, final boolean force) throws VSphereException {
+		timed("markAsTemplate", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				markAsTemplateImpl(vmName, snapName, force);
+				return null;
+			}
+		});
+	}
+
+	private void markAsTemplateImpl(String vmName, String snapName, boolean force) throws VSphereException {
 
 		final String message = "Could not mark as Template. Check it's power state or select \"force.\"";
 		try{
@@ -528,7 +967,17 @@ public class VSphere {
 		throw new VSphereException(message);
 	}
 
-	public void markAsVm(String name, String resourcePool, String cluster) throws VSphereException{
+	public void markAsVm(final String name, final String resourcePool, final String cluster) throws VSphereException {
+		timed("markAsVm", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				markAsVmImpl(name, resourcePool, cluster);
+				return null;
+			}
+		});
+	}
+
+	private void markAsVmImpl(String name, String resourcePool, String cluster) throws VSphereException{
 		try{
 			VirtualMachine vm = getVmByName(name);
 			if(vm.getConfig().template){
@@ -547,40 +996,83 @@ public class VSphere {
 	 * 
 	 * @param vm VirtualMachine name whose IP is to be returned.
 	 * @param timeout How long to wait (in seconds) for the IP address to known to vSphere.
-	 * @return String containing IP address.
+	 * @return String containing IP address, or null if it didn't become known in time (or we were interrupted).
 	 * @throws VSphereException If an error occurred.
 	 */
-	public String getIp(VirtualMachine vm, int timeout) throws VSphereException {
+	public String getIp(final VirtualMachine vm, final int timeout) throws VSphereException {
+		return timed("getIp", new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return waitForIpAddress(vm, null, TimeUnit.SECONDS.toMillis(timeout));
+			}
+		});
+	}
 
+	/**
+	 * Waits for a VM to have an IPv4 address.
+	 *
+	 * @param vm The VM.
+	 * @param timeoutMillis How long to wait, or {@link Long#MAX_VALUE} to wait until interrupted.
+	 * @return The address, or null if it didn't become known in time (or we were interrupted).
+	 * @throws VSphereException If an error occurred.
+	 */
+	public String waitForIpv4(final VirtualMachine vm, final long timeoutMillis) throws VSphereException {
+		return timed("waitForIpv4", new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return waitForIpAddress(vm, IPV4_ADDRESS, timeoutMillis);
+			}
+		});
+	}
+
+	private String waitForIpAddress(VirtualMachine vm, Pattern wanted, long timeoutMillis) throws VSphereException {
 		if (vm==null)
 			throw new VSphereException("VM is null");
+		// vCenter tells us when the address changes, so there's no polling.
+		// Our permit is given up for the wait, as it could take minutes.
+		try (VSphereRequestScheduler.Pause pause = scheduler.pause()) {
+			final Map<String, Object> properties = VirtualMachineStateWaiter.waitForProperties(vm,
+					new String[] { VirtualMachineStateWaiter.IP_ADDRESS }, VirtualMachineStateWaiter.ipAddress(wanted),
+					timeoutMillis);
+			return properties == null ? null : String.valueOf(properties.get(VirtualMachineStateWaiter.IP_ADDRESS));
+		} catch (RemoteException e) {
+			throw new VSphereException(e);
+		}
+	}
 
-		//Determine how many attempts will be made to fetch the IP address
-		final int waitSeconds = 5;
-		final int maxTries;
-		if (timeout<=waitSeconds)
-			maxTries = 1;
-		else
-			maxTries = (int) Math.round((double)timeout / waitSeconds);
-
-		for(int count=0; count<maxTries; count++){
-
-            GuestInfo guestInfo = vm.getGuest();
-
-            // guest info can be null sometimes
-			if (guestInfo != null && guestInfo.getIpAddress() != null){
-				return guestInfo.getIpAddress();
+	/**
+	 * Asks vSphere for some of a VM's properties, all in one request, without
+	 * fetching the (potentially large) objects that contain them.
+	 *
+	 * @param vm The VM.
+	 * @param propertyPaths The properties wanted, e.g. "guest.hostName".
+	 * @return The values, keyed by property path. Properties that have no value are missing.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public Map<String, Object> getVmProperties(final VirtualMachine vm, final String... propertyPaths) throws VSphereException {
+		return timed("getVmProperties", new Callable<Map<String, Object>>() {
+			@Override
+			public Map<String, Object> call() throws Exception {
+				return getVmPropertiesImpl(vm, propertyPaths);
 			}
+		});
+	}
 
+	private Map<String, Object> getVmPropertiesImpl(VirtualMachine vm, String... propertyPaths) throws VSphereException {
+		if (vm==null)
+			throw new VSphereException("VM is null");
+		final Map<String, Object> properties = new HashMap<String, Object>();
+		if (propertyPaths.length > 0) {
 			try {
-				//wait
-				Thread.sleep(waitSeconds * 1000);
-			} catch (InterruptedException e) { // build aborted
-				Thread.currentThread().interrupt(); // pass interrupt upwards
-				break; // and abort our activities now.
+				final Map<?, ?> values = vm.getPropertiesByPaths(propertyPaths);
+				for (final Map.Entry<?, ?> entry : values.entrySet()) {
+					properties.put(String.valueOf(entry.getKey()), entry.getValue());
+				}
+			} catch (Exception e) {
+				throw new VSphereException(e);
 			}
 		}
-		return null;
+		return properties;
 	}
 
 	/**
@@ -588,7 +1080,16 @@ public class VSphere {
 	 * @return - VirtualMachine object
 	 * @throws VSphereException If an error occurred.
 	 */
-	public VirtualMachine getVmByName(String vmName) throws VSphereException {
+	public VirtualMachine getVmByName(final String vmName) throws VSphereException {
+		return timed("getVmByName", new Callable<VirtualMachine>() {
+			@Override
+			public VirtualMachine call() throws Exception {
+				return getVmByNameImpl(vmName);
+			}
+		});
+	}
+
+	private VirtualMachine getVmByNameImpl(String vmName) throws VSphereException {
 		try {
 			return (VirtualMachine) new InventoryNavigator(
 					getServiceInstance().getRootFolder()).searchManagedEntity(
@@ -598,7 +1099,63 @@ public class VSphere {
 		}
 	}
 
+	/**
+	 * Looks up all the VMs (but not templates) in a folder, or everywhere,
+	 * using a single request to vSphere rather than one per VM.
+	 *
+	 * @param folderPath (Optional) The folder to look in, including its
+	 *            sub-folders, or null to look everywhere.
+	 * @return The VMs, keyed by name, sorted by name.
+	 * @throws VSphereException If an error occurred, or the folder doesn't exist.
+	 */
+	public Map<String, VirtualMachine> getVmsByName(@CheckForNull final String folderPath) throws VSphereException {
+		return timed("getVmsByName", new Callable<Map<String, VirtualMachine>>() {
+			@Override
+			public Map<String, VirtualMachine> call() throws Exception {
+				return getVmsByNameImpl(folderPath);
+			}
+		});
+	}
+
+	private Map<String, VirtualMachine> getVmsByNameImpl(@CheckForNull String folderPath) throws VSphereException {
+		try {
+			final ServiceInstance si = getServiceInstance();
+			final ManagedEntity root;
+			if (StringUtils.isBlank(folderPath)) {
+				root = si.getRootFolder();
+			} else {
+				root = getFolder(folderPath);
+				if (root == null) {
+					throw new VSphereException("Folder \"" + folderPath + "\" does not exist");
+				}
+			}
+			final Map<String, VirtualMachine> result = new TreeMap<String, VirtualMachine>();
+			for (final ObjectContent content : retrieveProperties(si, root, propertySpec("VirtualMachine", "name", "config.template"))) {
+				final Map<String, Object> properties = propertiesOf(content);
+				final String name = (String) properties.get("name");
+				final boolean isTemplate = Boolean.TRUE.equals(properties.get("config.template"));
+				if (name != null && !isTemplate) {
+					result.put(name, new VirtualMachine(si.getServerConnection(), content.getObj()));
+				}
+			}
+			return result;
+		} catch(RuntimeException | VSphereException e){
+			throw e;
+		} catch (Exception e) {
+			throw new VSphereException(e);
+		}
+	}
+
         public int countVms() throws VSphereException {
+            return timed("countVms", new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return countVmsImpl();
+                }
+            });
+        }
+
+        private int countVmsImpl() throws VSphereException {
             int count = 0;
             try {
                 final InventoryNavigator navigator = new InventoryNavigator(getServiceInstance().getRootFolder());
@@ -611,6 +1168,15 @@ public class VSphere {
         }
 
         public int countVmsByPrefix(final String prefix) throws VSphereException {
+            return timed("countVmsByPrefix", new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return countVmsByPrefixImpl(prefix);
+                }
+            });
+        }
+
+        private int countVmsByPrefixImpl(final String prefix) throws VSphereException {
             int count = 0;
             try {
                 final InventoryNavigator navigator = new InventoryNavigator(getServiceInstance().getRootFolder());
@@ -654,7 +1220,16 @@ public class VSphere {
     /*
      Check if folder exists along all the vSphere folders
      */
-    public Boolean folderExists(String folderPath) throws VSphereException {
+    public Boolean folderExists(final String folderPath) throws VSphereException {
+        return timed("folderExists", new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return folderExistsImpl(folderPath);
+            }
+        });
+    }
+
+    private Boolean folderExistsImpl(String folderPath) throws VSphereException {
         try {
             String[] folderHierarchy = folderPath.split("/");
             ManagedEntity folder = null;
@@ -676,7 +1251,16 @@ public class VSphere {
         }
     }
 
-    public Folder getFolder(String folderPath) throws VSphereException {
+    public Folder getFolder(final String folderPath) throws VSphereException {
+        return timed("getFolder", new Callable<Folder>() {
+            @Override
+            public Folder call() throws Exception {
+                return getFolderImpl(folderPath);
+            }
+        });
+    }
+
+    private Folder getFolderImpl(String folderPath) throws VSphereException {
         try {
             String[] folderHierarchy = folderPath.split("/");
             ManagedEntity folder = null;
@@ -696,6 +1280,15 @@ public class VSphere {
     }
     
     public CustomizationSpecItem getCustomizationSpecByName(final String customizationSpecName) throws VSphereException {
+        return timed("getCustomizationSpecByName", new Callable<CustomizationSpecItem>() {
+            @Override
+            public CustomizationSpecItem call() throws Exception {
+                return getCustomizationSpecByNameImpl(customizationSpecName);
+            }
+        });
+    }
+
+    private CustomizationSpecItem getCustomizationSpecByNameImpl(final String customizationSpecName) throws VSphereException {
         try {
             ServerConnection conn = getServiceInstance().getServerConnection();
             CustomizationSpecManager mgr = new CustomizationSpecManager(
@@ -713,6 +1306,15 @@ public class VSphere {
 	 * @throws VSphereException If an error occurred.
 	 */
 	public ManagedEntity[] getDatastores() throws VSphereException {
+		return timed("getDatastores", new Callable<ManagedEntity[]>() {
+			@Override
+			public ManagedEntity[] call() throws Exception {
+				return getDatastoresImpl();
+			}
+		});
+	}
+
+	private ManagedEntity[] getDatastoresImpl() throws VSphereException {
 		try {
 			return new InventoryNavigator(
 					getServiceInstance().getRootFolder()).searchManagedEntities(
@@ -722,6 +1324,381 @@ public class VSphere {
 		}
 	}
 
+	/**
+	 * Finds out how full every datastore is, using a single request to
+	 * vSphere rather than one per datastore.
+	 *
+	 * @return The statistics, keyed by datastore name.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public Map<String, DatastoreCapacity> getDatastoreCapacities() throws VSphereException {
+		return timed("getDatastoreCapacities", new Callable<Map<String, DatastoreCapacity>>() {
+			@Override
+			public Map<String, DatastoreCapacity> call() throws Exception {
+				return getDatastoreCapacitiesImpl();
+			}
+		});
+	}
+
+	private Map<String, DatastoreCapacity> getDatastoreCapacitiesImpl() throws VSphereException {
+		try {
+			final ServiceInstance si = getServiceInstance();
+			final ObjectContent[] contents = retrieveProperties(si, si.getRootFolder(), propertySpec("Datastore",
+					"summary.name", "summary.capacity", "summary.freeSpace", "summary.accessible"));
+			final long now = System.currentTimeMillis();
+			final Map<String, DatastoreCapacity> result = new TreeMap<String, DatastoreCapacity>();
+			for (final ObjectContent content : contents) {
+				final Map<String, Object> properties = propertiesOf(content);
+				final String name = (String) properties.get("summary.name");
+				final Long capacity = (Long) properties.get("summary.capacity");
+				final Long freeSpace = (Long) properties.get("summary.freeSpace");
+				final boolean isAccessible = Boolean.TRUE.equals(properties.get("summary.accessible"));
+				if (name != null && capacity != null && freeSpace != null) {
+					result.put(name, new DatastoreCapacity(name, capacity, freeSpace, isAccessible, now));
+				}
+			}
+			return result;
+		} catch (Exception e) {
+			throw new VSphereException(e);
+		}
+	}
+
+	/**
+	 * Finds out whether any other VM is a linked clone of the given VM, i.e.
+	 * has a disk based on one of the VM's disks, in which case deleting the
+	 * VM would break the other VM. This looks at every VM's disks, using a
+	 * single request to vSphere.
+	 *
+	 * @param vmName The name of the VM.
+	 * @return true if the VM has linked clones, false if it doesn't (or doesn't exist).
+	 * @throws VSphereException If an error occurred.
+	 */
+	public boolean hasLinkedClones(final String vmName) throws VSphereException {
+		return timed("hasLinkedClones", new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return hasLinkedClonesImpl(vmName);
+			}
+		});
+	}
+
+	private boolean hasLinkedClonesImpl(String vmName) throws VSphereException {
+		try {
+			final VirtualMachine vm = getVmByName(vmName);
+			if (vm == null) {
+				return false;
+			}
+			final Set<String> diskFiles = new HashSet<String>();
+			final VirtualMachineFileLayoutEx layout = vm.getLayoutEx();
+			if (layout != null && layout.getFile() != null) {
+				for (final VirtualMachineFileLayoutExFileInfo file : layout.getFile()) {
+					if ("diskDescriptor".equals(file.getType())) {
+						diskFiles.add(file.getName());
+					}
+				}
+			}
+			if (diskFiles.isEmpty()) {
+				return false;
+			}
+			final ServiceInstance si = getServiceInstance();
+			for (final ObjectContent content : retrieveProperties(si, si.getRootFolder(), propertySpec("VirtualMachine", "config.hardware.device"))) {
+				if (vm.getMOR().getVal().equals(content.getObj().getVal())) {
+					continue;
+				}
+				final Object devices = propertiesOf(content).get("config.hardware.device");
+				if (devices instanceof ArrayOfVirtualDevice
+						&& isBasedOnAny(((ArrayOfVirtualDevice) devices).getVirtualDevice(), diskFiles)) {
+					return true;
+				}
+			}
+			return false;
+		} catch(RuntimeException | VSphereException e){
+			throw e;
+		} catch (Exception e) {
+			throw new VSphereException(e);
+		}
+	}
+
+	/**
+	 * @param devices A VM's devices.
+	 * @param diskFiles The files of another VM's disks.
+	 * @return true if any of the VM's disks has one of the files as a parent.
+	 */
+	static boolean isBasedOnAny(VirtualDevice[] devices, Set<String> diskFiles) {
+		if (devices == null) {
+			return false;
+		}
+		for (final VirtualDevice device : devices) {
+			if (!(device instanceof VirtualDisk) || !(device.getBacking() instanceof VirtualDiskFlatVer2BackingInfo)) {
+				continue;
+			}
+			VirtualDiskFlatVer2BackingInfo parent = ((VirtualDiskFlatVer2BackingInfo) device.getBacking()).getParent();
+			while (parent != null) {
+				if (diskFiles.contains(parent.getFileName())) {
+					return true;
+				}
+				parent = parent.getParent();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads some of the properties of every managed object of the given types
+	 * beneath a given entity, using a single request to vSphere.
+	 *
+	 * @param si Our connection to vSphere.
+	 * @param root Where to look, including everything beneath it.
+	 * @param propertySpecs What to read for each type of managed object (see
+	 *            {@link #propertySpec(String, String...)}).
+	 * @return One entry per object found, which may be none.
+	 * @throws RemoteException If an error occurred.
+	 */
+	private static ObjectContent[] retrieveProperties(ServiceInstance si, ManagedEntity root, PropertySpec... propertySpecs) throws RemoteException {
+		final String[] types = new String[propertySpecs.length];
+		for (int i = 0; i < propertySpecs.length; i++) {
+			types[i] = propertySpecs[i].getType();
+		}
+		final ContainerView view = si.getViewManager().createContainerView(root, types, true);
+		try {
+			final TraversalSpec traverseView = new TraversalSpec();
+			traverseView.setName("traverseView");
+			traverseView.setType("ContainerView");
+			traverseView.setPath("view");
+			traverseView.setSkip(Boolean.FALSE);
+			final ObjectSpec objectSpec = new ObjectSpec();
+			objectSpec.setObj(view.getMOR());
+			objectSpec.setSkip(Boolean.TRUE);
+			objectSpec.setSelectSet(new SelectionSpec[] { traverseView });
+			final PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+			filterSpec.setObjectSet(new ObjectSpec[] { objectSpec });
+			filterSpec.setPropSet(propertySpecs);
+			final ObjectContent[] contents = si.getPropertyCollector().retrieveProperties(new PropertyFilterSpec[] { filterSpec });
+			return contents == null ? new ObjectContent[0] : contents;
+		} finally {
+			view.destroyView();
+		}
+	}
+
+	/**
+	 * @param type The type of managed object, e.g. "VirtualMachine".
+	 * @param propertyPaths The properties to read.
+	 * @return What {@link #retrieveProperties(ServiceInstance, ManagedEntity, PropertySpec...)}
+	 *         should read for that type of object.
+	 */
+	private static PropertySpec propertySpec(String type, String... propertyPaths) {
+		final PropertySpec propertySpec = new PropertySpec();
+		propertySpec.setType(type);
+		propertySpec.setPathSet(propertyPaths);
+		return propertySpec;
+	}
+
+	/**
+	 * @return The properties that {@link #retrieveProperties(ServiceInstance, ManagedEntity, PropertySpec...)}
+	 *         read for one object, keyed by property path.
+	 */
+	private static Map<String, Object> propertiesOf(ObjectContent content) {
+		final Map<String, Object> result = new HashMap<String, Object>();
+		if (content.getPropSet() != null) {
+			for (final DynamicProperty property : content.getPropSet()) {
+				result.put(property.getName(), property.getVal());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The selector that chooses datastores for new disks on this vCenter.
+	 */
+	public DatastoreSelector getDatastoreSelector() {
+		return DatastoreSelector.forServer(url.toString());
+	}
+
+	/**
+	 * Works out how busy a cluster is by adding up the CPU and memory
+	 * statistics of all of its connected hosts.
+	 *
+	 * @param clusterName - Name of the cluster
+	 * @return ClusterCapacity, or null if the cluster does not exist.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public ClusterCapacity getClusterCapacity(final String clusterName) throws VSphereException {
+		return timed("getClusterCapacity", new Callable<ClusterCapacity>() {
+			@Override
+			public ClusterCapacity call() throws Exception {
+				return getClusterCapacityImpl(clusterName);
+			}
+		});
+	}
+
+	private ClusterCapacity getClusterCapacityImpl(String clusterName) throws VSphereException {
+		try {
+			final ClusterComputeResource cluster = getClusterByName(clusterName);
+			if (cluster == null) {
+				return null;
+			}
+			final List<HostListSummary> hostSummaries = new ArrayList<HostListSummary>();
+			final HostSystem[] hosts = cluster.getHosts();
+			if (hosts != null) {
+				for (final HostSystem host : hosts) {
+					hostSummaries.add(host.getSummary());
+				}
+			}
+			final Set<String> datastoreNames = new TreeSet<String>();
+			final Datastore[] datastores = cluster.getDatastores();
+			if (datastores != null) {
+				for (final Datastore datastore : datastores) {
+					datastoreNames.add(datastore.getName());
+				}
+			}
+			return toClusterCapacity(clusterName, hostSummaries, datastoreNames, System.currentTimeMillis());
+		} catch (Exception e) {
+			throw new VSphereException(e);
+		}
+	}
+
+	/**
+	 * Works out how busy every cluster is, as {@link #getClusterCapacity(String)}
+	 * does, but reads every cluster, host and datastore using a single request
+	 * to vSphere rather than several per cluster.
+	 *
+	 * @return The statistics, keyed by cluster name.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public Map<String, ClusterCapacity> getClusterCapacities() throws VSphereException {
+		return timed("getClusterCapacities", new Callable<Map<String, ClusterCapacity>>() {
+			@Override
+			public Map<String, ClusterCapacity> call() throws Exception {
+				return getClusterCapacitiesImpl();
+			}
+		});
+	}
+
+	private Map<String, ClusterCapacity> getClusterCapacitiesImpl() throws VSphereException {
+		try {
+			final ServiceInstance si = getServiceInstance();
+			final ObjectContent[] contents = retrieveProperties(si, si.getRootFolder(),
+					propertySpec("ClusterComputeResource", "name", "host", "datastore"),
+					propertySpec("HostSystem", "summary"),
+					propertySpec("Datastore", "name"));
+			final List<Map<String, Object>> clusters = new ArrayList<Map<String, Object>>();
+			final Map<String, HostListSummary> hostSummaries = new HashMap<String, HostListSummary>();
+			final Map<String, String> datastoreNames = new HashMap<String, String>();
+			for (final ObjectContent content : contents) {
+				final ManagedObjectReference mor = content.getObj();
+				final Map<String, Object> properties = propertiesOf(content);
+				if ("ClusterComputeResource".equals(mor.getType())) {
+					clusters.add(properties);
+				} else if ("HostSystem".equals(mor.getType())) {
+					hostSummaries.put(mor.getVal(), (HostListSummary) properties.get("summary"));
+				} else if ("Datastore".equals(mor.getType())) {
+					datastoreNames.put(mor.getVal(), (String) properties.get("name"));
+				}
+			}
+			final long now = System.currentTimeMillis();
+			final Map<String, ClusterCapacity> result = new TreeMap<String, ClusterCapacity>();
+			for (final Map<String, Object> properties : clusters) {
+				final String name = (String) properties.get("name");
+				if (name == null) {
+					continue;
+				}
+				final List<HostListSummary> clusterHosts = new ArrayList<HostListSummary>();
+				for (final ManagedObjectReference host : referencesIn(properties.get("host"))) {
+					clusterHosts.add(hostSummaries.get(host.getVal()));
+				}
+				final Set<String> clusterDatastores = new TreeSet<String>();
+				for (final ManagedObjectReference datastore : referencesIn(properties.get("datastore"))) {
+					final String datastoreName = datastoreNames.get(datastore.getVal());
+					if (datastoreName != null) {
+						clusterDatastores.add(datastoreName);
+					}
+				}
+				result.put(name, toClusterCapacity(name, clusterHosts, clusterDatastores, now));
+			}
+			return result;
+		} catch (Exception e) {
+			throw new VSphereException(e);
+		}
+	}
+
+	private static ManagedObjectReference[] referencesIn(Object propertyValue) {
+		if (propertyValue instanceof ArrayOfManagedObjectReference) {
+			final ManagedObjectReference[] references = ((ArrayOfManagedObjectReference) propertyValue).getManagedObjectReference();
+			if (references != null) {
+				return references;
+			}
+		}
+		return new ManagedObjectReference[0];
+	}
+
+	/**
+	 * Adds up the CPU and memory statistics of a cluster's connected hosts.
+	 *
+	 * @param clusterName The name of the cluster.
+	 * @param hostSummaries The summaries of the cluster's hosts. Hosts we know
+	 *            nothing about (null entries) are ignored.
+	 * @param datastoreNames The names of the cluster's datastores.
+	 * @param now When the statistics were read.
+	 * @return The cluster's statistics.
+	 */
+	static ClusterCapacity toClusterCapacity(String clusterName, List<HostListSummary> hostSummaries,
+			Set<String> datastoreNames, long now) {
+		long cpuCapacityMhz = 0;
+		long cpuUsageMhz = 0;
+		long memoryCapacityMB = 0;
+		long memoryUsageMB = 0;
+		for (final HostListSummary summary : hostSummaries) {
+			if (summary == null || summary.getHardware() == null || summary.getQuickStats() == null) {
+				continue;
+			}
+			final HostRuntimeInfo runtime = summary.getRuntime();
+			if (runtime != null && (runtime.isInMaintenanceMode()
+					|| runtime.getConnectionState() != HostSystemConnectionState.connected)) {
+				continue;
+			}
+			final HostHardwareSummary hardware = summary.getHardware();
+			final HostListSummaryQuickStats quickStats = summary.getQuickStats();
+			cpuCapacityMhz += ((long) hardware.getCpuMhz()) * hardware.getNumCpuCores();
+			memoryCapacityMB += hardware.getMemorySize() / (1024L * 1024L);
+			if (quickStats.getOverallCpuUsage() != null) {
+				cpuUsageMhz += quickStats.getOverallCpuUsage().longValue();
+			}
+			if (quickStats.getOverallMemoryUsage() != null) {
+				memoryUsageMB += quickStats.getOverallMemoryUsage().longValue();
+			}
+		}
+		return new ClusterCapacity(clusterName, cpuCapacityMhz, cpuUsageMhz, memoryCapacityMB, memoryUsageMB,
+				datastoreNames, now);
+	}
+
+	/**
+	 * @param datastoreName - Name of the datastore
+	 * @return DatastoreCapacity, or null if the datastore does not exist.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public DatastoreCapacity getDatastoreCapacity(final String datastoreName) throws VSphereException {
+		return timed("getDatastoreCapacity", new Callable<DatastoreCapacity>() {
+			@Override
+			public DatastoreCapacity call() throws Exception {
+				return getDatastoreCapacityImpl(datastoreName);
+			}
+		});
+	}
+
+	private DatastoreCapacity getDatastoreCapacityImpl(String datastoreName) throws VSphereException {
+		try {
+			final Datastore datastore = getDatastoreByName(datastoreName, null);
+			if (datastore == null) {
+				return null;
+			}
+			final DatastoreSummary summary = datastore.getSummary();
+			return new DatastoreCapacity(datastoreName, summary.getCapacity(), summary.getFreeSpace(),
+					summary.isAccessible(), System.currentTimeMillis());
+		} catch (Exception e) {
+			throw new VSphereException(e);
+		}
+	}
+
 	/**
 	 * @param poolName - Name of pool to use
 	 * @return - ResourcePool object
@@ -777,22 +1754,44 @@ public class VSphere {
 	 * @throws VSphereException If an error occurred.
 	 */
 	public void destroyVm(String name, boolean failOnNoExist) throws VSphereException{
-		try{
-			VirtualMachine vm = getVmByName(name);
-			if(vm==null){
-				if(failOnNoExist) throw new VSphereException("VM \"" + name + "\" does not exist");
+		final VirtualMachine vm = getVmByName(name);
+		if(vm==null){
+			if(failOnNoExist) throw new VSphereException("VM \"" + name + "\" does not exist");
 
-				LOGGER.log(Level.FINER, "VM \"" + name + "\" does not exist, or already deleted!");
-				return;
-			}
+			LOGGER.log(Level.FINER, "VM \"" + name + "\" does not exist, or already deleted!");
+			return;
+		}
+		destroyVm(vm, name);
+	}
 
+	/**
+	 * Powers off (if necessary) and deletes a VM that we've already looked up.
+	 *
+	 * @param vm The VM.
+	 * @param name The VM's name, for reporting purposes.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public void destroyVm(final VirtualMachine vm, final String name) throws VSphereException {
+		timed("destroyVm", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				destroyVmImpl(vm, name);
+				return null;
+			}
+		});
+	}
 
+	private void destroyVmImpl(VirtualMachine vm, String name) throws VSphereException{
+		try{
 			if(!vm.getConfig().template) {
                 powerOffVm(vm, true, false);
             }
 
+			final long requested = System.nanoTime();
 			final Task task = vm.destroy_Task();
-			String status = task.waitForTask();
+			reportResponseTime(requested);
+			String status = waitForTask(task);
+			SnapshotIndex.get().invalidate(snapshotIndexKey(vm));
 			if(status.equals(Task.SUCCESS))
 			{
 				LOGGER.log(Level.FINER, "VM \"" + name + "\" was deleted successfully.");
@@ -815,7 +1814,17 @@ public class VSphere {
      * @param newDescription the new description of the VM's snapshot.
      * @throws VSphereException If an error occurred.
      */
-    public void renameVmSnapshot(String vmName, String oldName, String newName, String newDescription) throws VSphereException{
+    public void renameVmSnapshot(final String vmName, final String oldName, final String newName, final String newDescription) throws VSphereException {
+        timed("renameVmSnapshot", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                renameVmSnapshotImpl(vmName, oldName, newName, newDescription);
+                return null;
+            }
+        });
+    }
+
+    private void renameVmSnapshotImpl(String vmName, String oldName, String newName, String newDescription) throws VSphereException{
         try{
             VirtualMachine vm = getVmByName(vmName);
             if(vm==null){
@@ -823,8 +1832,20 @@ public class VSphere {
             }
 
             VirtualMachineSnapshot snapshot = getSnapshotInTree(vm, oldName);
+            if(snapshot==null){
+                throw new VSphereException("VM \"" + vmName + "\" has no snapshot called \"" + oldName + "\"");
+            }
 
-            snapshot.renameSnapshot(newName, newDescription);
+            try {
+                snapshot.renameSnapshot(newName, newDescription);
+            } catch (ManagedObjectNotFound e) {
+                snapshot = reloadSnapshotInTree(vm, oldName);
+                if(snapshot==null){
+                    throw new VSphereException("VM \"" + vmName + "\" has no snapshot called \"" + oldName + "\"", e);
+                }
+                snapshot.renameSnapshot(newName, newDescription);
+            }
+            SnapshotIndex.get().invalidate(snapshotIndexKey(vm));
 
             LOGGER.log(Level.FINER, "VM Snapshot was renamed successfully.");
             return;
@@ -842,15 +1863,27 @@ public class VSphere {
      * @param newName the new name of the vm
      * @throws VSphereException If an error occurred.
      */
-    public void renameVm(String oldName, String newName) throws VSphereException{
+    public void renameVm(final String oldName, final String newName) throws VSphereException {
+        timed("renameVm", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                renameVmImpl(oldName, newName);
+                return null;
+            }
+        });
+    }
+
+    private void renameVmImpl(String oldName, String newName) throws VSphereException{
         try{
             VirtualMachine vm = getVmByName(oldName);
             if(vm==null){
                 throw new VSphereException("VM \"" + oldName + "\" does not exist");
             }
 
+            final long requested = System.nanoTime();
             final Task task = vm.rename_Task(newName);
-            final String status = task.waitForTask();
+            reportResponseTime(requested);
+            final String status = waitForTask(task);
             if(status.equals(Task.SUCCESS))
             {
                 LOGGER.log(Level.FINER, "VM was renamed successfully.");
@@ -882,7 +1915,17 @@ public class VSphere {
         return ((status == VirtualMachineToolsStatus.toolsOk) || (status == VirtualMachineToolsStatus.toolsOld));
     }
 
-	public void powerOffVm(VirtualMachine vm, boolean evenIfSuspended, boolean shutdownGracefully) throws VSphereException{
+	public void powerOffVm(final VirtualMachine vm, final boolean evenIfSuspended, final boolean shutdownGracefully) throws VSphereException {
+		timed("powerOffVm", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				powerOffVmImpl(vm, evenIfSuspended, shutdownGracefully);
+				return null;
+			}
+		});
+	}
+
+	private void powerOffVmImpl(VirtualMachine vm, boolean evenIfSuspended, boolean shutdownGracefully) throws VSphereException{
 
 		if(vm.getConfig().template)
 			throw new VSphereException("VM represents a template!");
@@ -897,25 +1940,30 @@ public class VSphere {
                     vm.shutdownGuest();
 
                     // Wait for up to 180 seconds for a shutdown - then shutdown hard.
-                    for (int i = 0; i <= 180; i++) {
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e) { // build aborted
-                            Thread.currentThread().interrupt(); // pass interrupt upwards
-                            throw new VSphereException("VM power-down interrupted", e);
-                        }
-                        if (isPoweredOff(vm)) {
-                            doHardShutdown = false;
-                            LOGGER.log(Level.FINER, "VM gracefully powered down successfully.");
-                            return;
-                        }
+                    // vCenter tells us when the power state changes, so there's
+                    // no polling, and our permit is given up for the whole wait.
+                    final boolean poweredOff;
+                    try (VSphereRequestScheduler.Pause pause = scheduler.pause()) {
+                        poweredOff = VirtualMachineStateWaiter.waitFor(vm,
+                                VirtualMachineStateWaiter.powerState(VirtualMachinePowerState.poweredOff),
+                                GUEST_SHUTDOWN_TIMEOUT_MILLIS);
+                    }
+                    if (Thread.currentThread().isInterrupted()) { // build aborted
+                        throw new VSphereException("VM power-down interrupted");
+                    }
+                    if (poweredOff) {
+                        doHardShutdown = false;
+                        LOGGER.log(Level.FINER, "VM gracefully powered down successfully.");
+                        return;
                     }
                 }
 
                 if (doHardShutdown) {
                     LOGGER.log(Level.FINER, "Powering off the VM");
+                    final long requested = System.nanoTime();
                     final Task task = vm.powerOffVM_Task();
-                    status = task.waitForTask();
+                    reportResponseTime(requested);
+                    status = waitForTask(task);
 
                     if(status.equals(Task.SUCCESS)) {
                         LOGGER.log(Level.FINER, "VM was powered down successfully.");
@@ -937,13 +1985,25 @@ public class VSphere {
 		throw new VSphereException("Machine could not be powered down!");
 	}
 
-	public void suspendVm(VirtualMachine vm) throws VSphereException{
+	public void suspendVm(final VirtualMachine vm) throws VSphereException {
+		timed("suspendVm", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				suspendVmImpl(vm);
+				return null;
+			}
+		});
+	}
+
+	private void suspendVmImpl(VirtualMachine vm) throws VSphereException{
 		if (isPoweredOn(vm)) {
 			try {
 				//TODO is this better?
 				//vm.shutdownGuest()
+				final long requested = System.nanoTime();
 				final Task task = vm.suspendVM_Task();
-				final String status = task.waitForTask();
+				reportResponseTime(requested);
+				final String status = waitForTask(task);
 				if(Task.SUCCESS.equals(status)) {
 					LOGGER.log(Level.FINER, "VM was suspended successfully.");
 					return;
@@ -961,6 +2021,40 @@ public class VSphere {
 		}
 	}
 
+	/**
+	 * Resets (hard restarts) a VM that we've already looked up.
+	 *
+	 * @param vm The VM.
+	 * @throws VSphereException If an error occurred.
+	 */
+	public void resetVm(final VirtualMachine vm) throws VSphereException {
+		timed("resetVm", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				resetVmImpl(vm);
+				return null;
+			}
+		});
+	}
+
+	private void resetVmImpl(VirtualMachine vm) throws VSphereException{
+		try {
+			final long requested = System.nanoTime();
+			final Task task = vm.resetVM_Task();
+			reportResponseTime(requested);
+			final String status = waitForTask(task);
+			if(Task.SUCCESS.equals(status)) {
+				LOGGER.log(Level.FINER, "VM was reset successfully.");
+				return;
+			}
+			throw newVSphereException(task.getTaskInfo(), "Machine could not be reset!");
+		} catch(RuntimeException | VSphereException e){
+			throw e;
+		} catch (Exception e) {
+			throw new VSphereException(e);
+		}
+	}
+
 	/**
 	 * Private helper functions that finds the datanceter a VirtualMachine belongs to
 	 * @param managedEntity - VM object
@@ -987,7 +2081,16 @@ public class VSphere {
 	 * @return returns DistributedVirtualPortgroup object for the provided vDS PortGroup
 	 * @throws VSphereException If an error occurred.
 	 */
-	public Network getNetworkPortGroupByName(VirtualMachine virtualMachine,
+	public Network getNetworkPortGroupByName(final VirtualMachine virtualMachine, final String name) throws VSphereException {
+		return timed("getNetworkPortGroupByName", new Callable<Network>() {
+			@Override
+			public Network call() throws Exception {
+				return getNetworkPortGroupByNameImpl(virtualMachine, name);
+			}
+		});
+	}
+
+	private Network getNetworkPortGroupByNameImpl(VirtualMachine virtualMachine,
 														String name) throws VSphereException
 	{
 		try {
@@ -1013,7 +2116,16 @@ public class VSphere {
 	 * @return returns DistributedVirtualPortgroup object for the provided vDS PortGroup
 	 * @throws VSphereException If an error occurred.
 	 */
-	public DistributedVirtualPortgroup getDistributedVirtualPortGroupByName(VirtualMachine virtualMachine,
+	public DistributedVirtualPortgroup getDistributedVirtualPortGroupByName(final VirtualMachine virtualMachine, final String name) throws VSphereException {
+		return timed("getDistributedVirtualPortGroupByName", new Callable<DistributedVirtualPortgroup>() {
+			@Override
+			public DistributedVirtualPortgroup call() throws Exception {
+				return getDistributedVirtualPortGroupByNameImpl(virtualMachine, name);
+			}
+		});
+	}
+
+	private DistributedVirtualPortgroup getDistributedVirtualPortGroupByNameImpl(VirtualMachine virtualMachine,
 																			 String name) throws VSphereException
 	{
 		try {
@@ -1038,7 +2150,16 @@ public class VSphere {
 	 * @return returns DistributedVirtualSwitch object that represents the vDS Switch
 	 * @throws VSphereException If an error occurred.
 	 */
-	public DistributedVirtualSwitch getDistributedVirtualSwitchByPortGroup(
+	public DistributedVirtualSwitch getDistributedVirtualSwitchByPortGroup(final DistributedVirtualPortgroup distributedVirtualPortgroup) throws VSphereException {
+		return timed("getDistributedVirtualSwitchByPortGroup", new Callable<DistributedVirtualSwitch>() {
+			@Override
+			public DistributedVirtualSwitch call() throws Exception {
+				return getDistributedVirtualSwitchByPortGroupImpl(distributedVirtualPortgroup);
+			}
+		});
+	}
+
+	private DistributedVirtualSwitch getDistributedVirtualSwitchByPortGroupImpl(
 			DistributedVirtualPortgroup distributedVirtualPortgroup) throws VSphereException
 	{
 		try
@@ -1054,6 +2175,17 @@ public class VSphere {
 		}
 	}
 
+    private static OptionValue[] toGuestInfoOptionValues(Map<String, String> variables) {
+        List<OptionValue> optionValues = new ArrayList<>();
+        for (Map.Entry<String, String> eachVariable : variables.entrySet()) {
+            OptionValue ov = new OptionValue();
+            ov.setKey("guestinfo." + eachVariable.getKey());
+            ov.setValue(eachVariable.getValue());
+            optionValues.add(ov);
+        }
+        return optionValues.toArray(new OptionValue[optionValues.size()]);
+    }
+
     /**
      * Passes data to a VM's "guestinfo" object. This data can then be read by
      * the VMware Tools on the guest.
@@ -1069,20 +2201,19 @@ public class VSphere {
      * @throws VSphereException
      *             If an error occurred.
      */
-    public void addGuestInfoVariable(String vmName, Map<String, String> variables) throws VSphereException {
+    public void addGuestInfoVariable(final String vmName, final Map<String, String> variables) throws VSphereException {
+        timed("addGuestInfoVariable", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                addGuestInfoVariableImpl(vmName, variables);
+                return null;
+            }
+        });
+    }
+
+    private void addGuestInfoVariableImpl(String vmName, Map<String, String> variables) throws VSphereException {
         VirtualMachineConfigSpec cs = new VirtualMachineConfigSpec();
-        OptionValue[] ourOptionValues = new OptionValue[variables.size()];
-        List<OptionValue> optionValues = new ArrayList<>();
-        for (Map.Entry<String, String> eachVariable : variables.entrySet()) {
-            OptionValue ov = new OptionValue();
-            ov.setKey("guestinfo." + eachVariable.getKey());
-            ov.setValue(eachVariable.getValue());
-            optionValues.add(ov);
-        }
-        for (int i = 0; i < optionValues.size(); i++) {
-            ourOptionValues[i] = optionValues.get(i);
-        }
-        cs.setExtraConfig(ourOptionValues);
+        cs.setExtraConfig(toGuestInfoOptionValues(variables));
         reconfigureVm(vmName, cs);
     }
 
@@ -1093,6 +2224,53 @@ public class VSphere {
         LOGGER.log(Level.FINER, message);
     }
 
+    /**
+     * Waits for a vSphere task to finish. Our permit is given up while we
+     * wait, as a task can take minutes and the wait isn't a request.
+     */
+    private String waitForTask(Task task) throws RemoteException, InterruptedException {
+        try (VSphereRequestScheduler.Pause pause = scheduler.pause()) {
+            return task.waitForTask();
+        }
+    }
+
+    /**
+     * Sleeps without holding our permit.
+     */
+    private void sleep(long millis) throws InterruptedException {
+        try (VSphereRequestScheduler.Pause pause = scheduler.pause()) {
+            Thread.sleep(millis);
+        }
+    }
+
+    /**
+     * Tells our scheduler how long vSphere took to answer a request that
+     * started a task. vSphere answers those straight away unless it's
+     * struggling, so (unlike the time a task takes) this is a good measure of
+     * how busy it is.
+     *
+     * @param requestedNanos The {@link System#nanoTime()} when the request was made.
+     */
+    private void reportResponseTime(long requestedNanos) {
+        scheduler.reportResponse(System.nanoTime() - requestedNanos);
+    }
+
+    /**
+     * Tells our scheduler how long a task had to wait before vSphere started
+     * running it, as a long wait means that vSphere is overloaded.
+     */
+    private void reportTaskQueueTime(Task task) {
+        try {
+            final TaskInfo info = task.getTaskInfo();
+            if (info != null && info.getQueueTime() != null && info.getStartTime() != null) {
+                final long queuedMillis = info.getStartTime().getTimeInMillis() - info.getQueueTime().getTimeInMillis();
+                scheduler.reportTaskQueued(TimeUnit.MILLISECONDS.toNanos(Math.max(0L, queuedMillis)));
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINER, "Unable to obtain task queue time", e);
+        }
+    }
+
     /**
      * Creates a {@link VSphereException} whose cause is the {@link TaskInfo}'s
      * exception. This provides an exception that is much more informative than
@@ -1104,10 +2282,13 @@ public class VSphere {
      *            A line of text that says what the task was trying to achieve.
      * @return An exception that includes the cause of the failure.
      */
-    private static VSphereException newVSphereException(TaskInfo taskInfo, final String message) {
+    private VSphereException newVSphereException(TaskInfo taskInfo, final String message) {
         final com.vmware.vim25.LocalizedMethodFault error = taskInfo == null ? null : taskInfo.getError();
         final String faultMsg = error == null ? null : error.getLocalizedMessage();
         final Exception fault = error == null ? null : error.getFault();
+        if (fault != null) {
+            scheduler.reportFault(fault);
+        }
         final String combinedMsg = message + (faultMsg == null ? "" : ("\n" + faultMsg));
         if (fault != null) {
             return new VSphereException(combinedMsg, fault);
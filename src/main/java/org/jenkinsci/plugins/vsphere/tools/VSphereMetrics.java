@@ -0,0 +1,393 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records how long each {@link VSphere} operation takes, how often it fails,
+ * and how many times it looked up vCenter's service instance, broken down by
+ * vCenter server, operation and outcome.
+ * <p>
+ * A service lookup is counted each time {@link VSphere} (re)connects to
+ * vCenter's service instance, which it does once for every step of an
+ * operation. This is not the number of SOAP requests made (the vim25 library
+ * makes many of those on our behalf, which we can't see), but it is good at
+ * showing which operations do more work than expected.
+ * Operations that are nested within another operation (e.g. the
+ * <code>getVmByName</code> calls made by <code>cloneOrDeployVm</code>) are
+ * recorded in their own right, and their service lookups also count towards
+ * the outer operation.
+ * </p>
+ * This class is thread-safe.
+ */
+public final class VSphereMetrics {
+    private static final Logger LOGGER = Logger.getLogger(VSphereMetrics.class.getName());
+    public static final String SUCCESS = "success";
+    public static final String FAILURE = "failure";
+    /**
+     * Upper bounds, in milliseconds, of our duration histogram buckets. There
+     * is one more bucket, for anything longer than the last of these.
+     */
+    static final long[] DURATION_BUCKET_MILLIS = { 10L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L, 30000L,
+            60000L, 120000L, 300000L };
+    /**
+     * Upper bounds of our service lookup histogram buckets. There is one more
+     * bucket, for anything more than the last of these.
+     */
+    static final long[] SERVICE_LOOKUP_BUCKETS = { 0L, 1L, 2L, 4L, 8L, 16L, 32L, 64L, 128L };
+    private static final VSphereMetrics INSTANCE = new VSphereMetrics();
+
+    /** Told about every operation as it completes. */
+    public interface Listener {
+        /**
+         * @param server
+         *            The vCenter server.
+         * @param operation
+         *            The name of the {@link VSphere} method.
+         * @param succeeded
+         *            false if it threw an exception.
+         * @param durationNanos
+         *            How long it took, including time waiting for permission
+         *            to talk to vCenter.
+         * @param serviceLookups
+         *            How many times it looked up vCenter's service instance.
+         */
+        void operationCompleted(String server, String operation, boolean succeeded, long durationNanos,
+                int serviceLookups);
+    }
+
+    private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final ThreadLocal<Operation> current = new ThreadLocal<Operation>();
+
+    private VSphereMetrics() {
+    }
+
+    /** @return The singleton instance. */
+    public static VSphereMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param url
+     *            The URL of a vCenter's SOAP endpoint.
+     * @return The name we use for that vCenter in our metrics.
+     */
+    public static String serverOf(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException ex) {
+            return url;
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts timing an operation. The operation must be closed, on the same
+     * thread, once it has finished.
+     *
+     * @param server
+     *            The vCenter server.
+     * @param operationName
+     *            What's being done.
+     * @return The operation.
+     */
+    public Operation start(String server, String operationName) {
+        final Operation operation = new Operation(this, server, operationName, current.get());
+        current.set(operation);
+        return operation;
+    }
+
+    /**
+     * Records that the current thread has looked up vCenter's service
+     * instance, on behalf of whatever operations are in progress on this
+     * thread.
+     */
+    public void recordServiceLookup() {
+        for (Operation o = current.get(); o != null; o = o.parent) {
+            o.serviceLookups++;
+        }
+    }
+
+    /** @return The statistics gathered so far, sorted by server, operation and outcome. */
+    public List<OperationStats> getStats() {
+        final List<OperationStats> result = new ArrayList<OperationStats>(stats.size());
+        for (Stats s : stats.values()) {
+            result.add(s.snapshot());
+        }
+        Collections.sort(result, new Comparator<OperationStats>() {
+            @Override
+            public int compare(OperationStats o1, OperationStats o2) {
+                int c = o1.getServer().compareTo(o2.getServer());
+                if (c == 0) {
+                    c = o1.getOperation().compareTo(o2.getOperation());
+                }
+                if (c == 0) {
+                    c = o1.getOutcome().compareTo(o2.getOutcome());
+                }
+                return c;
+            }
+        });
+        return result;
+    }
+
+    /** Forgets everything recorded so far. */
+    public void reset() {
+        stats.clear();
+    }
+
+    private void record(Operation operation, long durationNanos) {
+        final String outcome = operation.failed ? FAILURE : SUCCESS;
+        final String key = operation.server + '\n' + operation.name + '\n' + outcome;
+        Stats s = stats.get(key);
+        if (s == null) {
+            final Stats newStats = new Stats(operation.server, operation.name, outcome);
+            s = stats.putIfAbsent(key, newStats);
+            if (s == null) {
+                s = newStats;
+            }
+        }
+        s.add(durationNanos, operation.serviceLookups);
+        for (Listener listener : listeners) {
+            try {
+                listener.operationCompleted(operation.server, operation.name, !operation.failed, durationNanos,
+                        operation.serviceLookups);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Metrics listener " + listener + " failed", ex);
+            }
+        }
+    }
+
+    /**
+     * An operation in progress. Not thread-safe; an operation belongs to the
+     * thread that started it.
+     */
+    public static final class Operation implements AutoCloseable {
+        private final VSphereMetrics owner;
+        private final String server;
+        private final String name;
+        private final Operation parent;
+        private final long startNanos = System.nanoTime();
+        private int serviceLookups;
+        private boolean failed;
+        private boolean closed;
+
+        private Operation(VSphereMetrics owner, String server, String name, Operation parent) {
+            this.owner = owner;
+            this.server = server;
+            this.name = name;
+            this.parent = parent;
+        }
+
+        /**
+         * Marks this operation as having failed.
+         *
+         * @param cause
+         *            What went wrong.
+         */
+        public void failed(Throwable cause) {
+            failed = true;
+        }
+
+        /** Stops timing this operation and records the result. */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            owner.current.set(parent);
+            if (parent == null) {
+                owner.current.remove();
+            }
+            owner.record(this, System.nanoTime() - startNanos);
+        }
+    }
+
+    /** Accumulates statistics for one server/operation/outcome. */
+    private static final class Stats {
+        private final String server;
+        private final String operation;
+        private final String outcome;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long totalServiceLookups;
+        private final long[] durationBuckets = new long[DURATION_BUCKET_MILLIS.length + 1];
+        private final long[] serviceLookupBuckets = new long[SERVICE_LOOKUP_BUCKETS.length + 1];
+
+        Stats(String server, String operation, String outcome) {
+            this.server = server;
+            this.operation = operation;
+            this.outcome = outcome;
+        }
+
+        synchronized void add(long durationNanos, int serviceLookups) {
+            count++;
+            totalNanos += durationNanos;
+            maxNanos = Math.max(maxNanos, durationNanos);
+            totalServiceLookups += serviceLookups;
+            durationBuckets[bucketOf(DURATION_BUCKET_MILLIS, TimeUnit.NANOSECONDS.toMillis(durationNanos))]++;
+            serviceLookupBuckets[bucketOf(SERVICE_LOOKUP_BUCKETS, serviceLookups)]++;
+        }
+
+        synchronized OperationStats snapshot() {
+            return new OperationStats(server, operation, outcome, count, totalNanos, maxNanos, totalServiceLookups,
+                    durationBuckets.clone(), serviceLookupBuckets.clone());
+        }
+
+        private static int bucketOf(long[] upperBounds, long value) {
+            for (int i = 0; i < upperBounds.length; i++) {
+                if (value <= upperBounds[i]) {
+                    return i;
+                }
+            }
+            return upperBounds.length;
+        }
+    }
+
+    /** An immutable copy of the statistics for one server/operation/outcome. */
+    public static final class OperationStats {
+        private final String server;
+        private final String operation;
+        private final String outcome;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long totalServiceLookups;
+        private final long[] durationBuckets;
+        private final long[] serviceLookupBuckets;
+
+        OperationStats(String server, String operation, String outcome, long count, long totalNanos, long maxNanos,
+                long totalServiceLookups, long[] durationBuckets, long[] serviceLookupBuckets) {
+            this.server = server;
+            this.operation = operation;
+            this.outcome = outcome;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.totalServiceLookups = totalServiceLookups;
+            this.durationBuckets = durationBuckets;
+            this.serviceLookupBuckets = serviceLookupBuckets;
+        }
+
+        public String getServer() {
+            return server;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getOutcome() {
+            return outcome;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+        }
+
+        public long getMeanMillis() {
+            return count == 0L ? 0L : TimeUnit.NANOSECONDS.toMillis(totalNanos / count);
+        }
+
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+        }
+
+        public double getMeanServiceLookups() {
+            return count == 0L ? 0.0 : ((double) totalServiceLookups) / count;
+        }
+
+        /**
+         * @param fraction
+         *            e.g. 0.95 for the 95th percentile.
+         * @return An upper bound on the given percentile of the durations,
+         *         i.e. the upper bound of the histogram bucket it falls in (or
+         *         the maximum, if it's in the last bucket).
+         */
+        public long getPercentileMillis(double fraction) {
+            final int bucket = findBucket(durationBuckets, fraction);
+            if (bucket < 0) {
+                return 0L;
+            }
+            return bucket < DURATION_BUCKET_MILLIS.length ? Math.min(DURATION_BUCKET_MILLIS[bucket], getMaxMillis())
+                    : getMaxMillis();
+        }
+
+        /** @return The upper bounds of the duration histogram's buckets. */
+        public static List<Long> getDurationBucketMillis() {
+            return asList(DURATION_BUCKET_MILLIS);
+        }
+
+        /** @return The number of operations in each duration bucket. */
+        public List<Long> getDurationHistogram() {
+            return asList(durationBuckets);
+        }
+
+        /** @return The upper bounds of the service lookup histogram's buckets. */
+        public static List<Long> getServiceLookupBuckets() {
+            return asList(SERVICE_LOOKUP_BUCKETS);
+        }
+
+        /** @return The number of operations in each service lookup bucket. */
+        public List<Long> getServiceLookupHistogram() {
+            return asList(serviceLookupBuckets);
+        }
+
+        private static int findBucket(long[] buckets, double fraction) {
+            long total = 0L;
+            for (long b : buckets) {
+                total += b;
+            }
+            if (total == 0L) {
+                return -1;
+            }
+            final double wanted = fraction * total;
+            long soFar = 0L;
+            for (int i = 0; i < buckets.length; i++) {
+                soFar += buckets[i];
+                if (soFar >= wanted) {
+                    return i;
+                }
+            }
+            return buckets.length - 1;
+        }
+
+        private static List<Long> asList(long[] values) {
+            final Long[] boxed = new Long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                boxed[i] = values[i];
+            }
+            return Collections.unmodifiableList(Arrays.asList(boxed));
+        }
+
+        @Override
+        public String toString() {
+            return server + "/" + operation + "/" + outcome + ": count=" + count + ", mean=" + getMeanMillis()
+                    + "ms, max=" + getMaxMillis() + "ms, meanServiceLookups=" + String.format("%.1f", getMeanServiceLookups());
+        }
+    }
+}
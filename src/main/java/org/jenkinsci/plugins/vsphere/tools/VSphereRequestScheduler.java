@@ -0,0 +1,585 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Controls how quickly, and how many at once, requests are made to a vCenter
+ * server, so that a flood of low-importance requests (e.g. a pipeline running
+ * lots of vSphere build steps) can't starve more important ones (e.g.
+ * provisioning agents).
+ * <p>
+ * There is one scheduler per vCenter URL and user (see
+ * {@link #forConnection(String, String)}), shared by every {@link VSphere}
+ * connected with those details. Each request must obtain a {@link Permit}
+ * (see {@link #acquire(Priority)}) before it talks to vCenter and must close
+ * it afterwards. Permits are granted subject to:
+ * <ul>
+ * <li>a token-bucket limit on the rate of requests,</li>
+ * <li>a limit on the total number of requests in progress, which is adjusted
+ * automatically by an {@link AdaptiveConcurrencyLimiter} according to how well
+ * vCenter is coping (see {@link #reportResponse(long)},
+ * {@link #reportTaskQueued(long)} and {@link #reportFault(Throwable)}),</li>
+ * <li>a per-{@link Priority} limit on the number of requests in progress,</li>
+ * <li>strict priority ordering, i.e. a request will not be allowed to proceed
+ * while a higher priority request is waiting (unless that request is waiting
+ * only because its own priority's limit has been reached).</li>
+ * </ul>
+ * Each {@link Priority} also has a minimum number of requests that may be in
+ * progress whatever the total and however many higher-priority requests are
+ * waiting, so that an overloaded vCenter (which lowers the total) can't stop
+ * e.g. agents being torn down.
+ * Permits are reentrant: a thread that already holds a permit from a scheduler
+ * will be given another immediately, so that a request which is implemented in
+ * terms of other requests does not deadlock.
+ * </p>
+ * <p>
+ * A permit should only be held while talking to vCenter. Anything that waits
+ * for vCenter to finish something (e.g. a clone task) must {@link #pause()}
+ * its permit for the duration, otherwise a few long-running tasks would stop
+ * everything else.
+ * </p>
+ * The limits can be changed using system properties, e.g.
+ * <code>-Dorg.jenkinsci.plugins.vsphere.tools.VSphereRequestScheduler.requestsPerSecond=10</code>
+ * , <code>-Dorg.jenkinsci.plugins.vsphere.tools.VSphereRequestScheduler.maxConcurrent.BUILD_STEP=2</code>
+ * and <code>-Dorg.jenkinsci.plugins.vsphere.tools.VSphereRequestScheduler.minConcurrent.TEARDOWN=2</code>.
+ */
+public final class VSphereRequestScheduler {
+    private static final Logger LOGGER = Logger.getLogger(VSphereRequestScheduler.class.getName());
+    private static final String PROPERTY_PREFIX = VSphereRequestScheduler.class.getName() + ".";
+    private static final ConcurrentMap<String, VSphereRequestScheduler> SCHEDULERS = new ConcurrentHashMap<String, VSphereRequestScheduler>();
+    /** Requests that wait longer than this get logged. */
+    private static final long SLOW_WAIT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * How important a request is. Earlier values take precedence over later
+     * ones.
+     */
+    public static enum Priority {
+        /** Requests made while provisioning new agents. */
+        PROVISIONING(1, 16),
+        /** Requests made while shutting down or deleting agents. */
+        TEARDOWN(1, 8),
+        /** Requests made by build steps. */
+        BUILD_STEP(1, 8),
+        /** Requests made to validate the configuration UI. */
+        UI_VALIDATION(1, 4),
+        /** Housekeeping requests that nobody is waiting for. */
+        BACKGROUND(0, 2);
+
+        private final int defaultMinConcurrent;
+        private final int defaultMaxConcurrent;
+
+        private Priority(int defaultMinConcurrent, int defaultMaxConcurrent) {
+            this.defaultMinConcurrent = defaultMinConcurrent;
+            this.defaultMaxConcurrent = defaultMaxConcurrent;
+        }
+    }
+
+    /**
+     * Permission to make a request. This MUST be closed once the request has
+     * completed.
+     */
+    public static final class Permit implements AutoCloseable {
+        private final VSphereRequestScheduler scheduler;
+        private final Priority priority;
+        private final boolean outermost;
+        private boolean closed;
+
+        private Permit(VSphereRequestScheduler scheduler, Priority priority, boolean outermost) {
+            this.scheduler = scheduler;
+            this.priority = priority;
+            this.outermost = outermost;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            scheduler.release(this);
+        }
+    }
+
+    /**
+     * A permit given up while waiting. This MUST be closed once the wait is
+     * over, which gets the permit back again.
+     */
+    public static final class Pause implements AutoCloseable {
+        private final VSphereRequestScheduler scheduler;
+        private final Held held;
+        private boolean closed;
+
+        private Pause(VSphereRequestScheduler scheduler, Held held) {
+            this.scheduler = scheduler;
+            this.held = held;
+        }
+
+        @Override
+        public void close() {
+            if (closed || scheduler == null) {
+                return;
+            }
+            closed = true;
+            scheduler.resume(this);
+        }
+    }
+
+    /** The permits a thread holds from a scheduler. */
+    private static final class Held {
+        private int count;
+        private Priority priority;
+    }
+
+    private final String name;
+    private final double requestsPerSecond;
+    private final double burst;
+    private final int[] minConcurrentByPriority;
+    private final int[] maxConcurrentByPriority;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    /** Guarded by lock. */
+    private double tokens;
+    /** Guarded by lock. */
+    private long lastRefillNanos;
+    /** Guarded by lock. */
+    private int inFlight;
+    /** Guarded by lock. */
+    private final int[] inFlightByPriority;
+    /** Guarded by lock. */
+    private final int[] waitingByPriority;
+    /** Guarded by lock. */
+    private final long[] grantedByPriority;
+    /** Guarded by lock. */
+    private final long[] totalWaitNanosByPriority;
+    /** Guarded by lock. */
+    private final long[] maxWaitNanosByPriority;
+    /** How many permits this thread currently holds from us. */
+    private final ThreadLocal<Held> heldByThisThread = new ThreadLocal<Held>() {
+        @Override
+        protected Held initialValue() {
+            return new Held();
+        }
+    };
+
+    VSphereRequestScheduler(String name, double requestsPerSecond, double burst,
+            AdaptiveConcurrencyLimiter limiter, int[] minConcurrentByPriority, int[] maxConcurrentByPriority) {
+        final int numberOfPriorities = Priority.values().length;
+        this.name = name;
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = Math.max(1.0, burst);
+        this.limiter = limiter;
+        this.minConcurrentByPriority = minConcurrentByPriority.clone();
+        this.maxConcurrentByPriority = maxConcurrentByPriority.clone();
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+        this.inFlightByPriority = new int[numberOfPriorities];
+        this.waitingByPriority = new int[numberOfPriorities];
+        this.grantedByPriority = new long[numberOfPriorities];
+        this.totalWaitNanosByPriority = new long[numberOfPriorities];
+        this.maxWaitNanosByPriority = new long[numberOfPriorities];
+    }
+
+    /**
+     * Obtains the scheduler for a given vCenter connection, creating it if
+     * necessary.
+     *
+     * @param url
+     *            The vCenter URL.
+     * @param user
+     *            The user we connect as.
+     * @return The scheduler that all requests to that vCenter (as that user)
+     *         should go through.
+     */
+    public static VSphereRequestScheduler forConnection(String url, String user) {
+        final String key = user + "@" + url;
+        final VSphereRequestScheduler existing = SCHEDULERS.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        final Priority[] priorities = Priority.values();
+        final int[] minimums = new int[priorities.length];
+        final int[] caps = new int[priorities.length];
+        for (final Priority p : priorities) {
+            minimums[p.ordinal()] = Integer.getInteger(PROPERTY_PREFIX + "minConcurrent." + p.name(),
+                    p.defaultMinConcurrent);
+            caps[p.ordinal()] = Integer.getInteger(PROPERTY_PREFIX + "maxConcurrent." + p.name(),
+                    p.defaultMaxConcurrent);
+        }
+        final double rate = getDoubleProperty("requestsPerSecond", 20.0);
+        final double burst = getDoubleProperty("burst", 40.0);
+        final int maxConcurrent = Integer.getInteger(PROPERTY_PREFIX + "maxConcurrent", 16);
+        final int minConcurrent = Integer.getInteger(PROPERTY_PREFIX + "minConcurrent", 2);
+        final long slowResponseMillis = Long.getLong(PROPERTY_PREFIX + "slowResponseMillis", 5000L);
+        final long slowTaskQueueMillis = Long.getLong(PROPERTY_PREFIX + "slowTaskQueueMillis", 10000L);
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(key, minConcurrent, maxConcurrent,
+                slowResponseMillis, slowTaskQueueMillis);
+        final VSphereRequestScheduler created = new VSphereRequestScheduler(key, rate, burst, limiter, minimums, caps);
+        final VSphereRequestScheduler raced = SCHEDULERS.putIfAbsent(key, created);
+        return raced == null ? created : raced;
+    }
+
+    private static double getDoubleProperty(String suffix, double defaultValue) {
+        final String value = System.getProperty(PROPERTY_PREFIX + suffix);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "Ignoring invalid value {0} for {1}{2}", new Object[] { value, PROPERTY_PREFIX,
+                    suffix });
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Waits until a request of the given priority is allowed to proceed.
+     *
+     * @param priority
+     *            How important the request is.
+     * @return A permit that MUST be closed when the request has completed.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public Permit acquire(Priority priority) throws InterruptedException {
+        final Held held = heldByThisThread.get();
+        if (held.count > 0) {
+            held.count++;
+            return new Permit(this, priority, false);
+        }
+        waitForSlot(priority, true);
+        held.count = 1;
+        held.priority = priority;
+        return new Permit(this, priority, true);
+    }
+
+    /**
+     * Gives up this thread's permit (if it has one) until the returned
+     * {@link Pause} is closed, so that waiting for vCenter to finish something
+     * doesn't hold up other requests.
+     *
+     * @return A pause that MUST be closed when the wait is over.
+     */
+    public Pause pause() {
+        final Held held = heldByThisThread.get();
+        if (held.count == 0) {
+            return new Pause(null, null);
+        }
+        final Held paused = new Held();
+        paused.count = held.count;
+        paused.priority = held.priority;
+        held.count = 0;
+        held.priority = null;
+        releaseSlot(paused.priority);
+        return new Pause(this, paused);
+    }
+
+    private void resume(Pause pause) {
+        try {
+            waitForSlot(pause.held.priority, false);
+        } catch (InterruptedException e) {
+            // can't happen when not interruptible
+            Thread.currentThread().interrupt();
+        }
+        final Held held = heldByThisThread.get();
+        held.count = pause.held.count;
+        held.priority = pause.held.priority;
+    }
+
+    /**
+     * Waits until a request of the given priority may proceed, and counts it
+     * as in progress.
+     *
+     * @param interruptible
+     *            If false, we carry on waiting when interrupted (and leave the
+     *            thread interrupted once we're done), because the caller must
+     *            have its permit back.
+     */
+    private void waitForSlot(Priority priority, boolean interruptible) throws InterruptedException {
+        final int p = priority.ordinal();
+        final long startNanos = System.nanoTime();
+        boolean interrupted = false;
+        if (interruptible) {
+            lock.lockInterruptibly();
+        } else {
+            lock.lock();
+        }
+        try {
+            waitingByPriority[p]++;
+            try {
+                while (true) {
+                    refillTokens();
+                    if (mayProceed(p)) {
+                        break;
+                    }
+                    try {
+                        if (tokens < 1.0 && requestsPerSecond > 0.0) {
+                            final long nanosUntilNextToken = (long) ((1.0 - tokens) * TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+                            changed.awaitNanos(Math.max(nanosUntilNextToken, TimeUnit.MILLISECONDS.toNanos(1)));
+                        } else {
+                            changed.await();
+                        }
+                    } catch (InterruptedException e) {
+                        if (interruptible) {
+                            throw e;
+                        }
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                waitingByPriority[p]--;
+                // someone lower down may now be able to proceed
+                changed.signalAll();
+            }
+            if (requestsPerSecond > 0.0) {
+                tokens -= 1.0;
+            }
+            inFlight++;
+            inFlightByPriority[p]++;
+            final long waitedNanos = System.nanoTime() - startNanos;
+            grantedByPriority[p]++;
+            totalWaitNanosByPriority[p] += waitedNanos;
+            if (waitedNanos > maxWaitNanosByPriority[p]) {
+                maxWaitNanosByPriority[p] = waitedNanos;
+            }
+            if (waitedNanos > SLOW_WAIT_NANOS) {
+                LOGGER.log(Level.INFO, "{0} request to {1} waited {2}ms to proceed", new Object[] { priority, name,
+                        TimeUnit.NANOSECONDS.toMillis(waitedNanos) });
+            }
+        } finally {
+            lock.unlock();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void release(Permit permit) {
+        final Held held = heldByThisThread.get();
+        if (held.count > 0) {
+            held.count--;
+        }
+        if (!permit.outermost) {
+            return;
+        }
+        held.count = 0;
+        held.priority = null;
+        releaseSlot(permit.priority);
+    }
+
+    private void releaseSlot(Priority priority) {
+        final int p = priority.ordinal();
+        lock.lock();
+        try {
+            inFlight--;
+            inFlightByPriority[p]--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Must be called with the lock held. */
+    private boolean mayProceed(int p) {
+        if (requestsPerSecond > 0.0 && tokens < 1.0) {
+            return false;
+        }
+        if (inFlightByPriority[p] < minConcurrentByPriority[p]) {
+            // the limiter can't take this away
+            return true;
+        }
+        if (inFlight >= limiter.getLimit() || inFlightByPriority[p] >= maxConcurrentByPriority[p]) {
+            return false;
+        }
+        for (int q = 0; q < p; q++) {
+            if (waitingByPriority[q] > 0 && inFlightByPriority[q] < maxConcurrentByPriority[q]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Must be called with the lock held. */
+    private void refillTokens() {
+        final long now = System.nanoTime();
+        final double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastRefillNanos = now;
+        tokens = Math.min(burst, tokens + elapsedSeconds * requestsPerSecond);
+    }
+
+    /**
+     * Records how long vCenter took to answer a single request. This should
+     * be a request that vCenter answers straight away (e.g. one that starts a
+     * task), not one whose answer takes time to work out.
+     *
+     * @param responseNanos
+     *            The time taken.
+     */
+    public void reportResponse(long responseNanos) {
+        if (limiter.onResponse(responseNanos)) {
+            limitChanged();
+        }
+    }
+
+    /**
+     * Records how long a vCenter task spent queued before vCenter started it.
+     *
+     * @param queuedNanos
+     *            The time spent queued.
+     */
+    public void reportTaskQueued(long queuedNanos) {
+        if (limiter.onTaskQueued(queuedNanos)) {
+            limitChanged();
+        }
+    }
+
+    /**
+     * Records that a request failed. Failures that indicate that vCenter is
+     * overloaded will reduce the number of requests we allow in progress.
+     *
+     * @param fault
+     *            What went wrong.
+     */
+    public void reportFault(Throwable fault) {
+        if (limiter.onFault(fault)) {
+            limitChanged();
+        }
+    }
+
+    private void limitChanged() {
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The maximum number of requests that may currently be in progress
+     *         at once. This varies according to how well vCenter is coping.
+     */
+    public int getConcurrencyLimit() {
+        return limiter.getLimit();
+    }
+
+    /**
+     * @return How much longer than usual callers should wait before retrying a
+     *         failed request, i.e. 1.0 when vCenter is coping well.
+     */
+    public double getBackoffMultiplier() {
+        return limiter.getBackoffMultiplier();
+    }
+
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /** @return The number of requests currently in progress. */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param priority
+     *            The priority in question.
+     * @return The number of requests of this priority waiting to proceed.
+     */
+    public int getQueueLength(Priority priority) {
+        lock.lock();
+        try {
+            return waitingByPriority[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param priority
+     *            The priority in question.
+     * @return The number of requests of this priority that have been allowed
+     *         to proceed.
+     */
+    public long getGrantedCount(Priority priority) {
+        lock.lock();
+        try {
+            return grantedByPriority[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param priority
+     *            The priority in question.
+     * @return The mean time, in milliseconds, that requests of this priority
+     *         have had to wait.
+     */
+    public double getMeanWaitMillis(Priority priority) {
+        lock.lock();
+        try {
+            final long granted = grantedByPriority[priority.ordinal()];
+            if (granted == 0) {
+                return 0.0;
+            }
+            return totalWaitNanosByPriority[priority.ordinal()] / (double) granted
+                    / TimeUnit.MILLISECONDS.toNanos(1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param priority
+     *            The priority in question.
+     * @return The longest time, in milliseconds, that a request of this
+     *         priority has had to wait.
+     */
+    public long getMaxWaitMillis(Priority priority) {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(maxWaitNanosByPriority[priority.ordinal()]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        lock.lock();
+        try {
+            sb.append("VSphereRequestScheduler[").append(name).append(", inFlight=").append(inFlight).append('/')
+                    .append(limiter.getLimit());
+            for (final Priority p : Priority.values()) {
+                final int i = p.ordinal();
+                sb.append(", ").append(p).append("={inFlight=").append(inFlightByPriority[i]).append('/')
+                        .append(maxConcurrentByPriority[i]).append(" (min ").append(minConcurrentByPriority[i])
+                        .append("), waiting=").append(waitingByPriority[i])
+                        .append(", granted=").append(grantedByPriority[i]).append(", maxWait=")
+                        .append(TimeUnit.NANOSECONDS.toMillis(maxWaitNanosByPriority[i])).append("ms}");
+            }
+            sb.append(']');
+        } finally {
+            lock.unlock();
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the answers to questions that are expensive to ask (e.g. "does
+ * this VM exist?") for a short while, so that asking the same thing again
+ * straight away doesn't go back to vSphere.
+ * <p>
+ * If a question is asked while someone else is already asking it, the second
+ * caller waits for the first caller's answer rather than asking again. Only
+ * successful answers are remembered. The number of answers remembered is
+ * limited; the oldest are forgotten first.
+ * </p>
+ *
+ * @param <V>
+ *            The type of answer.
+ */
+public final class ValidationCache<V> {
+    private final long ttlNanos;
+    private final Map<String, Entry<V>> entries;
+
+    private static final class Entry<V> {
+        private final FutureTask<V> task;
+        private final long created;
+
+        Entry(FutureTask<V> task, long created) {
+            this.task = task;
+            this.created = created;
+        }
+    }
+
+    /**
+     * @param ttlMillis
+     *            How long to remember each answer for.
+     * @param maxEntries
+     *            The most answers to remember.
+     */
+    public ValidationCache(long ttlMillis, final int maxEntries) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<String, Entry<V>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets the answer to a question, asking it if we don't know the answer
+     * (and nobody else is asking it already).
+     *
+     * @param key
+     *            Identifies the question.
+     * @param loader
+     *            Asks the question.
+     * @return The answer.
+     * @throws Exception
+     *             if the loader threw.
+     */
+    public V get(String key, Callable<V> loader) throws Exception {
+        final FutureTask<V> task;
+        boolean ours = false;
+        synchronized (entries) {
+            final long now = System.nanoTime();
+            final Entry<V> existing = entries.get(key);
+            if (existing != null && now - existing.created < ttlNanos) {
+                task = existing.task;
+            } else {
+                task = new FutureTask<V>(loader);
+                // remove first so that the new entry counts as the newest
+                entries.remove(key);
+                entries.put(key, new Entry<V>(task, now));
+                ours = true;
+            }
+        }
+        if (ours) {
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            forget(key, task);
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /** Forgets everything. */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /** @return The number of answers remembered. */
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void forget(String key, FutureTask<V> task) {
+        synchronized (entries) {
+            final Entry<V> existing = entries.get(key);
+            if (existing != null && existing.task == task) {
+                entries.remove(key);
+            }
+        }
+    }
+}
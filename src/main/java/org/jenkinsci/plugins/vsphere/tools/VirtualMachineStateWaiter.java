@@ -0,0 +1,221 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VirtualMachinePowerState;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.VirtualMachine;
+
+/**
+ * Waits for a VM's power state, VMware Tools status or other properties to
+ * change, by asking vCenter to tell us when they do (using
+ * <code>WaitForUpdatesEx</code>) rather than by polling or sleeping.
+ * <p>
+ * Each wait uses its own property collector, so any number of threads can
+ * wait on the same vCenter session at once without stealing each other's
+ * updates. A wait gives up early if the waiting thread is interrupted (e.g.
+ * because the build was aborted), leaving the thread's interrupt flag set.
+ * </p>
+ */
+public final class VirtualMachineStateWaiter {
+    static final String POWER_STATE = "runtime.powerState";
+    static final String TOOLS_RUNNING_STATUS = "guest.toolsRunningStatus";
+    /** The property path of the VM's primary IP address. */
+    public static final String IP_ADDRESS = "guest.ipAddress";
+    private static final String[] WATCHED_PROPERTIES = { POWER_STATE, TOOLS_RUNNING_STATUS };
+    private static final String TOOLS_RUNNING = "guestToolsRunning";
+    // How long each WaitForUpdatesEx call may block for, which is how quickly we notice an interrupt.
+    private static final int MAX_WAIT_SECONDS_PER_CALL = 10;
+
+    /** Something we're waiting to become true. */
+    public interface Condition {
+        /**
+         * @param properties
+         *            The current values of the properties being watched,
+         *            keyed by property path, e.g. the VM's power state (as a
+         *            {@link VirtualMachinePowerState}) and VMware Tools
+         *            running status (as a String). Any may be missing.
+         * @return true once we've got what we're waiting for.
+         */
+        boolean isSatisfied(Map<String, Object> properties);
+    }
+
+    private VirtualMachineStateWaiter() {
+    }
+
+    /**
+     * @param wanted
+     *            A power state.
+     * @return A condition that is satisfied when the VM is in that state.
+     */
+    public static Condition powerState(final VirtualMachinePowerState wanted) {
+        return new Condition() {
+            @Override
+            public boolean isSatisfied(Map<String, Object> properties) {
+                return wanted.equals(properties.get(POWER_STATE));
+            }
+
+            @Override
+            public String toString() {
+                return "power state " + wanted;
+            }
+        };
+    }
+
+    /** @return A condition that is satisfied when VMware Tools is running in the VM. */
+    public static Condition toolsRunning() {
+        return new Condition() {
+            @Override
+            public boolean isSatisfied(Map<String, Object> properties) {
+                return TOOLS_RUNNING.equals(properties.get(TOOLS_RUNNING_STATUS));
+            }
+
+            @Override
+            public String toString() {
+                return "VMware Tools running";
+            }
+        };
+    }
+
+    /**
+     * @param wanted
+     *            What the address must look like, or null for any address.
+     * @return A condition, for use with {@link #IP_ADDRESS}, that is
+     *         satisfied when the VM has an IP address.
+     */
+    public static Condition ipAddress(final Pattern wanted) {
+        return new Condition() {
+            @Override
+            public boolean isSatisfied(Map<String, Object> properties) {
+                final Object ip = properties.get(IP_ADDRESS);
+                return ip != null && (wanted == null || wanted.matcher(ip.toString()).find());
+            }
+
+            @Override
+            public String toString() {
+                return wanted == null ? "an IP address" : "an IP address matching " + wanted;
+            }
+        };
+    }
+
+    /**
+     * Waits until the condition is satisfied, or until we time out.
+     *
+     * @param vm
+     *            The VM to watch.
+     * @param condition
+     *            What we're waiting for.
+     * @param timeoutMillis
+     *            The longest we'll wait.
+     * @return true if the condition was satisfied, false if we timed out.
+     * @throws RemoteException
+     *             if vCenter couldn't be asked.
+     */
+    public static boolean waitFor(VirtualMachine vm, Condition condition, long timeoutMillis) throws RemoteException {
+        return waitForProperties(vm, WATCHED_PROPERTIES, condition, timeoutMillis) != null;
+    }
+
+    /**
+     * Waits until the condition is satisfied by the given properties, or
+     * until we time out.
+     *
+     * @param vm
+     *            The VM to watch.
+     * @param propertyPaths
+     *            The properties the condition looks at.
+     * @param condition
+     *            What we're waiting for.
+     * @param timeoutMillis
+     *            The longest we'll wait. The properties are always checked
+     *            at least once, even if this is zero.
+     * @return The properties' values once the condition was satisfied, or
+     *         null if we timed out or were interrupted.
+     * @throws RemoteException
+     *             if vCenter couldn't be asked.
+     */
+    public static Map<String, Object> waitForProperties(VirtualMachine vm, String[] propertyPaths, Condition condition,
+            long timeoutMillis) throws RemoteException {
+        final PropertyCollector collector = vm.getServerConnection().getServiceInstance().getPropertyCollector()
+                .createPropertyCollector();
+        try {
+            final PropertySpec propertySpec = new PropertySpec();
+            propertySpec.setType("VirtualMachine");
+            propertySpec.setAll(Boolean.FALSE);
+            propertySpec.setPathSet(propertyPaths);
+            final ObjectSpec objectSpec = new ObjectSpec();
+            objectSpec.setObj(vm.getMOR());
+            objectSpec.setSkip(Boolean.FALSE);
+            final PropertyFilterSpec filterSpec = new PropertyFilterSpec();
+            filterSpec.setPropSet(new PropertySpec[] { propertySpec });
+            filterSpec.setObjectSet(new ObjectSpec[] { objectSpec });
+            collector.createFilter(filterSpec, true);
+            final Map<String, Object> properties = new HashMap<String, Object>();
+            final long now = System.currentTimeMillis();
+            final long deadline = timeoutMillis >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeoutMillis;
+            // the first update tells us the current values; later ones tell us what changed
+            String version = "";
+            while (true) {
+                final long remainingMillis = deadline - System.currentTimeMillis();
+                if (!version.isEmpty() && remainingMillis <= 0L) {
+                    return null;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                final WaitOptions options = new WaitOptions();
+                final long waitSeconds = Math.min(MAX_WAIT_SECONDS_PER_CALL, (remainingMillis + 999L) / 1000L);
+                options.setMaxWaitSeconds(Integer.valueOf((int) Math.max(1L, waitSeconds)));
+                final UpdateSet updates = collector.waitForUpdatesEx(version, options);
+                if (updates == null) {
+                    continue; // nothing changed before vCenter gave up waiting
+                }
+                version = updates.getVersion();
+                apply(updates, properties);
+                if (condition.isSatisfied(properties)) {
+                    return properties;
+                }
+            }
+        } finally {
+            collector.destroyPropertyCollector();
+        }
+    }
+
+    /** Brings our copy of the watched properties up to date with what vCenter says has changed. */
+    static void apply(UpdateSet updates, Map<String, Object> properties) {
+        final PropertyFilterUpdate[] filterUpdates = updates.getFilterSet();
+        if (filterUpdates == null) {
+            return;
+        }
+        for (final PropertyFilterUpdate filterUpdate : filterUpdates) {
+            final ObjectUpdate[] objectUpdates = filterUpdate.getObjectSet();
+            if (objectUpdates == null) {
+                continue;
+            }
+            for (final ObjectUpdate objectUpdate : objectUpdates) {
+                final PropertyChange[] changes = objectUpdate.getChangeSet();
+                if (changes == null) {
+                    continue;
+                }
+                for (final PropertyChange change : changes) {
+                    if (change.getOp() == PropertyChangeOp.remove) {
+                        properties.remove(change.getName());
+                    } else {
+                        properties.put(change.getName(), change.getVal());
+                    }
+                }
+            }
+        }
+    }
+}
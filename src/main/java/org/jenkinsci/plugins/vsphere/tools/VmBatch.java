@@ -0,0 +1,205 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Does the same thing to lots of VMs at once, a limited number at a time, and
+ * reports how it went for each of them.
+ * <p>
+ * A failure on one VM doesn't stop the others; it's recorded in that VM's
+ * {@link Result}.
+ * </p>
+ */
+public final class VmBatch {
+    private static final AtomicInteger BATCH_NUMBER = new AtomicInteger();
+
+    /**
+     * What to do to each VM.
+     *
+     * @param <T>
+     *            The type of VM.
+     */
+    public interface Operation<T> {
+        /**
+         * @param name
+         *            The VM's name.
+         * @param vm
+         *            The VM.
+         * @throws Exception
+         *             if it failed.
+         */
+        void perform(String name, T vm) throws Exception;
+    }
+
+    /** How it went for one VM. */
+    public static final class Result {
+        private final String name;
+        private final String failure;
+        private final long durationMillis;
+
+        Result(String name, String failure, long durationMillis) {
+            this.name = name;
+            this.failure = failure;
+            this.durationMillis = durationMillis;
+        }
+
+        /** @return The VM's name. */
+        public String getName() {
+            return name;
+        }
+
+        /** @return true if the operation succeeded. */
+        public boolean isSuccess() {
+            return failure == null;
+        }
+
+        /** @return Why the operation failed, or null if it succeeded. */
+        public String getFailure() {
+            return failure;
+        }
+
+        /** @return How long the operation took. */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + (failure == null ? "succeeded" : "failed (" + failure + ")") + " in "
+                    + durationMillis + "ms";
+        }
+    }
+
+    private VmBatch() {
+    }
+
+    /**
+     * Performs an operation on each VM, with up to maxParallel at a time.
+     *
+     * @param vms
+     *            The VMs, keyed by name.
+     * @param maxParallel
+     *            The most operations to have in progress at once.
+     * @param operation
+     *            What to do.
+     * @param <T>
+     *            The type of VM.
+     * @return One result per VM, in the same order as the VMs.
+     * @throws InterruptedException
+     *             if we were interrupted, in which case any operations still
+     *             in progress are interrupted too.
+     */
+    public static <T> List<Result> run(Map<String, T> vms, int maxParallel, final Operation<T> operation)
+            throws InterruptedException {
+        if (vms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final int threads = Math.max(1, Math.min(maxParallel, vms.size()));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, newThreadFactory());
+        try {
+            final Map<String, Future<Result>> futures = new LinkedHashMap<String, Future<Result>>();
+            for (final Map.Entry<String, T> entry : vms.entrySet()) {
+                final String name = entry.getKey();
+                final T vm = entry.getValue();
+                futures.put(name, executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        final long start = System.nanoTime();
+                        String failure = null;
+                        try {
+                            operation.perform(name, vm);
+                        } catch (Exception e) {
+                            failure = e.getMessage() == null ? e.toString() : e.getMessage();
+                        }
+                        return new Result(name, failure, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                }));
+            }
+            final List<Result> results = new ArrayList<Result>(futures.size());
+            for (final Map.Entry<String, Future<Result>> entry : futures.entrySet()) {
+                try {
+                    results.add(entry.getValue().get());
+                } catch (ExecutionException e) {
+                    // only an Error would get here
+                    results.add(new Result(entry.getKey(), String.valueOf(e.getCause()), 0L));
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param names
+     *            The names of VMs that were asked for but don't exist.
+     * @return A failed result for each of them, to report alongside those from
+     *         {@link #run(Map, int, Operation)}.
+     */
+    public static List<Result> notFound(List<String> names) {
+        final List<Result> results = new ArrayList<Result>(names.size());
+        for (final String name : names) {
+            results.add(new Result(name, "Not found", 0L));
+        }
+        return results;
+    }
+
+    /**
+     * @param results
+     *            Results from {@link #run(Map, int, Operation)}.
+     * @return The names of the VMs whose operation failed.
+     */
+    public static List<String> failed(List<Result> results) {
+        final List<String> failed = new ArrayList<String>();
+        for (final Result result : results) {
+            if (!result.isSuccess()) {
+                failed.add(result.getName());
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * @param results
+     *            Results from {@link #run(Map, int, Operation)}.
+     * @return The results as plain maps (with keys "success", "failure" and
+     *         "durationMillis"), keyed by VM name, suitable for returning to a
+     *         pipeline.
+     */
+    public static Map<String, Map<String, Object>> toMap(List<Result> results) {
+        final Map<String, Map<String, Object>> map = new LinkedHashMap<String, Map<String, Object>>();
+        for (final Result result : results) {
+            final Map<String, Object> entry = new LinkedHashMap<String, Object>();
+            entry.put("success", Boolean.valueOf(result.isSuccess()));
+            entry.put("failure", result.getFailure());
+            entry.put("durationMillis", Long.valueOf(result.getDurationMillis()));
+            map.put(result.getName(), entry);
+        }
+        return map;
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        final String prefix = VmBatch.class.getSimpleName() + "-" + BATCH_NUMBER.incrementAndGet() + "-";
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, prefix + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
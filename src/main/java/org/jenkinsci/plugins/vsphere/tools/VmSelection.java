@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Picks VMs, by name, from those that exist, given a list of names and/or a
+ * regular expression.
+ */
+public final class VmSelection {
+    private final Set<String> names;
+    private final Pattern pattern;
+
+    /**
+     * @param names
+     *            (Optional) VM names, separated by commas or whitespace.
+     * @param regex
+     *            (Optional) A regular expression that VM names must match
+     *            (in full).
+     */
+    public VmSelection(String names, String regex) {
+        this.names = new TreeSet<String>();
+        if (names != null) {
+            for (final String name : names.split("[,\\s]+")) {
+                if (!name.isEmpty()) {
+                    this.names.add(name);
+                }
+            }
+        }
+        this.pattern = regex == null || regex.trim().isEmpty() ? null : Pattern.compile(regex.trim());
+    }
+
+    /** @return true if neither names nor a regular expression were given. */
+    public boolean isEmpty() {
+        return names.isEmpty() && pattern == null;
+    }
+
+    /**
+     * @param existing
+     *            The names of the VMs that exist.
+     * @return The names of the existing VMs that were asked for, sorted.
+     */
+    public List<String> select(Collection<String> existing) {
+        final Set<String> selected = new TreeSet<String>();
+        for (final String name : existing) {
+            if (names.contains(name) || (pattern != null && pattern.matcher(name).matches())) {
+                selected.add(name);
+            }
+        }
+        return new ArrayList<String>(selected);
+    }
+
+    /**
+     * @param existing
+     *            The names of the VMs that exist.
+     * @return The names that were asked for explicitly but don't exist,
+     *         sorted.
+     */
+    public List<String> missing(Collection<String> existing) {
+        final List<String> missing = new ArrayList<String>();
+        for (final String name : names) {
+            if (!existing.contains(name)) {
+                missing.add(name);
+            }
+        }
+        return missing;
+    }
+
+    @Override
+    public String toString() {
+        return "VmSelection[names=" + names + ", pattern=" + pattern + "]";
+    }
+}
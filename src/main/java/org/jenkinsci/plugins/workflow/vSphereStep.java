@@ -87,7 +87,7 @@ public class vSphereStep extends AbstractStepImpl {
         }
     }
 
-    public static final class vSphereExecution extends AbstractSynchronousNonBlockingStepExecution<String> {
+    public static final class vSphereExecution extends AbstractSynchronousNonBlockingStepExecution<Object> {
 
         private static final long serialVersionUID = 1;
 
@@ -112,11 +112,16 @@ public class vSphereStep extends AbstractStepImpl {
         private transient EnvVars envVars;
 
         @Override
-        protected String run() throws Exception {
+        protected Object run() throws Exception {
             String IP = "";
 
             vSphereBSC = new VSphereBuildStepContainer(step.getBuildStep(), step.getServerName());
             vSphereBSC.perform(run, filePath, launcher, listener);
+            final Object result = step.getBuildStep().getResult();
+            if (result != null) {
+                vSphereBSC = null;
+                return result;
+            }
             if (step.getBuildStep().getClass().toString().contains("PowerOn") ||
                     step.getBuildStep().getClass().toString().contains("Deploy") ||
                     step.getBuildStep().getClass().toString().contains("Clone") ||
@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jenkinsci.plugins.vSphereCloudLauncher.IdleStep;
+import org.jenkinsci.plugins.vSphereCloudLauncher.MACHINE_ACTION;
+import org.junit.Test;
+
+public class vSphereCloudLauncherTest {
+
+    @Test
+    public void idleStepsGivenShutdownThenOnlyShutsDown() {
+        // Given
+        final MACHINE_ACTION action = MACHINE_ACTION.SHUTDOWN;
+
+        // When
+        final List<IdleStep> actual = idleSteps(action, false);
+
+        // Then
+        assertThat(actual, equalTo(Arrays.asList(IdleStep.SHUTDOWN)));
+    }
+
+    @Test
+    public void idleStepsGivenRevertThenShutsDownAndReverts() {
+        // Given
+        final MACHINE_ACTION action = MACHINE_ACTION.REVERT;
+
+        // When
+        final List<IdleStep> actual = idleSteps(action, false);
+
+        // Then
+        assertThat(actual, equalTo(Arrays.asList(IdleStep.SHUTDOWN, IdleStep.REVERT)));
+    }
+
+    @Test
+    public void idleStepsGivenRevertAndResetThenResetsAfterReverting() {
+        // Given
+        final MACHINE_ACTION action = MACHINE_ACTION.REVERT_AND_RESET;
+
+        // When
+        final List<IdleStep> actual = idleSteps(action, false);
+
+        // Then
+        assertThat(actual, equalTo(Arrays.asList(IdleStep.SHUTDOWN, IdleStep.REVERT, IdleStep.RESET)));
+    }
+
+    @Test
+    public void idleStepsGivenRevertAndRestartToPoweredOffSnapshotThenPowersOn() {
+        // Given
+        final MACHINE_ACTION action = MACHINE_ACTION.REVERT_AND_RESTART;
+
+        // When
+        final List<IdleStep> actual = idleSteps(action, false);
+
+        // Then
+        assertThat(actual, equalTo(Arrays.asList(IdleStep.SHUTDOWN, IdleStep.REVERT, IdleStep.POWER_ON)));
+    }
+
+    @Test
+    public void idleStepsGivenRevertAndRestartToMemorySnapshotThenShutsDownCleanlyFirst() {
+        // Given
+        final MACHINE_ACTION action = MACHINE_ACTION.REVERT_AND_RESTART;
+
+        // When
+        final List<IdleStep> actual = idleSteps(action, true);
+
+        // Then
+        assertThat(actual, equalTo(Arrays.asList(IdleStep.SHUTDOWN, IdleStep.REVERT, IdleStep.WAIT_FOR_TOOLS,
+                IdleStep.SHUTDOWN_AFTER_REVERT, IdleStep.POWER_ON)));
+    }
+
+    @Test
+    public void idleStepsGivenResetOrSuspendThenDoesJustThat() {
+        // Given
+        final MACHINE_ACTION reset = MACHINE_ACTION.RESET;
+        final MACHINE_ACTION suspend = MACHINE_ACTION.SUSPEND;
+
+        // When
+        final List<IdleStep> resetSteps = idleSteps(reset, false);
+        final List<IdleStep> suspendSteps = idleSteps(suspend, false);
+
+        // Then
+        assertThat(resetSteps, equalTo(Arrays.asList(IdleStep.RESET)));
+        assertThat(suspendSteps, equalTo(Arrays.asList(IdleStep.SUSPEND)));
+    }
+
+    @Test
+    public void idleStepsGivenNothingThenHasNoSteps() {
+        // Given
+        final MACHINE_ACTION action = MACHINE_ACTION.NOTHING;
+
+        // When
+        final List<IdleStep> actual = idleSteps(action, false);
+
+        // Then
+        assertThat(actual.isEmpty(), equalTo(true));
+    }
+
+    private static List<IdleStep> idleSteps(MACHINE_ACTION action, boolean runningAfterRevert) {
+        final List<IdleStep> result = new ArrayList<IdleStep>();
+        for (IdleStep step = IdleStep.first(action); step != null; step = step.next(action, runningAfterRevert)) {
+            result.add(step);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,38 @@
+package org.jenkinsci.plugins.vsphere;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import hudson.model.listeners.ItemListener;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.cloudbees.hudson.plugins.folder.Folder;
+
+public class VSphereCloudRegistryListenerTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void folderRenamedOrDeletedThenIndexIsRebuilt() throws Exception {
+        // Given
+        final Folder folder = j.jenkins.createProject(Folder.class, "folder");
+        VSphereCloudRegistry.findAll(null);
+        final boolean indexedBefore = VSphereCloudRegistry.isIndexed();
+
+        // When
+        ItemListener.fireLocationChange(folder, "renamed");
+        final boolean indexedAfterRename = VSphereCloudRegistry.isIndexed();
+        VSphereCloudRegistry.findAll(null);
+        folder.delete();
+        final boolean indexedAfterDelete = VSphereCloudRegistry.isIndexed();
+
+        // Then
+        assertThat(indexedBefore, equalTo(true));
+        assertThat(indexedAfterRename, equalTo(false));
+        assertThat(indexedAfterDelete, equalTo(false));
+    }
+}
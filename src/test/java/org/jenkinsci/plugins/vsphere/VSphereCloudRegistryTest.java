@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.vsphere;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class VSphereCloudRegistryTest {
+
+    @Test
+    public void folderNamesGivenNestedFoldersThenReturnsEachOutermostFirst() {
+        // Given
+        final String requestUri = "/jenkins/job/outer/job/middle/job/inner/configure";
+
+        // When
+        final List<String> actual = VSphereCloudRegistry.folderNames(requestUri, "ignored");
+
+        // Then
+        assertThat(actual, equalTo(Arrays.asList("outer", "outer/middle", "outer/middle/inner")));
+    }
+
+    @Test
+    public void folderNamesGivenTopLevelJobThenReturnsJustTheJob() {
+        // Given
+        final String requestUri = "/job/top/build";
+
+        // When
+        final List<String> actual = VSphereCloudRegistry.folderNames(requestUri, null);
+
+        // Then
+        assertThat(actual, equalTo(Collections.singletonList("top")));
+    }
+
+    @Test
+    public void folderNamesGivenEncodedNamesThenDecodesThem() {
+        // Given
+        final String requestUri = "/view/All/job/my%20folder/job/caf%C3%A9/job/job/";
+
+        // When
+        final List<String> actual = VSphereCloudRegistry.folderNames(requestUri, null);
+
+        // Then
+        assertThat(actual, equalTo(Arrays.asList("my folder", "my folder/caf\u00e9", "my folder/caf\u00e9/job")));
+    }
+
+    @Test
+    public void folderNamesGivenNoJobInRequestThenReturnsNothing() {
+        // Given
+        final String requestUri = "/manage/configure";
+
+        // When
+        final List<String> actual = VSphereCloudRegistry.folderNames(requestUri, "outer/job");
+        final List<String> trailingJob = VSphereCloudRegistry.folderNames("/job", null);
+
+        // Then
+        assertThat(actual.isEmpty(), equalTo(true));
+        assertThat(trailingJob.isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void folderNamesGivenJobNameAndNoRequestThenUsesJobName() {
+        // Given
+        final String jobName = "outer/inner/job";
+
+        // When
+        final List<String> actual = VSphereCloudRegistry.folderNames(null, jobName);
+        final List<String> none = VSphereCloudRegistry.folderNames(null, null);
+
+        // Then
+        assertThat(actual, equalTo(Arrays.asList("outer", "outer/inner", "outer/inner/job")));
+        assertThat(none.isEmpty(), equalTo(true));
+    }
+}
@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.vsphere;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.util.OneShotEvent;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.jenkinsci.plugins.vSphereCloud;
+import org.jenkinsci.plugins.vSphereCloudSlaveTemplate;
+import org.jenkinsci.plugins.vsphere.simulator.VCenterSimulator;
+import org.jenkinsci.plugins.vsphere.tools.VSphere;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+
+public class VSphereRunSessionsTest {
+    private static final String CREDENTIALS_ID = "simulator";
+    private static final String SERVER = "simulator";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private VCenterSimulator simulator;
+    private VSphereRunSessions.CloudResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new VCenterSimulator();
+        simulator.setDefaultLatencyMillis(0L);
+        simulator.start();
+        j.jenkins.setNumExecutors(2); // so that two builds can run at once
+        SystemCredentialsProvider.getInstance().getCredentials().add(new UsernamePasswordCredentialsImpl(
+                CredentialsScope.GLOBAL, CREDENTIALS_ID, null, VCenterSimulator.USERNAME, VCenterSimulator.PASSWORD));
+        final vSphereCloud cloud = new vSphereCloud(new VSphereConnectionConfig(simulator.getUrl(), CREDENTIALS_ID),
+                SERVER, 0, 0, Collections.<vSphereCloudSlaveTemplate> emptyList());
+        resolver = new VSphereRunSessions.CloudResolver() {
+            @Override
+            public vSphereCloud resolve() {
+                return cloud;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        simulator.stop();
+    }
+
+    @Test
+    public void getGivenSameRunThenReusesSession() throws Exception {
+        // Given
+        final OneShotEvent finish = new OneShotEvent();
+        final QueueTaskFuture<FreeStyleBuild> future = startBlockedBuild("job", finish);
+        final FreeStyleBuild run = future.waitForStart();
+
+        // When
+        final VSphere first = VSphereRunSessions.get(run, SERVER, resolver);
+        final VSphere second = VSphereRunSessions.get(run, SERVER, resolver);
+
+        // Then
+        assertThat(second, sameInstance(first));
+        assertThat(simulator.getCallCount("Login"), equalTo(1L));
+        finish.signal();
+        j.assertBuildStatusSuccess(future);
+    }
+
+    @Test
+    public void getGivenRunCompletedThenSessionIsClosed() throws Exception {
+        // Given
+        final OneShotEvent finish = new OneShotEvent();
+        final QueueTaskFuture<FreeStyleBuild> future = startBlockedBuild("job", finish);
+        final FreeStyleBuild run = future.waitForStart();
+        VSphereRunSessions.get(run, SERVER, resolver);
+
+        // When
+        finish.signal();
+        j.assertBuildStatusSuccess(future);
+
+        // Then
+        assertThat(simulator.getCallCount("Logout"), equalTo(1L));
+    }
+
+    @Test
+    public void closeFinishedGivenOtherRunStillBuildingThenKeepsItsSession() throws Exception {
+        // Given
+        final OneShotEvent finishFirst = new OneShotEvent();
+        final OneShotEvent finishSecond = new OneShotEvent();
+        final QueueTaskFuture<FreeStyleBuild> firstFuture = startBlockedBuild("first", finishFirst);
+        final QueueTaskFuture<FreeStyleBuild> secondFuture = startBlockedBuild("second", finishSecond);
+        final FreeStyleBuild firstRun = firstFuture.waitForStart();
+        final FreeStyleBuild secondRun = secondFuture.waitForStart();
+        VSphereRunSessions.get(firstRun, SERVER, resolver);
+        final VSphere secondSession = VSphereRunSessions.get(secondRun, SERVER, resolver);
+
+        // When
+        finishFirst.signal();
+        j.assertBuildStatusSuccess(firstFuture);
+        final VSphere secondSessionAgain = VSphereRunSessions.get(secondRun, SERVER, resolver);
+
+        // Then
+        assertThat(secondSessionAgain, sameInstance(secondSession));
+        assertThat(simulator.getCallCount("Login"), equalTo(2L));
+        assertThat(simulator.getCallCount("Logout"), equalTo(1L));
+        finishSecond.signal();
+        j.assertBuildStatusSuccess(secondFuture);
+        assertThat(simulator.getCallCount("Logout"), equalTo(2L));
+    }
+
+    /** Starts a build that keeps running until it's told to finish. */
+    private QueueTaskFuture<FreeStyleBuild> startBlockedBuild(String name, final OneShotEvent finish)
+            throws IOException {
+        final FreeStyleProject project = j.createFreeStyleProject(name);
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException {
+                finish.block();
+                return true;
+            }
+        });
+        return project.scheduleBuild2(0);
+    }
+}
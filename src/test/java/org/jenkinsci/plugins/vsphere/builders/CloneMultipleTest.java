@@ -0,0 +1,45 @@
+package org.jenkinsci.plugins.vsphere.builders;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.Test;
+
+public class CloneMultipleTest {
+
+    @Test
+    public void cloneNameGivenIndexMacroThenReplacesIt() {
+        // Given
+        final String pattern = "test-${INDEX}-vm";
+
+        // When
+        final String actual = CloneMultiple.cloneName(pattern, 3);
+
+        // Then
+        assertThat(actual, equalTo("test-3-vm"));
+    }
+
+    @Test
+    public void cloneNameGivenNoIndexMacroThenAppendsIndex() {
+        // Given
+        final String pattern = "test";
+
+        // When
+        final String actual = CloneMultiple.cloneName(pattern, 12);
+
+        // Then
+        assertThat(actual, equalTo("test-12"));
+    }
+
+    @Test
+    public void cloneNameGivenOtherMacrosThenLeavesThemAlone() {
+        // Given
+        final String pattern = "${PREFIX}-${INDEX}";
+
+        // When
+        final String actual = CloneMultiple.cloneName(pattern, 1);
+
+        // Then
+        assertThat(actual, equalTo("${PREFIX}-1"));
+    }
+}
@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.vsphere.builders;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Map;
+
+import org.jenkinsci.plugins.vsphere.tools.VSphereException;
+import org.junit.Test;
+
+import com.vmware.vim25.GuestInfo;
+
+public class ExposeGuestInfoTest {
+
+    @Test
+    public void guestInfoPropertiesThenMapsGettersToPropertyPaths() {
+        // Given
+        final Map<String, String> instance = ExposeGuestInfo.GUEST_INFO_PROPERTIES;
+
+        // When
+        final String ipAddress = instance.get("IpAddress");
+        final String hostName = instance.get("HostName");
+        final String toolsRunningStatus = instance.get("ToolsRunningStatus");
+
+        // Then
+        assertThat(ipAddress, equalTo("guest.ipAddress"));
+        assertThat(hostName, equalTo("guest.hostName"));
+        assertThat(toolsRunningStatus, equalTo("guest.toolsRunningStatus"));
+        assertThat(instance.containsKey("Net"), equalTo(false)); // an array, so not something we can expose
+    }
+
+    @Test
+    public void selectPropertiesGivenNothingThenSelectsEverything() throws Exception {
+        // Given
+        final String selection = "  ";
+
+        // When
+        final Map<String, String> actual = ExposeGuestInfo.selectProperties(selection);
+        final Map<String, String> actualForNull = ExposeGuestInfo.selectProperties(null);
+
+        // Then
+        assertThat(actual, sameInstance(ExposeGuestInfo.GUEST_INFO_PROPERTIES));
+        assertThat(actualForNull, sameInstance(ExposeGuestInfo.GUEST_INFO_PROPERTIES));
+    }
+
+    @Test
+    public void selectPropertiesGivenNamesThenSelectsJustThose() throws Exception {
+        // Given
+        final String selection = "IpAddress, HostName\nGuestState";
+
+        // When
+        final Map<String, String> actual = ExposeGuestInfo.selectProperties(selection);
+
+        // Then
+        assertThat(actual.size(), equalTo(3));
+        assertThat(actual.get("IpAddress"), equalTo("guest.ipAddress"));
+        assertThat(actual.get("HostName"), equalTo("guest.hostName"));
+        assertThat(actual.get("GuestState"), equalTo("guest.guestState"));
+    }
+
+    @Test(expected = VSphereException.class)
+    public void selectPropertiesGivenUnknownNameThenThrows() throws Exception {
+        ExposeGuestInfo.selectProperties("IpAddress,NoSuchThing");
+    }
+
+    @Test
+    public void readGuestInfoGivenGuestThenReadsFieldsThatHaveValues() throws Exception {
+        // Given
+        final GuestInfo guest = new GuestInfo();
+        guest.setIpAddress("10.0.0.1");
+        guest.setHostName("slave1");
+
+        // When
+        final Map<String, Object> actual = ExposeGuestInfo.readGuestInfo(guest);
+
+        // Then
+        assertThat(actual.get("guest.ipAddress"), equalTo((Object) "10.0.0.1"));
+        assertThat(actual.get("guest.hostName"), equalTo((Object) "slave1"));
+        assertThat(actual.containsKey("guest.guestFamily"), equalTo(false));
+        assertThat(ExposeGuestInfo.readGuestInfo(null).isEmpty(), equalTo(true));
+    }
+}
@@ -0,0 +1,188 @@
+package org.jenkinsci.plugins.vsphere.simulator;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Node.Mode;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import hudson.slaves.RetentionStrategy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.vSphereCloud;
+import org.jenkinsci.plugins.vSphereCloudSlaveTemplate;
+import org.jenkinsci.plugins.vsphere.VSphereConnectionConfig;
+import org.jenkinsci.plugins.vsphere.VSphereGuestInfoProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+
+/**
+ * End-to-end throughput test: drives {@link vSphereCloud#provision(Label, int)}
+ * against a {@link VCenterSimulator} and reports how many clones per minute we
+ * achieve, how many SOAP calls each agent costs, and how long it takes for
+ * agents to come online.
+ * <p>
+ * This starts one agent process per provisioned node, so it's too slow (and
+ * too resource-hungry) to be part of the normal build. Run it explicitly, e.g.
+ *
+ * <pre>
+ * mvn test -Dtest=ProvisioningThroughputTest -Dvsphere.simulator.throughput=true -Dvsphere.simulator.agents=50
+ * </pre>
+ *
+ * The other vsphere.simulator.* system properties (see
+ * {@link #setUp()}) control the simulated vCenter's behaviour.
+ * </p>
+ */
+public class ProvisioningThroughputTest {
+    private static final String PROPERTY_PREFIX = "vsphere.simulator.";
+    private static final String MASTER_IMAGE = "master";
+    private static final String SNAPSHOT = "base";
+    private static final String LABEL = "simulated";
+    private static final String CREDENTIALS_ID = "simulator";
+    private static final long TIMEOUT_MINUTES = 10L;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private VCenterSimulator simulator;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("Set -D" + PROPERTY_PREFIX + "throughput=true to run this test",
+                Boolean.getBoolean(PROPERTY_PREFIX + "throughput"));
+        simulator = new VCenterSimulator();
+        simulator.setDefaultLatencyMillis(Long.getLong(PROPERTY_PREFIX + "latencyMillis", 20L));
+        simulator.setDefaultTaskMillis(Long.getLong(PROPERTY_PREFIX + "taskMillis", 200L));
+        simulator.setTaskMillis("CloneVM_Task", Long.getLong(PROPERTY_PREFIX + "cloneMillis", 3000L));
+        final double cloneFailureRate = Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "cloneFailureRate", "0"));
+        if (cloneFailureRate > 0.0) {
+            simulator.injectTaskFault("CloneVM_Task", cloneFailureRate, "TooManyConcurrentNativeClones");
+        }
+        final SimulatedInventory inventory = simulator.getInventory();
+        inventory.setMaxConcurrentTasks(Integer.getInteger(PROPERTY_PREFIX + "maxConcurrentTasks", 8));
+        inventory.setGuestBootMillis(Long.getLong(PROPERTY_PREFIX + "guestBootMillis", 1000L));
+        inventory.populate("existing-vm-", Integer.getInteger(PROPERTY_PREFIX + "inventorySize", 1000));
+        inventory.addVm(MASTER_IMAGE, false);
+        inventory.addSnapshot(MASTER_IMAGE, SNAPSHOT);
+        simulator.start();
+        SystemCredentialsProvider.getInstance().getCredentials().add(new UsernamePasswordCredentialsImpl(
+                CredentialsScope.GLOBAL, CREDENTIALS_ID, null, VCenterSimulator.USERNAME, VCenterSimulator.PASSWORD));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (simulator == null) {
+            return;
+        }
+        for (Node node : j.jenkins.getNodes()) {
+            j.jenkins.removeNode(node);
+        }
+        simulator.stop();
+    }
+
+    @Test
+    public void provisionGivenSimulatedVCenterThenReportsThroughput() throws Exception {
+        // Given
+        final int agents = Integer.getInteger(PROPERTY_PREFIX + "agents", 10);
+        final vSphereCloudSlaveTemplate template = new vSphereCloudSlaveTemplate("sim", MASTER_IMAGE, true, null,
+                true, SimulatedInventory.DEFAULT_CLUSTER, null, "datastore1", null, null, "simulated agent",
+                agents, 1, j.createTmpDir().getPath(), LABEL, Mode.NORMAL, true, false, 0, 0, false, null, null,
+                null, j.createComputerLauncher(null), RetentionStrategy.NOOP,
+                Collections.<NodeProperty<?>> emptyList(), Collections.<VSphereGuestInfoProperty> emptyList());
+        final vSphereCloud cloud = new vSphereCloud(new VSphereConnectionConfig(simulator.getUrl(), CREDENTIALS_ID),
+                "simulator", 0, 0, Collections.singletonList(template));
+        j.jenkins.clouds.add(cloud);
+        simulator.resetCallCounts();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+
+        // When
+        final long startNanos = System.nanoTime();
+        final Collection<PlannedNode> plannedNodes = cloud.provision(Label.get(LABEL), agents);
+        final List<Future<Long>> results = new ArrayList<Future<Long>>();
+        for (final PlannedNode plannedNode : plannedNodes) {
+            results.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    final Node node = plannedNode.future.get(TIMEOUT_MINUTES, TimeUnit.MINUTES);
+                    j.jenkins.addNode(node);
+                    final Computer computer = node.toComputer();
+                    computer.connect(false).get(TIMEOUT_MINUTES, TimeUnit.MINUTES);
+                    if (!computer.isOnline()) {
+                        throw new IllegalStateException(node.getNodeName() + " did not come online");
+                    }
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                }
+            }));
+        }
+        final List<Long> timesToOnline = new ArrayList<Long>();
+        int failures = 0;
+        for (Future<Long> result : results) {
+            try {
+                timesToOnline.add(result.get(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+            } catch (ExecutionException ex) {
+                failures++;
+            }
+        }
+        executor.shutdownNow();
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        // Then
+        report(agents, timesToOnline, failures, elapsedMillis);
+        assertThat(plannedNodes.size(), equalTo(agents));
+        if (!System.getProperty(PROPERTY_PREFIX + "cloneFailureRate", "0").equals("0")) {
+            return; // failures are expected
+        }
+        assertThat(failures, equalTo(0));
+        assertThat(timesToOnline.size(), equalTo(agents));
+    }
+
+    private void report(int agents, List<Long> timesToOnline, int failures, long elapsedMillis) {
+        Collections.sort(timesToOnline);
+        final long clones = simulator.getCallCount("CloneVM_Task");
+        final double clonesPerMinute = clones * 60000.0 / Math.max(1L, elapsedMillis);
+        final double callsPerAgent = simulator.getTotalCallCount() / (double) Math.max(1, agents);
+        final StringBuilder sb = new StringBuilder();
+        sb.append("vCenter simulator throughput:\n");
+        sb.append(String.format("  agents requested      %d (%d online, %d failed)%n", agents, timesToOnline.size(), failures));
+        sb.append(String.format("  elapsed               %d ms%n", elapsedMillis));
+        sb.append(String.format("  clones/minute         %.1f%n", clonesPerMinute));
+        sb.append(String.format("  SOAP calls per agent  %.1f%n", callsPerAgent));
+        sb.append(String.format("  time-to-online p50    %d ms%n", percentile(timesToOnline, 0.50)));
+        sb.append(String.format("  time-to-online p99    %d ms%n", percentile(timesToOnline, 0.99)));
+        sb.append("  SOAP calls by operation:\n");
+        for (Map.Entry<String, Long> entry : simulator.getCallCounts().entrySet()) {
+            sb.append(String.format("    %-28s %d%n", entry.getKey(), entry.getValue()));
+        }
+        System.out.println(sb);
+    }
+
+    private static long percentile(List<Long> sortedValues, double fraction) {
+        if (sortedValues.isEmpty()) {
+            return 0L;
+        }
+        final int index = (int) Math.ceil(fraction * sortedValues.size()) - 1;
+        return sortedValues.get(Math.max(0, Math.min(sortedValues.size() - 1, index)));
+    }
+}
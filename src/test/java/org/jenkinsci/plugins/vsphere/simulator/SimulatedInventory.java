@@ -0,0 +1,1154 @@
+package org.jenkinsci.plugins.vsphere.simulator;
+
+import static org.jenkinsci.plugins.vsphere.simulator.SoapXml.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.w3c.dom.Element;
+
+/**
+ * The state of a simulated vCenter server: its inventory (folders, a cluster,
+ * datastores, VMs and their snapshots), the tasks it's running, and the
+ * sessions and property filters its clients have created.
+ * <p>
+ * Only the properties that the plugin (and the vim25 client library on its
+ * behalf) actually read are modelled; any other property is simply reported as
+ * unset.
+ * </p>
+ * All methods are synchronized on this instance; anything waiting for a change
+ * (see {@link #waitForUpdates(Session, long)}) waits on this instance too.
+ */
+public class SimulatedInventory {
+    public static final String ROOT_FOLDER = "group-d1";
+    public static final String DEFAULT_DATACENTER = "Datacenter";
+    public static final String DEFAULT_CLUSTER = "Cluster";
+    public static final String DEFAULT_RESOURCE_POOL = "Resources";
+    private static final long GB = 1024L * 1024L * 1024L;
+
+    /** Something in the inventory. */
+    static class Entity {
+        final String type;
+        final String id;
+        String name;
+        Entity parent;
+        final List<Entity> children = new ArrayList<Entity>();
+        /** Properties that are references to a single other object. */
+        final Map<String, Entity> refs = new HashMap<String, Entity>();
+        /** Properties that are references to several other objects. */
+        final Map<String, List<Entity>> refLists = new HashMap<String, List<Entity>>();
+
+        Entity(String type, String id, String name) {
+            this.type = type;
+            this.id = id;
+            this.name = name;
+        }
+
+        List<Entity> refList(String property) {
+            List<Entity> list = refLists.get(property);
+            if (list == null) {
+                list = new ArrayList<Entity>();
+                refLists.put(property, list);
+            }
+            return list;
+        }
+    }
+
+    static final class Vm extends Entity {
+        final String uuid = UUID.randomUUID().toString();
+        boolean template;
+        String annotation = "";
+        String powerState = "poweredOff";
+        boolean toolsRunning;
+        String ipAddress;
+        long changeVersion;
+        long modified = System.currentTimeMillis();
+        final Map<String, String> extraConfig = new LinkedHashMap<String, String>();
+        final List<Snapshot> rootSnapshots = new ArrayList<Snapshot>();
+        Snapshot currentSnapshot;
+        /** Incremented on every power-on, so a stale guest-boot doesn't apply. */
+        int bootCount;
+
+        Vm(String id, String name) {
+            super("VirtualMachine", id, name);
+        }
+    }
+
+    static final class Datastore extends Entity {
+        long capacity = 2048L * GB;
+        long freeSpace = 1024L * GB;
+
+        Datastore(String id, String name) {
+            super("Datastore", id, name);
+        }
+    }
+
+    static final class Snapshot {
+        final String id;
+        final int key;
+        final Vm vm;
+        final long createTime = System.currentTimeMillis();
+        final String powerState;
+        String name;
+        String description;
+        Snapshot parent;
+        final List<Snapshot> children = new ArrayList<Snapshot>();
+
+        Snapshot(String id, int key, Vm vm, String name, String description) {
+            this.id = id;
+            this.key = key;
+            this.vm = vm;
+            this.name = name;
+            this.description = description;
+            this.powerState = vm.powerState;
+        }
+    }
+
+    /** A vCenter task. Tasks queue until a slot is free, then run for a while. */
+    static final class SimulatedTask {
+        final String id;
+        final String operation;
+        final Object entity;
+        final long durationMillis;
+        final TaskWork work;
+        final long queueTime = System.currentTimeMillis();
+        long startTime;
+        long completeTime;
+        String state = "queued";
+        String faultType;
+        String faultMessage;
+        Object result;
+
+        SimulatedTask(String id, String operation, Object entity, long durationMillis, TaskWork work) {
+            this.id = id;
+            this.operation = operation;
+            this.entity = entity;
+            this.durationMillis = durationMillis;
+            this.work = work;
+        }
+    }
+
+    /** What a task does when it completes. Runs with the inventory locked. */
+    interface TaskWork {
+        /** @return The task's result (an {@link Entity} or {@link Snapshot}), or null. */
+        Object complete() throws Fault;
+    }
+
+    /** A vSphere fault, which is reported to the client as a SOAP fault or a failed task. */
+    static final class Fault extends Exception {
+        private static final long serialVersionUID = 1L;
+        final String faultType;
+
+        Fault(String faultType, String message) {
+            super(message);
+            this.faultType = faultType;
+        }
+    }
+
+    /** A client's login session. */
+    static final class Session {
+        final String key = UUID.randomUUID().toString();
+        final long loginTime = System.currentTimeMillis();
+        String userName;
+        final Map<String, Filter> filters = new LinkedHashMap<String, Filter>();
+        long updateVersion;
+        boolean waitCancelled;
+    }
+
+    /** A property filter, which remembers what it last told the client. */
+    static final class Filter {
+        final String id;
+        final List<String[]> objects = new ArrayList<String[]>();
+        final Map<String, List<String>> pathsByType = new HashMap<String, List<String>>();
+        final Map<String, String> delivered = new HashMap<String, String>();
+
+        Filter(String id) {
+            this.id = id;
+        }
+    }
+
+    private final ScheduledExecutorService timer;
+    private final Map<String, Entity> entities = new LinkedHashMap<String, Entity>();
+    private final Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>();
+    private final Map<String, SimulatedTask> tasks = new HashMap<String, SimulatedTask>();
+    private final Map<String, Session> sessions = new HashMap<String, Session>();
+    private final Deque<SimulatedTask> queuedTasks = new ArrayDeque<SimulatedTask>();
+    private final Entity rootFolder;
+    private final Entity vmFolder;
+    private final Entity cluster;
+    private final Entity resourcePool;
+    private final Entity datastoreFolder;
+    private int nextId = 100;
+    private int runningTasks;
+    private int maxConcurrentTasks = 8;
+    private long guestBootMillis = 1000L;
+
+    SimulatedInventory(ScheduledExecutorService timer) {
+        this.timer = timer;
+        rootFolder = add(new Entity("Folder", ROOT_FOLDER, "Datacenters"), null);
+        final Entity datacenter = add(new Entity("Datacenter", "datacenter-2", DEFAULT_DATACENTER), rootFolder);
+        vmFolder = add(new Entity("Folder", "group-v3", "vm"), datacenter);
+        final Entity hostFolder = add(new Entity("Folder", "group-h4", "host"), datacenter);
+        datastoreFolder = add(new Entity("Folder", "group-s5", "datastore"), datacenter);
+        datacenter.refs.put("vmFolder", vmFolder);
+        datacenter.refs.put("hostFolder", hostFolder);
+        datacenter.refs.put("datastoreFolder", datastoreFolder);
+        cluster = add(new Entity("ClusterComputeResource", "domain-c7", DEFAULT_CLUSTER), hostFolder);
+        resourcePool = add(new Entity("ResourcePool", "resgroup-8", DEFAULT_RESOURCE_POOL), cluster);
+        final Entity host = add(new Entity("HostSystem", "host-9", "esx01.simulated"), cluster);
+        cluster.refs.put("resourcePool", resourcePool);
+        cluster.refList("host").add(host);
+        resourcePool.refs.put("owner", cluster);
+    }
+
+    /** Sets how many tasks can run at once; any more than this are queued. */
+    public synchronized void setMaxConcurrentTasks(int maxConcurrentTasks) {
+        this.maxConcurrentTasks = Math.max(1, maxConcurrentTasks);
+    }
+
+    /** Sets how long a VM takes after power-on before VMware Tools is running and it has an IP address. */
+    public synchronized void setGuestBootMillis(long guestBootMillis) {
+        this.guestBootMillis = guestBootMillis;
+    }
+
+    /** Adds a datastore, visible to the cluster. */
+    public synchronized void addDatastore(String name, long capacityBytes, long freeSpaceBytes) {
+        final Datastore datastore = add(new Datastore(newId("datastore-"), name), datastoreFolder);
+        datastore.capacity = capacityBytes;
+        datastore.freeSpace = freeSpaceBytes;
+        cluster.refList("datastore").add(datastore);
+    }
+
+    /** Adds a powered-off VM (or template) to the VM folder. */
+    public synchronized void addVm(String name, boolean template) {
+        final Vm vm = add(new Vm(newId("vm-"), name), vmFolder);
+        vm.template = template;
+        vm.refs.put("resourcePool", resourcePool);
+        final List<Entity> datastores = cluster.refList("datastore");
+        if (!datastores.isEmpty()) {
+            vm.refList("datastore").add(datastores.get(0));
+        }
+        changed();
+    }
+
+    /** Adds a snapshot to an existing VM and makes it the current snapshot. */
+    public synchronized void addSnapshot(String vmName, String snapshotName) {
+        final Vm vm = findVmOrNull(vmName);
+        if (vm == null) {
+            throw new IllegalArgumentException("VM " + vmName + " not found");
+        }
+        createSnapshot(vm, snapshotName, "");
+    }
+
+    /**
+     * Adds lots of (powered-off) VMs, so that searches of the inventory cost
+     * what they would on a real server.
+     */
+    public synchronized void populate(String namePrefix, int count) {
+        for (int i = 0; i < count; i++) {
+            addVm(namePrefix + i, false);
+        }
+    }
+
+    /** @return The number of VMs (including templates) in the inventory. */
+    public synchronized int countVms() {
+        int count = 0;
+        for (Entity e : entities.values()) {
+            if (e instanceof Vm) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** @return The power state of the VM of this name ("poweredOn", "poweredOff" or "suspended"), or null if there's no such VM. */
+    public synchronized String getPowerState(String vmName) {
+        final Vm vm = findVmOrNull(vmName);
+        return vm == null ? null : vm.powerState;
+    }
+
+    /** @return true if there's a VM of this name that is powered on, running VMware Tools and has an IP address. */
+    public synchronized boolean isVmReady(String vmName) {
+        final Vm vm = findVmOrNull(vmName);
+        return vm != null && "poweredOn".equals(vm.powerState) && vm.toolsRunning && vm.ipAddress != null;
+    }
+
+    /** @return The value of a guestinfo variable (without the "guestinfo." prefix), or null. */
+    public synchronized String getGuestInfo(String vmName, String key) {
+        final Vm vm = findVmOrNull(vmName);
+        return vm == null ? null : vm.extraConfig.get("guestinfo." + key);
+    }
+
+    // ---- sessions ----
+
+    synchronized Session newSession() {
+        final Session session = new Session();
+        sessions.put(session.key, session);
+        return session;
+    }
+
+    synchronized Session getSession(String key) {
+        return key == null ? null : sessions.get(key);
+    }
+
+    synchronized void endSession(Session session) {
+        sessions.remove(session.key);
+        session.waitCancelled = true;
+        changed();
+    }
+
+    // ---- looking things up ----
+
+    synchronized Vm findVmOrNull(String name) {
+        for (Entity e : entities.values()) {
+            if (e instanceof Vm && e.name.equals(name)) {
+                return (Vm) e;
+            }
+        }
+        return null;
+    }
+
+    synchronized Entity entity(Element morElement) throws Fault {
+        final String id = morElement == null ? null : morElement.getTextContent().trim();
+        final Entity e = id == null ? null : entities.get(id);
+        if (e == null) {
+            throw new Fault("ManagedObjectNotFound", "The object " + id + " has already been deleted or has not been completely created");
+        }
+        return e;
+    }
+
+    synchronized Vm vm(Element morElement) throws Fault {
+        final Entity e = entity(morElement);
+        if (!(e instanceof Vm)) {
+            throw new Fault("InvalidArgument", e.id + " is not a VirtualMachine");
+        }
+        return (Vm) e;
+    }
+
+    synchronized Snapshot snapshot(Element morElement) throws Fault {
+        final String id = morElement == null ? null : morElement.getTextContent().trim();
+        final Snapshot s = id == null ? null : snapshots.get(id);
+        if (s == null) {
+            throw new Fault("ManagedObjectNotFound", "The snapshot " + id + " has already been deleted");
+        }
+        return s;
+    }
+
+    synchronized Entity entityOrNull(Element morElement) {
+        final String id = morElement == null ? null : morElement.getTextContent().trim();
+        return id == null ? null : entities.get(id);
+    }
+
+    // ---- changing things ----
+
+    synchronized String newId(String prefix) {
+        return prefix + (nextId++);
+    }
+
+    private <T extends Entity> T add(T entity, Entity parent) {
+        entity.parent = parent;
+        if (parent != null) {
+            parent.children.add(entity);
+        }
+        entities.put(entity.id, entity);
+        return entity;
+    }
+
+    synchronized Vm cloneVm(Vm source, Entity folder, String name, boolean template, Entity pool, Entity datastore)
+            throws Fault {
+        if (findVmOrNull(name) != null) {
+            throw new Fault("DuplicateName", "The name '" + name + "' already exists.");
+        }
+        final Vm clone = add(new Vm(newId("vm-"), name), folder == null ? vmFolder : folder);
+        clone.template = template;
+        clone.annotation = source.annotation;
+        clone.extraConfig.putAll(source.extraConfig);
+        clone.refs.put("resourcePool", pool != null ? pool : resourcePool);
+        if (datastore != null) {
+            clone.refList("datastore").add(datastore);
+        } else {
+            clone.refList("datastore").addAll(source.refList("datastore"));
+        }
+        return clone;
+    }
+
+    synchronized void destroy(Vm vm) throws Fault {
+        if ("poweredOn".equals(vm.powerState)) {
+            throw new Fault("InvalidPowerState", "The attempted operation cannot be performed in the current state (Powered on).");
+        }
+        vm.parent.children.remove(vm);
+        entities.remove(vm.id);
+        for (Snapshot s : new ArrayList<Snapshot>(snapshots.values())) {
+            if (s.vm == vm) {
+                snapshots.remove(s.id);
+            }
+        }
+    }
+
+    synchronized void powerOn(final Vm vm) throws Fault {
+        if (vm.template) {
+            throw new Fault("InvalidState", "The operation is not allowed in the current state.");
+        }
+        if ("poweredOn".equals(vm.powerState)) {
+            throw new Fault("InvalidPowerState", "The attempted operation cannot be performed in the current state (Powered on).");
+        }
+        vm.powerState = "poweredOn";
+        final int bootCount = ++vm.bootCount;
+        touch(vm);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SimulatedInventory.this) {
+                    if (vm.bootCount == bootCount && "poweredOn".equals(vm.powerState)) {
+                        vm.toolsRunning = true;
+                        final int n = Integer.parseInt(vm.id.substring(vm.id.indexOf('-') + 1));
+                        vm.ipAddress = "10." + ((n >> 16) & 255) + "." + ((n >> 8) & 255) + "." + (n & 255);
+                        changed();
+                    }
+                }
+            }
+        }, guestBootMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void powerOff(Vm vm, String newState) throws Fault {
+        if (!"poweredOn".equals(vm.powerState) && !"suspended".equals(vm.powerState)) {
+            throw new Fault("InvalidPowerState", "The attempted operation cannot be performed in the current state (Powered off).");
+        }
+        vm.powerState = newState;
+        vm.toolsRunning = false;
+        vm.ipAddress = null;
+        touch(vm);
+    }
+
+    synchronized void reconfigure(Vm vm, Element spec) {
+        final String annotation = text(spec, "annotation");
+        if (annotation != null) {
+            vm.annotation = annotation;
+        }
+        final String name = text(spec, "name");
+        if (name != null) {
+            vm.name = name;
+        }
+        for (Element option : children(spec, "extraConfig")) {
+            final String key = text(option, "key");
+            final String value = text(option, "value");
+            if (value == null || value.isEmpty()) {
+                vm.extraConfig.remove(key);
+            } else {
+                vm.extraConfig.put(key, value);
+            }
+        }
+        touch(vm);
+    }
+
+    synchronized Snapshot createSnapshot(Vm vm, String name, String description) {
+        final Snapshot snapshot = new Snapshot(newId("snapshot-"), nextId, vm, name, description);
+        snapshot.parent = vm.currentSnapshot;
+        if (snapshot.parent == null) {
+            vm.rootSnapshots.add(snapshot);
+        } else {
+            snapshot.parent.children.add(snapshot);
+        }
+        snapshots.put(snapshot.id, snapshot);
+        vm.currentSnapshot = snapshot;
+        touch(vm);
+        return snapshot;
+    }
+
+    synchronized void revertToSnapshot(Snapshot snapshot) {
+        final Vm vm = snapshot.vm;
+        vm.currentSnapshot = snapshot;
+        vm.powerState = snapshot.powerState;
+        vm.toolsRunning = false;
+        vm.ipAddress = null;
+        touch(vm);
+    }
+
+    synchronized void removeSnapshot(Snapshot snapshot, boolean removeChildren) {
+        final Vm vm = snapshot.vm;
+        final List<Snapshot> siblings = snapshot.parent == null ? vm.rootSnapshots : snapshot.parent.children;
+        siblings.remove(snapshot);
+        if (removeChildren) {
+            removeAll(snapshot.children);
+        } else {
+            for (Snapshot child : snapshot.children) {
+                child.parent = snapshot.parent;
+                siblings.add(child);
+            }
+        }
+        snapshots.remove(snapshot.id);
+        if (vm.currentSnapshot != null && !snapshots.containsKey(vm.currentSnapshot.id)) {
+            vm.currentSnapshot = snapshot.parent;
+        }
+        touch(vm);
+    }
+
+    private void removeAll(List<Snapshot> list) {
+        for (Snapshot s : list) {
+            snapshots.remove(s.id);
+            removeAll(s.children);
+        }
+    }
+
+    synchronized void touch(Vm vm) {
+        vm.changeVersion++;
+        vm.modified = System.currentTimeMillis();
+        changed();
+    }
+
+    /** Wakes up anything waiting for updates. */
+    private void changed() {
+        notifyAll();
+    }
+
+    // ---- tasks ----
+
+    /**
+     * Creates a task that will be queued until there's a free slot, will then
+     * run for the given duration, and then complete by running the given work.
+     */
+    synchronized SimulatedTask createTask(String operation, Object entity, long durationMillis, TaskWork work) {
+        final SimulatedTask task = new SimulatedTask(newId("task-"), operation, entity, durationMillis, work);
+        tasks.put(task.id, task);
+        queuedTasks.add(task);
+        startQueuedTasks();
+        return task;
+    }
+
+    /** Creates a task that has already failed. */
+    synchronized SimulatedTask createFailedTask(String operation, Object entity, Fault fault) {
+        final SimulatedTask task = new SimulatedTask(newId("task-"), operation, entity, 0L, null);
+        task.startTime = task.queueTime;
+        task.completeTime = task.queueTime;
+        task.state = "error";
+        task.faultType = fault.faultType;
+        task.faultMessage = fault.getMessage();
+        tasks.put(task.id, task);
+        changed();
+        return task;
+    }
+
+    private void startQueuedTasks() {
+        while (runningTasks < maxConcurrentTasks && !queuedTasks.isEmpty()) {
+            final SimulatedTask task = queuedTasks.poll();
+            runningTasks++;
+            task.state = "running";
+            task.startTime = System.currentTimeMillis();
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    completeTask(task);
+                }
+            }, task.durationMillis, TimeUnit.MILLISECONDS);
+        }
+        changed();
+    }
+
+    private synchronized void completeTask(SimulatedTask task) {
+        try {
+            task.result = task.work.complete();
+            task.state = "success";
+        } catch (Fault fault) {
+            task.state = "error";
+            task.faultType = fault.faultType;
+            task.faultMessage = fault.getMessage();
+        } catch (RuntimeException ex) {
+            task.state = "error";
+            task.faultType = "SystemError";
+            task.faultMessage = String.valueOf(ex);
+        }
+        task.completeTime = System.currentTimeMillis();
+        runningTasks--;
+        startQueuedTasks();
+    }
+
+    // ---- reading properties ----
+
+    /**
+     * Implements RetrieveProperties.
+     *
+     * @param specSets
+     *            The specSet elements from the request.
+     * @return The ObjectContent elements, each named "returnval".
+     */
+    synchronized String retrieveProperties(Session session, List<Element> specSets) throws Fault {
+        final StringBuilder sb = new StringBuilder();
+        for (Element specSet : specSets) {
+            final Map<String, List<String>> pathsByType = new LinkedHashMap<String, List<String>>();
+            final Map<String, Boolean> allByType = new HashMap<String, Boolean>();
+            for (Element propSet : children(specSet, "propSet")) {
+                final String type = text(propSet, "type");
+                pathsByType.put(type, texts(propSet, "pathSet"));
+                allByType.put(type, bool(propSet, "all", false));
+            }
+            for (Element objectSet : children(specSet, "objectSet")) {
+                for (Object o : selectObjects(objectSet)) {
+                    final String type = typeOf(o);
+                    final String wantedType = findMatchingType(type, pathsByType.keySet());
+                    if (wantedType == null) {
+                        continue;
+                    }
+                    List<String> paths = pathsByType.get(wantedType);
+                    if (Boolean.TRUE.equals(allByType.get(wantedType)) && paths.isEmpty()) {
+                        paths = Collections.singletonList("name");
+                    }
+                    appendObjectContent(sb, "returnval", session, o, paths);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private void appendObjectContent(StringBuilder sb, String elementName, Session session, Object o,
+            List<String> paths) {
+        start(sb, elementName, null);
+        mor(sb, "obj", typeOf(o), idOf(o));
+        for (String path : paths) {
+            final StringBuilder val = new StringBuilder();
+            appendProperty(val, "val", session, o, path);
+            if (val.length() > 0) {
+                start(sb, "propSet", null);
+                element(sb, "name", path);
+                sb.append(val);
+                end(sb, "propSet");
+            }
+        }
+        end(sb, elementName);
+    }
+
+    /**
+     * Works out what objects an ObjectSpec refers to. We don't interpret the
+     * traversal specs; if there are any then we assume that the client wants
+     * to search everything beneath the starting point, which is all that the
+     * client library's InventoryNavigator ever asks for.
+     */
+    private List<Object> selectObjects(Element objectSet) throws Fault {
+        final Element obj = child(objectSet, "obj");
+        final Object start = lookup(obj);
+        final boolean skip = bool(objectSet, "skip", false);
+        final boolean traverse = !children(objectSet, "selectSet").isEmpty();
+        final List<Object> result = new ArrayList<Object>();
+        if (!skip) {
+            result.add(start);
+        }
+        if (traverse && start instanceof Entity) {
+            addDescendants(result, (Entity) start);
+        }
+        return result;
+    }
+
+    private void addDescendants(List<Object> result, Entity parent) {
+        for (Entity child : parent.children) {
+            result.add(child);
+            addDescendants(result, child);
+        }
+        // datastores live in the datastore folder, but are reachable from the cluster
+        if (parent == cluster) {
+            result.addAll(parent.refList("datastore"));
+        }
+    }
+
+    private Object lookup(Element morElement) throws Fault {
+        final String type = morElement == null ? null : morElement.getAttribute("type");
+        if ("VirtualMachineSnapshot".equals(type)) {
+            return snapshot(morElement);
+        }
+        if ("Task".equals(type)) {
+            final SimulatedTask task = tasks.get(morElement.getTextContent().trim());
+            if (task == null) {
+                throw new Fault("ManagedObjectNotFound", "No such task");
+            }
+            return task;
+        }
+        if ("SessionManager".equals(type) || "PropertyCollector".equals(type) || "ServiceInstance".equals(type)) {
+            return type;
+        }
+        return entity(morElement);
+    }
+
+    private static String typeOf(Object o) {
+        if (o instanceof Entity) {
+            return ((Entity) o).type;
+        }
+        if (o instanceof Snapshot) {
+            return "VirtualMachineSnapshot";
+        }
+        if (o instanceof SimulatedTask) {
+            return "Task";
+        }
+        return (String) o;
+    }
+
+    private static String idOf(Object o) {
+        if (o instanceof Entity) {
+            return ((Entity) o).id;
+        }
+        if (o instanceof Snapshot) {
+            return ((Snapshot) o).id;
+        }
+        if (o instanceof SimulatedTask) {
+            return ((SimulatedTask) o).id;
+        }
+        return (String) o;
+    }
+
+    private static String findMatchingType(String actualType, Iterable<String> wantedTypes) {
+        for (String wanted : wantedTypes) {
+            if (wanted.equals(actualType)) {
+                return wanted;
+            }
+        }
+        for (String wanted : wantedTypes) {
+            final boolean isEntity = !actualType.equals("Task") && !actualType.equals("VirtualMachineSnapshot")
+                    && Character.isUpperCase(actualType.charAt(0)) && !actualType.endsWith("Manager");
+            if ((wanted.equals("ManagedEntity") && isEntity)
+                    || (wanted.equals("ComputeResource") && actualType.equals("ClusterComputeResource"))) {
+                return wanted;
+            }
+        }
+        return null;
+    }
+
+    /** Appends the value of a property, as an element of the given name, or nothing if it is unset. */
+    private void appendProperty(StringBuilder sb, String el, Session session, Object o, String path) {
+        if (o instanceof Vm) {
+            appendVmProperty(sb, el, (Vm) o, path);
+        } else if (o instanceof Datastore) {
+            appendDatastoreProperty(sb, el, (Datastore) o, path);
+        } else if (o instanceof Entity) {
+            appendEntityProperty(sb, el, (Entity) o, path);
+        } else if (o instanceof SimulatedTask) {
+            appendTaskProperty(sb, el, (SimulatedTask) o, path);
+        } else if (o instanceof Snapshot) {
+            final Snapshot s = (Snapshot) o;
+            if ("vm".equals(path)) {
+                typedMor(sb, el, "VirtualMachine", s.vm.id);
+            }
+        } else if ("SessionManager".equals(o) && "currentSession".equals(path) && session != null) {
+            start(sb, el, "UserSession");
+            appendUserSession(sb, session);
+            end(sb, el);
+        }
+    }
+
+    private void appendEntityProperty(StringBuilder sb, String el, Entity e, String path) {
+        if ("name".equals(path)) {
+            typed(sb, el, "xsd:string", e.name);
+        } else if ("parent".equals(path)) {
+            if (e.parent != null) {
+                typedMor(sb, el, e.parent.type, e.parent.id);
+            }
+        } else if ("childEntity".equals(path) && "Folder".equals(e.type)) {
+            appendMorArray(sb, el, e.children);
+        } else if ("summary".equals(path) && "HostSystem".equals(e.type)) {
+            start(sb, el, "HostListSummary");
+            mor(sb, "host", e.type, e.id);
+            sb.append("<hardware><vendor>Simulated</vendor><model>Simulated</model><uuid>").append(e.id)
+                    .append("</uuid><memorySize>").append(256L * GB).append("</memorySize><cpuModel>Simulated</cpuModel>")
+                    .append("<cpuMhz>2400</cpuMhz><numCpuPkgs>2</numCpuPkgs><numCpuCores>32</numCpuCores>")
+                    .append("<numCpuThreads>64</numCpuThreads><numNics>2</numNics><numHBAs>2</numHBAs></hardware>");
+            sb.append("<runtime><connectionState>connected</connectionState><powerState>poweredOn</powerState>")
+                    .append("<inMaintenanceMode>false</inMaintenanceMode></runtime>");
+            sb.append("<quickStats><overallCpuUsage>").append(countPoweredOnVms() * 100)
+                    .append("</overallCpuUsage><overallMemoryUsage>").append(countPoweredOnVms() * 1024)
+                    .append("</overallMemoryUsage></quickStats>");
+            element(sb, "overallStatus", "green");
+            element(sb, "rebootRequired", false);
+            end(sb, el);
+        } else if (e.refs.containsKey(path)) {
+            final Entity ref = e.refs.get(path);
+            typedMor(sb, el, ref.type, ref.id);
+        } else if (e.refLists.containsKey(path)) {
+            appendMorArray(sb, el, e.refLists.get(path));
+        }
+    }
+
+    private int countPoweredOnVms() {
+        int count = 0;
+        for (Entity e : entities.values()) {
+            if (e instanceof Vm && "poweredOn".equals(((Vm) e).powerState)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void appendDatastoreProperty(StringBuilder sb, String el, Datastore ds, String path) {
+        if ("summary".equals(path)) {
+            start(sb, el, "DatastoreSummary");
+            mor(sb, "datastore", ds.type, ds.id);
+            element(sb, "name", ds.name);
+            element(sb, "url", "ds:///vmfs/volumes/" + ds.id + "/");
+            element(sb, "capacity", ds.capacity);
+            element(sb, "freeSpace", ds.freeSpace);
+            element(sb, "accessible", true);
+            element(sb, "multipleHostAccess", true);
+            element(sb, "type", "VMFS");
+            end(sb, el);
+        } else if ("summary.freeSpace".equals(path)) {
+            typed(sb, el, "xsd:long", ds.freeSpace);
+        } else if ("summary.capacity".equals(path)) {
+            typed(sb, el, "xsd:long", ds.capacity);
+        } else {
+            appendEntityProperty(sb, el, ds, path);
+        }
+    }
+
+    private void appendVmProperty(StringBuilder sb, String el, Vm vm, String path) {
+        if ("config".equals(path)) {
+            start(sb, el, "VirtualMachineConfigInfo");
+            appendVmConfig(sb, vm);
+            end(sb, el);
+        } else if ("config.template".equals(path)) {
+            typed(sb, el, "xsd:boolean", vm.template);
+        } else if ("config.annotation".equals(path)) {
+            typed(sb, el, "xsd:string", vm.annotation);
+        } else if ("config.changeVersion".equals(path)) {
+            typed(sb, el, "xsd:string", vm.changeVersion);
+        } else if ("config.name".equals(path)) {
+            typed(sb, el, "xsd:string", vm.name);
+        } else if ("config.extraConfig".equals(path)) {
+            start(sb, el, "ArrayOfOptionValue");
+            appendExtraConfig(sb, vm, "OptionValue");
+            end(sb, el);
+        } else if ("runtime".equals(path)) {
+            start(sb, el, "VirtualMachineRuntimeInfo");
+            appendVmRuntime(sb, vm);
+            end(sb, el);
+        } else if ("runtime.powerState".equals(path)) {
+            typed(sb, el, "VirtualMachinePowerState", vm.powerState);
+        } else if ("summary".equals(path)) {
+            start(sb, el, "VirtualMachineSummary");
+            mor(sb, "vm", vm.type, vm.id);
+            sb.append("<runtime>");
+            appendVmRuntime(sb, vm);
+            sb.append("</runtime><guest>");
+            element(sb, "toolsStatus", vm.toolsRunning ? "toolsOk" : "toolsNotRunning");
+            element(sb, "ipAddress", vm.ipAddress);
+            sb.append("</guest><config>");
+            element(sb, "name", vm.name);
+            element(sb, "template", vm.template);
+            element(sb, "vmPathName", "[" + firstDatastoreName(vm) + "] " + vm.name + "/" + vm.name + ".vmx");
+            element(sb, "annotation", vm.annotation);
+            element(sb, "uuid", vm.uuid);
+            sb.append("</config>");
+            element(sb, "overallStatus", "green");
+            end(sb, el);
+        } else if ("guest".equals(path)) {
+            start(sb, el, "GuestInfo");
+            appendGuest(sb, vm);
+            end(sb, el);
+        } else if ("guest.ipAddress".equals(path)) {
+            typed(sb, el, "xsd:string", vm.ipAddress);
+        } else if ("guest.toolsStatus".equals(path)) {
+            typed(sb, el, "VirtualMachineToolsStatus", vm.toolsRunning ? "toolsOk" : "toolsNotRunning");
+        } else if ("guest.toolsRunningStatus".equals(path)) {
+            typed(sb, el, "xsd:string", vm.toolsRunning ? "guestToolsRunning" : "guestToolsNotRunning");
+        } else if ("snapshot".equals(path)) {
+            if (!vm.rootSnapshots.isEmpty()) {
+                start(sb, el, "VirtualMachineSnapshotInfo");
+                if (vm.currentSnapshot != null) {
+                    mor(sb, "currentSnapshot", "VirtualMachineSnapshot", vm.currentSnapshot.id);
+                }
+                for (Snapshot s : vm.rootSnapshots) {
+                    appendSnapshotTree(sb, "rootSnapshotList", s);
+                }
+                end(sb, el);
+            }
+        } else if ("snapshot.currentSnapshot".equals(path)) {
+            if (vm.currentSnapshot != null) {
+                typedMor(sb, el, "VirtualMachineSnapshot", vm.currentSnapshot.id);
+            }
+        } else if ("snapshot.rootSnapshotList".equals(path)) {
+            if (!vm.rootSnapshots.isEmpty()) {
+                start(sb, el, "ArrayOfVirtualMachineSnapshotTree");
+                for (Snapshot s : vm.rootSnapshots) {
+                    appendSnapshotTree(sb, "VirtualMachineSnapshotTree", s);
+                }
+                end(sb, el);
+            }
+        } else if ("rootSnapshot".equals(path)) {
+            final List<String> ids = new ArrayList<String>();
+            for (Snapshot s : vm.rootSnapshots) {
+                ids.add(s.id);
+            }
+            start(sb, el, "ArrayOfManagedObjectReference");
+            for (String id : ids) {
+                mor(sb, "ManagedObjectReference", "VirtualMachineSnapshot", id);
+            }
+            end(sb, el);
+        } else {
+            appendEntityProperty(sb, el, vm, path);
+        }
+    }
+
+    private void appendVmConfig(StringBuilder sb, Vm vm) {
+        element(sb, "changeVersion", vm.changeVersion);
+        element(sb, "modified", dateTime(vm.modified));
+        element(sb, "name", vm.name);
+        element(sb, "guestFullName", "Other Linux (64-bit)");
+        element(sb, "version", "vmx-11");
+        element(sb, "uuid", vm.uuid);
+        element(sb, "instanceUuid", vm.uuid);
+        element(sb, "template", vm.template);
+        element(sb, "guestId", "otherLinux64Guest");
+        element(sb, "annotation", vm.annotation);
+        appendExtraConfig(sb, vm, "extraConfig");
+    }
+
+    private void appendExtraConfig(StringBuilder sb, Vm vm, String elementName) {
+        for (Map.Entry<String, String> entry : vm.extraConfig.entrySet()) {
+            start(sb, elementName, "OptionValue");
+            element(sb, "key", entry.getKey());
+            typed(sb, "value", "xsd:string", entry.getValue());
+            end(sb, elementName);
+        }
+    }
+
+    private void appendVmRuntime(StringBuilder sb, Vm vm) {
+        element(sb, "connectionState", "connected");
+        element(sb, "powerState", vm.powerState);
+        element(sb, "faultToleranceState", "notConfigured");
+        element(sb, "toolsInstallerMounted", false);
+        element(sb, "numMksConnections", 0);
+        element(sb, "onlineStandby", false);
+        element(sb, "consolidationNeeded", false);
+    }
+
+    private void appendGuest(StringBuilder sb, Vm vm) {
+        element(sb, "toolsStatus", vm.toolsRunning ? "toolsOk" : "toolsNotRunning");
+        element(sb, "toolsRunningStatus", vm.toolsRunning ? "guestToolsRunning" : "guestToolsNotRunning");
+        element(sb, "guestId", "otherLinux64Guest");
+        element(sb, "ipAddress", vm.ipAddress);
+        element(sb, "hostName", vm.toolsRunning ? vm.name : null);
+        element(sb, "guestState", vm.toolsRunning ? "running" : "notRunning");
+    }
+
+    private void appendSnapshotTree(StringBuilder sb, String elementName, Snapshot s) {
+        start(sb, elementName, null);
+        mor(sb, "snapshot", "VirtualMachineSnapshot", s.id);
+        mor(sb, "vm", "VirtualMachine", s.vm.id);
+        element(sb, "name", s.name);
+        element(sb, "description", s.description == null ? "" : s.description);
+        element(sb, "id", s.key);
+        element(sb, "createTime", dateTime(s.createTime));
+        element(sb, "state", s.powerState);
+        element(sb, "quiesced", false);
+        for (Snapshot child : s.children) {
+            appendSnapshotTree(sb, "childSnapshotList", child);
+        }
+        end(sb, elementName);
+    }
+
+    private void appendTaskProperty(StringBuilder sb, String el, SimulatedTask task, String path) {
+        if ("info".equals(path)) {
+            start(sb, el, "TaskInfo");
+            element(sb, "key", task.id);
+            mor(sb, "task", "Task", task.id);
+            element(sb, "name", task.operation);
+            element(sb, "descriptionId", task.operation);
+            if (task.entity != null) {
+                mor(sb, "entity", typeOf(task.entity), idOf(task.entity));
+                element(sb, "entityName", task.entity instanceof Entity ? ((Entity) task.entity).name
+                        : ((Snapshot) task.entity).name);
+            }
+            element(sb, "state", task.state);
+            element(sb, "cancelled", false);
+            element(sb, "cancelable", false);
+            if (task.faultType != null) {
+                sb.append("<error>");
+                appendFault(sb, task);
+                sb.append("</error>");
+            }
+            if (task.result != null) {
+                typedMor(sb, "result", typeOf(task.result), idOf(task.result));
+            }
+            if ("running".equals(task.state)) {
+                element(sb, "progress", 50);
+            }
+            element(sb, "queueTime", dateTime(task.queueTime));
+            if (task.startTime != 0L) {
+                element(sb, "startTime", dateTime(task.startTime));
+            }
+            if (task.completeTime != 0L) {
+                element(sb, "completeTime", dateTime(task.completeTime));
+            }
+            element(sb, "eventChainId", task.id.substring(task.id.indexOf('-') + 1));
+            end(sb, el);
+        } else if ("info.state".equals(path)) {
+            typed(sb, el, "TaskInfoState", task.state);
+        } else if ("info.error".equals(path)) {
+            if (task.faultType != null) {
+                start(sb, el, "LocalizedMethodFault");
+                appendFault(sb, task);
+                end(sb, el);
+            }
+        } else if ("info.result".equals(path)) {
+            if (task.result != null) {
+                typedMor(sb, el, typeOf(task.result), idOf(task.result));
+            }
+        } else if ("info.progress".equals(path)) {
+            if ("running".equals(task.state)) {
+                typed(sb, el, "xsd:int", 50);
+            }
+        }
+    }
+
+    private static void appendFault(StringBuilder sb, SimulatedTask task) {
+        sb.append("<fault xsi:type=\"").append(task.faultType).append("\"></fault>");
+        element(sb, "localizedMessage", task.faultMessage);
+    }
+
+    static void appendUserSession(StringBuilder sb, Session session) {
+        element(sb, "key", session.key);
+        element(sb, "userName", session.userName);
+        element(sb, "fullName", session.userName);
+        element(sb, "loginTime", dateTime(session.loginTime));
+        element(sb, "lastActiveTime", dateTime(System.currentTimeMillis()));
+        element(sb, "locale", "en");
+        element(sb, "messageLocale", "en");
+        element(sb, "extensionSession", false);
+    }
+
+    private static void appendMorArray(StringBuilder sb, String el, List<Entity> list) {
+        start(sb, el, "ArrayOfManagedObjectReference");
+        for (Entity e : list) {
+            mor(sb, "ManagedObjectReference", e.type, e.id);
+        }
+        end(sb, el);
+    }
+
+    private static String firstDatastoreName(Vm vm) {
+        final List<Entity> datastores = vm.refList("datastore");
+        return datastores.isEmpty() ? "datastore1" : datastores.get(0).name;
+    }
+
+    // ---- property filters ----
+
+    synchronized String createFilter(Session session, Element spec) throws Fault {
+        final Filter filter = new Filter(session.key + "-filter-" + newId(""));
+        for (Element propSet : children(spec, "propSet")) {
+            filter.pathsByType.put(text(propSet, "type"), texts(propSet, "pathSet"));
+        }
+        for (Element objectSet : children(spec, "objectSet")) {
+            for (Object o : selectObjects(objectSet)) {
+                filter.objects.add(new String[] { typeOf(o), idOf(o) });
+            }
+        }
+        session.filters.put(filter.id, filter);
+        return filter.id;
+    }
+
+    synchronized void destroyFilter(Session session, String filterId) {
+        session.filters.remove(filterId);
+    }
+
+    synchronized void cancelWaitForUpdates(Session session) {
+        session.waitCancelled = true;
+        changed();
+    }
+
+    /**
+     * Implements WaitForUpdatesEx (and WaitForUpdates): waits until one of the
+     * properties covered by the session's filters changes from what we last
+     * told the client, and returns the changes.
+     *
+     * @param maxWaitMillis
+     *            How long to wait for a change.
+     * @return An UpdateSet element named "returnval", or an empty string if
+     *         nothing changed in time.
+     */
+    synchronized String waitForUpdates(Session session, long maxWaitMillis) throws Fault, InterruptedException {
+        final long deadline = System.currentTimeMillis() + maxWaitMillis;
+        session.waitCancelled = false;
+        while (true) {
+            final StringBuilder filterSets = new StringBuilder();
+            for (Filter filter : session.filters.values()) {
+                appendFilterUpdate(filterSets, session, filter);
+            }
+            if (filterSets.length() > 0) {
+                final StringBuilder sb = new StringBuilder("<returnval>");
+                element(sb, "version", ++session.updateVersion);
+                sb.append(filterSets);
+                element(sb, "truncated", false);
+                sb.append("</returnval>");
+                return sb.toString();
+            }
+            if (session.waitCancelled) {
+                throw new Fault("RequestCanceled", "The task was canceled by a user.");
+            }
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0L) {
+                return "";
+            }
+            wait(remaining);
+        }
+    }
+
+    private void appendFilterUpdate(StringBuilder sb, Session session, Filter filter) {
+        final StringBuilder objectSets = new StringBuilder();
+        for (String[] typeAndId : filter.objects) {
+            final Object o = findObject(typeAndId[0], typeAndId[1]);
+            final String key = typeAndId[1];
+            if (o == null) {
+                if (filter.delivered.remove(key + "|") != null) {
+                    objectSets.append("<objectSet><kind>leave</kind>");
+                    mor(objectSets, "obj", typeAndId[0], typeAndId[1]);
+                    objectSets.append("</objectSet>");
+                }
+                continue;
+            }
+            final String wantedType = findMatchingType(typeAndId[0], filter.pathsByType.keySet());
+            if (wantedType == null) {
+                continue;
+            }
+            final boolean isNew = filter.delivered.put(key + "|", "") == null;
+            final StringBuilder changeSet = new StringBuilder();
+            for (String path : filter.pathsByType.get(wantedType)) {
+                final StringBuilder val = new StringBuilder();
+                appendProperty(val, "val", session, o, path);
+                final String current = val.toString();
+                final String previous = filter.delivered.put(key + "|" + path, current);
+                if (!current.equals(previous == null ? "" : previous)) {
+                    changeSet.append("<changeSet>");
+                    element(changeSet, "name", path);
+                    element(changeSet, "op", current.isEmpty() ? "remove" : "assign");
+                    changeSet.append(current);
+                    changeSet.append("</changeSet>");
+                }
+            }
+            if (changeSet.length() > 0) {
+                objectSets.append("<objectSet>");
+                element(objectSets, "kind", isNew ? "enter" : "modify");
+                mor(objectSets, "obj", typeAndId[0], typeAndId[1]);
+                objectSets.append(changeSet);
+                objectSets.append("</objectSet>");
+            }
+        }
+        if (objectSets.length() > 0) {
+            sb.append("<filterSet>");
+            mor(sb, "filter", "PropertyFilter", filter.id);
+            sb.append(objectSets);
+            sb.append("</filterSet>");
+        }
+    }
+
+    private Object findObject(String type, String id) {
+        if ("Task".equals(type)) {
+            return tasks.get(id);
+        }
+        if ("VirtualMachineSnapshot".equals(type)) {
+            return snapshots.get(id);
+        }
+        return entities.get(id);
+    }
+}
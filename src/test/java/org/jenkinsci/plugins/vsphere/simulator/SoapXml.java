@@ -0,0 +1,188 @@
+package org.jenkinsci.plugins.vsphere.simulator;
+
+import java.io.ByteArrayInputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The bits of SOAP/XML handling that the {@link VCenterSimulator} needs:
+ * reading requests using DOM, and writing responses as text in the form that
+ * the vim25 client library expects.
+ */
+final class SoapXml {
+    static final String ENVELOPE_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<soapenv:Envelope xmlns:soapenc=\"http://schemas.xmlsoap.org/soap/encoding/\""
+            + " xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\""
+            + " xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\""
+            + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><soapenv:Body>";
+    static final String ENVELOPE_END = "</soapenv:Body></soapenv:Envelope>";
+
+    private SoapXml() {
+    }
+
+    /**
+     * Parses a SOAP request and returns the element that says what operation
+     * is being called, i.e. the first element inside the SOAP body.
+     */
+    static Element parseOperation(byte[] requestBody) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final DocumentBuilder builder = factory.newDocumentBuilder();
+        final Document document = builder.parse(new ByteArrayInputStream(requestBody));
+        final Element body = child(document.getDocumentElement(), "Body");
+        if (body == null) {
+            throw new IllegalArgumentException("No SOAP body");
+        }
+        final List<Element> operations = children(body, null);
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("Empty SOAP body");
+        }
+        return operations.get(0);
+    }
+
+    /** @return The local name of an element, ignoring any namespace prefix. */
+    static String name(Element element) {
+        final String localName = element.getLocalName();
+        return localName != null ? localName : element.getNodeName();
+    }
+
+    /** @return The first child element with the given name, or null. */
+    static Element child(Element parent, String name) {
+        final List<Element> matches = children(parent, name);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /** @return All child elements with the given name, or all if name is null. */
+    static List<Element> children(Element parent, String name) {
+        final List<Element> result = new ArrayList<Element>();
+        if (parent == null) {
+            return result;
+        }
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.ELEMENT_NODE) {
+                final Element e = (Element) n;
+                if (name == null || name.equals(name(e))) {
+                    result.add(e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** @return The text of the first child element with the given name, or null. */
+    static String text(Element parent, String name) {
+        final Element e = child(parent, name);
+        return e == null ? null : e.getTextContent().trim();
+    }
+
+    /** @return The texts of all child elements with the given name. */
+    static List<String> texts(Element parent, String name) {
+        final List<String> result = new ArrayList<String>();
+        for (Element e : children(parent, name)) {
+            result.add(e.getTextContent().trim());
+        }
+        return result;
+    }
+
+    static boolean bool(Element parent, String name, boolean defaultValue) {
+        final String text = text(parent, name);
+        return text == null ? defaultValue : Boolean.parseBoolean(text);
+    }
+
+    static String escape(String text) {
+        final StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String dateTime(long millis) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+    /** Appends &lt;name&gt;text&lt;/name&gt; unless text is null. */
+    static void element(StringBuilder sb, String name, Object text) {
+        if (text != null) {
+            sb.append('<').append(name).append('>').append(escape(String.valueOf(text))).append("</").append(name)
+                    .append('>');
+        }
+    }
+
+    /** Appends &lt;name xsi:type="type"&gt;text&lt;/name&gt; unless text is null. */
+    static void typed(StringBuilder sb, String name, String xsiType, Object text) {
+        if (text != null) {
+            sb.append('<').append(name).append(" xsi:type=\"").append(xsiType).append("\">")
+                    .append(escape(String.valueOf(text))).append("</").append(name).append('>');
+        }
+    }
+
+    /** Appends a managed object reference, as a field of a known type. */
+    static void mor(StringBuilder sb, String name, String type, String id) {
+        if (id != null) {
+            sb.append('<').append(name).append(" type=\"").append(type).append("\">").append(escape(id))
+                    .append("</").append(name).append('>');
+        }
+    }
+
+    /** Appends a managed object reference where the field's type is unknown. */
+    static void typedMor(StringBuilder sb, String name, String type, String id) {
+        if (id != null) {
+            sb.append('<').append(name).append(" xsi:type=\"ManagedObjectReference\" type=\"").append(type)
+                    .append("\">").append(escape(id)).append("</").append(name).append('>');
+        }
+    }
+
+    static void start(StringBuilder sb, String name, String xsiType) {
+        sb.append('<').append(name);
+        if (xsiType != null) {
+            sb.append(" xsi:type=\"").append(xsiType).append('"');
+        }
+        sb.append('>');
+    }
+
+    static void end(StringBuilder sb, String name) {
+        sb.append("</").append(name).append('>');
+    }
+
+    /** @return A complete SOAP response for the given operation. */
+    static String response(String operation, CharSequence returnValues) {
+        return ENVELOPE_START + "<" + operation + "Response xmlns=\"urn:vim25\">" + returnValues + "</" + operation
+                + "Response>" + ENVELOPE_END;
+    }
+
+    /** @return A complete SOAP fault response. */
+    static String fault(String faultType, String message) {
+        return ENVELOPE_START + "<soapenv:Fault><faultcode>ServerFaultCode</faultcode><faultstring>"
+                + escape(message) + "</faultstring><detail><" + faultType + "Fault xmlns=\"urn:vim25\" xsi:type=\""
+                + faultType + "\"></" + faultType + "Fault></detail></soapenv:Fault>" + ENVELOPE_END;
+    }
+}
@@ -0,0 +1,615 @@
+package org.jenkinsci.plugins.vsphere.simulator;
+
+import static org.jenkinsci.plugins.vsphere.simulator.SoapXml.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jenkinsci.plugins.vsphere.simulator.SimulatedInventory.Entity;
+import org.jenkinsci.plugins.vsphere.simulator.SimulatedInventory.Fault;
+import org.jenkinsci.plugins.vsphere.simulator.SimulatedInventory.Session;
+import org.jenkinsci.plugins.vsphere.simulator.SimulatedInventory.SimulatedTask;
+import org.jenkinsci.plugins.vsphere.simulator.SimulatedInventory.Snapshot;
+import org.jenkinsci.plugins.vsphere.simulator.SimulatedInventory.TaskWork;
+import org.jenkinsci.plugins.vsphere.simulator.SimulatedInventory.Vm;
+import org.w3c.dom.Element;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for a vCenter server's SOAP endpoint, for testing how
+ * the plugin behaves at scale without needing a real vSphere installation.
+ * <p>
+ * It implements just enough of the vim25 API for the plugin's own code paths:
+ * RetrieveServiceContent, Login/Logout, RetrieveProperties(Ex), property
+ * filters with WaitForUpdates(Ex), CloneVM_Task, power operations,
+ * ReconfigVM_Task, Destroy_Task, Rename_Task and the snapshot operations.
+ * Anything else gets a NotImplemented fault.
+ * </p>
+ * <p>
+ * Every call can be given an artificial latency, every task a duration, and
+ * faults can be injected into calls (as SOAP faults) or into tasks (as task
+ * errors) with a given probability. The number of calls made is counted, per
+ * operation, so that tests can measure how "chatty" the plugin is.
+ * </p>
+ * Typical use:
+ *
+ * <pre>
+ * VCenterSimulator simulator = new VCenterSimulator();
+ * simulator.getInventory().addVm("master", false);
+ * simulator.getInventory().addSnapshot("master", "base");
+ * simulator.start();
+ * VSphere vSphere = VSphere.connect(simulator.getUrl() + "/sdk", VCenterSimulator.USERNAME, VCenterSimulator.PASSWORD);
+ * ...
+ * simulator.stop();
+ * </pre>
+ */
+public class VCenterSimulator {
+    private static final Logger LOGGER = Logger.getLogger(VCenterSimulator.class.getName());
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Pattern SESSION_COOKIE = Pattern.compile("vmware_soap_session=\"?([^\";]+)");
+    public static final String USERNAME = "simulator";
+    public static final String PASSWORD = "simulator";
+
+    /** A fault that is injected into a proportion of calls (or tasks). */
+    private static final class Injection {
+        final double probability;
+        final String faultType;
+
+        Injection(double probability, String faultType) {
+            this.probability = probability;
+            this.faultType = faultType;
+        }
+    }
+
+    private final ScheduledExecutorService timer;
+    private final SimulatedInventory inventory;
+    private final ConcurrentMap<String, Long> latencyMillis = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<String, Long> taskMillis = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<String, Injection> callFaults = new ConcurrentHashMap<String, Injection>();
+    private final ConcurrentMap<String, Injection> taskFaults = new ConcurrentHashMap<String, Injection>();
+    private final ConcurrentMap<String, AtomicLong> callCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final Random random = new Random(42L);
+    private volatile long defaultLatencyMillis = 0L;
+    private volatile long defaultTaskMillis = 100L;
+    private HttpServer server;
+    private ExecutorService requestThreads;
+
+    public VCenterSimulator() {
+        timer = Executors.newScheduledThreadPool(2, daemonThreads("VCenterSimulator-timer"));
+        inventory = new SimulatedInventory(timer);
+        inventory.addDatastore("datastore1", 2048L << 30, 1024L << 30);
+        inventory.addDatastore("datastore2", 2048L << 30, 1536L << 30);
+    }
+
+    /** @return The inventory, which can be populated before (or while) the simulator runs. */
+    public SimulatedInventory getInventory() {
+        return inventory;
+    }
+
+    /** Sets the latency of every call that doesn't have its own latency set. */
+    public void setDefaultLatencyMillis(long millis) {
+        defaultLatencyMillis = millis;
+    }
+
+    /** Sets the latency of one operation, e.g. "RetrieveProperties". */
+    public void setLatencyMillis(String operation, long millis) {
+        latencyMillis.put(operation, millis);
+    }
+
+    /** Sets how long a task runs for, for tasks that don't have their own duration set. */
+    public void setDefaultTaskMillis(long millis) {
+        defaultTaskMillis = millis;
+    }
+
+    /** Sets how long one kind of task runs for, e.g. "CloneVM_Task". */
+    public void setTaskMillis(String operation, long millis) {
+        taskMillis.put(operation, millis);
+    }
+
+    /**
+     * Makes a proportion of calls to an operation fail immediately with a SOAP
+     * fault.
+     *
+     * @param operation
+     *            The operation, e.g. "CloneVM_Task".
+     * @param probability
+     *            0.0 (never) to 1.0 (always).
+     * @param faultType
+     *            The vim25 fault, e.g. "HostCommunication".
+     */
+    public void injectCallFault(String operation, double probability, String faultType) {
+        callFaults.put(operation, new Injection(probability, faultType));
+    }
+
+    /**
+     * Makes a proportion of tasks of a given kind fail (after running for
+     * their usual duration) with the given fault.
+     *
+     * @param operation
+     *            The operation that creates the task, e.g. "CloneVM_Task".
+     * @param probability
+     *            0.0 (never) to 1.0 (always).
+     * @param faultType
+     *            The vim25 fault, e.g. "TooManyConcurrentNativeClones".
+     */
+    public void injectTaskFault(String operation, double probability, String faultType) {
+        taskFaults.put(operation, new Injection(probability, faultType));
+    }
+
+    /** Stops injecting faults. */
+    public void clearFaults() {
+        callFaults.clear();
+        taskFaults.clear();
+    }
+
+    /** @return The number of calls made to the given operation so far. */
+    public long getCallCount(String operation) {
+        final AtomicLong count = callCounts.get(operation);
+        return count == null ? 0L : count.get();
+    }
+
+    /** @return The total number of calls made so far. */
+    public long getTotalCallCount() {
+        long total = 0L;
+        for (AtomicLong count : callCounts.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /** @return The number of calls made so far, by operation. */
+    public Map<String, Long> getCallCounts() {
+        final Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : callCounts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    public void resetCallCounts() {
+        callCounts.clear();
+    }
+
+    /** Starts listening on a free port on the loopback interface. */
+    public synchronized void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 200);
+        requestThreads = Executors.newCachedThreadPool(daemonThreads("VCenterSimulator-request"));
+        server.setExecutor(requestThreads);
+        server.createContext("/sdk", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRequest(exchange);
+            }
+        });
+        server.start();
+        LOGGER.log(Level.FINE, "vCenter simulator listening on {0}", getUrl());
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            requestThreads.shutdownNow();
+            server = null;
+        }
+        timer.shutdownNow();
+    }
+
+    /** @return The base URL of the simulator; the SOAP endpoint is this plus "/sdk". */
+    public synchronized String getUrl() {
+        return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort();
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        String responseBody;
+        int status = 200;
+        String setCookie = null;
+        try {
+            final Element request = parseOperation(readFully(exchange.getRequestBody()));
+            final String operation = name(request);
+            count(operation);
+            sleep(latencyFor(operation));
+            Session session = inventory.getSession(sessionKey(exchange.getRequestHeaders().getFirst("Cookie")));
+            if (session == null) {
+                session = inventory.newSession();
+                setCookie = "vmware_soap_session=\"" + session.key + "\"; Path=/; HttpOnly";
+            }
+            try {
+                injectCallFault(operation);
+                responseBody = response(operation, invoke(operation, request, session));
+            } catch (Fault fault) {
+                status = 500;
+                responseBody = fault(fault.faultType, fault.getMessage());
+            }
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "vCenter simulator failed to handle request", ex);
+            status = 500;
+            responseBody = fault("SystemError", String.valueOf(ex));
+        }
+        final byte[] bytes = responseBody.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+        if (setCookie != null) {
+            exchange.getResponseHeaders().set("Set-Cookie", setCookie);
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** @return The returnval element(s) of the response. */
+    private String invoke(String operation, Element request, Session session) throws Exception {
+        if (!"RetrieveServiceContent".equals(operation) && !"Login".equals(operation) && session.userName == null) {
+            throw new Fault("NotAuthenticated", "The session is not authenticated.");
+        }
+        final Element target = child(request, "_this");
+        switch (operation) {
+            case "RetrieveServiceContent":
+                return serviceContent();
+            case "Login":
+                return login(session, text(request, "userName"), text(request, "password"));
+            case "Logout":
+                inventory.endSession(session);
+                return "";
+            case "CurrentTime":
+                return "<returnval>" + dateTime(System.currentTimeMillis()) + "</returnval>";
+            case "RetrieveProperties":
+                return inventory.retrieveProperties(session, children(request, "specSet"));
+            case "RetrievePropertiesEx": {
+                final String objects = inventory.retrieveProperties(session, children(request, "specSet"))
+                        .replace("<returnval>", "<objects>").replace("</returnval>", "</objects>");
+                return objects.isEmpty() ? "" : "<returnval>" + objects + "</returnval>";
+            }
+            case "CreateFilter": {
+                final String filterId = inventory.createFilter(session, child(request, "spec"));
+                final StringBuilder sb = new StringBuilder();
+                mor(sb, "returnval", "PropertyFilter", filterId);
+                return sb.toString();
+            }
+            case "DestroyPropertyFilter":
+                inventory.destroyFilter(session, target.getTextContent().trim());
+                return "";
+            case "CancelWaitForUpdates":
+                inventory.cancelWaitForUpdates(session);
+                return "";
+            case "WaitForUpdates":
+                return inventory.waitForUpdates(session, TimeUnit.MINUTES.toMillis(10));
+            case "WaitForUpdatesEx": {
+                final String maxWait = text(child(request, "options"), "maxWaitSeconds");
+                final long maxWaitMillis = maxWait == null ? TimeUnit.MINUTES.toMillis(10)
+                        : TimeUnit.SECONDS.toMillis(Long.parseLong(maxWait));
+                return inventory.waitForUpdates(session, maxWaitMillis);
+            }
+            case "CloneVM_Task":
+                return cloneVm(inventory.vm(target), request);
+            case "PowerOnVM_Task": {
+                final Vm vm = inventory.vm(target);
+                return task(operation, vm, new TaskWork() {
+                    @Override
+                    public Object complete() throws Fault {
+                        inventory.powerOn(vm);
+                        return null;
+                    }
+                });
+            }
+            case "PowerOffVM_Task":
+            case "SuspendVM_Task": {
+                final Vm vm = inventory.vm(target);
+                final String newState = "PowerOffVM_Task".equals(operation) ? "poweredOff" : "suspended";
+                return task(operation, vm, new TaskWork() {
+                    @Override
+                    public Object complete() throws Fault {
+                        inventory.powerOff(vm, newState);
+                        return null;
+                    }
+                });
+            }
+            case "ShutdownGuest": {
+                final Vm vm = inventory.vm(target);
+                task(operation, vm, new TaskWork() {
+                    @Override
+                    public Object complete() throws Fault {
+                        inventory.powerOff(vm, "poweredOff");
+                        return null;
+                    }
+                });
+                return "";
+            }
+            case "ReconfigVM_Task": {
+                final Vm vm = inventory.vm(target);
+                final Element spec = child(request, "spec");
+                return task(operation, vm, new TaskWork() {
+                    @Override
+                    public Object complete() {
+                        inventory.reconfigure(vm, spec);
+                        return null;
+                    }
+                });
+            }
+            case "Rename_Task": {
+                final Vm vm = inventory.vm(target);
+                final String newName = text(request, "newName");
+                return task(operation, vm, new TaskWork() {
+                    @Override
+                    public Object complete() throws Fault {
+                        synchronized (inventory) {
+                            if (inventory.findVmOrNull(newName) != null) {
+                                throw new Fault("DuplicateName", "The name '" + newName + "' already exists.");
+                            }
+                            vm.name = newName;
+                            inventory.touch(vm);
+                        }
+                        return null;
+                    }
+                });
+            }
+            case "Destroy_Task": {
+                final Vm vm = inventory.vm(target);
+                return task(operation, vm, new TaskWork() {
+                    @Override
+                    public Object complete() throws Fault {
+                        inventory.destroy(vm);
+                        return null;
+                    }
+                });
+            }
+            case "MarkAsTemplate": {
+                final Vm vm = inventory.vm(target);
+                synchronized (inventory) {
+                    vm.template = true;
+                    inventory.touch(vm);
+                }
+                return "";
+            }
+            case "MarkAsVirtualMachine": {
+                final Vm vm = inventory.vm(target);
+                synchronized (inventory) {
+                    vm.template = false;
+                    inventory.touch(vm);
+                }
+                return "";
+            }
+            case "CreateSnapshot_Task": {
+                final Vm vm = inventory.vm(target);
+                final String snapshotName = text(request, "name");
+                final String description = text(request, "description");
+                return task(operation, vm, new TaskWork() {
+                    @Override
+                    public Object complete() {
+                        return inventory.createSnapshot(vm, snapshotName, description);
+                    }
+                });
+            }
+            case "RevertToCurrentSnapshot_Task": {
+                final Vm vm = inventory.vm(target);
+                return task(operation, vm, new TaskWork() {
+                    @Override
+                    public Object complete() throws Fault {
+                        if (vm.currentSnapshot == null) {
+                            throw new Fault("NotFound", "The object or item referred to could not be found.");
+                        }
+                        inventory.revertToSnapshot(vm.currentSnapshot);
+                        return null;
+                    }
+                });
+            }
+            case "RevertToSnapshot_Task": {
+                final Snapshot snapshot = inventory.snapshot(target);
+                return task(operation, snapshot, new TaskWork() {
+                    @Override
+                    public Object complete() {
+                        inventory.revertToSnapshot(snapshot);
+                        return null;
+                    }
+                });
+            }
+            case "RemoveSnapshot_Task": {
+                final Snapshot snapshot = inventory.snapshot(target);
+                final boolean removeChildren = bool(request, "removeChildren", false);
+                return task(operation, snapshot, new TaskWork() {
+                    @Override
+                    public Object complete() {
+                        inventory.removeSnapshot(snapshot, removeChildren);
+                        return null;
+                    }
+                });
+            }
+            case "RenameSnapshot": {
+                final Snapshot snapshot = inventory.snapshot(target);
+                synchronized (inventory) {
+                    final String newName = text(request, "name");
+                    final String newDescription = text(request, "description");
+                    if (newName != null) {
+                        snapshot.name = newName;
+                    }
+                    if (newDescription != null) {
+                        snapshot.description = newDescription;
+                    }
+                    inventory.touch(snapshot.vm);
+                }
+                return "";
+            }
+            default:
+                throw new Fault("NotImplemented", operation + " is not implemented by the vCenter simulator");
+        }
+    }
+
+    private String serviceContent() {
+        final StringBuilder sb = new StringBuilder("<returnval>");
+        mor(sb, "rootFolder", "Folder", SimulatedInventory.ROOT_FOLDER);
+        mor(sb, "propertyCollector", "PropertyCollector", "propertyCollector");
+        mor(sb, "viewManager", "ViewManager", "ViewManager");
+        sb.append("<about>");
+        element(sb, "name", "VMware vCenter Server");
+        element(sb, "fullName", "VMware vCenter Server 6.0.0 build-simulated");
+        element(sb, "vendor", "VMware, Inc.");
+        element(sb, "version", "6.0.0");
+        element(sb, "build", "0");
+        element(sb, "localeVersion", "INTL");
+        element(sb, "localeBuild", "000");
+        element(sb, "osType", "linux-x64");
+        element(sb, "productLineId", "vpx");
+        element(sb, "apiType", "VirtualCenter");
+        element(sb, "apiVersion", "6.0");
+        element(sb, "instanceUuid", "00000000-0000-0000-0000-000000000000");
+        element(sb, "licenseProductName", "VMware VirtualCenter Server");
+        element(sb, "licenseProductVersion", "6.0");
+        sb.append("</about>");
+        mor(sb, "setting", "OptionManager", "VpxSettings");
+        mor(sb, "userDirectory", "UserDirectory", "UserDirectory");
+        mor(sb, "sessionManager", "SessionManager", "SessionManager");
+        mor(sb, "authorizationManager", "AuthorizationManager", "AuthorizationManager");
+        mor(sb, "searchIndex", "SearchIndex", "SearchIndex");
+        mor(sb, "customizationSpecManager", "CustomizationSpecManager", "CustomizationSpecManager");
+        mor(sb, "taskManager", "TaskManager", "TaskManager");
+        mor(sb, "eventManager", "EventManager", "EventManager");
+        sb.append("</returnval>");
+        return sb.toString();
+    }
+
+    private String login(Session session, String userName, String password) throws Fault {
+        if (!USERNAME.equals(userName) || !PASSWORD.equals(password)) {
+            throw new Fault("InvalidLogin", "Cannot complete login due to an incorrect user name or password.");
+        }
+        session.userName = userName;
+        final StringBuilder sb = new StringBuilder("<returnval>");
+        SimulatedInventory.appendUserSession(sb, session);
+        sb.append("</returnval>");
+        return sb.toString();
+    }
+
+    private String cloneVm(final Vm source, Element request) throws Fault {
+        final Entity folder = inventory.entityOrNull(child(request, "folder"));
+        final String cloneName = text(request, "name");
+        final Element spec = child(request, "spec");
+        final Element location = child(spec, "location");
+        final Entity pool = inventory.entityOrNull(child(location, "pool"));
+        final Entity datastore = inventory.entityOrNull(child(location, "datastore"));
+        final boolean template = bool(spec, "template", false);
+        final boolean powerOn = bool(spec, "powerOn", false);
+        if (child(spec, "snapshot") != null) {
+            inventory.snapshot(child(spec, "snapshot"));
+        }
+        return task("CloneVM_Task", source, new TaskWork() {
+            @Override
+            public Object complete() throws Fault {
+                final Vm clone = inventory.cloneVm(source, folder, cloneName, template, pool, datastore);
+                if (powerOn) {
+                    inventory.powerOn(clone);
+                }
+                inventory.touch(clone);
+                return clone;
+            }
+        });
+    }
+
+    /** Creates a task and returns its MOR, as a returnval element. */
+    private String task(String operation, Object entity, final TaskWork work) {
+        final Long specificMillis = taskMillis.get(operation);
+        final long duration = specificMillis == null ? defaultTaskMillis : specificMillis.longValue();
+        final Injection injection = taskFaults.get(operation);
+        final boolean fail = injection != null && nextDouble() < injection.probability;
+        final String faultType = fail ? injection.faultType : null;
+        final SimulatedTask task = inventory.createTask(operation, entity, duration, new TaskWork() {
+            @Override
+            public Object complete() throws Fault {
+                if (faultType != null) {
+                    throw new Fault(faultType, "Simulated " + faultType + " fault");
+                }
+                return work.complete();
+            }
+        });
+        final StringBuilder sb = new StringBuilder();
+        mor(sb, "returnval", "Task", task.id);
+        return sb.toString();
+    }
+
+    private void injectCallFault(String operation) throws Fault {
+        final Injection injection = callFaults.get(operation);
+        if (injection != null && nextDouble() < injection.probability) {
+            throw new Fault(injection.faultType, "Simulated " + injection.faultType + " fault");
+        }
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private long latencyFor(String operation) {
+        final Long specific = latencyMillis.get(operation);
+        return specific == null ? defaultLatencyMillis : specific.longValue();
+    }
+
+    private void count(String operation) {
+        AtomicLong count = callCounts.get(operation);
+        if (count == null) {
+            final AtomicLong newCount = new AtomicLong();
+            count = callCounts.putIfAbsent(operation, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static String sessionKey(String cookieHeader) {
+        if (cookieHeader == null) {
+            return null;
+        }
+        final Matcher m = SESSION_COOKIE.matcher(cookieHeader);
+        return m.find() ? m.group(1) : null;
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        if (millis > 0L) {
+            Thread.sleep(millis);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static ThreadFactory daemonThreads(final String namePrefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, namePrefix + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
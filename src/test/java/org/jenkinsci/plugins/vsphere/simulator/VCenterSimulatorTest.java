@@ -0,0 +1,70 @@
+package org.jenkinsci.plugins.vsphere.simulator;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.jenkinsci.plugins.vsphere.tools.VSphere;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives the plugin's own vSphere code through a whole VM lifecycle against a
+ * {@link VCenterSimulator}, so that the simulator (and our use of it) is
+ * checked by every build and not only when the opt-in
+ * {@link ProvisioningThroughputTest} is run.
+ */
+public class VCenterSimulatorTest {
+    private static final String MASTER_IMAGE = "master";
+    private static final String SNAPSHOT = "base";
+    private static final String CLONE = "clone";
+
+    private VCenterSimulator simulator;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new VCenterSimulator();
+        simulator.setDefaultLatencyMillis(0L);
+        simulator.setDefaultTaskMillis(10L);
+        simulator.getInventory().setGuestBootMillis(10L);
+        simulator.getInventory().addVm(MASTER_IMAGE, false);
+        simulator.getInventory().addSnapshot(MASTER_IMAGE, SNAPSHOT);
+        simulator.start();
+    }
+
+    @After
+    public void tearDown() {
+        simulator.stop();
+    }
+
+    @Test
+    public void vmLifecycleGivenSimulatedVCenterThenWorks() throws Exception {
+        // Given
+        final PrintStream log = new PrintStream(new ByteArrayOutputStream());
+        final VSphere vSphere = VSphere.connect(simulator.getUrl() + "/sdk", VCenterSimulator.USERNAME,
+                VCenterSimulator.PASSWORD);
+        final int vmsBefore = simulator.getInventory().countVms();
+
+        // When
+        vSphere.cloneOrDeployVm(CLONE, MASTER_IMAGE, true, null, SimulatedInventory.DEFAULT_CLUSTER, "datastore1",
+                null, true, null, false, null, log);
+        final String stateAfterClone = simulator.getInventory().getPowerState(CLONE);
+        vSphere.startVm(CLONE, 60);
+        final String stateAfterStart = simulator.getInventory().getPowerState(CLONE);
+        vSphere.destroyVm(CLONE, true);
+
+        // Then
+        assertThat(stateAfterClone, equalTo("poweredOff"));
+        assertThat(stateAfterStart, equalTo("poweredOn"));
+        assertThat(simulator.getInventory().getPowerState(CLONE), nullValue());
+        assertThat(vSphere.getVmByName(CLONE), nullValue());
+        assertThat(simulator.getInventory().countVms(), equalTo(vmsBefore));
+        assertThat(simulator.getCallCount("CloneVM_Task"), equalTo(1L));
+        assertThat(simulator.getCallCount("PowerOnVM_Task"), equalTo(1L));
+        assertThat(simulator.getCallCount("Destroy_Task"), equalTo(1L));
+        vSphere.disconnect();
+    }
+}
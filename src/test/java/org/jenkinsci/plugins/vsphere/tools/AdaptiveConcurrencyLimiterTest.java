@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long SLOW_MILLIS = 1000L;
+    private static final long FAST_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void constructorThenStartsAtMaximum() {
+        // Given
+        final AdaptiveConcurrencyLimiter instance = new AdaptiveConcurrencyLimiter("test", 2, 16, SLOW_MILLIS, SLOW_MILLIS);
+
+        // When
+        final int actual = instance.getLimit();
+
+        // Then
+        assertThat(actual, equalTo(16));
+        assertThat(instance.getBackoffMultiplier(), equalTo(1.0));
+    }
+
+    @Test
+    public void onFaultGivenOverloadFaultThenHalvesLimit() {
+        // Given
+        final AdaptiveConcurrencyLimiter instance = new AdaptiveConcurrencyLimiter("test", 2, 16, SLOW_MILLIS, SLOW_MILLIS);
+
+        // When
+        final boolean changed = instance.onFault(new VSphereException("wrapper", new SocketTimeoutException()));
+
+        // Then
+        assertThat(changed, is(true));
+        assertThat(instance.getLimit(), equalTo(8));
+        assertThat(instance.getBackoffMultiplier(), equalTo(2.0));
+        assertThat(instance.getOverloadCount(), equalTo(1L));
+    }
+
+    @Test
+    public void onFaultGivenUnrelatedFaultThenLeavesLimitAlone() {
+        // Given
+        final AdaptiveConcurrencyLimiter instance = new AdaptiveConcurrencyLimiter("test", 2, 16, SLOW_MILLIS, SLOW_MILLIS);
+
+        // When
+        final boolean changed = instance.onFault(new IOException("VM not found"));
+
+        // Then
+        assertThat(changed, is(false));
+        assertThat(instance.getLimit(), equalTo(16));
+    }
+
+    @Test
+    public void onFaultGivenRepeatedOverloadThenOnlyReducesOncePerInterval() {
+        // Given
+        final AdaptiveConcurrencyLimiter instance = new AdaptiveConcurrencyLimiter("test", 2, 16, SLOW_MILLIS, SLOW_MILLIS);
+
+        // When
+        instance.onFault(new SocketTimeoutException());
+        instance.onFault(new SocketTimeoutException());
+        instance.onFault(new SocketTimeoutException());
+
+        // Then
+        assertThat(instance.getLimit(), equalTo(8));
+        assertThat(instance.getOverloadCount(), equalTo(3L));
+    }
+
+    @Test
+    public void onResponseGivenFastResponsesAfterOverloadThenGrowsBackToMaximum() {
+        // Given
+        final AdaptiveConcurrencyLimiter instance = new AdaptiveConcurrencyLimiter("test", 2, 16, SLOW_MILLIS, SLOW_MILLIS);
+        instance.onFault(new SocketTimeoutException());
+        assertThat(instance.getLimit(), equalTo(8));
+
+        // When
+        for (int i = 0; i < 1000; i++) {
+            instance.onResponse(FAST_NANOS);
+        }
+
+        // Then
+        assertThat(instance.getLimit(), equalTo(16));
+    }
+
+    @Test
+    public void onResponseGivenSlowResponseThenReducesLimitButNotBelowMinimum() {
+        // Given
+        final AdaptiveConcurrencyLimiter instance = new AdaptiveConcurrencyLimiter("test", 3, 4, 0L, SLOW_MILLIS);
+
+        // When
+        instance.onResponse(TimeUnit.SECONDS.toNanos(5));
+
+        // Then
+        assertThat(instance.getLimit(), equalTo(3));
+    }
+
+    @Test
+    public void findOverloadFaultGivenNestedCauseThenFindsIt() {
+        // Given
+        final Exception fault = new RuntimeException(new VSphereException(new SocketTimeoutException()));
+
+        // When
+        final String actual = AdaptiveConcurrencyLimiter.findOverloadFault(fault);
+
+        // Then
+        assertThat(actual, equalTo("SocketTimeoutException"));
+    }
+}
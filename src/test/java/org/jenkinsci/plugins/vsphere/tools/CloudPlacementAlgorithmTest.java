@@ -0,0 +1,187 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.plugins.vsphere.tools.CloudPlacementAlgorithm.Placement;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CloudPlacementAlgorithmTest {
+
+    private Map<String, ClusterCapacity> clusterStats;
+    private Map<String, DatastoreCapacity> datastoreStats;
+    private Map<String, Integer> clustersInFlight;
+    private Map<String, Integer> datastoresInFlight;
+
+    @Before
+    public void setup() {
+        clusterStats = new HashMap<String, ClusterCapacity>();
+        datastoreStats = new HashMap<String, DatastoreCapacity>();
+        clustersInFlight = new HashMap<String, Integer>();
+        datastoresInFlight = new HashMap<String, Integer>();
+    }
+
+    @Test
+    public void findBestPlacementGivenNoCandidatesThenReturnsEmptyPlacement() {
+        // Given
+        final List<String> none = Collections.emptyList();
+
+        // When
+        final Placement actual = find(none, none);
+
+        // Then
+        assertThat(actual, notNullValue());
+        assertThat(actual.getCluster(), nullValue());
+        assertThat(actual.getDatastore(), nullValue());
+    }
+
+    @Test
+    public void findBestPlacementGivenNoStatisticsThenPrefersFirstListed() {
+        // Given
+        final List<String> clusters = Arrays.asList("c1", "c2");
+        final List<String> datastores = Arrays.asList("d1", "d2");
+
+        // When
+        final Placement actual = find(clusters, datastores);
+
+        // Then
+        assertThat(actual.getCluster(), equalTo("c1"));
+        assertThat(actual.getDatastore(), equalTo("d1"));
+    }
+
+    @Test
+    public void findBestPlacementGivenBusyClusterThenPrefersIdleCluster() {
+        // Given
+        addCluster("busy", 900, 1000, 100, 1000);
+        addCluster("idle", 100, 1000, 100, 1000);
+        final List<String> clusters = Arrays.asList("busy", "idle");
+        final List<String> none = Collections.emptyList();
+
+        // When
+        final Placement actual = find(clusters, none);
+
+        // Then
+        assertThat(actual.getCluster(), equalTo("idle"));
+        assertThat(actual.getDatastore(), nullValue());
+    }
+
+    @Test
+    public void findBestPlacementGivenClusterShortOfMemoryThenTreatsItAsBusy() {
+        // Given
+        addCluster("lowMem", 0, 1000, 950, 1000);
+        addCluster("lowCpu", 500, 1000, 0, 1000);
+        final List<String> clusters = Arrays.asList("lowMem", "lowCpu");
+        final List<String> none = Collections.emptyList();
+
+        // When
+        final Placement actual = find(clusters, none);
+
+        // Then
+        assertThat(actual.getCluster(), equalTo("lowCpu"));
+    }
+
+    @Test
+    public void findBestPlacementGivenFullDatastoreThenPrefersEmptierDatastore() {
+        // Given
+        addDatastore("full", 1000, 50, true);
+        addDatastore("empty", 1000, 800, true);
+        final List<String> none = Collections.emptyList();
+        final List<String> datastores = Arrays.asList("full", "empty");
+
+        // When
+        final Placement actual = find(none, datastores);
+
+        // Then
+        assertThat(actual.getDatastore(), equalTo("empty"));
+    }
+
+    @Test
+    public void findBestPlacementGivenInaccessibleDatastoreThenSkipsIt() {
+        // Given
+        addDatastore("broken", 1000, 1000, false);
+        addDatastore("working", 1000, 10, true);
+        final List<String> none = Collections.emptyList();
+        final List<String> datastores = Arrays.asList("broken", "working");
+
+        // When
+        final Placement actual = find(none, datastores);
+
+        // Then
+        assertThat(actual.getDatastore(), equalTo("working"));
+    }
+
+    @Test
+    public void findBestPlacementGivenOnlyInaccessibleDatastoresThenReturnsNull() {
+        // Given
+        addDatastore("broken", 1000, 1000, false);
+        final List<String> none = Collections.emptyList();
+        final List<String> datastores = Arrays.asList("broken");
+
+        // When
+        final Placement actual = find(none, datastores);
+
+        // Then
+        assertThat(actual, nullValue());
+    }
+
+    @Test
+    public void findBestPlacementGivenDatastoreNotVisibleFromClusterThenPairsClusterWithVisibleDatastore() {
+        // Given
+        addCluster("c1", 0, 1000, 0, 1000, "d2");
+        addDatastore("d1", 1000, 1000, true);
+        addDatastore("d2", 1000, 500, true);
+        final List<String> clusters = Arrays.asList("c1");
+        final List<String> datastores = Arrays.asList("d1", "d2");
+
+        // When
+        final Placement actual = find(clusters, datastores);
+
+        // Then
+        assertThat(actual.getCluster(), equalTo("c1"));
+        assertThat(actual.getDatastore(), equalTo("d2"));
+    }
+
+    @Test
+    public void reserveGivenEqualTargetsThenSpreadsClonesEvenly() {
+        // Given
+        final CloudPlacementState state = new CloudPlacementState();
+        final List<String> none = Collections.emptyList();
+        final List<String> datastores = Arrays.asList("d1", "d2", "d3");
+
+        // When
+        final Placement p1 = state.reserve(none, datastores);
+        final Placement p2 = state.reserve(none, datastores);
+        final Placement p3 = state.reserve(none, datastores);
+        state.release(p2);
+        final Placement p4 = state.reserve(none, datastores);
+
+        // Then
+        assertThat(p1.getDatastore(), equalTo("d1"));
+        assertThat(p2.getDatastore(), equalTo("d2"));
+        assertThat(p3.getDatastore(), equalTo("d3"));
+        assertThat(p4.getDatastore(), equalTo("d2"));
+    }
+
+    private Placement find(List<String> clusters, List<String> datastores) {
+        return CloudPlacementAlgorithm.findBestPlacement(clusters, datastores, clusterStats, datastoreStats,
+                clustersInFlight, datastoresInFlight);
+    }
+
+    private void addCluster(String name, long cpuUsed, long cpuTotal, long memUsed, long memTotal,
+            String... datastoreNames) {
+        clusterStats.put(name, new ClusterCapacity(name, cpuTotal, cpuUsed, memTotal, memUsed, new HashSet<String>(
+                Arrays.asList(datastoreNames)), 0L));
+    }
+
+    private void addDatastore(String name, long capacity, long free, boolean accessible) {
+        datastoreStats.put(name, new DatastoreCapacity(name, capacity, free, accessible, 0L));
+    }
+}
@@ -320,6 +320,182 @@ public class CloudProvisioningStateTest {
         assertThat(actual, equalTo(7));
     }
 
+    @Test
+    public void calculateStatisticsGivenMixedOutcomesThenCountsThem() {
+        // Given
+        final CloudProvisioningState instance = createInstance();
+        final CloudProvisioningRecord provisionable = createRecord(instance);
+        final String activeNode = createNodeName();
+        final String failedNode = createNodeName();
+        final String plannedNode = createNodeName();
+        instance.provisioningStarted(provisionable, activeNode);
+        instance.provisionedSlaveNowActive(provisionable, activeNode);
+        instance.provisioningStarted(provisionable, failedNode);
+        instance.provisioningEndedInError(provisionable, failedNode);
+        instance.provisioningStarted(provisionable, plannedNode);
+
+        // When
+        final List<CloudProvisioningStatistics> actual = instance.calculateStatistics(Collections
+                .singletonList(provisionable.getTemplate()));
+
+        // Then
+        assertThat(actual.size(), equalTo(1));
+        final CloudProvisioningStatistics stats = actual.get(0);
+        assertThat(stats.getPlanned(), equalTo(1));
+        assertThat(stats.getActive(), equalTo(1));
+        assertThat(stats.getStartedPerHour(), equalTo(3));
+        assertThat(stats.getSucceededPerHour(), equalTo(1));
+        assertThat(stats.getFailedPerHour(), equalTo(1));
+        assertThat(stats.getFailureRate(), equalTo(0.5));
+    }
+
+    @Test
+    public void provisionedSlaveAlreadyActiveThenNotCountedAsProvisioned() {
+        // Given
+        final CloudProvisioningState instance = createInstance();
+        final CloudProvisioningRecord provisionable = createRecord(instance);
+        final String nodeName = createNodeName();
+
+        // When
+        instance.provisionedSlaveAlreadyActive(provisionable, nodeName);
+
+        // Then
+        final CloudProvisioningStatistics stats = instance.calculateStatistics(
+                Collections.singletonList(provisionable.getTemplate())).get(0);
+        assertThat(stats.getActive(), equalTo(1));
+        assertThat(stats.getTotalStarted(), equalTo(0L));
+        assertThat(stats.getTotalSucceeded(), equalTo(0L));
+    }
+
+    @Test
+    public void takeSuspendedSlaveGivenSuspendedSlavesThenReturnsNewestOnce() {
+        // Given
+        final CloudProvisioningState instance = createInstance();
+        final CloudProvisioningRecord provisionable = createRecord(instance);
+        final String olderNode = createNodeName();
+        final String newerNode = createNodeName();
+        instance.provisionedSlaveAlreadyActive(provisionable, olderNode);
+        instance.provisionedSlaveAlreadyActive(provisionable, newerNode);
+        instance.provisionedSlaveNowSuspended(olderNode, 1000L);
+        instance.provisionedSlaveNowSuspended(newerNode, 2000L);
+
+        // When
+        final String first = instance.takeSuspendedSlave(provisionable);
+        final String second = instance.takeSuspendedSlave(provisionable);
+        final String third = instance.takeSuspendedSlave(provisionable);
+
+        // Then
+        assertThat(first, equalTo(newerNode));
+        assertThat(second, equalTo(olderNode));
+        assertThat(third, equalTo(null));
+        final CloudProvisioningStatistics stats = instance.calculateStatistics(
+                Collections.singletonList(provisionable.getTemplate())).get(0);
+        assertThat(stats.getActive(), equalTo(2));
+        assertThat(stats.getSuspended(), equalTo(0));
+    }
+
+    @Test
+    public void provisionedSlaveNowSuspendedGivenAlreadySuspendedThenReturnsOriginalTime() {
+        // Given
+        final CloudProvisioningState instance = createInstance();
+        final CloudProvisioningRecord provisionable = createRecord(instance);
+        final String nodeName = createNodeName();
+        instance.provisionedSlaveAlreadyActive(provisionable, nodeName);
+        instance.provisionedSlaveNowSuspended(nodeName, 1000L);
+
+        // When
+        final long actual = instance.provisionedSlaveNowSuspended(nodeName, 5000L);
+
+        // Then
+        assertThat(actual, equalTo(1000L));
+    }
+
+    @Test
+    public void provisionedSlaveNowSuspendedGivenFailedResumeThenKeepsOriginalTime() {
+        // Given
+        final CloudProvisioningState instance = createInstance();
+        final CloudProvisioningRecord provisionable = createRecord(instance);
+        final String nodeName = createNodeName();
+        instance.provisionedSlaveAlreadyActive(provisionable, nodeName);
+        instance.provisionedSlaveNowSuspended(nodeName, 1000L);
+        instance.takeSuspendedSlave(provisionable);
+
+        // When
+        final long actual = instance.provisionedSlaveNowSuspended(nodeName, 5000L);
+
+        // Then
+        assertThat(actual, equalTo(1000L));
+        assertThat(instance.getSuspendedSince(nodeName), equalTo(1000L));
+    }
+
+    @Test
+    public void getSuspendedSinceGivenResumedThenNotSuspended() {
+        // Given
+        final CloudProvisioningState instance = createInstance();
+        final CloudProvisioningRecord provisionable = createRecord(instance);
+        final String nodeName = createNodeName();
+        instance.provisionedSlaveAlreadyActive(provisionable, nodeName);
+        instance.provisionedSlaveNowSuspended(nodeName, 1000L);
+        instance.takeSuspendedSlave(provisionable);
+
+        // When
+        instance.provisionedSlaveNowResumed(nodeName);
+
+        // Then
+        assertThat(instance.getSuspendedSince(nodeName), equalTo(-1L));
+    }
+
+    @Test
+    public void provisionedSlaveNowSuspendedGivenUnknownSlaveThenWarns() {
+        // Given
+        final CloudProvisioningState instance = createInstance();
+        createRecord(instance);
+        final String nodeName = createNodeName();
+        final Object[] expectedArgs = { nodeName };
+        wipeLog();
+
+        // When
+        final long actual = instance.provisionedSlaveNowSuspended(nodeName, 1000L);
+
+        // Then
+        assertThat(actual, equalTo(-1L));
+        assertThat(loggedMessages, contains(logMessage(Level.WARNING, expectedArgs)));
+    }
+
+    @Test
+    public void provisionedSlaveNowTerminatedGivenSuspendedThenNoLongerSuspended() {
+        // Given
+        final CloudProvisioningState instance = createInstance();
+        final CloudProvisioningRecord provisionable = createRecord(instance);
+        final String nodeName = createNodeName();
+        instance.provisionedSlaveAlreadyActive(provisionable, nodeName);
+        instance.provisionedSlaveNowSuspended(nodeName, 1000L);
+
+        // When
+        instance.provisionedSlaveNowTerminated(nodeName);
+
+        // Then
+        assertThat(instance.takeSuspendedSlave(provisionable), equalTo(null));
+    }
+
+    @Test
+    public void calculateStatisticsGivenNoRecordThenDoesNotCreateOne() {
+        // Given
+        final vSphereCloudSlaveTemplate template = createRecord(createInstance()).getTemplate();
+        final CloudProvisioningState instance = createInstance();
+        wipeLog();
+
+        // When
+        final CloudProvisioningStatistics stats = instance.calculateStatistics(Collections.singletonList(template))
+                .get(0);
+
+        // Then
+        assertThat(stats.getTemplateName(), equalTo(template.getCloneNamePrefix()));
+        assertThat(stats.getPlanned(), equalTo(0));
+        assertThat(stats.getTotalStarted(), equalTo(0L));
+        assertThat(loggedMessages.isEmpty(), equalTo(true));
+    }
+
     private void wipeLog() {
         loggedMessages.clear();
     }
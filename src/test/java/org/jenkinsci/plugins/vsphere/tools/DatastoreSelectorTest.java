@@ -0,0 +1,192 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.jenkinsci.plugins.vsphere.tools.DatastoreSelector.Policy;
+import org.jenkinsci.plugins.vsphere.tools.DatastoreSelector.Reservation;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DatastoreSelectorTest {
+
+    private Map<String, DatastoreCapacity> datastoreStats;
+    private int fetches;
+    private DatastoreSelector.Source source;
+
+    @Before
+    public void setup() {
+        datastoreStats = new HashMap<String, DatastoreCapacity>();
+        fetches = 0;
+        source = new DatastoreSelector.Source() {
+            @Override
+            public Map<String, DatastoreCapacity> getDatastoreCapacities() {
+                fetches++;
+                return datastoreStats;
+            }
+        };
+    }
+
+    @Test
+    public void chooseGivenMostFreeThenPicksLargest() {
+        // Given
+        final Map<String, Long> available = available("d1", 10L, "d2", 30L, "d3", 20L);
+
+        // When
+        final String actual = DatastoreSelector.choose(available, Policy.MOST_FREE, 0, new Random(0L));
+
+        // Then
+        assertThat(actual, equalTo("d2"));
+    }
+
+    @Test
+    public void chooseGivenRoundRobinThenPicksEachInTurn() {
+        // Given
+        final Map<String, Long> available = available("d1", 10L, "d2", 30L, "d3", 20L);
+
+        // When
+        final String first = DatastoreSelector.choose(available, Policy.ROUND_ROBIN, 0, new Random(0L));
+        final String second = DatastoreSelector.choose(available, Policy.ROUND_ROBIN, 1, new Random(0L));
+        final String fourth = DatastoreSelector.choose(available, Policy.ROUND_ROBIN, 3, new Random(0L));
+
+        // Then
+        assertThat(first, equalTo("d1"));
+        assertThat(second, equalTo("d2"));
+        assertThat(fourth, equalTo("d1"));
+    }
+
+    @Test
+    public void chooseGivenWeightedThenNeverPicksEmptyDatastore() {
+        // Given
+        final Map<String, Long> available = available("d1", 0L, "d2", 30L);
+        final Random random = new Random(0L);
+
+        for (int i = 0; i < 100; i++) {
+            // When
+            final String actual = DatastoreSelector.choose(available, Policy.WEIGHTED, i, random);
+
+            // Then
+            assertThat(actual, equalTo("d2"));
+        }
+    }
+
+    @Test
+    public void chooseGivenNothingAvailableThenReturnsNull() {
+        // Given
+        final Map<String, Long> available = new TreeMap<String, Long>();
+
+        // When
+        final String actual = DatastoreSelector.choose(available, Policy.MOST_FREE, 0, new Random(0L));
+
+        // Then
+        assertThat(actual, nullValue());
+    }
+
+    @Test
+    public void reserveGivenEarlierReservationThenAvoidsReservedSpace() throws Exception {
+        // Given
+        final DatastoreSelector instance = new DatastoreSelector(60000L, 60000L, new Random(0L));
+        datastore("d1", 100L, true);
+        datastore("d2", 80L, true);
+        final Reservation first = instance.reserve(source, null, 50L, Policy.MOST_FREE);
+
+        // When
+        final Reservation second = instance.reserve(source, null, 50L, Policy.MOST_FREE);
+
+        // Then
+        assertThat(first.getDatastore(), equalTo("d1"));
+        assertThat(second.getDatastore(), equalTo("d2"));
+        assertThat(fetches, equalTo(1));
+    }
+
+    @Test
+    public void reserveGivenReservationClosedThenSpaceIsAvailableAgain() throws Exception {
+        // Given
+        final DatastoreSelector instance = new DatastoreSelector(60000L, 60000L, new Random(0L));
+        datastore("d1", 100L, true);
+        instance.reserve(source, null, 60L, Policy.MOST_FREE).close();
+
+        // When
+        final Reservation actual = instance.reserve(source, null, 60L, Policy.MOST_FREE);
+
+        // Then
+        assertThat(actual.getDatastore(), equalTo("d1"));
+        assertThat(actual.getFreeSpace(), equalTo(100L));
+    }
+
+    @Test
+    public void reserveGivenReservationExpiredThenSpaceIsAvailableAgain() throws Exception {
+        // Given
+        final DatastoreSelector instance = new DatastoreSelector(60000L, 0L, new Random(0L));
+        datastore("d1", 100L, true);
+        instance.reserve(source, null, 60L, Policy.MOST_FREE);
+
+        // When
+        final Reservation actual = instance.reserve(source, null, 60L, Policy.MOST_FREE);
+
+        // Then
+        assertThat(actual.getDatastore(), equalTo("d1"));
+    }
+
+    @Test
+    public void reserveGivenWantedDatastoreThenIgnoresOthers() throws Exception {
+        // Given
+        final DatastoreSelector instance = new DatastoreSelector(60000L, 60000L, new Random(0L));
+        datastore("d1", 100L, true);
+        datastore("d2", 80L, true);
+
+        // When
+        final Reservation actual = instance.reserve(source, "d2", 50L, Policy.MOST_FREE);
+
+        // Then
+        assertThat(actual.getDatastore(), equalTo("d2"));
+    }
+
+    @Test
+    public void reserveGivenNoAccessibleDatastoreWithSpaceThenThrows() throws Exception {
+        // Given
+        final DatastoreSelector instance = new DatastoreSelector(60000L, 60000L, new Random(0L));
+        datastore("d1", 100L, false);
+        datastore("d2", 40L, true);
+
+        // When
+        try {
+            instance.reserve(source, null, 50L, Policy.MOST_FREE);
+            fail("Expected exception");
+        } catch (VSphereException expected) {
+            // Then
+            assertThat(expected.getMessage(), equalTo("No datastore with enough space found"));
+        }
+    }
+
+    @Test
+    public void reserveGivenStatisticsOutOfDateThenFetchesAgain() throws Exception {
+        // Given
+        final DatastoreSelector instance = new DatastoreSelector(0L, 60000L, new Random(0L));
+        datastore("d1", 100L, true);
+        instance.reserve(source, null, 10L, Policy.MOST_FREE);
+
+        // When
+        instance.reserve(source, null, 10L, Policy.MOST_FREE);
+
+        // Then
+        assertThat(fetches, equalTo(2));
+    }
+
+    private void datastore(String name, long free, boolean accessible) {
+        datastoreStats.put(name, new DatastoreCapacity(name, 1000L, free, accessible, 0L));
+    }
+
+    private static Map<String, Long> available(Object... namesAndFreeSpace) {
+        final Map<String, Long> result = new TreeMap<String, Long>();
+        for (int i = 0; i < namesAndFreeSpace.length; i += 2) {
+            result.put((String) namesAndFreeSpace[i], (Long) namesAndFreeSpace[i + 1]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,93 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import org.junit.Test;
+
+public class DemandForecasterTest {
+
+    private static final long SLOT_MILLIS = 1000L;
+    private static final int SLOTS_PER_DAY = 24;
+    private static final int BUSY_SLOT = 9;
+
+    @Test
+    public void forecastGivenNoDataThenReturnsZero() {
+        // Given
+        final DemandForecaster instance = createInstance();
+
+        // When
+        final double actual = instance.forecast(0L);
+
+        // Then
+        assertThat(actual, equalTo(0.0));
+        assertThat(instance.isWarmedUp(), is(false));
+    }
+
+    @Test
+    public void forecastGivenDailyPeakThenPredictsPeakAtSameTimeOfDay() {
+        // Given
+        final DemandForecaster instance = createInstance();
+        final int days = 10;
+        observeDays(instance, days);
+        final long startOfNextDay = days * SLOTS_PER_DAY * SLOT_MILLIS;
+
+        // When
+        final double busy = instance.forecast(startOfNextDay + BUSY_SLOT * SLOT_MILLIS);
+        final double quiet = instance.forecast(startOfNextDay + (BUSY_SLOT + 6) * SLOT_MILLIS);
+
+        // Then
+        assertThat(instance.isWarmedUp(), is(true));
+        assertThat(busy, greaterThan(15.0));
+        assertThat(quiet, lessThan(5.0));
+    }
+
+    @Test
+    public void observeGivenRegularPatternThenErrorFallsOverTime() {
+        // Given
+        final DemandForecaster instance = createInstance();
+        observeDays(instance, 3);
+        final double earlyError = instance.getMeanAbsoluteError();
+
+        // When
+        observeDays(instance, 30);
+
+        // Then
+        assertThat(instance.getErrorCount(), greaterThan(0L));
+        assertThat(instance.getMeanAbsoluteError(), lessThan(earlyError));
+        assertThat(instance.getRootMeanSquaredError(), greaterThanOrEqualTo(instance.getMeanAbsoluteError()));
+    }
+
+    @Test
+    public void observeGivenSeveralSamplesInSlotThenUsesPeak() {
+        // Given
+        final DemandForecaster instance = createInstance();
+        instance.observe(0L, 1.0);
+        instance.observe(SLOT_MILLIS / 2, 7.0);
+        instance.observe(SLOT_MILLIS - 1, 3.0);
+
+        // When
+        instance.observe(SLOT_MILLIS, 0.0); // completes the first slot
+
+        // Then
+        assertThat(instance.getLastActual(), equalTo(7.0));
+    }
+
+    private static DemandForecaster createInstance() {
+        return new DemandForecaster(SLOT_MILLIS, SLOTS_PER_DAY, 0.3, 0.01, 0.3);
+    }
+
+    private int daysObserved;
+
+    private void observeDays(DemandForecaster instance, int days) {
+        for (int d = 0; d < days; d++, daysObserved++) {
+            for (int slot = 0; slot < SLOTS_PER_DAY; slot++) {
+                final long time = (daysObserved * SLOTS_PER_DAY + slot) * SLOT_MILLIS;
+                instance.observe(time, slot == BUSY_SLOT ? 20.0 : 2.0);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.Test;
+
+public class IdleCapacityBufferTest {
+
+    private static final long WINDOW = 10000L;
+
+    @Test
+    public void getPeakDemandGivenNoDemandThenReturnsZero() {
+        // Given
+        final IdleCapacityBuffer instance = new IdleCapacityBuffer(WINDOW);
+
+        // When
+        final int actual = instance.getPeakDemand(1000L);
+
+        // Then
+        assertThat(actual, equalTo(0));
+    }
+
+    @Test
+    public void getPeakDemandGivenDemandWithinWindowThenReturnsHighest() {
+        // Given
+        final IdleCapacityBuffer instance = new IdleCapacityBuffer(WINDOW);
+        instance.recordDemand(1000L, 2);
+        instance.recordDemand(2000L, 7);
+        instance.recordDemand(3000L, 1);
+
+        // When
+        final int actual = instance.getPeakDemand(4000L);
+
+        // Then
+        assertThat(actual, equalTo(7));
+    }
+
+    @Test
+    public void getPeakDemandGivenPeakHasLeftWindowThenReturnsNextHighest() {
+        // Given
+        final IdleCapacityBuffer instance = new IdleCapacityBuffer(WINDOW);
+        instance.recordDemand(1000L, 7);
+        instance.recordDemand(5000L, 3);
+        instance.recordDemand(9000L, 1);
+
+        // When
+        final int beforeExpiry = instance.getPeakDemand(1000L + WINDOW);
+        final int afterFirstExpiry = instance.getPeakDemand(1001L + WINDOW);
+        final int afterAllExpired = instance.getPeakDemand(9001L + WINDOW);
+
+        // Then
+        assertThat(beforeExpiry, equalTo(7));
+        assertThat(afterFirstExpiry, equalTo(3));
+        assertThat(afterAllExpired, equalTo(0));
+    }
+
+    @Test
+    public void getPeakDemandGivenTwoWindowsThenEachSeesItsOwnPeakAndHistoryIsKept() {
+        // Given
+        final long shortWindow = WINDOW / 2;
+        final IdleCapacityBuffer instance = new IdleCapacityBuffer(shortWindow);
+        instance.recordDemand(1000L, 7);
+        instance.widenWindow(WINDOW);
+        instance.recordDemand(2000L, 3);
+        instance.widenWindow(shortWindow);
+
+        // When
+        final int shortPeak = instance.getPeakDemand(1001L + shortWindow, shortWindow);
+        final int longPeak = instance.getPeakDemand(1001L + shortWindow, WINDOW);
+        final int longPeakLater = instance.getPeakDemand(1000L + WINDOW, WINDOW);
+
+        // Then
+        assertThat(instance.getWindowMillis(), equalTo(WINDOW));
+        assertThat(shortPeak, equalTo(3));
+        assertThat(longPeak, equalTo(7));
+        assertThat(longPeakLater, equalTo(7));
+    }
+
+    @Test
+    public void surplusSlavesGivenDemandAndBufferThenKeepsEnoughForBoth() {
+        // Given
+        final int online = 10;
+        final int peakBusyExecutors = 5;
+        final int executorsPerSlave = 2;
+        final int buffer = 2;
+
+        // When
+        final int actual = IdleCapacityBuffer.surplusSlaves(online, peakBusyExecutors, executorsPerSlave, buffer);
+
+        // Then
+        // 5 executors needs 3 slaves, plus 2 spare
+        assertThat(actual, equalTo(5));
+    }
+
+    @Test
+    public void surplusSlavesGivenFewerSlavesThanWantedThenReturnsZero() {
+        // Given
+        final int online = 3;
+        final int peakBusyExecutors = 3;
+        final int executorsPerSlave = 1;
+        final int buffer = 1;
+
+        // When
+        final int actual = IdleCapacityBuffer.surplusSlaves(online, peakBusyExecutors, executorsPerSlave, buffer);
+
+        // Then
+        assertThat(actual, equalTo(0));
+    }
+}
@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LinkedCloneReplicasTest {
+
+    @Test
+    public void getReplicaNameGivenOddDatastoreNameThenMakesItSafe() {
+        // Given
+        final String datastoreName = "SAN 1 (fast)";
+
+        // When
+        final String actual = LinkedCloneReplicas.getReplicaName("master", datastoreName);
+
+        // Then
+        assertThat(actual, equalTo("master-replica-SAN_1__fast_"));
+    }
+
+    @Test
+    public void getRetiredReplicaNamesThenFindsOnlyRetiredCopiesOfThatReplica() {
+        // Given
+        final List<String> vmNames = Arrays.asList("master-replica-ds1", "master-replica-ds1-old-1000",
+                "master-replica-ds1-old-2000", "master-replica-ds2-old-1000", "master-replica-ds1-old-",
+                "master-replica-ds1-old-x", "slave-1");
+
+        // When
+        final List<String> actual = LinkedCloneReplicas.getRetiredReplicaNames("master-replica-ds1", vmNames);
+
+        // Then
+        assertThat(actual, equalTo(Arrays.asList("master-replica-ds1-old-1000", "master-replica-ds1-old-2000")));
+    }
+
+    @Test
+    public void getLockGivenSameReplicaThenReturnsSameLock() {
+        // Given
+        final String replicaName = LinkedCloneReplicas.getReplicaName("master", "ds1");
+
+        // When
+        final Object first = LinkedCloneReplicas.getLock(replicaName);
+        final Object second = LinkedCloneReplicas.getLock(new String(replicaName));
+
+        // Then
+        assertThat(second, sameInstance(first));
+    }
+
+    @Test
+    public void getLockGivenManyReplicasThenSharesLocksOut() {
+        // Given
+        final Set<Object> locks = new HashSet<Object>();
+
+        // When
+        for (int i = 0; i < 10000; i++) {
+            locks.add(LinkedCloneReplicas.getLock(LinkedCloneReplicas.getReplicaName("master", "ds" + i)));
+        }
+
+        // Then
+        assertThat(locks.size() > 1, equalTo(true));
+        assertThat(locks.size() <= 64, equalTo(true));
+    }
+}
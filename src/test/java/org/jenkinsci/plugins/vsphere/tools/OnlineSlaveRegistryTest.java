@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class OnlineSlaveRegistryTest {
+
+    @Test
+    public void markOnlineGivenLimitReachedThenRefuses() {
+        // Given
+        final OnlineSlaveRegistry instance = new OnlineSlaveRegistry(2);
+        instance.markOnline("s1", "vm1");
+        instance.markOnline("s2", "vm2");
+
+        // When
+        final boolean actual = instance.markOnline("s3", "vm3");
+
+        // Then
+        assertThat(actual, is(false));
+        assertThat(instance.canMarkOnline("s3", "vm3"), is(false));
+        assertThat(instance.size(), equalTo(2));
+    }
+
+    @Test
+    public void markOnlineGivenVmAlreadyInUseThenRefuses() {
+        // Given
+        final OnlineSlaveRegistry instance = new OnlineSlaveRegistry(0);
+        instance.markOnline("s1", "vm1");
+
+        // When
+        final boolean actual = instance.markOnline("s2", "vm1");
+
+        // Then
+        assertThat(actual, is(false));
+        assertThat(instance.size(), equalTo(1));
+    }
+
+    @Test
+    public void markOnlineGivenAlreadyOnlineWithSameVmThenAccepts() {
+        // Given
+        final OnlineSlaveRegistry instance = new OnlineSlaveRegistry(1);
+        instance.markOnline("s1", "vm1");
+
+        // When
+        final boolean actual = instance.markOnline("s1", "vm1");
+
+        // Then
+        assertThat(actual, is(true));
+        assertThat(instance.size(), equalTo(1));
+    }
+
+    @Test
+    public void markOfflineGivenOnlineSlaveThenFreesSlotAndVm() {
+        // Given
+        final OnlineSlaveRegistry instance = new OnlineSlaveRegistry(1);
+        instance.markOnline("s1", "vm1");
+
+        // When
+        instance.markOffline("s1");
+        instance.markOffline("s1");
+
+        // Then
+        assertThat(instance.size(), equalTo(0));
+        assertThat(instance.markOnline("s2", "vm1"), is(true));
+    }
+
+    @Test
+    public void markOnlineGivenConcurrentCallersThenNeverExceedsLimit() throws Exception {
+        // Given
+        final int limit = 5;
+        final int callers = 50;
+        final OnlineSlaveRegistry instance = new OnlineSlaveRegistry(limit);
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+        // When
+        try {
+            for (int i = 0; i < callers; i++) {
+                final String name = "s" + i;
+                results.add(pool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return instance.markOnline(name, "vm-" + name);
+                    }
+                }));
+            }
+            int accepted = 0;
+            for (final Future<Boolean> result : results) {
+                if (result.get().booleanValue()) {
+                    accepted++;
+                }
+            }
+
+            // Then
+            assertThat(accepted, equalTo(limit));
+            assertThat(instance.size(), equalTo(limit));
+            assertThat(instance.getOnline().size(), equalTo(limit));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ProbableLaunchesTest {
+
+    private static final long FUTURE = System.currentTimeMillis() + 60000L;
+    private static final long PAST = System.currentTimeMillis() - 60000L;
+
+    @Test
+    public void getWithLabelGivenLaunchesThenReturnsOnlyThoseWithLabel() {
+        // Given
+        final ProbableLaunches<String> instance = new ProbableLaunches<String>();
+        instance.add("a", Arrays.asList("linux", "a"), FUTURE);
+        instance.add("b", Arrays.asList("windows", "b"), FUTURE);
+        instance.add("c", Arrays.asList("linux", "c"), FUTURE);
+
+        // When
+        final List<String> actual = instance.getWithLabel("linux");
+
+        // Then
+        assertThat(actual, containsInAnyOrder("a", "c"));
+        assertThat(instance.getWithLabel("solaris"), empty());
+        assertThat(instance.size(), equalTo(3));
+    }
+
+    @Test
+    public void removeGivenLaunchThenForgetsIt() {
+        // Given
+        final ProbableLaunches<String> instance = new ProbableLaunches<String>();
+        instance.add("a", Arrays.asList("linux"), FUTURE);
+
+        // When
+        instance.remove("a");
+
+        // Then
+        assertThat(instance.size(), equalTo(0));
+        assertThat(instance.getWithLabel("linux"), empty());
+    }
+
+    @Test
+    public void removeExpiredGivenExpiredAndCurrentLaunchesThenRemovesOnlyExpired() {
+        // Given
+        final ProbableLaunches<String> instance = new ProbableLaunches<String>();
+        instance.add("old", Arrays.asList("linux"), PAST);
+        instance.add("new", Arrays.asList("linux"), FUTURE);
+
+        // When
+        instance.removeExpired();
+
+        // Then
+        assertThat(instance.getAll(), containsInAnyOrder("new"));
+        assertThat(instance.getWithLabel("linux"), containsInAnyOrder("new"));
+    }
+
+    @Test
+    public void removeExpiredGivenExpiredLaunchWasRenewedThenKeepsRenewal() {
+        // Given
+        final ProbableLaunches<String> instance = new ProbableLaunches<String>();
+        instance.add("a", Arrays.asList("linux"), PAST);
+        instance.add("a", Arrays.asList("windows"), FUTURE);
+
+        // When
+        instance.removeExpired();
+
+        // Then
+        assertThat(instance.getAll(), containsInAnyOrder("a"));
+        assertThat(instance.getWithLabel("linux"), empty());
+        assertThat(instance.getWithLabel("windows"), containsInAnyOrder("a"));
+    }
+
+    @Test
+    public void getWithLabelGivenAddsAndRemovesRacedThenOnlyReturnsCurrentLaunches() throws Exception {
+        // Given
+        final ProbableLaunches<String> instance = new ProbableLaunches<String>();
+        final Thread adder = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20000; i++) {
+                    instance.add("a", Arrays.asList("linux"), FUTURE);
+                }
+            }
+        };
+        final Thread remover = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20000; i++) {
+                    instance.remove("a");
+                }
+            }
+        };
+        adder.start();
+        remover.start();
+        adder.join();
+        remover.join();
+
+        // When
+        final List<String> actual = instance.getWithLabel("linux");
+
+        // Then
+        assertThat(actual, equalTo(instance.getAll()));
+    }
+}
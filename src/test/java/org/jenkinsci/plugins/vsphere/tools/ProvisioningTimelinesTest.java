@@ -0,0 +1,128 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.jenkinsci.plugins.vsphere.tools.ProvisioningTimeline.SpanData;
+import org.junit.Test;
+
+public class ProvisioningTimelinesTest {
+
+    @Test
+    public void succeededGivenOpenSpanThenClosesItWithoutError() {
+        // Given
+        final ProvisioningTimelines instance = new ProvisioningTimelines(10);
+        final ProvisioningTimeline timeline = instance.start("cloud", "template", "node1");
+        timeline.startSpan(ProvisioningTimeline.CLONE).close();
+        instance.startSpan("node1", ProvisioningTimeline.CONNECT);
+
+        // When
+        instance.succeeded("node1");
+
+        // Then
+        final List<SpanData> spans = timeline.getSpans();
+        assertThat(spans.size(), equalTo(2));
+        assertThat(spans.get(1).getName(), equalTo(ProvisioningTimeline.CONNECT));
+        assertThat(spans.get(1).isOpen(), is(false));
+        assertThat(spans.get(1).getError(), nullValue());
+        assertThat(timeline.isFinished(), is(true));
+        assertThat(instance.getInProgress("node1"), nullValue());
+        assertThat(instance.find("node1"), sameInstance(timeline));
+    }
+
+    @Test
+    public void failedGivenOpenSpanThenBlamesThatSpan() {
+        // Given
+        final ProvisioningTimelines instance = new ProvisioningTimelines(10);
+        final ProvisioningTimeline timeline = instance.start("cloud", "template", "node1");
+        timeline.startSpan(ProvisioningTimeline.QUEUE).close();
+        instance.startSpan("node1", ProvisioningTimeline.CLONE);
+
+        // When
+        instance.failed("node1", "clone failed");
+
+        // Then
+        final List<SpanData> spans = timeline.getSpans();
+        assertThat(spans.get(0).getError(), nullValue());
+        assertThat(spans.get(1).getError(), equalTo("clone failed"));
+        assertThat(timeline.getFailure(), equalTo("clone failed"));
+    }
+
+    @Test
+    public void startSpanGivenUnknownNodeThenSpanIsDiscarded() {
+        // Given
+        final ProvisioningTimelines instance = new ProvisioningTimelines(10);
+
+        // When
+        instance.startSpan("unknown", ProvisioningTimeline.CONNECT).close();
+
+        // Then
+        assertThat(instance.getAll().isEmpty(), is(true));
+    }
+
+    @Test
+    public void finishGivenMoreThanCapacityThenForgetsOldest() {
+        // Given
+        final ProvisioningTimelines instance = new ProvisioningTimelines(2);
+
+        // When
+        instance.start("cloud", "template", "node1").succeeded();
+        instance.start("cloud", "template", "node2").succeeded();
+        instance.start("cloud", "template", "node3").succeeded();
+
+        // Then
+        final List<ProvisioningTimeline> all = instance.getAll();
+        assertThat(all.size(), equalTo(2));
+        assertThat(all.get(0).getNodeName(), equalTo("node3"));
+        assertThat(all.get(1).getNodeName(), equalTo("node2"));
+        assertThat(instance.find("node1"), nullValue());
+    }
+
+    @Test
+    public void toOtelSpansThenHasRootAndChildSpansInOneTrace() {
+        // Given
+        final ProvisioningTimelines instance = new ProvisioningTimelines(10);
+        final ProvisioningTimeline timeline = instance.start("cloud", "template", "node1");
+        timeline.startSpan(ProvisioningTimeline.CLONE).close();
+        timeline.succeeded();
+
+        // When
+        final JSONArray actual = timeline.toOtelSpans();
+
+        // Then
+        assertThat(actual.size(), equalTo(2));
+        final JSONObject root = actual.getJSONObject(0);
+        final JSONObject child = actual.getJSONObject(1);
+        assertThat(root.getString("name"), equalTo("provision"));
+        assertThat(child.getString("name"), equalTo(ProvisioningTimeline.CLONE));
+        assertThat(child.getString("traceId"), equalTo(root.getString("traceId")));
+        assertThat(child.getString("parentSpanId"), equalTo(root.getString("spanId")));
+    }
+
+    @Test
+    public void toOtelSpansGivenExportedTwiceThenIdsAreTheSame() {
+        // Given
+        final ProvisioningTimelines instance = new ProvisioningTimelines(10);
+        final ProvisioningTimeline timeline = instance.start("cloud", "template", "node1");
+        timeline.startSpan(ProvisioningTimeline.CLONE).close();
+        timeline.startSpan(ProvisioningTimeline.CONNECT).close();
+        timeline.succeeded();
+
+        // When
+        final JSONArray first = timeline.toOtelSpans();
+        final JSONArray second = timeline.toOtelSpans();
+
+        // Then
+        assertThat(second.size(), equalTo(first.size()));
+        for (int i = 0; i < first.size(); i++) {
+            assertThat(second.getJSONObject(i).getString("traceId"), equalTo(first.getJSONObject(i).getString("traceId")));
+            assertThat(second.getJSONObject(i).getString("spanId"), equalTo(first.getJSONObject(i).getString("spanId")));
+        }
+        assertThat(first.getJSONObject(1).getString("spanId"), not(equalTo(first.getJSONObject(2).getString("spanId"))));
+    }
+}
@@ -0,0 +1,120 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.jenkinsci.plugins.vsphere.tools.ReuseTracker.Action;
+import org.junit.Test;
+
+public class ReuseTrackerTest {
+
+    private final String slave = "slave";
+
+    @Test
+    public void taskCompletedGivenNoOtherBuildsThenReverts() {
+        // Given
+        final ReuseTracker<String> instance = new ReuseTracker<String>();
+
+        // When
+        final Action actual = instance.taskCompleted(slave, false, 0);
+
+        // Then
+        assertThat(actual, equalTo(Action.REVERT));
+        assertThat(instance.isReverting(slave), equalTo(true));
+        assertThat(instance.getReuseCount(slave), equalTo(1));
+    }
+
+    @Test
+    public void taskCompletedGivenOtherBuildsBusyThenWaits() {
+        // Given
+        final ReuseTracker<String> instance = new ReuseTracker<String>();
+
+        // When
+        final Action actual = instance.taskCompleted(slave, true, 0);
+
+        // Then
+        assertThat(actual, equalTo(Action.WAIT));
+        assertThat(instance.isPending(slave), equalTo(true));
+        assertThat(instance.isReverting(slave), equalTo(false));
+    }
+
+    @Test
+    public void taskCompletedGivenLastBuildFinishedThenRevertsOnce() {
+        // Given
+        final ReuseTracker<String> instance = new ReuseTracker<String>();
+        instance.taskCompleted(slave, true, 0);
+
+        // When
+        final Action last = instance.taskCompleted(slave, false, 0);
+        final Action late = instance.taskCompleted(slave, false, 0);
+
+        // Then
+        assertThat(last, equalTo(Action.REVERT));
+        assertThat(late, equalTo(Action.NOTHING));
+        assertThat(instance.isPending(slave), equalTo(false));
+        assertThat(instance.getReuseCount(slave), equalTo(1));
+    }
+
+    @Test
+    public void taskCompletedGivenReusedEnoughThenTerminates() {
+        // Given
+        final ReuseTracker<String> instance = new ReuseTracker<String>();
+        instance.taskCompleted(slave, false, 2);
+        instance.revertFinished(slave);
+        instance.taskCompleted(slave, false, 2);
+        instance.revertFinished(slave);
+
+        // When
+        final Action actual = instance.taskCompleted(slave, false, 2);
+
+        // Then
+        assertThat(actual, equalTo(Action.TERMINATE));
+        assertThat(instance.isReverting(slave), equalTo(false));
+    }
+
+    @Test
+    public void revertIfPendingGivenWaitingThenStartsRevert() {
+        // Given
+        final ReuseTracker<String> instance = new ReuseTracker<String>();
+        instance.taskCompleted(slave, true, 0);
+
+        // When
+        final boolean first = instance.revertIfPending(slave);
+        final boolean second = instance.revertIfPending(slave);
+
+        // Then
+        assertThat(first, equalTo(true));
+        assertThat(second, equalTo(false));
+        assertThat(instance.isReverting(slave), equalTo(true));
+    }
+
+    @Test
+    public void revertIfPendingGivenCancelledThenDoesNothing() {
+        // Given
+        final ReuseTracker<String> instance = new ReuseTracker<String>();
+        instance.taskCompleted(slave, true, 0);
+        instance.cancelPending(slave);
+
+        // When
+        final boolean actual = instance.revertIfPending(slave);
+
+        // Then
+        assertThat(actual, equalTo(false));
+        assertThat(instance.getReuseCount(slave), equalTo(0));
+    }
+
+    @Test
+    public void revertFinishedThenSlaveCanBeRevertedAgain() {
+        // Given
+        final ReuseTracker<String> instance = new ReuseTracker<String>();
+        instance.taskCompleted(slave, false, 0);
+
+        // When
+        instance.revertFinished(slave);
+        final Action actual = instance.taskCompleted(slave, false, 0);
+
+        // Then
+        assertThat(actual, equalTo(Action.REVERT));
+        assertThat(instance.getReuseCount(slave), equalTo(2));
+    }
+}
@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SnapshotIndexTest {
+
+    private static final long NEVER = Long.MAX_VALUE / 2;
+
+    @Test
+    public void findGivenKnownSnapshotThenDoesNotReload() {
+        // Given
+        final SnapshotIndex instance = new SnapshotIndex(NEVER);
+        final StubLoader loader = new StubLoader();
+        loader.snapshots.put("base", "snapshot-1");
+        instance.find("vc/vm-1", "base", loader);
+
+        // When
+        final String actual = instance.find("vc/vm-1", "base", loader);
+
+        // Then
+        assertThat(actual, equalTo("snapshot-1"));
+        assertThat(loader.loads, equalTo(1));
+    }
+
+    @Test
+    public void findGivenUnknownSnapshotThenReloadsInCaseItIsNew() {
+        // Given
+        final SnapshotIndex instance = new SnapshotIndex(NEVER);
+        final StubLoader loader = new StubLoader();
+        loader.snapshots.put("base", "snapshot-1");
+        instance.find("vc/vm-1", "base", loader);
+        loader.snapshots.put("newer", "snapshot-2");
+
+        // When
+        final String actual = instance.find("vc/vm-1", "newer", loader);
+
+        // Then
+        assertThat(actual, equalTo("snapshot-2"));
+        assertThat(instance.find("vc/vm-1", "missing", loader), nullValue());
+        assertThat(loader.loads, equalTo(3));
+    }
+
+    @Test
+    public void findGivenInvalidatedThenReloads() {
+        // Given
+        final SnapshotIndex instance = new SnapshotIndex(NEVER);
+        final StubLoader loader = new StubLoader();
+        loader.snapshots.put("base", "snapshot-1");
+        instance.find("vc/vm-1", "base", loader);
+        loader.snapshots.put("base", "snapshot-9");
+
+        // When
+        instance.invalidate("vc/vm-1");
+        final String actual = instance.find("vc/vm-1", "base", loader);
+
+        // Then
+        assertThat(actual, equalTo("snapshot-9"));
+        assertThat(loader.loads, equalTo(2));
+    }
+
+    @Test
+    public void findGivenExpiredThenReloads() {
+        // Given
+        final SnapshotIndex instance = new SnapshotIndex(0L);
+        final StubLoader loader = new StubLoader();
+        loader.snapshots.put("base", "snapshot-1");
+        instance.find("vc/vm-1", "base", loader);
+
+        // When
+        instance.find("vc/vm-1", "base", loader);
+
+        // Then
+        assertThat(loader.loads, equalTo(2));
+    }
+
+    @Test
+    public void findGivenDifferentVmsThenKeepsThemApart() {
+        // Given
+        final SnapshotIndex instance = new SnapshotIndex(NEVER);
+        final StubLoader loader1 = new StubLoader();
+        loader1.snapshots.put("base", "snapshot-1");
+        final StubLoader loader2 = new StubLoader();
+        loader2.snapshots.put("base", "snapshot-2");
+
+        // When
+        final String actual1 = instance.find("vc/vm-1", "base", loader1);
+        final String actual2 = instance.find("vc/vm-2", "base", loader2);
+
+        // Then
+        assertThat(actual1, equalTo("snapshot-1"));
+        assertThat(actual2, equalTo("snapshot-2"));
+        assertThat(instance.size(), equalTo(2));
+    }
+
+    private static final class StubLoader implements SnapshotIndex.Loader {
+        private final Map<String, String> snapshots = new HashMap<String, String>();
+        private int loads;
+
+        @Override
+        public Map<String, String> load() {
+            loads++;
+            return new HashMap<String, String>(snapshots);
+        }
+    }
+}
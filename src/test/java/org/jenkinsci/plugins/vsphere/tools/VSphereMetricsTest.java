@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.List;
+
+import org.jenkinsci.plugins.vsphere.tools.VSphereMetrics.Operation;
+import org.jenkinsci.plugins.vsphere.tools.VSphereMetrics.OperationStats;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VSphereMetricsTest {
+
+    private VSphereMetrics instance;
+
+    @Before
+    public void setup() {
+        instance = VSphereMetrics.get();
+        instance.reset();
+    }
+
+    @Test
+    public void serverOfGivenUrlThenReturnsHost() {
+        // Given
+        final String url = "https://vcenter.example.com/sdk";
+
+        // When
+        final String actual = VSphereMetrics.serverOf(url);
+
+        // Then
+        assertThat(actual, equalTo("vcenter.example.com"));
+    }
+
+    @Test
+    public void closeGivenSuccessAndFailureThenRecordsSeparately() {
+        // Given
+        final Operation ok = instance.start("vc", "getVmByName");
+        ok.close();
+        final Operation bad = instance.start("vc", "getVmByName");
+        bad.failed(new VSphereException("boom"));
+
+        // When
+        bad.close();
+
+        // Then
+        final List<OperationStats> actual = instance.getStats();
+        assertThat(actual.size(), equalTo(2));
+        assertThat(actual.get(0).getOutcome(), equalTo(VSphereMetrics.FAILURE));
+        assertThat(actual.get(0).getCount(), equalTo(1L));
+        assertThat(actual.get(1).getOutcome(), equalTo(VSphereMetrics.SUCCESS));
+        assertThat(actual.get(1).getCount(), equalTo(1L));
+    }
+
+    @Test
+    public void recordServiceLookupGivenNestedOperationsThenCountsTowardsBoth() {
+        // Given
+        final Operation outer = instance.start("vc", "cloneOrDeployVm");
+        instance.recordServiceLookup();
+        final Operation inner = instance.start("vc", "getVmByName");
+        instance.recordServiceLookup();
+        instance.recordServiceLookup();
+        inner.close();
+
+        // When
+        outer.close();
+
+        // Then
+        final List<OperationStats> actual = instance.getStats();
+        assertThat(actual.get(0).getOperation(), equalTo("cloneOrDeployVm"));
+        assertThat(actual.get(0).getMeanServiceLookups(), equalTo(3.0));
+        assertThat(actual.get(1).getOperation(), equalTo("getVmByName"));
+        assertThat(actual.get(1).getMeanServiceLookups(), equalTo(2.0));
+    }
+
+    @Test
+    public void closeGivenCalledTwiceThenRecordsOnce() {
+        // Given
+        final Operation op = instance.start("vc", "startVm");
+        op.close();
+
+        // When
+        op.close();
+
+        // Then
+        assertThat(instance.getStats().get(0).getCount(), equalTo(1L));
+    }
+
+    @Test
+    public void recordServiceLookupGivenNoOperationThenIsIgnored() {
+        // Given
+        final Operation op = instance.start("vc", "startVm");
+        op.close();
+
+        // When
+        instance.recordServiceLookup();
+
+        // Then
+        assertThat(instance.getStats().get(0).getMeanServiceLookups(), equalTo(0.0));
+    }
+}
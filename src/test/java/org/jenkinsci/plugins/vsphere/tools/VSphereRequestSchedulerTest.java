@@ -0,0 +1,129 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.jenkinsci.plugins.vsphere.tools.VSphereRequestScheduler.Pause;
+import org.jenkinsci.plugins.vsphere.tools.VSphereRequestScheduler.Permit;
+import org.jenkinsci.plugins.vsphere.tools.VSphereRequestScheduler.Priority;
+import org.junit.Test;
+
+public class VSphereRequestSchedulerTest {
+
+    @Test
+    public void acquireGivenPermitHeldThenIsReentrant() throws Exception {
+        // Given
+        final VSphereRequestScheduler instance = createInstance(4, 1);
+        final Permit outer = instance.acquire(Priority.BUILD_STEP);
+
+        // When
+        final Permit inner = instance.acquire(Priority.BUILD_STEP);
+
+        // Then
+        assertThat(instance.getInFlight(), equalTo(1));
+        inner.close();
+        assertThat(instance.getInFlight(), equalTo(1));
+        outer.close();
+        assertThat(instance.getInFlight(), equalTo(0));
+    }
+
+    @Test
+    public void pauseGivenPermitHeldThenOthersMayProceed() throws Exception {
+        // Given
+        final VSphereRequestScheduler instance = createInstance(4, 1);
+        final Permit permit = instance.acquire(Priority.BUILD_STEP);
+
+        // When
+        final Pause pause = instance.pause();
+
+        // Then
+        assertThat(instance.getInFlight(), equalTo(0));
+        assertThat(acquireAndReleaseInAnotherThread(instance, Priority.BUILD_STEP), is(true));
+        pause.close();
+        assertThat(instance.getInFlight(), equalTo(1));
+        permit.close();
+        assertThat(instance.getInFlight(), equalTo(0));
+    }
+
+    @Test
+    public void pauseGivenNestedPermitsThenAllAreRestored() throws Exception {
+        // Given
+        final VSphereRequestScheduler instance = createInstance(4, 1);
+        final Permit outer = instance.acquire(Priority.BUILD_STEP);
+        final Permit inner = instance.acquire(Priority.BUILD_STEP);
+
+        // When
+        instance.pause().close();
+
+        // Then
+        inner.close();
+        assertThat(instance.getInFlight(), equalTo(1));
+        outer.close();
+        assertThat(instance.getInFlight(), equalTo(0));
+    }
+
+    @Test
+    public void pauseGivenNoPermitThenDoesNothing() throws Exception {
+        // Given
+        final VSphereRequestScheduler instance = createInstance(4, 1);
+
+        // When
+        instance.pause().close();
+
+        // Then
+        assertThat(instance.getInFlight(), equalTo(0));
+        assertThat(instance.getGrantedCount(Priority.BUILD_STEP), equalTo(0L));
+    }
+
+    @Test
+    public void acquireGivenLimitReachedThenMinimumIsStillAvailable() throws Exception {
+        // Given
+        final int[] minimums = new int[Priority.values().length];
+        minimums[Priority.TEARDOWN.ordinal()] = 1;
+        final VSphereRequestScheduler instance = createInstance(1, 4, minimums);
+        final Permit permit = instance.acquire(Priority.BUILD_STEP);
+
+        // When
+        final boolean teardownProceeded = acquireAndReleaseInAnotherThread(instance, Priority.TEARDOWN);
+        final boolean buildStepProceeded = acquireAndReleaseInAnotherThread(instance, Priority.BUILD_STEP);
+
+        // Then
+        assertThat(teardownProceeded, is(true));
+        assertThat(buildStepProceeded, is(false));
+        permit.close();
+    }
+
+    private static boolean acquireAndReleaseInAnotherThread(final VSphereRequestScheduler instance,
+            final Priority priority) throws InterruptedException {
+        final boolean[] proceeded = new boolean[1];
+        final Thread other = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    instance.acquire(priority).close();
+                    proceeded[0] = true;
+                } catch (InterruptedException e) {
+                    // gave up waiting
+                }
+            }
+        };
+        other.start();
+        other.join(1000L);
+        other.interrupt();
+        other.join();
+        return proceeded[0];
+    }
+
+    private static VSphereRequestScheduler createInstance(int limit, int maxConcurrentPerPriority) {
+        return createInstance(limit, maxConcurrentPerPriority, new int[Priority.values().length]);
+    }
+
+    private static VSphereRequestScheduler createInstance(int limit, int maxConcurrentPerPriority, int[] minimums) {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", limit, limit, 5000L, 5000L);
+        final int[] caps = new int[Priority.values().length];
+        for (int i = 0; i < caps.length; i++) {
+            caps[i] = maxConcurrentPerPriority;
+        }
+        return new VSphereRequestScheduler("test", 0.0, 1.0, limiter, minimums, caps);
+    }
+}
@@ -0,0 +1,120 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.vmware.vim25.HostHardwareSummary;
+import com.vmware.vim25.HostListSummary;
+import com.vmware.vim25.HostListSummaryQuickStats;
+import com.vmware.vim25.HostRuntimeInfo;
+import com.vmware.vim25.HostSystemConnectionState;
+import com.vmware.vim25.VirtualDevice;
+import com.vmware.vim25.VirtualDisk;
+import com.vmware.vim25.VirtualDiskFlatVer2BackingInfo;
+
+public class VSphereTest {
+
+    private static final Set<String> REPLICA_DISKS = Collections.singleton("[ds1] replica/replica.vmdk");
+
+    @Test
+    public void isBasedOnAnyGivenLinkedCloneThenReturnsTrue() {
+        // Given
+        final VirtualDevice[] devices = { disk("[ds1] clone/clone.vmdk", "[ds1] replica/replica.vmdk") };
+
+        // When
+        final boolean actual = VSphere.isBasedOnAny(devices, REPLICA_DISKS);
+
+        // Then
+        assertThat(actual, equalTo(true));
+    }
+
+    @Test
+    public void isBasedOnAnyGivenSnapshotOfLinkedCloneThenLooksDownTheChain() {
+        // Given
+        final VirtualDevice[] devices = { disk("[ds1] clone/clone-000001.vmdk", "[ds1] clone/clone.vmdk",
+                "[ds1] replica/replica.vmdk") };
+
+        // When
+        final boolean actual = VSphere.isBasedOnAny(devices, REPLICA_DISKS);
+
+        // Then
+        assertThat(actual, equalTo(true));
+    }
+
+    @Test
+    public void isBasedOnAnyGivenUnrelatedDisksThenReturnsFalse() {
+        // Given
+        final VirtualDevice[] devices = { disk("[ds1] other/other.vmdk"), new VirtualDevice(),
+                disk("[ds1] other/other_1.vmdk", "[ds1] master/master.vmdk") };
+
+        // When
+        final boolean actual = VSphere.isBasedOnAny(devices, REPLICA_DISKS);
+
+        // Then
+        assertThat(actual, equalTo(false));
+        assertThat(VSphere.isBasedOnAny(null, REPLICA_DISKS), equalTo(false));
+    }
+
+    @Test
+    public void toClusterCapacityGivenHostsThenAddsUpConnectedOnes() {
+        // Given
+        final HostListSummary connected = host(2000, 4, 8192, 3000, 4096, false, HostSystemConnectionState.connected);
+        final HostListSummary maintenance = host(2000, 4, 8192, 100, 100, true, HostSystemConnectionState.connected);
+        final HostListSummary disconnected = host(2000, 4, 8192, 100, 100, false, HostSystemConnectionState.disconnected);
+        final HostListSummary unknown = null;
+        final Set<String> datastores = Collections.singleton("ds1");
+
+        // When
+        final ClusterCapacity actual = VSphere.toClusterCapacity("cluster1",
+                Arrays.asList(connected, maintenance, disconnected, unknown), datastores, 42L);
+
+        // Then
+        assertThat(actual.getName(), equalTo("cluster1"));
+        assertThat(actual.getCpuCapacityMhz(), equalTo(8000L));
+        assertThat(actual.getCpuUsageMhz(), equalTo(3000L));
+        assertThat(actual.getMemoryCapacityMB(), equalTo(8192L));
+        assertThat(actual.getMemoryUsageMB(), equalTo(4096L));
+        assertThat(actual.canSee("ds1"), equalTo(true));
+        assertThat(actual.getTimestamp(), equalTo(42L));
+    }
+
+    /** @return A host with the given hardware, usage and state. */
+    private static HostListSummary host(int cpuMhz, int numCpuCores, long memoryMB, int cpuUsageMhz,
+            int memoryUsageMB, boolean inMaintenanceMode, HostSystemConnectionState connectionState) {
+        final HostHardwareSummary hardware = new HostHardwareSummary();
+        hardware.setCpuMhz(cpuMhz);
+        hardware.setNumCpuCores((short) numCpuCores);
+        hardware.setMemorySize(memoryMB * 1024L * 1024L);
+        final HostListSummaryQuickStats quickStats = new HostListSummaryQuickStats();
+        quickStats.setOverallCpuUsage(cpuUsageMhz);
+        quickStats.setOverallMemoryUsage(memoryUsageMB);
+        final HostRuntimeInfo runtime = new HostRuntimeInfo();
+        runtime.setInMaintenanceMode(inMaintenanceMode);
+        runtime.setConnectionState(connectionState);
+        final HostListSummary summary = new HostListSummary();
+        summary.setHardware(hardware);
+        summary.setQuickStats(quickStats);
+        summary.setRuntime(runtime);
+        return summary;
+    }
+
+    /** @return A disk whose backing has the given file, then its parent's, and so on. */
+    private static VirtualDisk disk(String... fileNames) {
+        VirtualDiskFlatVer2BackingInfo parent = null;
+        for (int i = fileNames.length - 1; i >= 0; i--) {
+            final VirtualDiskFlatVer2BackingInfo backing = new VirtualDiskFlatVer2BackingInfo();
+            backing.setFileName(fileNames[i]);
+            backing.setParent(parent);
+            parent = backing;
+        }
+        final VirtualDisk disk = new VirtualDisk();
+        disk.setBacking(parent);
+        return disk;
+    }
+}
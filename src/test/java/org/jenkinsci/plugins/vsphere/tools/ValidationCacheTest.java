@@ -0,0 +1,147 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ValidationCacheTest {
+
+    @Test
+    public void getGivenRecentAnswerThenDoesNotAskAgain() throws Exception {
+        // Given
+        final ValidationCache<String> instance = new ValidationCache<String>(60000L, 10);
+        final CountingLoader loader = new CountingLoader("answer");
+        instance.get("question", loader);
+
+        // When
+        final String actual = instance.get("question", loader);
+
+        // Then
+        assertThat(actual, equalTo("answer"));
+        assertThat(loader.calls.get(), equalTo(1));
+    }
+
+    @Test
+    public void getGivenExpiredAnswerThenAsksAgain() throws Exception {
+        // Given
+        final ValidationCache<String> instance = new ValidationCache<String>(0L, 10);
+        final CountingLoader loader = new CountingLoader("answer");
+        instance.get("question", loader);
+
+        // When
+        instance.get("question", loader);
+
+        // Then
+        assertThat(loader.calls.get(), equalTo(2));
+    }
+
+    @Test
+    public void getGivenFailureThenFailureIsNotRemembered() throws Exception {
+        // Given
+        final ValidationCache<String> instance = new ValidationCache<String>(60000L, 10);
+        try {
+            instance.get("question", new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw new IllegalStateException("broken");
+                }
+            });
+            fail("Expected exception");
+        } catch (IllegalStateException expected) {
+            assertThat(expected.getMessage(), equalTo("broken"));
+        }
+        final CountingLoader loader = new CountingLoader("answer");
+
+        // When
+        final String actual = instance.get("question", loader);
+
+        // Then
+        assertThat(actual, equalTo("answer"));
+        assertThat(loader.calls.get(), equalTo(1));
+    }
+
+    @Test
+    public void getGivenQuestionAlreadyBeingAskedThenWaitsForThatAnswer() throws Exception {
+        // Given
+        final ValidationCache<String> instance = new ValidationCache<String>(60000L, 10);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<String> slowLoader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "answer";
+            }
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> first = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return instance.get("question", slowLoader);
+                }
+            });
+            started.await(10, TimeUnit.SECONDS);
+            final Future<String> second = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return instance.get("question", slowLoader);
+                }
+            });
+
+            // When
+            release.countDown();
+
+            // Then
+            assertThat(first.get(10, TimeUnit.SECONDS), equalTo("answer"));
+            assertThat(second.get(10, TimeUnit.SECONDS), equalTo("answer"));
+            assertThat(calls.get(), equalTo(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getGivenTooManyAnswersThenForgetsOldest() throws Exception {
+        // Given
+        final ValidationCache<String> instance = new ValidationCache<String>(60000L, 2);
+        final CountingLoader loader = new CountingLoader("answer");
+        instance.get("a", loader);
+        instance.get("b", loader);
+
+        // When
+        instance.get("c", loader);
+        instance.get("a", loader);
+
+        // Then
+        assertThat(instance.size(), equalTo(2));
+        assertThat(loader.calls.get(), equalTo(4));
+    }
+
+    private static final class CountingLoader implements Callable<String> {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final String answer;
+
+        CountingLoader(String answer) {
+            this.answer = answer;
+        }
+
+        @Override
+        public String call() {
+            calls.incrementAndGet();
+            return answer;
+        }
+    }
+}
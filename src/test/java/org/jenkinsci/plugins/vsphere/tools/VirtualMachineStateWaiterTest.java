@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VirtualMachinePowerState;
+
+public class VirtualMachineStateWaiterTest {
+
+    @Test
+    public void applyGivenAssignmentsThenRecordsValues() {
+        // Given
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        final UpdateSet updates = updates(
+                change(VirtualMachineStateWaiter.POWER_STATE, PropertyChangeOp.assign, VirtualMachinePowerState.poweredOn),
+                change(VirtualMachineStateWaiter.TOOLS_RUNNING_STATUS, PropertyChangeOp.add, "guestToolsRunning"));
+
+        // When
+        VirtualMachineStateWaiter.apply(updates, properties);
+
+        // Then
+        assertThat(properties.get(VirtualMachineStateWaiter.POWER_STATE), equalTo((Object) VirtualMachinePowerState.poweredOn));
+        assertThat(properties.get(VirtualMachineStateWaiter.TOOLS_RUNNING_STATUS), equalTo((Object) "guestToolsRunning"));
+    }
+
+    @Test
+    public void applyGivenLaterChangeThenReplacesEarlierValue() {
+        // Given
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        VirtualMachineStateWaiter.apply(updates(
+                change(VirtualMachineStateWaiter.POWER_STATE, PropertyChangeOp.assign, VirtualMachinePowerState.poweredOn)),
+                properties);
+
+        // When
+        VirtualMachineStateWaiter.apply(updates(
+                change(VirtualMachineStateWaiter.POWER_STATE, PropertyChangeOp.assign, VirtualMachinePowerState.poweredOff)),
+                properties);
+
+        // Then
+        assertThat(properties.get(VirtualMachineStateWaiter.POWER_STATE), equalTo((Object) VirtualMachinePowerState.poweredOff));
+    }
+
+    @Test
+    public void applyGivenRemovalThenForgetsValue() {
+        // Given
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(VirtualMachineStateWaiter.IP_ADDRESS, "10.0.0.1");
+
+        // When
+        VirtualMachineStateWaiter.apply(updates(
+                change(VirtualMachineStateWaiter.IP_ADDRESS, PropertyChangeOp.remove, null)), properties);
+
+        // Then
+        assertThat(properties.containsKey(VirtualMachineStateWaiter.IP_ADDRESS), equalTo(false));
+    }
+
+    @Test
+    public void applyGivenNoChangesThenLeavesPropertiesAlone() {
+        // Given
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(VirtualMachineStateWaiter.IP_ADDRESS, "10.0.0.1");
+        final PropertyFilterUpdate emptyFilterUpdate = new PropertyFilterUpdate();
+        final UpdateSet updates = new UpdateSet();
+        updates.setFilterSet(new PropertyFilterUpdate[] { emptyFilterUpdate });
+
+        // When
+        VirtualMachineStateWaiter.apply(new UpdateSet(), properties);
+        VirtualMachineStateWaiter.apply(updates, properties);
+
+        // Then
+        assertThat(properties.size(), equalTo(1));
+    }
+
+    @Test
+    public void conditionsGivenMatchingPropertiesThenAreSatisfied() {
+        // Given
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(VirtualMachineStateWaiter.POWER_STATE, VirtualMachinePowerState.poweredOn);
+        properties.put(VirtualMachineStateWaiter.TOOLS_RUNNING_STATUS, "guestToolsRunning");
+        properties.put(VirtualMachineStateWaiter.IP_ADDRESS, "10.0.0.1");
+
+        // When
+        final boolean poweredOn = VirtualMachineStateWaiter.powerState(VirtualMachinePowerState.poweredOn).isSatisfied(properties);
+        final boolean poweredOff = VirtualMachineStateWaiter.powerState(VirtualMachinePowerState.poweredOff).isSatisfied(properties);
+        final boolean toolsRunning = VirtualMachineStateWaiter.toolsRunning().isSatisfied(properties);
+        final boolean anyIp = VirtualMachineStateWaiter.ipAddress(null).isSatisfied(properties);
+        final boolean ipv6 = VirtualMachineStateWaiter.ipAddress(Pattern.compile(":")).isSatisfied(properties);
+
+        // Then
+        assertThat(poweredOn, equalTo(true));
+        assertThat(poweredOff, equalTo(false));
+        assertThat(toolsRunning, equalTo(true));
+        assertThat(anyIp, equalTo(true));
+        assertThat(ipv6, equalTo(false));
+    }
+
+    private static PropertyChange change(String name, PropertyChangeOp op, Object value) {
+        final PropertyChange change = new PropertyChange();
+        change.setName(name);
+        change.setOp(op);
+        change.setVal(value);
+        return change;
+    }
+
+    private static UpdateSet updates(PropertyChange... changes) {
+        final ObjectUpdate objectUpdate = new ObjectUpdate();
+        objectUpdate.setChangeSet(changes);
+        final PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+        filterUpdate.setObjectSet(new ObjectUpdate[] { objectUpdate });
+        final UpdateSet updates = new UpdateSet();
+        updates.setVersion("1");
+        updates.setFilterSet(new PropertyFilterUpdate[] { filterUpdate });
+        return updates;
+    }
+}
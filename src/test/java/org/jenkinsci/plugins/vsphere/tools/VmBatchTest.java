@@ -0,0 +1,95 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class VmBatchTest {
+
+    @Test
+    public void runGivenOneFailureThenOthersStillSucceed() throws Exception {
+        // Given
+        final Map<String, Integer> vms = new LinkedHashMap<String, Integer>();
+        vms.put("a", 1);
+        vms.put("b", 2);
+        vms.put("c", 3);
+
+        // When
+        final List<VmBatch.Result> actual = VmBatch.run(vms, 2, new VmBatch.Operation<Integer>() {
+            @Override
+            public void perform(String name, Integer vm) throws Exception {
+                if (vm.intValue() == 2) {
+                    throw new IllegalStateException("broken");
+                }
+            }
+        });
+
+        // Then
+        final List<String> names = new ArrayList<String>();
+        for (final VmBatch.Result result : actual) {
+            names.add(result.getName());
+        }
+        assertThat(names, contains("a", "b", "c"));
+        assertThat(actual.get(0).isSuccess(), is(true));
+        assertThat(actual.get(1).getFailure(), equalTo("broken"));
+        assertThat(VmBatch.failed(actual), contains("b"));
+        final Map<String, Map<String, Object>> asMap = VmBatch.toMap(actual);
+        assertThat(asMap.keySet(), contains("a", "b", "c"));
+        assertThat(asMap.get("b").get("success"), equalTo((Object) Boolean.FALSE));
+        assertThat(asMap.get("b").get("failure"), equalTo((Object) "broken"));
+    }
+
+    @Test
+    public void notFoundThenReportsEachAsFailed() throws Exception {
+        // Given
+        final List<String> missing = new ArrayList<String>();
+        missing.add("x");
+        missing.add("y");
+
+        // When
+        final List<VmBatch.Result> actual = VmBatch.notFound(missing);
+
+        // Then
+        assertThat(VmBatch.failed(actual), contains("x", "y"));
+        assertThat(actual.get(0).getFailure(), equalTo("Not found"));
+    }
+
+    @Test
+    public void runGivenMaxParallelThenNeverExceedsIt() throws Exception {
+        // Given
+        final int maxParallel = 3;
+        final Map<String, Integer> vms = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < 20; i++) {
+            vms.put("vm" + i, i);
+        }
+        final AtomicInteger inProgress = new AtomicInteger();
+        final AtomicInteger mostInProgress = new AtomicInteger();
+
+        // When
+        final List<VmBatch.Result> actual = VmBatch.run(vms, maxParallel, new VmBatch.Operation<Integer>() {
+            @Override
+            public void perform(String name, Integer vm) throws Exception {
+                final int now = inProgress.incrementAndGet();
+                synchronized (mostInProgress) {
+                    mostInProgress.set(Math.max(mostInProgress.get(), now));
+                }
+                Thread.sleep(5);
+                inProgress.decrementAndGet();
+            }
+        });
+
+        // Then
+        assertThat(actual.size(), equalTo(20));
+        assertThat(VmBatch.failed(actual).isEmpty(), is(true));
+        assertThat(mostInProgress.get(), lessThanOrEqualTo(maxParallel));
+    }
+}
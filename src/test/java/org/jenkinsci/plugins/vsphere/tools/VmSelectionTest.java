@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.vsphere.tools;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class VmSelectionTest {
+
+    private static final List<String> EXISTING = Arrays.asList("lab-02", "lab-01", "build-01", "lab-10x");
+
+    @Test
+    public void selectGivenNamesAndPatternThenReturnsUnionSorted() {
+        // Given
+        final VmSelection instance = new VmSelection("build-01,\n missing", "lab-\\d+");
+
+        // When
+        final List<String> actual = instance.select(EXISTING);
+
+        // Then
+        assertThat(actual, contains("build-01", "lab-01", "lab-02"));
+        assertThat(instance.missing(EXISTING), contains("missing"));
+    }
+
+    @Test
+    public void selectGivenPatternThenMatchesWholeNameOnly() {
+        // Given
+        final VmSelection instance = new VmSelection(null, "lab-1");
+
+        // When
+        final List<String> actual = instance.select(EXISTING);
+
+        // Then
+        assertThat(actual, empty());
+    }
+
+    @Test
+    public void isEmptyGivenBlankInputsThenTrue() {
+        // Given
+        final VmSelection instance = new VmSelection(" , ", "  ");
+
+        // When
+        final boolean actual = instance.isEmpty();
+
+        // Then
+        assertThat(actual, is(true));
+        assertThat(instance.select(EXISTING), empty());
+    }
+}